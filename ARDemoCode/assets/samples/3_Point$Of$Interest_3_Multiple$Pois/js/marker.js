@@ -2,18 +2,47 @@ function Marker(poiData) {
 
     this.poiData = poiData;
 
-    var markerLocation = new AR.GeoLocation(poiData.latitude, poiData.longitude, poiData.altitude);
-    this.markerDrawable_idle = new AR.ImageDrawable(World.markerDrawable_idle, 2.5, {
-        zOrder: 0,
-        opacity: 1.0,
-        onClick: Marker.prototype.getOnClickTrigger(this)
-    });
+    // confidence of position, lowered while native extrapolates a unit's position without fresh updates
+    this.confidence = 1.0;
 
-    this.markerDrawable_selected = new AR.ImageDrawable(World.markerDrawable_selected, 2.5, {
-        zOrder: 0,
-        opacity: 0.0,
-        onClick: null
-    });
+    // marker is shown if it matches both current search and attribute filter
+    this.matchesSearch = true;
+    this.matchesFilter = true;
+
+    // while native replays recorded positions, marker is only shown once positioned for the replay's time
+    this.hasReplayPosition = false;
+
+    var markerLocation = new AR.GeoLocation(poiData.latitude, poiData.longitude, poiData.altitude);
+    this.markerLocation = markerLocation;
+    // with an icon atlas both drawables share one texture and show the frame of unit type and status
+    var atlas = World.iconAtlas;
+    if (atlas) {
+        this.markerDrawable_idle = new AR.AnimatedImageDrawable(World.iconAtlasResource, 2.5, atlas.cellWidth, atlas.cellHeight, {
+            zOrder: 0,
+            opacity: 1.0,
+            onClick: Marker.prototype.getOnClickTrigger(this)
+        });
+
+        this.markerDrawable_selected = new AR.AnimatedImageDrawable(World.iconAtlasResource, 2.5, atlas.cellWidth, atlas.cellHeight, {
+            zOrder: 0,
+            opacity: 0.0,
+            onClick: null
+        });
+
+        this.updateIcon();
+    } else {
+        this.markerDrawable_idle = new AR.ImageDrawable(World.markerDrawable_idle, 2.5, {
+            zOrder: 0,
+            opacity: 1.0,
+            onClick: Marker.prototype.getOnClickTrigger(this)
+        });
+
+        this.markerDrawable_selected = new AR.ImageDrawable(World.markerDrawable_selected, 2.5, {
+            zOrder: 0,
+            opacity: 0.0,
+            onClick: null
+        });
+    }
 
     this.titleLabel = new AR.Label(poiData.title.trunc(10), 1, {
         zOrder: 1,
@@ -39,6 +68,8 @@ function Marker(poiData) {
         }
     });
 
+    World.markerById[poiData.id] = this;
+
     return this;
 }
 
@@ -49,6 +80,7 @@ Marker.prototype.getOnClickTrigger = function(marker) {
         if (marker.isSelected) {
 
             Marker.prototype.setDeselected(marker);
+            World.hidePoiDetail();
 
         } else {
             Marker.prototype.setSelected(marker);
@@ -79,13 +111,64 @@ Marker.prototype.setDeselected = function(marker) {
 
     marker.isSelected = false;
 
-    marker.markerDrawable_idle.opacity = 1.0;
+    marker.markerDrawable_idle.opacity = Marker.prototype.getIdleOpacity(marker);
     marker.markerDrawable_selected.opacity = 0.0;
 
     marker.markerDrawable_idle.onClick = Marker.prototype.getOnClickTrigger(marker);
     marker.markerDrawable_selected.onClick = null;
 };
 
+// shows atlas frames of current type and status, switching frames needs no texture upload
+Marker.prototype.updateIcon = function() {
+    var frames = World.iconAtlas.frames;
+    var key = this.poiData.type + "_" + this.poiData.status + "_";
+    // unknown type or status falls back to first icon
+    var idleFrame = frames[key + "idle"] || 0;
+    var selectedFrame = frames[key + "selected"] || 0;
+    this.markerDrawable_idle.animate([idleFrame], 1, 1);
+    this.markerDrawable_selected.animate([selectedFrame], 1, 1);
+};
+
+// status changed, e.g. unit got engaged
+Marker.prototype.setStatus = function(status) {
+    this.poiData.status = status;
+    if (World.iconAtlas) {
+        this.updateIcon();
+    }
+};
+
+// applies search and attribute filter state
+Marker.prototype.updateEnabled = function() {
+    this.markerObject.enabled = this.matchesSearch && this.matchesFilter && (!World.replay || this.hasReplayPosition);
+};
+
+// moves marker to given position, fades unselected marker with decreasing confidence
+Marker.prototype.setPosition = function(latitude, longitude, confidence) {
+
+    this.markerLocation.latitude = latitude;
+    this.markerLocation.longitude = longitude;
+    this.confidence = confidence;
+
+    if (!this.isSelected) {
+        this.markerDrawable_idle.opacity = Marker.prototype.getIdleOpacity(this);
+    }
+};
+
+// stale positions stay visible but faded
+Marker.prototype.getIdleOpacity = function(marker) {
+    return Math.max(0.3, marker.confidence);
+};
+
+// removes marker from the scene for good, shared image resources stay loaded for other markers
+Marker.prototype.destroy = function() {
+    this.markerObject.destroy();
+    this.markerDrawable_idle.destroy();
+    this.markerDrawable_selected.destroy();
+    this.titleLabel.destroy();
+    this.descriptionLabel.destroy();
+    this.markerLocation.destroy();
+};
+
 // will truncate all strings longer than given max-length "n". e.g. "foobar".trunc(3) -> "foo..."
 String.prototype.trunc = function(n) {
     return this.substr(0, n - 1) + (this.length > n ? '...' : '');
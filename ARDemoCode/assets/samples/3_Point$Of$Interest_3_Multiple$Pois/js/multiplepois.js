@@ -7,75 +7,496 @@ var World = {
 	markerDrawable_idle: null,
 	markerDrawable_selected: null,
 
-	// list of AR.GeoObjects that are currently shown in the scene / World
+	// icon atlas pushed from native ({url, cellWidth, cellHeight, columns, frames}) and its single texture, null to use marker assets
+	iconAtlas: null,
+	iconAtlasResource: null,
+
+	// list of AR.GeoObjects that are currently shown in the scene / World, with a render budget only those of POIs native keeps rendered
 	markerList: [],
 
+	// markers by POI / unit id, used to apply position updates from native
+	markerById: {},
+
+	// data of all loaded POIs by id, markers are created from it
+	poiDataById: {},
+	poiCount: 0,
+
+	// native decides which POIs get a marker (applyBudgetDelta), enabled by native before POIs are loaded
+	renderBudgetEnabled: false,
+
+	// ids of POIs excluded by the attribute filter, and ids matching the current search (null without search), applied to markers created later
+	filteredOutIds: {},
+	searchResultIds: null,
+
+	// breadcrumb trail per unit id ({geoObject, locations}), one AR.GeoObject renders the trail drawable at each of its locations
+	trailsById: {},
+
+	// drawable shared by all trails, created with the first trail
+	trailDrawable: null,
+
+	// pending search request, typing is debounced so native only searches once input settles
+	searchTimeout: null,
+
+	// frames counted since frameWindowStart, average frame time is reported to native every few seconds
+	frameCount: 0,
+	frameWindowStart: 0,
+
 	// The last selected marker
 	currentMarker: null,
 
-	// called to inject new POI data
+	// POI details by id, prefetched by native for rendered markers so the detail panel opens without a round trip
+	detailById: {},
+
+	// id of POI shown in detail panel, null if closed
+	shownDetailId: null,
+
+	// replay of recorded positions driven by native ({timeMs, speed}), null while World shows live positions
+	replay: null,
+
+	// time range of recorded positions ({from, to} in ms) as of the last replay call, null if unknown
+	replayRange: null,
+
+	// replay slider is being dragged, native's replay clock doesn't move it meanwhile
+	replaySliding: false,
+
+	// called to inject new POI data, from native or requestDataFromLocal. Markers of a previous load are destroyed
 	loadPoisFromJsonData: function loadPoisFromJsonDataFn(poiData) {
 
-		// empty list of visible markers
+		// POIs pushed by native must not be replaced by local data once the first location arrives
+		World.initiallyLoadedData = true;
+
+		// destroy markers of previous load, they would stay in the scene otherwise
+		for (var i = 0; i < World.markerList.length; i++) {
+			World.markerList[i].destroy();
+		}
+		World.hidePoiDetail();
+		if (World.currentMarker) {
+			World.currentMarker = null;
+			document.location = "architectsdk://select?id=";
+		}
 		World.markerList = [];
+		World.markerById = {};
+		World.poiDataById = {};
+		World.poiCount = 0;
+		World.filteredOutIds = {};
+		World.searchResultIds = null;
+		World.detailById = {};
+
+		World.addPoisFromJsonData(poiData);
+	},
+
+	// native keeps only the most relevant POIs rendered, markers are created by applyBudgetDelta instead of for every loaded POI
+	enableRenderBudget: function enableRenderBudgetFn() {
+		World.renderBudgetEnabled = true;
+	},
 
-		// start loading marker assets
-		World.markerDrawable_idle = new AR.ImageResource("assets/marker_idle.png");
-		World.markerDrawable_selected = new AR.ImageResource("assets/marker_selected.png");
-/* Old way (for random values)
-		// loop through POI-information and create an AR.GeoObject (=Marker) per POI
-		for (var currentPlaceNr = 0; currentPlaceNr < poiData.length; currentPlaceNr++) {
-			var singlePoi = {
-				"id": poiData[currentPlaceNr].id,
-				"latitude": parseFloat(poiData[currentPlaceNr].latitude),
-				"longitude": parseFloat(poiData[currentPlaceNr].longitude),
-				"altitude": parseFloat(poiData[currentPlaceNr].altitude),
-				"title": poiData[currentPlaceNr].name,
-				"description": poiData[currentPlaceNr].description
+	// adds POIs to those already loaded, e.g. native streams a large fleet in batches instead of one huge loadPoisFromJsonData call
+	addPoisFromJsonData: function addPoisFromJsonDataFn(poiData) {
+		World.initiallyLoadedData = true;
+
+		// start loading marker assets once, markers of later loads share them
+		if (!World.iconAtlas && !World.markerDrawable_idle) {
+			World.markerDrawable_idle = new AR.ImageResource("assets/marker_idle.png");
+			World.markerDrawable_selected = new AR.ImageResource("assets/marker_selected.png");
+		}
+
+		// loop through POI-information and create an AR.GeoObject (=Marker) per POI, unless native's render budget decides on markers
+		for (var j = 0; j < poiData.length; j++) {
+			var poi = poiData[j];
+			if (!World.poiDataById[poi.id]) {
+				World.poiCount++;
+			}
+			var data = World.poiDataById[poi.id] = {
+				"id": poi.id,
+				"latitude": parseFloat(poi.latitude),
+				"longitude": parseFloat(poi.longitude),
+				"altitude": parseFloat(poi.altitude),
+				"title": poi.name,
+				"description": poi.description,
+				"type": poi.type,
+				"status": poi.status,
+				"severity": poi.severity
 			};
+			if (!World.renderBudgetEnabled) {
+				World.createMarker(data);
+			}
+		}
 
-			World.markerList.push(new Marker(singlePoi));
+		World.updateStatusMessage(World.poiCount + ' places loaded');
+	},
+
+	// marker of a loaded POI, current search and filter applied
+	createMarker: function createMarkerFn(poiData) {
+		var marker = new Marker(poiData);
+		marker.matchesFilter = !World.filteredOutIds[poiData.id];
+		marker.matchesSearch = !World.searchResultIds || World.searchResultIds[poiData.id] === true;
+		marker.updateEnabled();
+		World.markerList.push(marker);
+		return marker;
+	},
+
+	// removes marker from the scene, its POI data keeps the last position in case the marker is created again
+	destroyMarker: function destroyMarkerFn(marker) {
+		marker.poiData.latitude = marker.markerLocation.latitude;
+		marker.poiData.longitude = marker.markerLocation.longitude;
+		if (World.currentMarker === marker) {
+			World.currentMarker = null;
+			World.hidePoiDetail();
+			document.location = "architectsdk://select?id=";
 		}
-*/		
-		// Hardcoding some json, can implement better ways later
-		var singlePoi = {
-			"id": 1,
-			"latitude": 33.77719238900398,
-			"longitude": -84.39636077731848,
-			"altitude": 931.262,
-			"title": "Officer TPeet",
-			"description": "Unauthorized access at Klaus"
-		};
-		World.markerList.push(new Marker(singlePoi));
-		singlePoi = {
-			"id": 2,
-			"latitude": 33.77357165675516,
-			"longitude": -84.39331378787756,
-			"altitude": 953.575,
-			"title": "K-9 Unit 1",
-			"description": "Executing stadium bomb sweep" 
+		var index = World.markerList.indexOf(marker);
+		if (index >= 0) {
+			World.markerList.splice(index, 1);
+		}
+		delete World.markerById[marker.poiData.id];
+		marker.destroy();
+	},
+
+	// native packed all unit icons into one image, called once before POIs are loaded
+	setIconAtlas: function setIconAtlasFn(atlas) {
+		if (World.iconAtlas && World.iconAtlas.url === atlas.url) {
+			return;
+		}
+		World.iconAtlas = atlas;
+		World.iconAtlasResource = new AR.ImageResource(atlas.url);
+	},
+
+	// unit status changed in native environment, only the marker's icon frame is switched. A status filter is re-evaluated by native (applyFilterDelta)
+	updateUnitStatus: function updateUnitStatusFn(unitId, status) {
+		var marker = World.markerById[unitId];
+		if (marker) {
+			marker.setStatus(status);
+		} else if (World.poiDataById[unitId]) {
+			World.poiDataById[unitId].status = status;
+		}
+		var detail = World.detailById[unitId];
+		if (detail) {
+			detail.status = status;
+			if (World.shownDetailId == unitId) {
+				World.showPoiDetail(unitId);
+			}
+		}
+	},
+
+	// details pushed from native in batches, {id: {name, description, ...}}
+	cachePoiDetails: function cachePoiDetailsFn(details) {
+		for (var id in details) {
+			World.detailById[id] = details[id];
+			if (World.shownDetailId == id) {
+				World.showPoiDetail(id);
+			}
+		}
+	},
+
+	// opens detail panel, falls back to marker's data until native delivers details
+	showPoiDetail: function showPoiDetailFn(poiId) {
+		var detail = World.detailById[poiId];
+		var marker = World.markerById[poiId];
+		if (!detail && !marker) {
+			return;
+		}
+		var attributes = [];
+		var source = detail || marker.poiData;
+		var attributeNames = ["type", "status", "severity"];
+		for (var i = 0; i < attributeNames.length; i++) {
+			if (source[attributeNames[i]]) {
+				attributes.push(source[attributeNames[i]].replace("_", " "));
+			}
+		}
+		$("#poi-detail-title").text(detail ? detail.name : marker.poiData.title);
+		$("#poi-detail-description").text(detail ? detail.description : marker.poiData.description);
+		$("#poi-detail-attributes").text(attributes.join(", "));
+		World.shownDetailId = poiId;
+		$("#panelPoiDetail").panel("open");
+	},
+
+	hidePoiDetail: function hidePoiDetailFn() {
+		if (World.shownDetailId !== null) {
+			World.shownDetailId = null;
+			$("#panelPoiDetail").panel("close");
+		}
+	},
+
+	// predicted unit positions pushed from native in batches, flat list of [id, latitude * 1e6, longitude * 1e6, confidence in percent, ...]
+	updateUnitPositions: function updateUnitPositionsFn(units) {
+		for (var i = 0; i + 3 < units.length; i += 4) {
+			var marker = World.markerById[units[i]];
+			if (marker) {
+				marker.setPosition(units[i + 1] / 1e6, units[i + 2] / 1e6, units[i + 3] / 100);
+				if (World.replay && !marker.hasReplayPosition) {
+					marker.hasReplayPosition = true;
+					marker.updateEnabled();
+				}
+			} else if (World.poiDataById[units[i]]) {
+				// position of a POI whose marker is about to be created
+				World.poiDataById[units[i]].latitude = units[i + 1] / 1e6;
+				World.poiDataById[units[i]].longitude = units[i + 2] / 1e6;
+			}
+		}
+	},
+
+	// simplified breadcrumb trails pushed from native, {id: [latitude * 1e6, longitude * 1e6, ...]} with oldest point first
+	updateTrails: function updateTrailsFn(trails) {
+		if (!World.trailDrawable) {
+			World.trailDrawable = new AR.Circle(0.3, {
+				opacity: 0.6,
+				style: {
+					fillColor: '#3399FF'
+				}
+			});
+		}
+		for (var id in trails) {
+			var points = trails[id];
+			var pointCount = points.length / 2;
+			var trail = World.trailsById[id] || (World.trailsById[id] = {
+				geoObject: null,
+				locations: []
+			});
+
+			// locations are reused, native caps points per trail
+			for (var i = 0; i < pointCount; i++) {
+				if (!trail.locations[i]) {
+					trail.locations.push(new AR.GeoLocation(0, 0, AR.CONST.UNKNOWN_ALTITUDE));
+				}
+				trail.locations[i].latitude = points[i * 2] / 1e6;
+				trail.locations[i].longitude = points[i * 2 + 1] / 1e6;
+			}
+			if (pointCount === 0) {
+				if (trail.geoObject) {
+					trail.geoObject.enabled = false;
+				}
+				continue;
+			}
+
+			var shownLocations = trail.locations.slice(0, pointCount);
+			if (!trail.geoObject) {
+				trail.geoObject = new AR.GeoObject(shownLocations, {
+					drawables: {
+						cam: [World.trailDrawable]
+					}
+				});
+			} else {
+				trail.geoObject.locations = shownLocations;
+				trail.geoObject.enabled = !World.replay;
+			}
+		}
+	},
+
+	// native dropped trails of units, e.g. units no longer rendered
+	removeTrails: function removeTrailsFn(unitIds) {
+		for (var i = 0; i < unitIds.length; i++) {
+			var trail = World.trailsById[unitIds[i]];
+			if (trail) {
+				if (trail.geoObject) {
+					trail.geoObject.destroy();
+				}
+				delete World.trailsById[unitIds[i]];
+			}
+		}
+	},
+
+	// trails show live movement, they are hidden during replay
+	setTrailsEnabled: function setTrailsEnabledFn(enabled) {
+		for (var id in World.trailsById) {
+			var trail = World.trailsById[id];
+			if (trail.geoObject) {
+				trail.geoObject.enabled = enabled;
+			}
+		}
+	},
+
+	// replay mode selected, native starts replaying 10 minutes ago or changes speed of the running replay, empty value returns to live positions
+	onReplaySpeedChanged: function onReplaySpeedChangedFn() {
+		var value = $(this).val();
+		if (value === "") {
+			Rpc.call("replay", null);
+			return;
+		}
+		var params = {
+			speed: parseFloat(value)
 		};
-		World.markerList.push(new Marker(singlePoi));
-		singlePoi = {
-			"id": 3,
-			"latitude": 33.77432078632756,
-			"longitude": -84.39837779849768,
-			"altitude": 945.574,
-			"title": "Deputy Jackson",
-			"description": "Theft reported at Student Center"
+		if (!World.replay) {
+			params.time = Date.now() - 10 * 60 * 1000;
+		}
+		Rpc.call("replay", params).done(World.setReplayRange);
+	},
+
+	// replay slider released, native jumps to its time
+	onReplaySliderStop: function onReplaySliderStopFn() {
+		World.replaySliding = false;
+		if (World.replay && World.replayRange) {
+			Rpc.call("replay", {
+				time: World.replayRange.from + parseInt($("#replay-slider").val(), 10) * 1000
+			}).done(World.setReplayRange);
+		}
+	},
+
+	// time range of recorded positions answered by native, slider covers it in seconds
+	setReplayRange: function setReplayRangeFn(range) {
+		if (!range.from) {
+			return;
+		}
+		World.replayRange = range;
+		$("#replay-slider").attr("max", Math.ceil((range.to - range.from) / 1000));
+		World.updateReplaySlider();
+	},
+
+	updateReplaySlider: function updateReplaySliderFn() {
+		if (World.replay && World.replayRange && !World.replaySliding) {
+			$("#replay-slider").val(Math.round((World.replay.timeMs - World.replayRange.from) / 1000)).slider("refresh");
+		}
+	},
+
+	// native started replaying or jumped to another time, markers stay hidden until native positions them for that time
+	onReplaySeek: function onReplaySeekFn(timeMs) {
+		if (!World.replay) {
+			World.replay = {};
+			World.setTrailsEnabled(false);
+			$("#replay-bar").show();
+		}
+		World.replay.timeMs = timeMs;
+		for (var i = 0; i < World.markerList.length; i++) {
+			World.markerList[i].hasReplayPosition = false;
+			World.markerList[i].updateEnabled();
+		}
+	},
+
+	// replay clock, speed is 0 while paused (e.g. at the live edge)
+	onReplayTime: function onReplayTimeFn(timeMs, speed) {
+		if (!World.replay) {
+			return;
+		}
+		World.replay.timeMs = timeMs;
+		World.replay.speed = speed;
+		$("#replay-time").text(new Date(timeMs).toLocaleTimeString() + (speed > 0 ? " \u00d7" + speed : " paused"));
+		World.updateReplaySlider();
+	},
+
+	// native shows live positions again
+	onReplayEnded: function onReplayEndedFn() {
+		World.replay = null;
+		for (var i = 0; i < World.markerList.length; i++) {
+			World.markerList[i].updateEnabled();
+		}
+		World.setTrailsEnabled(true);
+		$("#replay-bar").hide();
+		$("#replay-speed").val("").selectmenu("refresh");
+	},
+
+	// transitions collected by native since its previous publish, flat list of [unit id, fence id, 1 if entered else 0, ...]
+	onGeofenceTransitions: function onGeofenceTransitionsFn(transitions) {
+		for (var i = 0; i + 2 < transitions.length; i += 3) {
+			World.onGeofenceTransition(transitions[i], transitions[i + 1], transitions[i + 2] === 1);
+		}
+	},
+
+	// unit entered or left a geofence (e.g. a building), evaluated in native environment
+	onGeofenceTransition: function onGeofenceTransitionFn(unitId, fenceId, entered) {
+		var marker = World.markerById[unitId];
+		var poiData = marker ? marker.poiData : World.poiDataById[unitId];
+		var unitName = poiData ? poiData.title : ("Unit " + unitId);
+		World.updateStatusMessage(unitName + (entered ? " entered" : " left") + " area " + fenceId, entered);
+	},
+
+	// search field changed, native environment searches POI names and descriptions
+	onSearchInput: function onSearchInputFn() {
+		var query = $(this).val();
+		clearTimeout(World.searchTimeout);
+		World.searchTimeout = setTimeout(function() {
+			Rpc.call("search", {
+				q: query
+			}).done(function(poiIds) {
+				// a newer search may have been answered first
+				if ($("#poi-search").val() === query) {
+					World.showSearchResults(poiIds);
+				}
+			});
+		}, 200);
+	},
+
+	// shows markers with given ids only, null shows all markers
+	showSearchResults: function showSearchResultsFn(poiIds) {
+		var visibleIds = null;
+		if (poiIds) {
+			visibleIds = {};
+			for (var i = 0; i < poiIds.length; i++) {
+				visibleIds[poiIds[i]] = true;
+			}
+		}
+		World.searchResultIds = visibleIds;
+		for (var j = 0; j < World.markerList.length; j++) {
+			var marker = World.markerList[j];
+			marker.matchesSearch = !visibleIds || visibleIds[marker.poiData.id] === true;
+			marker.updateEnabled();
+		}
+		World.updateStatusMessage(poiIds ? (poiIds.length + ' places found') : (World.poiCount + ' places loaded'));
+	},
+
+	// attribute filter changed, native environment derives visible POIs and answers with applyFilterDelta
+	onFilterChanged: function onFilterChangedFn() {
+		var query = [];
+		$(".poi-filter").each(function() {
+			query.push($(this).data("attribute") + "=" + encodeURIComponent($(this).val()));
+		});
+		document.location = "architectsdk://filter?" + query.join("&");
+	},
+
+	// only POIs whose visibility changed by the attribute filter are pushed
+	applyFilterDelta: function applyFilterDeltaFn(shownIds, hiddenIds) {
+		for (var i = 0; i < shownIds.length; i++) {
+			delete World.filteredOutIds[shownIds[i]];
+		}
+		for (var j = 0; j < hiddenIds.length; j++) {
+			World.filteredOutIds[hiddenIds[j]] = true;
+		}
+		World.setMarkerFlag(shownIds, "matchesFilter", true);
+		World.setMarkerFlag(hiddenIds, "matchesFilter", false);
+	},
+
+	// native keeps only the most relevant POIs rendered (distance, recency, severity, selection), only changes are pushed.
+	// Markers exist for rendered POIs only, so the scene holds at most native's budget of GeoObjects
+	applyBudgetDelta: function applyBudgetDeltaFn(shownIds, hiddenIds) {
+		for (var i = 0; i < hiddenIds.length; i++) {
+			var marker = World.markerById[hiddenIds[i]];
+			if (marker) {
+				World.destroyMarker(marker);
+			}
+		}
+		for (var j = 0; j < shownIds.length; j++) {
+			var poiData = World.poiDataById[shownIds[j]];
+			if (poiData && !World.markerById[shownIds[j]]) {
+				World.createMarker(poiData);
+			}
+		}
+	},
+
+	setMarkerFlag: function setMarkerFlagFn(poiIds, flag, value) {
+		for (var i = 0; i < poiIds.length; i++) {
+			var marker = World.markerById[poiIds[i]];
+			if (marker) {
+				marker[flag] = value;
+				marker.updateEnabled();
+			}
+		}
+	},
+
+	// reports average frame time every 2 seconds, native adapts number of rendered markers to it
+	monitorFrames: function monitorFramesFn() {
+		var requestFrame = window.requestAnimationFrame || window.webkitRequestAnimationFrame || function(callback) {
+			return setTimeout(callback, 16);
 		};
-		World.markerList.push(new Marker(singlePoi));
-		singlePoi = {
-			"id": 4,
-			"latitude": 33.779124061744064,
-			"longitude": -84.4016127102077,
-			"altitude": 925.885,
-			"title": "Technician Saylor",
-			"description": "At GTPD Station: On Call"
+		var onFrame = function() {
+			var now = Date.now();
+			World.frameCount++;
+			if (now - World.frameWindowStart >= 2000) {
+				document.location = "architectsdk://frameTime?ms=" + ((now - World.frameWindowStart) / World.frameCount).toFixed(1);
+				World.frameWindowStart = now;
+				World.frameCount = 0;
+			}
+			requestFrame.call(window, onFrame);
 		};
-		World.markerList.push(new Marker(singlePoi));
-		
-		World.updateStatusMessage(currentPlaceNr + ' places loaded');
+		World.frameWindowStart = Date.now();
+		requestFrame.call(window, onFrame);
 	},
 
 	// updates status message shon in small "i"-button aligned bottom center
@@ -96,10 +517,9 @@ var World = {
 	// location updates, fired every time you call architectView.setLocation() in native environment
 	locationChanged: function locationChangedFn(lat, lon, alt, acc) {
 
-		// request data if not already present
+		// request data if neither loaded locally nor pushed by native
 		if (!World.initiallyLoadedData) {
 			World.requestDataFromLocal(lat, lon);
-			World.initiallyLoadedData = true;
 		}
 	},
 
@@ -109,6 +529,7 @@ var World = {
 		// deselect previous marker
 		if (World.currentMarker) {
 			if (World.currentMarker.poiData.id == marker.poiData.id) {
+				World.showPoiDetail(marker.poiData.id);
 				return;
 			}
 			World.currentMarker.setDeselected(World.currentMarker);
@@ -117,37 +538,94 @@ var World = {
 		// highlight current one
 		marker.setSelected(marker);
 		World.currentMarker = marker;
+
+		// details are usually prefetched, otherwise native delivers them via cachePoiDetails
+		var poiId = marker.poiData.id;
+		World.showPoiDetail(poiId);
+
+		// selected marker stays rendered
+		document.location = "architectsdk://select?id=" + encodeURIComponent(poiId) + (World.detailById[poiId] ? "" : "&detail=1");
 	},
 
 	// screen was clicked but no geo-object was hit
 	onScreenClick: function onScreenClickFn() {
 		if (World.currentMarker) {
 			World.currentMarker.setDeselected(World.currentMarker);
+			World.hidePoiDetail();
+			document.location = "architectsdk://select?id=";
 		}
 	},
 
-	// request POI data
+	// local POI data for worlds without native POI source: the demo units on campus
 	requestDataFromLocal: function requestDataFromLocalFn(centerPointLatitude, centerPointLongitude) {
-		var poisToCreate = 20;
-		var poiData = [];
-
-		for (var i = 0; i < poisToCreate; i++) {
-			poiData.push({
-				"id": (i + 1),
-				"longitude": (centerPointLongitude + (Math.random() / 5 - 0.1)),
-				"latitude": (centerPointLatitude + (Math.random() / 5 - 0.1)),
-				"description": ("This is the description of POI#" + (i + 1)),
-				"altitude": "100.0",
-				"name": ("POI#" + (i + 1))
-			});
-		}
+		var poiData = [{
+			"id": 1,
+			"latitude": 33.77719238900398,
+			"longitude": -84.39636077731848,
+			"altitude": 931.262,
+			"name": "Officer TPeet",
+			"description": "Unauthorized access at Klaus",
+			"type": "officer",
+			"status": "engaged",
+			"severity": "high"
+		}, {
+			"id": 2,
+			"latitude": 33.77357165675516,
+			"longitude": -84.39331378787756,
+			"altitude": 953.575,
+			"name": "K-9 Unit 1",
+			"description": "Executing stadium bomb sweep",
+			"type": "k9",
+			"status": "engaged",
+			"severity": "high"
+		}, {
+			"id": 3,
+			"latitude": 33.77432078632756,
+			"longitude": -84.39837779849768,
+			"altitude": 945.574,
+			"name": "Deputy Jackson",
+			"description": "Theft reported at Student Center",
+			"type": "officer",
+			"status": "engaged",
+			"severity": "medium"
+		}, {
+			"id": 4,
+			"latitude": 33.779124061744064,
+			"longitude": -84.4016127102077,
+			"altitude": 925.885,
+			"name": "Technician Saylor",
+			"description": "At GTPD Station: On Call",
+			"type": "technician",
+			"status": "on_call",
+			"severity": "low"
+		}];
 		World.loadPoisFromJsonData(poiData);
 	}
-
 };
 
 /* forward locationChanges to custom function */
 AR.context.onLocationChanged = World.locationChanged;
 
 /* forward clicks in empty area to World */
-AR.context.onScreenClick = World.onScreenClick;
\ No newline at end of file
+AR.context.onScreenClick = World.onScreenClick;
+
+/* search as user types */
+$(document).on("input", "#poi-search", World.onSearchInput);
+
+/* filter by unit type, status and severity */
+$(document).on("change", ".poi-filter", World.onFilterChanged);
+
+/* replay of recorded positions */
+$(document).on("change", "#replay-speed", World.onReplaySpeedChanged);
+$(document).on("slidestart", "#replay-slider", function() {
+	World.replaySliding = true;
+});
+$(document).on("slidestop", "#replay-slider", World.onReplaySliderStop);
+
+/* detail panel closed by its button */
+$(document).on("panelclose", "#panelPoiDetail", function() {
+	World.shownDetailId = null;
+});
+
+/* frame times drive native's render budget */
+World.monitorFrames();
\ No newline at end of file
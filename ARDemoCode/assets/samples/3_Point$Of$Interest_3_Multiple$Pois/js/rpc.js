@@ -0,0 +1,182 @@
+// request / reply channel to native code (ArchitectRpcChannel), messages queued meanwhile travel in one architectsdk:// navigation
+var Rpc = {
+	// messages per navigation, keeps urls short
+	MAX_BATCH_MESSAGES: 50,
+
+	// calls are rejected and notifications dropped beyond this while native doesn't keep up
+	MAX_QUEUED_MESSAGES: 500,
+
+	// batch is considered lost if native doesn't acknowledge it in time
+	ACK_TIMEOUT_MS: 2000,
+
+	// pending calls are rejected after this
+	CALL_TIMEOUT_MS: 10000,
+
+	// [id, method, params] per message, id is 0 for notifications
+	queue: [],
+
+	// deferreds of calls waiting for their reply, by call id
+	pendingCalls: {},
+	nextCallId: 1,
+
+	// own batch not acknowledged yet (0 if none) and native batch to acknowledge (0 if none)
+	sendSeq: 0,
+	inFlightSeq: 0,
+	inFlightSince: 0,
+	pendingAck: 0,
+
+	flushScheduled: false,
+	ackTimer: null,
+
+	// handlers of native notifications by name
+	handlers: {},
+
+	// counters since load, see getStats()
+	stats: {
+		startedAt: Date.now(),
+		messagesSent: 0,
+		messagesReceived: 0,
+		batchesSent: 0,
+		batchesReceived: 0,
+		messagesDropped: 0,
+		replies: 0,
+		replyTimeSumMs: 0,
+		replyTimeMaxMs: 0
+	},
+
+	// calls native method registered at ArchitectRpcChannel, returns a promise resolved with its result
+	call: function callFn(method, params) {
+		var deferred = $.Deferred();
+		if (Rpc.queue.length >= Rpc.MAX_QUEUED_MESSAGES) {
+			Rpc.stats.messagesDropped++;
+			return deferred.reject("overloaded").promise();
+		}
+		var id = Rpc.nextCallId++;
+		Rpc.pendingCalls[id] = {
+			deferred: deferred,
+			calledAt: Date.now(),
+			timer: setTimeout(function() {
+				if (Rpc.pendingCalls[id]) {
+					delete Rpc.pendingCalls[id];
+					deferred.reject("timeout");
+				}
+			}, Rpc.CALL_TIMEOUT_MS)
+		};
+		Rpc.queue.push([id, method, params === undefined ? null : params]);
+		Rpc.scheduleFlush();
+		return deferred.promise();
+	},
+
+	// sends message to native method without reply, returns false if dropped
+	notify: function notifyFn(method, params) {
+		if (Rpc.queue.length >= Rpc.MAX_QUEUED_MESSAGES) {
+			Rpc.stats.messagesDropped++;
+			return false;
+		}
+		Rpc.queue.push([0, method, params === undefined ? null : params]);
+		Rpc.scheduleFlush();
+		return true;
+	},
+
+	// registers handler of notifications native sends via ArchitectRpcChannel.notify()
+	on: function onFn(name, handler) {
+		Rpc.handlers[name] = handler;
+	},
+
+	// batch of native: ack acknowledges own batch, seq is 0 if native only acknowledges
+	receive: function receiveFn(ack, seq, messages) {
+		if (ack !== 0 && ack === Rpc.inFlightSeq) {
+			Rpc.inFlightSeq = 0;
+		}
+		if (seq !== 0) {
+			Rpc.pendingAck = seq;
+			Rpc.stats.batchesReceived++;
+			Rpc.stats.messagesReceived += messages.length;
+		}
+		for (var i = 0; i < messages.length; i++) {
+			var message = messages[i];
+			if (message[0] === 0) {
+				var handler = Rpc.handlers[message[1]];
+				if (handler) {
+					try {
+						handler(message[2]);
+					} catch (err) {
+						// one failing handler must not drop the rest of the batch
+					}
+				}
+				continue;
+			}
+			var pending = Rpc.pendingCalls[message[0]];
+			if (!pending) {
+				continue;
+			}
+			delete Rpc.pendingCalls[message[0]];
+			clearTimeout(pending.timer);
+			var replyTimeMs = Date.now() - pending.calledAt;
+			Rpc.stats.replies++;
+			Rpc.stats.replyTimeSumMs += replyTimeMs;
+			Rpc.stats.replyTimeMaxMs = Math.max(Rpc.stats.replyTimeMaxMs, replyTimeMs);
+			if (message[1] === null) {
+				pending.deferred.resolve(message[2]);
+			} else {
+				pending.deferred.reject(message[1]);
+			}
+		}
+		Rpc.scheduleFlush();
+	},
+
+	// one navigation per event loop turn, assigning document.location twice in one turn loses the first message
+	scheduleFlush: function scheduleFlushFn() {
+		if (!Rpc.flushScheduled) {
+			Rpc.flushScheduled = true;
+			setTimeout(Rpc.flush, 0);
+		}
+	},
+
+	flush: function flushFn() {
+		Rpc.flushScheduled = false;
+		var now = Date.now();
+		if (Rpc.inFlightSeq !== 0 && now - Rpc.inFlightSince >= Rpc.ACK_TIMEOUT_MS) {
+			Rpc.inFlightSeq = 0;
+		}
+		var count = Rpc.inFlightSeq === 0 ? Math.min(Rpc.queue.length, Rpc.MAX_BATCH_MESSAGES) : 0;
+		if (count === 0 && Rpc.pendingAck === 0) {
+			return;
+		}
+		var url = "architectsdk://rpc?a=" + Rpc.pendingAck;
+		Rpc.pendingAck = 0;
+		if (count > 0) {
+			var batch = Rpc.queue.splice(0, count);
+			Rpc.sendSeq = Rpc.sendSeq % 2147483647 + 1;
+			Rpc.inFlightSeq = Rpc.sendSeq;
+			Rpc.inFlightSince = now;
+			Rpc.stats.batchesSent++;
+			Rpc.stats.messagesSent += count;
+			url += "&s=" + Rpc.sendSeq + "&b=" + encodeURIComponent(JSON.stringify(batch));
+
+			// queued messages follow once native acknowledged this batch, or it timed out
+			clearTimeout(Rpc.ackTimer);
+			Rpc.ackTimer = setTimeout(Rpc.scheduleFlush, Rpc.ACK_TIMEOUT_MS);
+		}
+		document.location = url;
+	},
+
+	// message rates and reply times since load
+	getStats: function getStatsFn() {
+		var stats = Rpc.stats;
+		var seconds = Math.max(0.001, (Date.now() - stats.startedAt) / 1000);
+		return {
+			messagesSent: stats.messagesSent,
+			messagesReceived: stats.messagesReceived,
+			batchesSent: stats.batchesSent,
+			batchesReceived: stats.batchesReceived,
+			messagesDropped: stats.messagesDropped,
+			sentPerSecond: stats.messagesSent / seconds,
+			receivedPerSecond: stats.messagesReceived / seconds,
+			meanReplyTimeMs: stats.replies > 0 ? stats.replyTimeSumMs / stats.replies : 0,
+			maxReplyTimeMs: stats.replyTimeMaxMs,
+			pendingCalls: Object.keys(Rpc.pendingCalls).length,
+			queued: Rpc.queue.length
+		};
+	}
+};
@@ -0,0 +1,32 @@
+package com.wikitude.samples;
+
+import java.io.File;
+
+import android.app.Application;
+
+import com.wikitude.samples.utils.httpcache.WorldCacheProxy;
+import com.wikitude.samples.utils.prefetch.WorldPrefetcher;
+import com.wikitude.samples.utils.startup.StartupTrace;
+
+/**
+ * Process entry point, runs before the launcher activity (SampleCamActivity) is created.
+ * Starts the startup trace, so cold start timings include process and activity creation instead of starting at architectView.onCreate().
+ * Prefetches the worlds launched most often, in parallel to activity creation, so they are cached by the time architectView.load() asks for them.
+ */
+public class ARDemoApplication extends Application {
+
+	/** number of previously launched worlds prefetched on process start */
+	private static final int PREFETCH_WORLDS = 3;
+
+	@Override
+	public void onCreate() {
+		super.onCreate();
+		// cold start, the process was created for this launch
+		StartupTrace.startLaunch();
+
+		final String[] likelyWorlds = WorldPrefetcher.getPickedWorlds( this, PREFETCH_WORLDS );
+		if ( likelyWorlds.length > 0 ) {
+			new WorldPrefetcher( this, likelyWorlds, WorldCacheProxy.getCache( new File( this.getCacheDir(), WorldCacheProxy.DEFAULT_CACHE_FOLDER ) ) ).start();
+		}
+	}
+}
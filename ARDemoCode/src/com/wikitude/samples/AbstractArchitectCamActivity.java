@@ -8,11 +8,16 @@ import android.location.LocationListener;
 import android.media.AudioManager;
 import android.opengl.GLES20;
 import android.os.Bundle;
+import android.util.Log;
 
 import com.wikitude.architect.ArchitectView;
 import com.wikitude.architect.ArchitectView.ArchitectConfig;
 import com.wikitude.architect.ArchitectView.ArchitectUrlListener;
 import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
+import com.wikitude.samples.utils.eventbus.ArEventBus;
+import com.wikitude.samples.utils.memory.MemoryGovernor;
+import com.wikitude.samples.utils.prefetch.WorldPrefetcher;
+import com.wikitude.samples.utils.startup.StartupTrace;
 
 /**
  * Abstract activity which handles live-cycle events.
@@ -34,10 +39,10 @@ public abstract class AbstractArchitectCamActivity extends Activity implements A
 	/**
 	 * last known location of the user, used internally for content-loading after user location was fetched
 	 */
-	protected Location 						lastKnownLocaton;
+	protected volatile Location 				lastKnownLocaton;
 
 	/**
-	 * sample location strategy, you may implement a more sophisticated approach too
+	 * own location strategy of this view, null to share the session's location provider (created via getLocationProvider() of the first view)
 	 */
 	protected ILocationProvider				locationProvider;
 	
@@ -45,6 +50,23 @@ public abstract class AbstractArchitectCamActivity extends Activity implements A
 	 * location listener receives location updates and must forward them to the architectView
 	 */
 	protected LocationListener 				locationListener;
+
+	/**
+	 * process-wide session shared by all AR views, processes location updates off the UI thread. Add listeners for your own per-fix work
+	 */
+	protected ArSessionEngine				sessionEngine;
+
+	/**
+	 * keeps lastKnownLocaton up to date
+	 */
+	private final ArSessionEngine.Listener	sessionListener = new ArSessionEngine.Listener() {
+
+		@Override
+		public void onSessionLocation( final Location location ) {
+			// sore last location as member, in case it is needed somewhere (in e.g. your adjusted project)
+			AbstractArchitectCamActivity.this.lastKnownLocaton = location;
+		}
+	};
 	
 	/**
 	 * urlListener handling "document.location= 'architectsdk://...' " calls in JavaScript"
@@ -56,11 +78,23 @@ public abstract class AbstractArchitectCamActivity extends Activity implements A
 	public void onCreate( final Bundle savedInstanceState ) {
 		super.onCreate( savedInstanceState );
 
+		/* cold launches are traced since process start, warm ones from here */
+		StartupTrace.startLaunchIfIdle();
+		StartupTrace.milestone( StartupTrace.MILESTONE_ACTIVITY_CREATE );
+
+		/* prefetched on next process start */
+		WorldPrefetcher.recordPick( this, this.getARchitectWorldPath() );
+
+		/* release our own caches when system asks for memory */
+		MemoryGovernor.getInstance().install( this );
+
 		/* pressing volume up/down should cause music volume changes */
 		this.setVolumeControlStream( AudioManager.STREAM_MUSIC );
 
 		/* set samples content view */
+		StartupTrace.beginSection( StartupTrace.PHASE_CONTENT_VIEW );
 		this.setContentView( this.getContentViewId() );
+		StartupTrace.endSection( StartupTrace.PHASE_CONTENT_VIEW );
 		
 		this.setTitle( this.getActivityTitle() );
 
@@ -71,7 +105,9 @@ public abstract class AbstractArchitectCamActivity extends Activity implements A
 		final ArchitectConfig config = new ArchitectConfig( this.getWikitudeSDKLicenseKey() );
 
 		/* first mandatory life-cycle notification */
+		StartupTrace.beginSection( StartupTrace.PHASE_ARCHITECT_CREATE );
 		this.architectView.onCreate( config );
+		StartupTrace.endSection( StartupTrace.PHASE_ARCHITECT_CREATE );
 
 		// set accuracy listener if implemented, you may e.g. show calibration prompt for compass using this listener
 		this.sensorAccuracyListener = this.getSensorAccuracyListener();
@@ -81,45 +117,24 @@ public abstract class AbstractArchitectCamActivity extends Activity implements A
 		
 		// register valid urlListener in architectView, ensure this is set before content is loaded to not miss any event
 		if ( this.urlListener !=null ) {
-			this.architectView.registerUrlListener( this.getUrlListener() );
+			this.architectView.registerUrlListener( new ArchitectUrlListener() {
+
+				@Override
+				public boolean urlWasInvoked( final String uriString ) {
+					// bridge events are published for metrics and interested subscribers, handling stays with urlListener
+					ArEventBus.getInstance().publish( ArEventBus.TOPIC_BRIDGE, uriString );
+					return AbstractArchitectCamActivity.this.urlListener.urlWasInvoked( uriString );
+				}
+			} );
 		}
 		
-		// listener passed over to locationProvider, any location update is handled here
-		this.locationListener = new LocationListener() {
-
-			@Override
-			public void onStatusChanged( String provider, int status, Bundle extras ) {
-			}
-
-			@Override
-			public void onProviderEnabled( String provider ) {
-			}
-
-			@Override
-			public void onProviderDisabled( String provider ) {
-			}
+		// fixes are processed on the session thread, only architectView calls are made on the UI thread
+		this.sessionEngine = ArSessionEngine.getInstance();
+		this.sessionEngine.addListener( this.sessionListener );
 
-			@Override
-			public void onLocationChanged( final Location location ) {
-				// forward location updates fired by LocationProvider to architectView, you can set lat/lon from any location-strategy
-				if (location!=null) {
-				// sore last location as member, in case it is needed somewhere (in e.g. your adjusted project)
-				AbstractArchitectCamActivity.this.lastKnownLocaton = location;
-				if ( AbstractArchitectCamActivity.this.architectView != null ) {
-					// check if location has altitude at certain accuracy level & call right architect method (the one with altitude information)
-					if ( location.hasAltitude() && location.hasAccuracy() && location.getAccuracy()<7) {
-						AbstractArchitectCamActivity.this.architectView.setLocation( location.getLatitude(), location.getLongitude(), location.getAltitude(), location.getAccuracy() );
-					} else {
-						AbstractArchitectCamActivity.this.architectView.setLocation( location.getLatitude(), location.getLongitude(), location.hasAccuracy() ? location.getAccuracy() : 1000 );
-					}
-				}
-				}
-			}
-		};
+		// listener passed over to locationProvider, any location update is handed to the session engine
+		this.locationListener = this.sessionEngine.getLocationListener();
 
-		// locationProvider used to fetch user position
-		this.locationProvider = getLocationProvider( this.locationListener );
-		
 	}
 
 	@Override
@@ -133,7 +148,12 @@ public abstract class AbstractArchitectCamActivity extends Activity implements A
 			
 			try {
 				// load content via url in architectView, ensure '<script src="architect://architect.js"></script>' is part of this HTML file, have a look at wikitude.com's developer section for API references
-				this.architectView.load( this.getARchitectWorldPath() );
+				StartupTrace.beginSection( StartupTrace.PHASE_ARCHITECT_LOAD );
+				try {
+					this.architectView.load( this.getARchitectWorldPath() );
+				} finally {
+					StartupTrace.endSection( StartupTrace.PHASE_ARCHITECT_LOAD );
+				}
 
 				if (this.getInitialCullingDistanceMeters() != ArchitectViewHolderInterface.CULLING_DISTANCE_DEFAULT_METERS) {
 					// set the culling distance - meaning: the maximum distance to render geo-content
@@ -143,6 +163,9 @@ public abstract class AbstractArchitectCamActivity extends Activity implements A
 			} catch (IOException e1) {
 				e1.printStackTrace();
 			}
+
+			// view receives shared positions and POIs from now on
+			this.sessionEngine.attach( this.architectView, this.getSessionWorld() );
 		}
 	}
 
@@ -160,10 +183,14 @@ public abstract class AbstractArchitectCamActivity extends Activity implements A
 			}
 		}
 
-		// tell locationProvider to resume, usually location is then (again) fetched, so the GPS indicator appears in status bar
+		// tell locationProvider to resume, usually location is then (again) fetched, so the GPS indicator appears in status bar. Shared provider only starts with the first view
+		StartupTrace.beginSection( StartupTrace.PHASE_LOCATION_START );
 		if ( this.locationProvider != null ) {
 			this.locationProvider.onResume();
+		} else {
+			this.sessionEngine.resumeLocation( this );
 		}
+		StartupTrace.endSection( StartupTrace.PHASE_LOCATION_START );
 	}
 
 	@Override
@@ -180,10 +207,17 @@ public abstract class AbstractArchitectCamActivity extends Activity implements A
 			}
 		}
 		
-		// tell locationProvider to pause, usually location is then no longer fetched, so the GPS indicator disappears in status bar
+		// tell locationProvider to pause, usually location is then no longer fetched, so the GPS indicator disappears in status bar. Shared provider stops with the last view
 		if ( this.locationProvider != null ) {
 			this.locationProvider.onPause();
+		} else {
+			this.sessionEngine.pauseLocation();
 		}
+		
+		// launch is over once AR-view is left, store its timings
+		StartupTrace.persist( this );
+		
+		Log.i( "ArEventBus", ArEventBus.getInstance().getMetricsReport() );
 	}
 	
 	@Override
@@ -194,6 +228,13 @@ public abstract class AbstractArchitectCamActivity extends Activity implements A
 	@Override
 	protected void onDestroy() {
 		super.onDestroy();
+
+		if ( this.sessionEngine != null ) {
+			this.sessionEngine.removeListener( this.sessionListener );
+			if ( this.architectView != null ) {
+				this.sessionEngine.detach( this.architectView );
+			}
+		}
 		
 		// call mandatory live-cycle method of architectView
 		if ( this.architectView != null ) {
@@ -207,6 +248,10 @@ public abstract class AbstractArchitectCamActivity extends Activity implements A
 		if ( this.architectView != null ) {
 			this.architectView.onLowMemory();
 		}
+		// governor receives trim callbacks itself on API 14+, older devices only get this call
+		if ( !MemoryGovernor.getInstance().isInstalled() ) {
+			MemoryGovernor.getInstance().onLowMemory();
+		}
 	}
 
 	/**
@@ -222,6 +267,15 @@ public abstract class AbstractArchitectCamActivity extends Activity implements A
 	@Override
 	public abstract String getARchitectWorldPath();
 	
+	/**
+	 * identifies the World content of this view in the session, POIs published for it and its broadcasts only reach views of the same world (see ArSessionEngine.attach()).
+	 * Defaults to the world path, override if native pushes content other views of the same world must not get
+	 * @return
+	 */
+	protected String getSessionWorld() {
+		return this.getARchitectWorldPath();
+	}
+	
 	/**
 	 * url listener fired once e.g. 'document.location = "architectsdk://foo?bar=123"' is called in JS
 	 * @return
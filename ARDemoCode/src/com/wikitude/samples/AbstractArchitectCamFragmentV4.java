@@ -6,6 +6,7 @@ import android.location.Location;
 import android.location.LocationListener;
 import android.opengl.GLES20;
 import android.os.Bundle;
+import android.util.Log;
 import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -15,6 +16,9 @@ import com.wikitude.architect.ArchitectView;
 import com.wikitude.architect.ArchitectView.ArchitectConfig;
 import com.wikitude.architect.ArchitectView.ArchitectUrlListener;
 import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
+import com.wikitude.samples.utils.eventbus.ArEventBus;
+import com.wikitude.samples.utils.memory.MemoryGovernor;
+import com.wikitude.samples.utils.startup.StartupTrace;
 
 
 	public abstract class AbstractArchitectCamFragmentV4 extends Fragment implements ArchitectViewHolderInterface{
@@ -32,10 +36,10 @@ import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
 		/**
 		 * last known location of the user, used internally for content-loading after user location was fetched
 		 */
-		protected Location 						lastKnownLocaton;
+		protected volatile Location 				lastKnownLocaton;
 
 		/**
-		 * sample location strategy
+		 * own location strategy of this view, null to share the session's location provider (created via getLocationProvider() of the first view)
 		 */
 		protected ILocationProvider				locationProvider;
 		
@@ -43,6 +47,23 @@ import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
 		 * location listener receives location updates and must forward them to the architectView
 		 */
 		protected LocationListener 				locationListener;
+
+		/**
+		 * process-wide session shared by all AR views, processes location updates off the UI thread. Add listeners for your own per-fix work
+		 */
+		protected ArSessionEngine				sessionEngine;
+
+		/**
+		 * keeps lastKnownLocaton up to date
+		 */
+		private final ArSessionEngine.Listener	sessionListener = new ArSessionEngine.Listener() {
+
+			@Override
+			public void onSessionLocation( final Location location ) {
+				// sore last location as member, in case it is needed somewhere (in e.g. your adjusted project)
+				AbstractArchitectCamFragmentV4.this.lastKnownLocaton = location;
+			}
+		};
 		
 		/**
 		 * urlListener handling "document.location= 'architectsdk://...' " calls in JavaScript"
@@ -58,6 +79,9 @@ import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
 		public void onActivityCreated( final Bundle bundle ) {
 			super.onActivityCreated( bundle );
 
+			// release our own caches when system asks for memory
+			MemoryGovernor.getInstance().install( this.getActivity() );
+
 			// set architectView, important for upcoming lifecycle calls
 			this.architectView = (ArchitectView)this.getView().findViewById( getArchitectViewId() );
 			
@@ -65,13 +89,20 @@ import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
 			final ArchitectConfig config = new ArchitectConfig( this.getWikitudeSDKLicenseKey() );
 			
 			// forwards mandatory life-cycle-events, unfortunately there is no onPostCreate() event in fragments so we have to call it that way
+			StartupTrace.beginSection( StartupTrace.PHASE_ARCHITECT_CREATE );
 			this.architectView.onCreate( config );
+			StartupTrace.endSection( StartupTrace.PHASE_ARCHITECT_CREATE );
 			this.architectView.onPostCreate();
 			
 			try {
 				
 				// load architectView's content
-				this.architectView.load( this.getARchitectWorldPath() );
+				StartupTrace.beginSection( StartupTrace.PHASE_ARCHITECT_LOAD );
+				try {
+					this.architectView.load( this.getARchitectWorldPath() );
+				} finally {
+					StartupTrace.endSection( StartupTrace.PHASE_ARCHITECT_LOAD );
+				}
 				
 				if (this.getInitialCullingDistanceMeters() != ArchitectViewHolderInterface.CULLING_DISTANCE_DEFAULT_METERS) {
 					// set the culling distance - meaning: the maximum distance to render geo-content
@@ -83,36 +114,12 @@ import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
 				e.printStackTrace();
 			}
 			
-			// listener passed over to locationProvider, any location update is handled here
-			this.locationListener = new LocationListener() {
-
-				@Override
-				public void onStatusChanged( String provider, int status, Bundle extras ) {
-				}
-
-				@Override
-				public void onProviderEnabled( String provider ) {
-				}
-
-				@Override
-				public void onProviderDisabled( String provider ) {
-				}
+			// fixes are processed on the session thread, only architectView calls are made on the UI thread
+			this.sessionEngine = ArSessionEngine.getInstance();
+			this.sessionEngine.addListener( this.sessionListener );
 
-				@Override
-				public void onLocationChanged( final Location location ) {
-					if (location!=null) {
-						AbstractArchitectCamFragmentV4.this.lastKnownLocaton = location;
-					if ( AbstractArchitectCamFragmentV4.this.architectView != null ) {
-						// check if location has altitude at certain accuracy level & call right architect method (the one with altitude information)
-						if ( location.hasAltitude() && location.hasAccuracy() && location.getAccuracy()<7) {
-							AbstractArchitectCamFragmentV4.this.architectView.setLocation( location.getLatitude(), location.getLongitude(), location.getAltitude(), location.getAccuracy() );
-						} else {
-							AbstractArchitectCamFragmentV4.this.architectView.setLocation( location.getLatitude(), location.getLongitude(), location.hasAccuracy() ? location.getAccuracy() : 1000 );
-						}
-					}
-					}
-				}
-			};
+			// listener passed over to locationProvider, any location update is handed to the session engine
+			this.locationListener = this.sessionEngine.getLocationListener();
 			
 			// set accuracy listener if implemented, you may e.g. show calibration prompt for compass using this listener
 			this.sensorAccuracyListener = this.getSensorAccuracyListener();
@@ -122,11 +129,19 @@ import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
 			
 			// register valid urlListener in architectView, ensure this is set before content is loaded to not miss any event
 			if ( this.urlListener !=null ) {
-				this.architectView.registerUrlListener( this.getUrlListener() );
+				this.architectView.registerUrlListener( new ArchitectUrlListener() {
+
+					@Override
+					public boolean urlWasInvoked( final String uriString ) {
+						// bridge events are published for metrics and interested subscribers, handling stays with urlListener
+						ArEventBus.getInstance().publish( ArEventBus.TOPIC_BRIDGE, uriString );
+						return AbstractArchitectCamFragmentV4.this.urlListener.urlWasInvoked( uriString );
+					}
+				} );
 			}
 
-			// locationProvider used to fetch user position
-			this.locationProvider = this.getLocationProvider(this.locationListener);
+			// view receives shared positions and POIs from now on, user position is fetched by the session's location provider
+			this.sessionEngine.attach( this.architectView, this.getSessionWorld() );
 
 		}
 
@@ -144,9 +159,11 @@ import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
 				}
 			}	
 
-			// tell locationProvider to resume, usually location is then (again) fetched, so the GPS indicator appears in status bar
+			// tell locationProvider to resume, usually location is then (again) fetched, so the GPS indicator appears in status bar. Shared provider only starts with the first view
 			if ( this.locationProvider != null ) {
 				this.locationProvider.onResume();
+			} else {
+				this.sessionEngine.resumeLocation( this );
 			}
 		}
 
@@ -164,11 +181,19 @@ import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
 				}
 			}
 			
-			// tell locationProvider to pause, usually location is then no longer fetched, so the GPS indicator disappears in status bar
+			// tell locationProvider to pause, usually location is then no longer fetched, so the GPS indicator disappears in status bar. Shared provider stops with the last view
 			if ( this.locationProvider != null ) {
 				this.locationProvider.onPause();
+			} else {
+				this.sessionEngine.pauseLocation();
+			}
+
+			// launch is over once AR-view is left, store its timings
+			if ( this.getActivity() != null ) {
+				StartupTrace.persist( this.getActivity() );
 			}
 
+			Log.i( "ArEventBus", ArEventBus.getInstance().getMetricsReport() );
 		}
 
 		@Override
@@ -179,6 +204,13 @@ import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
 		@Override
 		public void onDestroy() {
 			super.onDestroy();
+
+			if ( this.sessionEngine != null ) {
+				this.sessionEngine.removeListener( this.sessionListener );
+				if ( this.architectView != null ) {
+					this.sessionEngine.detach( this.architectView );
+				}
+			}
 			if ( this.architectView != null ) {
 				this.architectView.onDestroy();
 			}
@@ -191,6 +223,10 @@ import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
 			if ( this.architectView != null ) {
 				this.architectView.onLowMemory();
 			}
+			// governor receives trim callbacks itself on API 14+, older devices only get this call
+			if ( !MemoryGovernor.getInstance().isInstalled() ) {
+				MemoryGovernor.getInstance().onLowMemory();
+			}
 		}
 		
 		@Override
@@ -205,6 +241,15 @@ import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
 		@Override
 		public abstract String getARchitectWorldPath();
 		
+		/**
+		 * identifies the World content of this view in the session, POIs published for it and its broadcasts only reach views of the same world (see ArSessionEngine.attach()).
+		 * Defaults to the world path, override if native pushes content other views of the same world must not get
+		 * @return
+		 */
+		protected String getSessionWorld() {
+			return this.getARchitectWorldPath();
+		}
+		
 		/**
 		 * url listener fired once e.g. 'document.location = "architectsdk://foo?bar=123"' is called in JS
 		 * @return
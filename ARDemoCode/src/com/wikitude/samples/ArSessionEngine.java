@@ -0,0 +1,375 @@
+package com.wikitude.samples;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import com.wikitude.architect.ArchitectView;
+import com.wikitude.samples.ArchitectViewHolderInterface.ILocationProvider;
+import com.wikitude.samples.utils.eventbus.ArEventBus;
+import com.wikitude.samples.utils.startup.StartupTrace;
+
+/**
+ * Process-wide AR session: one location pipeline and POI store fanned out to all attached ArchitectViews (e.g. main view and picture-in-picture, several fragments).
+ * Positions reach every view, POIs and broadcasts only the views attached with the same world (see {@link #attach(ArchitectView, String)}).
+ * Fixes and POI work are processed on the session thread, the UI thread only hands over fixes and performs the final bridge calls.
+ * Fixes arriving while the previous one is still queued replace it (latest wins), listeners always see the most recent position.
+ * The location provider is created by the first view that resumes location and runs while at least one view has it resumed, so GPS is registered once.
+ */
+public class ArSessionEngine {
+
+	/** GPS altitude is only used below this accuracy, worse altitudes make POIs jump vertically */
+	private static final float MAX_ALTITUDE_ACCURACY_METERS = 7;
+
+	/** accuracy passed to architectView if fix has none */
+	private static final float UNKNOWN_ACCURACY_METERS = 1000;
+
+	/**
+	 * receives accepted fixes on session thread
+	 */
+	public interface Listener {
+
+		/**
+		 * do queries and serialization here, hand bridge calls to {@link ArSessionEngine#callJavaScript(String, String)}
+		 * @param location copy of fix owned by the session, don't modify it
+		 */
+		void onSessionLocation( Location location );
+	}
+
+	private static ArSessionEngine instance;
+
+	private final Handler mainHandler = new Handler( Looper.getMainLooper() );
+
+	private final HandlerThread thread;
+
+	private final Handler handler;
+
+	private final CopyOnWriteArrayList<ArchitectView> views = new CopyOnWriteArrayList<ArchitectView>();
+
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	/** shared location provider, null while no view is attached. Main thread only */
+	private ILocationProvider locationProvider;
+
+	/** number of views with resumed location updates. Main thread only */
+	private int locationResumeCount = 0;
+
+	/** ground elevation used as user altitude if fix has no usable altitude, null to leave altitude to architectView */
+	private volatile ElevationService elevationService;
+
+	/** world of each attached view. Main thread only */
+	private final Map<ArchitectView, String> viewWorlds = new HashMap<ArchitectView, String>();
+
+	/** latest POI script per world, replayed to views of the world attaching later and dropped with its last view. Main thread only */
+	private final Map<String, String> poiScripts = new HashMap<String, String>();
+
+	/** latest fix handed over by location provider, guarded by itself */
+	private final Location pendingFix = new Location( "session" );
+	private boolean fixPending = false;
+
+	/** latest accepted fix, null before first fix */
+	private volatile Location lastLocation;
+
+	/** position to pass to architectViews, guarded by mainUpdateLock */
+	private final Object mainUpdateLock = new Object();
+	private double latitude, longitude, altitude;
+	private float accuracy;
+	private boolean hasAltitude, hasPosition = false, mainUpdatePending = false;
+
+	/** receives fixes on provider's thread (usually main), only copies the fix */
+	private final LocationListener locationListener = new LocationListener() {
+
+		@Override
+		public void onLocationChanged( final Location location ) {
+			if ( location == null ) {
+				return;
+			}
+			final ArSessionEngine engine = ArSessionEngine.this;
+			synchronized ( engine.pendingFix ) {
+				// providers may reuse their Location instance, so copy before switching threads
+				engine.pendingFix.set( location );
+				if ( engine.fixPending ) {
+					return;
+				}
+				engine.fixPending = true;
+			}
+			engine.handler.post( engine.processFixRunnable );
+		}
+
+		@Override
+		public void onStatusChanged( final String provider, final int status, final Bundle extras ) {
+		}
+
+		@Override
+		public void onProviderEnabled( final String provider ) {
+		}
+
+		@Override
+		public void onProviderDisabled( final String provider ) {
+		}
+	};
+
+	/** runs on session thread */
+	private final Runnable processFixRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			final Location location;
+			synchronized ( ArSessionEngine.this.pendingFix ) {
+				location = new Location( ArSessionEngine.this.pendingFix );
+				ArSessionEngine.this.fixPending = false;
+			}
+			ArSessionEngine.this.processFix( location );
+		}
+	};
+
+	/** runs on main thread */
+	private final Runnable setLocationRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			synchronized ( ArSessionEngine.this.mainUpdateLock ) {
+				ArSessionEngine.this.mainUpdatePending = false;
+				for ( final ArchitectView view : ArSessionEngine.this.views ) {
+					ArSessionEngine.this.setLocation( view );
+				}
+			}
+		}
+	};
+
+	public static synchronized ArSessionEngine getInstance() {
+		if ( instance == null ) {
+			instance = new ArSessionEngine();
+		}
+		return instance;
+	}
+
+	private ArSessionEngine() {
+		this.thread = new HandlerThread( "ArSession", Process.THREAD_PRIORITY_DEFAULT );
+		this.thread.start();
+		this.handler = new Handler( this.thread.getLooper() );
+	}
+
+	/**
+	 * view receives positions and the POIs and broadcast bridge calls of its world from now on, the current position and POIs are replayed to it. Call on main thread
+	 * @param world identifies the content the view loaded, e.g. its world path. Views of other worlds don't receive its POIs and broadcasts
+	 */
+	public void attach( final ArchitectView view, final String world ) {
+		if ( !this.views.addIfAbsent( view ) ) {
+			return;
+		}
+		this.viewWorlds.put( view, world );
+		synchronized ( this.mainUpdateLock ) {
+			if ( this.hasPosition ) {
+				this.setLocation( view );
+			}
+		}
+		final String poiScript = this.poiScripts.get( world );
+		if ( poiScript != null ) {
+			view.callJavascript( poiScript );
+		}
+	}
+
+	/**
+	 * counterpart of attach(), location provider is released with the last view. Call on main thread
+	 */
+	public void detach( final ArchitectView view ) {
+		this.views.remove( view );
+		final String world = this.viewWorlds.remove( view );
+		if ( !this.viewWorlds.containsValue( world ) ) {
+			// POIs belong to the views that published them
+			this.poiScripts.remove( world );
+		}
+		if ( this.views.isEmpty() && this.locationProvider != null ) {
+			if ( this.locationResumeCount > 0 ) {
+				this.locationProvider.onPause();
+			}
+			// provider holds context of the view that created it
+			this.locationProvider = null;
+			this.locationResumeCount = 0;
+		}
+	}
+
+	/**
+	 * starts location updates unless another view already did, call in onResume(). Call on main thread
+	 * @param holder creates the shared location provider if none exists yet. It outlives the holder, so it has to be built with the application context
+	 */
+	public void resumeLocation( final ArchitectViewHolderInterface holder ) {
+		if ( this.locationProvider == null ) {
+			this.locationProvider = holder.getLocationProvider( this.locationListener );
+		}
+		if ( this.locationProvider != null && this.locationResumeCount++ == 0 ) {
+			this.locationProvider.onResume();
+		}
+	}
+
+	/**
+	 * stops location updates once no view has them resumed, call in onPause(). Call on main thread
+	 */
+	public void pauseLocation() {
+		if ( this.locationProvider != null && this.locationResumeCount > 0 && --this.locationResumeCount == 0 ) {
+			this.locationProvider.onPause();
+		}
+	}
+
+	/**
+	 * @return listener feeding the session, for custom location providers
+	 */
+	public LocationListener getLocationListener() {
+		return this.locationListener;
+	}
+
+	public void addListener( final Listener listener ) {
+		this.listeners.addIfAbsent( listener );
+	}
+
+	public void removeListener( final Listener listener ) {
+		this.listeners.remove( listener );
+	}
+
+	/**
+	 * @param elevationService ground elevation used as user altitude if GPS has none (POIs carry ground altitudes then), null to disable
+	 */
+	public void setElevationService( final ElevationService elevationService ) {
+		this.elevationService = elevationService;
+	}
+
+	public ElevationService getElevationService() {
+		return this.elevationService;
+	}
+
+	/**
+	 * @return latest accepted fix, null before first fix
+	 */
+	public Location getLastLocation() {
+		return this.lastLocation;
+	}
+
+	/**
+	 * runs task on session thread, e.g. queries triggered by World
+	 */
+	public void post( final Runnable task ) {
+		this.handler.post( task );
+	}
+
+	/**
+	 * hands a serialized bridge call for all views of a world to the UI thread
+	 * @param world as passed to attach()
+	 * @param script JavaScript to evaluate in each World
+	 */
+	public void callJavaScript( final String world, final String script ) {
+		this.mainHandler.post( new Runnable() {
+
+			@Override
+			public void run() {
+				ArSessionEngine.this.callWorld( world, script );
+			}
+		} );
+	}
+
+	/**
+	 * hands a serialized bridge call for a single view to the UI thread, e.g. the answer to a query of that view
+	 */
+	public void callJavaScript( final ArchitectView view, final String script ) {
+		this.mainHandler.post( new Runnable() {
+
+			@Override
+			public void run() {
+				if ( ArSessionEngine.this.views.contains( view ) ) {
+					view.callJavascript( script );
+				}
+			}
+		} );
+	}
+
+	/**
+	 * sends POIs to the views of a world and keeps them for views of the world attaching later, until its last view detaches
+	 * @param world as passed to attach()
+	 * @param script JavaScript loading the POIs, e.g. World.loadPoisFromJsonData([...])
+	 */
+	public void publishPois( final String world, final String script ) {
+		this.mainHandler.post( new Runnable() {
+
+			@Override
+			public void run() {
+				// views of the world may have detached meanwhile, nobody would drop the script then
+				if ( ArSessionEngine.this.callWorld( world, script ) ) {
+					ArSessionEngine.this.poiScripts.put( world, script );
+				}
+			}
+		} );
+	}
+
+	/**
+	 * filters fix, hands position to architectViews and notifies listeners, runs on session thread
+	 */
+	private void processFix( final Location location ) {
+		final float accuracy = location.hasAccuracy() ? location.getAccuracy() : UNKNOWN_ACCURACY_METERS;
+		boolean hasAltitude = location.hasAltitude() && location.hasAccuracy() && accuracy < MAX_ALTITUDE_ACCURACY_METERS;
+		double altitude = location.getAltitude();
+		if ( !hasAltitude ) {
+			final ElevationService elevation = this.elevationService;
+			final float groundAltitude = elevation != null ? elevation.getElevation( location.getLatitude(), location.getLongitude() ) : Float.NaN;
+			if ( !Float.isNaN( groundAltitude ) ) {
+				// POIs carry ground altitudes, so user must not stay on POI-less "user level"
+				altitude = groundAltitude;
+				hasAltitude = true;
+			}
+		}
+
+		StartupTrace.milestone( StartupTrace.MILESTONE_FIRST_LOCATION );
+		synchronized ( this.mainUpdateLock ) {
+			this.latitude = location.getLatitude();
+			this.longitude = location.getLongitude();
+			this.altitude = altitude;
+			this.accuracy = accuracy;
+			this.hasAltitude = hasAltitude;
+			this.hasPosition = true;
+			if ( !this.mainUpdatePending ) {
+				this.mainUpdatePending = true;
+				this.mainHandler.post( this.setLocationRunnable );
+			}
+		}
+
+		this.lastLocation = location;
+		ArEventBus.getInstance().publish( ArEventBus.TOPIC_LOCATION, location );
+		for ( final Listener listener : this.listeners ) {
+			listener.onSessionLocation( location );
+		}
+	}
+
+	/**
+	 * runs on main thread
+	 * @return true if world has attached views
+	 */
+	private boolean callWorld( final String world, final String script ) {
+		boolean called = false;
+		for ( final ArchitectView view : this.views ) {
+			final String viewWorld = this.viewWorlds.get( view );
+			if ( viewWorld == null ? world == null : viewWorld.equals( world ) ) {
+				view.callJavascript( script );
+				called = true;
+			}
+		}
+		return called;
+	}
+
+	/**
+	 * hold mainUpdateLock
+	 */
+	private void setLocation( final ArchitectView view ) {
+		if ( this.hasAltitude ) {
+			view.setLocation( this.latitude, this.longitude, this.altitude, this.accuracy );
+		} else {
+			view.setLocation( this.latitude, this.longitude, this.accuracy );
+		}
+	}
+}
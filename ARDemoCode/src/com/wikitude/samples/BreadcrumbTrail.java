@@ -0,0 +1,285 @@
+package com.wikitude.samples;
+
+import java.util.Arrays;
+
+/**
+ * Rolling position history of one unit in a primitive ring buffer, plus its simplified trail.
+ * Buffers start small and double until they reach their capacity, so the many units with short histories stay cheap.
+ * The trail is simplified incrementally with Douglas-Peucker while points are appended: only the open tail since the last kept point is examined,
+ * so appending costs at most MAX_OPEN_POINTS distance checks no matter how long the trail is.
+ * If the trail exceeds its point budget, tolerance is raised and the (already small) kept trail is simplified again.
+ * Not thread-safe, see {@link BreadcrumbTrails}.
+ */
+public class BreadcrumbTrail {
+
+	/** initial tolerance of simplification, meters */
+	private static final double INITIAL_TOLERANCE_M = 3;
+
+	/** open tail is closed at this length even if it's a straight line, bounds cost per append */
+	private static final int MAX_OPEN_POINTS = 64;
+
+	private static final double METERS_PER_DEGREE = 111320.0;
+
+	/** initial size of raw history and kept points */
+	private static final int INITIAL_SIZE = 16;
+
+	/** raw history, ring indexed by sequence number % length. Grows only before it wraps, so indices stay valid */
+	private double[] lat, lon;
+
+	private long[] timeMs;
+
+	/** raw positions kept at most */
+	private final int capacity;
+
+	/** sequence number of next raw point, oldest available one is max(0, nextSeq - capacity) */
+	private long nextSeq = 0;
+
+	/** sequence numbers of kept (simplified) points, oldest first, newest raw point is always appended implicitly */
+	private long[] kept;
+
+	private int keptCount = 0;
+
+	private final int pointBudget;
+
+	private double toleranceM = INITIAL_TOLERANCE_M;
+
+	/** meters per degree longitude, fixed per trail (units don't travel far enough to matter) */
+	private double metersPerDegreeLon = 0;
+
+	/** true if trail changed since last {@link #clearChanged()} */
+	private boolean changed = false;
+
+	/**
+	 * @param capacity number of raw positions kept (at least twice MAX_OPEN_POINTS, so open tail is never evicted)
+	 * @param pointBudget maximum number of points of simplified trail (at least 3)
+	 */
+	public BreadcrumbTrail( final int capacity, final int pointBudget ) {
+		this.capacity = Math.max( capacity, 2 * MAX_OPEN_POINTS );
+		this.lat = new double[INITIAL_SIZE];
+		this.lon = new double[INITIAL_SIZE];
+		this.timeMs = new long[INITIAL_SIZE];
+		this.pointBudget = Math.max( 3, pointBudget );
+		// +1: budget is checked after a point was kept
+		this.kept = new long[Math.min( INITIAL_SIZE, this.pointBudget + 1 )];
+	}
+
+	/**
+	 * appends a position and updates simplified trail
+	 */
+	public void append( final double lat, final double lon, final long timeMs ) {
+		if ( this.nextSeq == 0 ) {
+			this.metersPerDegreeLon = METERS_PER_DEGREE * Math.cos( Math.toRadians( lat ) );
+		}
+		if ( this.nextSeq == this.lat.length && this.lat.length < this.capacity ) {
+			// not wrapped yet, sequence number is index in old and new buffers
+			final int size = Math.min( this.lat.length * 2, this.capacity );
+			this.lat = Arrays.copyOf( this.lat, size );
+			this.lon = Arrays.copyOf( this.lon, size );
+			this.timeMs = Arrays.copyOf( this.timeMs, size );
+		}
+		final int index = (int)( this.nextSeq % this.lat.length );
+		this.lat[index] = lat;
+		this.lon[index] = lon;
+		this.timeMs[index] = timeMs;
+		final long seq = this.nextSeq++;
+		this.changed = true;
+
+		this.dropEvictedKept();
+		if ( this.keptCount == 0 ) {
+			this.keep( seq );
+			return;
+		}
+		this.simplifyOpenTail();
+	}
+
+	/**
+	 * @return number of points of simplified trail, including newest raw point
+	 */
+	public int getTrailSize() {
+		if ( this.nextSeq == 0 ) {
+			return 0;
+		}
+		return this.kept[this.keptCount - 1] == this.nextSeq - 1 ? this.keptCount : this.keptCount + 1;
+	}
+
+	/**
+	 * @param i index in simplified trail, 0 is oldest
+	 */
+	public double getTrailLatitude( final int i ) {
+		return this.lat[this.trailIndex( i )];
+	}
+
+	/**
+	 * @param i index in simplified trail, 0 is oldest
+	 */
+	public double getTrailLongitude( final int i ) {
+		return this.lon[this.trailIndex( i )];
+	}
+
+	/**
+	 * @param i index in simplified trail, 0 is oldest
+	 */
+	public long getTrailTime( final int i ) {
+		return this.timeMs[this.trailIndex( i )];
+	}
+
+	/**
+	 * @return number of raw positions in history
+	 */
+	public int getHistorySize() {
+		return (int)Math.min( this.nextSeq, this.lat.length );
+	}
+
+	/**
+	 * @return bytes of buffers currently allocated (estimate)
+	 */
+	public long getAllocatedBytes() {
+		return this.lat.length * 24L + this.kept.length * 8L;
+	}
+
+	/**
+	 * @return true if a position was appended since last clearChanged(), i.e. trail must be sent again
+	 */
+	public boolean isChanged() {
+		return this.changed;
+	}
+
+	public void clearChanged() {
+		this.changed = false;
+	}
+
+	private int trailIndex( final int i ) {
+		final long seq = i < this.keptCount ? this.kept[i] : this.nextSeq - 1;
+		return (int)( seq % this.lat.length );
+	}
+
+	/**
+	 * Douglas-Peucker step on open tail (last kept point .. newest point): keeps the farthest interior point if it deviates more than tolerance.
+	 * Repeats from the newly kept point, as the rest of the tail may deviate from the new segment as well.
+	 */
+	private void simplifyOpenTail() {
+		final long newest = this.nextSeq - 1;
+		while ( true ) {
+			final long anchor = this.kept[this.keptCount - 1];
+			if ( newest - anchor < 2 ) {
+				return;
+			}
+			long farthest = -1;
+			double farthestDistance = 0;
+			for ( long seq = anchor + 1; seq < newest; seq++ ) {
+				final double distance = this.distanceToSegment( seq, anchor, newest );
+				if ( distance > farthestDistance ) {
+					farthestDistance = distance;
+					farthest = seq;
+				}
+			}
+			if ( farthestDistance > this.toleranceM ) {
+				this.keep( farthest );
+			} else if ( newest - anchor >= MAX_OPEN_POINTS ) {
+				// straight for a long time, close tail to bound cost of later appends
+				this.keep( newest - 1 );
+				return;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void keep( final long seq ) {
+		if ( this.keptCount == this.kept.length ) {
+			this.kept = Arrays.copyOf( this.kept, Math.min( this.kept.length * 2, this.pointBudget + 1 ) );
+		}
+		this.kept[this.keptCount++] = seq;
+		this.enforceBudget();
+	}
+
+	/**
+	 * raises tolerance until kept points fit into budget, -1 as newest raw point is part of trail as well
+	 */
+	private void enforceBudget() {
+		while ( this.keptCount > this.pointBudget - 1 ) {
+			this.toleranceM *= 1.5;
+			this.simplifyKept();
+		}
+	}
+
+	/**
+	 * full Douglas-Peucker on kept points with current tolerance, iterative with a small explicit stack (kept points are few)
+	 */
+	private void simplifyKept() {
+		final int count = this.keptCount;
+		if ( count < 3 ) {
+			return;
+		}
+		final boolean[] retain = new boolean[count];
+		retain[0] = retain[count - 1] = true;
+		final int[] stack = new int[count * 2];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = count - 1;
+		while ( top > 0 ) {
+			final int last = stack[--top];
+			final int first = stack[--top];
+			int farthest = -1;
+			double farthestDistance = this.toleranceM;
+			for ( int i = first + 1; i < last; i++ ) {
+				final double distance = this.distanceToSegment( this.kept[i], this.kept[first], this.kept[last] );
+				if ( distance > farthestDistance ) {
+					farthestDistance = distance;
+					farthest = i;
+				}
+			}
+			if ( farthest >= 0 ) {
+				retain[farthest] = true;
+				stack[top++] = first;
+				stack[top++] = farthest;
+				stack[top++] = farthest;
+				stack[top++] = last;
+			}
+		}
+		int write = 0;
+		for ( int i = 0; i < count; i++ ) {
+			if ( retain[i] ) {
+				this.kept[write++] = this.kept[i];
+			}
+		}
+		this.keptCount = write;
+	}
+
+	/**
+	 * removes kept points whose raw position was overwritten in ring buffer, oldest raw point becomes trail start
+	 */
+	private void dropEvictedKept() {
+		final long oldest = this.nextSeq - this.lat.length;
+		if ( this.keptCount == 0 || this.kept[0] >= oldest ) {
+			return;
+		}
+		int drop = 0;
+		while ( drop < this.keptCount && this.kept[drop] < oldest ) {
+			drop++;
+		}
+		System.arraycopy( this.kept, drop, this.kept, 0, this.keptCount - drop );
+		this.keptCount -= drop;
+		if ( oldest >= 0 && ( this.keptCount == 0 || this.kept[0] != oldest ) ) {
+			System.arraycopy( this.kept, 0, this.kept, 1, this.keptCount );
+			this.kept[0] = oldest;
+			this.keptCount++;
+		}
+	}
+
+	/**
+	 * @return distance in meters of point to segment start-end, all given as sequence numbers
+	 */
+	private double distanceToSegment( final long point, final long start, final long end ) {
+		final int p = (int)( point % this.lat.length ), s = (int)( start % this.lat.length ), e = (int)( end % this.lat.length );
+		final double px = ( this.lon[p] - this.lon[s] ) * this.metersPerDegreeLon;
+		final double py = ( this.lat[p] - this.lat[s] ) * METERS_PER_DEGREE;
+		final double ex = ( this.lon[e] - this.lon[s] ) * this.metersPerDegreeLon;
+		final double ey = ( this.lat[e] - this.lat[s] ) * METERS_PER_DEGREE;
+		final double lengthSquared = ex * ex + ey * ey;
+		double t = lengthSquared == 0 ? 0 : ( px * ex + py * ey ) / lengthSquared;
+		t = t < 0 ? 0 : ( t > 1 ? 1 : t );
+		final double dx = px - t * ex, dy = py - t * ey;
+		return Math.sqrt( dx * dx + dy * dy );
+	}
+}
@@ -0,0 +1,140 @@
+package com.wikitude.samples;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.wikitude.samples.utils.memory.MemoryGovernor;
+import com.wikitude.samples.utils.memory.Releasable;
+
+/**
+ * Breadcrumb trails of all remote units, keyed by unit id. Trails of changed units are sent to World as simplified polylines (World.updateTrails).
+ * The number of trails is capped, the trail of the unit that moved least recently is dropped for a new one.
+ * Dropped and removed trails are sent to World as well (World.removeTrails), so it destroys their objects.
+ * Register it with {@link MemoryGovernor}: history is rebuildable from the feed, so trails are dropped on TIER_REBUILDABLE.
+ * All methods are thread-safe.
+ */
+public class BreadcrumbTrails implements Releasable {
+
+	/** default raw positions kept per unit, ~8.5 minutes of 1 Hz updates */
+	public static final int DEFAULT_CAPACITY = 512;
+
+	/** default maximum points per trail sent to World */
+	public static final int DEFAULT_POINT_BUDGET = 32;
+
+	/** default maximum number of trails */
+	public static final int DEFAULT_MAX_TRAILS = 1000;
+
+	private final int capacity;
+
+	private final int pointBudget;
+
+	/** access ordered, so the eldest entry is the trail appended to least recently */
+	private final Map<Integer, BreadcrumbTrail> trails;
+
+	/** units whose trail was dropped since the last appendRemovedTrails() */
+	private final Set<Integer> removedIds = new HashSet<Integer>();
+
+	public BreadcrumbTrails() {
+		this( DEFAULT_CAPACITY, DEFAULT_POINT_BUDGET, DEFAULT_MAX_TRAILS );
+	}
+
+	/**
+	 * @param capacity raw positions kept per unit
+	 * @param pointBudget maximum points per simplified trail
+	 * @param maxTrails maximum number of units with a trail, e.g. the markers rendered at most
+	 */
+	public BreadcrumbTrails( final int capacity, final int pointBudget, final int maxTrails ) {
+		this.capacity = capacity;
+		this.pointBudget = pointBudget;
+		this.trails = new LinkedHashMap<Integer, BreadcrumbTrail>( 16, 0.75f, true ) {
+
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry<Integer, BreadcrumbTrail> eldest ) {
+				if ( this.size() <= Math.max( 1, maxTrails ) ) {
+					return false;
+				}
+				BreadcrumbTrails.this.removedIds.add( eldest.getKey() );
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * appends position of a unit, trail is created on first position
+	 */
+	public synchronized void append( final int unitId, final double lat, final double lon, final long timeMs ) {
+		BreadcrumbTrail trail = this.trails.get( unitId );
+		if ( trail == null ) {
+			trail = new BreadcrumbTrail( this.capacity, this.pointBudget );
+			this.trails.put( unitId, trail );
+			this.removedIds.remove( unitId );
+		}
+		trail.append( lat, lon, timeMs );
+	}
+
+	/**
+	 * drops trail of a unit, e.g. once its marker isn't rendered anymore
+	 */
+	public synchronized void remove( final int unitId ) {
+		if ( this.trails.remove( unitId ) != null ) {
+			this.removedIds.add( unitId );
+		}
+	}
+
+	/**
+	 * appends ids of units whose trail was dropped since the previous call as JSON array elements "id,"
+	 * @param out receives ids
+	 * @return number of appended ids
+	 */
+	public synchronized int appendRemovedTrails( final StringBuilder out ) {
+		for ( final Integer unitId : this.removedIds ) {
+			out.append( unitId.intValue() ).append( ',' );
+		}
+		final int appended = this.removedIds.size();
+		this.removedIds.clear();
+		return appended;
+	}
+
+	/**
+	 * appends trails changed since their last append as JSON object members "id:[latE6,lonE6,...],"
+	 * @param out receives trails
+	 * @return number of appended trails
+	 */
+	public synchronized int appendChangedTrails( final StringBuilder out ) {
+		int appended = 0;
+		for ( final Map.Entry<Integer, BreadcrumbTrail> entry : this.trails.entrySet() ) {
+			final BreadcrumbTrail trail = entry.getValue();
+			if ( !trail.isChanged() ) {
+				continue;
+			}
+			trail.clearChanged();
+			out.append( entry.getKey().intValue() ).append( ":[" );
+			final int size = trail.getTrailSize();
+			for ( int i = 0; i < size; i++ ) {
+				if ( i > 0 ) {
+					out.append( ',' );
+				}
+				out.append( Math.round( trail.getTrailLatitude( i ) * 1E6 ) ).append( ',' ).append( Math.round( trail.getTrailLongitude( i ) * 1E6 ) );
+			}
+			out.append( "]," );
+			appended++;
+		}
+		return appended;
+	}
+
+	@Override
+	public synchronized long release( final int tier ) {
+		if ( tier < MemoryGovernor.TIER_REBUILDABLE ) {
+			return 0;
+		}
+		long released = 0;
+		for ( final BreadcrumbTrail trail : this.trails.values() ) {
+			released += trail.getAllocatedBytes();
+		}
+		this.removedIds.addAll( this.trails.keySet() );
+		this.trails.clear();
+		return released;
+	}
+}
@@ -0,0 +1,56 @@
+package com.wikitude.samples;
+
+import android.app.Activity;
+import android.hardware.SensorManager;
+import android.widget.Toast;
+
+import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
+import com.wikitude.samples.utils.eventbus.ArEventBus;
+import com.wikitude.sdksamples.R;
+
+/**
+ * Shows calibration hint when compass accuracy is low. Accuracy changes are routed via {@link ArEventBus}, which limits hints to one per 5 seconds.
+ * Register in onResume via {@link #subscribe()} and pass {@link #getSensorAccuracyListener()} to the architectView.
+ */
+public class CompassAccuracyHint implements ArEventBus.Subscriber {
+
+	/**
+	 * the activity hint is shown in
+	 */
+	private final Activity activity;
+
+	/**
+	 * publishes accuracy changes to bus instead of handling them right away
+	 */
+	private final SensorAccuracyChangeListener sensorAccuracyListener = new SensorAccuracyChangeListener() {
+
+		@Override
+		public void onCompassAccuracyChanged( final int accuracy ) {
+			ArEventBus.getInstance().publish( ArEventBus.TOPIC_COMPASS_ACCURACY, Integer.valueOf( accuracy ) );
+		}
+	};
+
+	public CompassAccuracyHint( final Activity activity ) {
+		this.activity = activity;
+	}
+
+	public SensorAccuracyChangeListener getSensorAccuracyListener() {
+		return this.sensorAccuracyListener;
+	}
+
+	public void subscribe() {
+		ArEventBus.getInstance().subscribe( ArEventBus.TOPIC_COMPASS_ACCURACY, this );
+	}
+
+	public void unsubscribe() {
+		ArEventBus.getInstance().unsubscribe( ArEventBus.TOPIC_COMPASS_ACCURACY, this );
+	}
+
+	@Override
+	public void onEvent( final int topic, final Object latest, final int collapsed ) {
+		/* UNRELIABLE = 0, LOW = 1, MEDIUM = 2, HIGH = 3 */
+		if ( ( (Integer)latest ).intValue() < SensorManager.SENSOR_STATUS_ACCURACY_MEDIUM && this.activity != null && !this.activity.isFinishing() ) {
+			Toast.makeText( this.activity, R.string.compass_accuracy_low, Toast.LENGTH_LONG ).show();
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.wikitude.samples;
+
+/**
+ * Pedestrian dead reckoning between GPS fixes.
+ * Steps advance the estimate by one step length along the current heading, fixes are fused in with a scalar Kalman update
+ * (estimate variance grows per step, fix variance = accuracy^2). The emitted position follows the estimate with exponential smoothing,
+ * so steps become a continuous movement and corrections by new fixes snap back smoothly instead of jumping.
+ * Works in a local east/north plane around the first fix. Pure Java, no allocation, all methods are thread-safe.
+ */
+public class DeadReckoningEngine {
+
+	/** meters per degree latitude */
+	private static final double METERS_PER_DEGREE = 111320.0;
+
+	/** default step length of an adult, meters */
+	public static final double DEFAULT_STEP_LENGTH_M = 0.75;
+
+	/** default time constant of output smoothing */
+	public static final long DEFAULT_SMOOTHING_NS = 400L * 1000 * 1000;
+
+	/** variance added per step (step length and heading errors), m^2 */
+	private static final double STEP_VARIANCE = 0.3 * 0.3;
+
+	/** emitted position must move at least this far to count as change, meters */
+	private static final double MIN_EMIT_DISTANCE_M = 0.05;
+
+	private final double stepLengthM;
+
+	private final long smoothingNs;
+
+	private boolean initialized = false;
+
+	/** origin of local plane */
+	private double originLat, originLon, metersPerDegreeLon;
+
+	/** fused estimate in local plane, meters east / north of origin */
+	private double estimateEast, estimateNorth;
+
+	/** variance of estimate, m^2 */
+	private double variance;
+
+	/** smoothed position handed out, meters east / north of origin */
+	private double outputEast, outputNorth;
+
+	/** position at last emit */
+	private double emittedEast, emittedNorth;
+
+	private long lastTickNs = 0;
+
+	private boolean fixSinceEmit = false;
+
+	/** heading (azimuth) in radians, 0 = north, clockwise */
+	private double heading = 0;
+
+	private boolean hasHeading = false;
+
+	public DeadReckoningEngine() {
+		this( DEFAULT_STEP_LENGTH_M, DEFAULT_SMOOTHING_NS );
+	}
+
+	/**
+	 * @param stepLengthM distance per detected step
+	 * @param smoothingNs time constant of output smoothing, 0 to emit estimate directly
+	 */
+	public DeadReckoningEngine( final double stepLengthM, final long smoothingNs ) {
+		this.stepLengthM = stepLengthM;
+		this.smoothingNs = smoothingNs;
+	}
+
+	/**
+	 * fuses a real fix into the estimate
+	 * @param lat latitude of fix
+	 * @param lon longitude of fix
+	 * @param accuracyM accuracy (1 sigma) of fix in meters
+	 */
+	public synchronized void onFix( final double lat, final double lon, final float accuracyM ) {
+		final double fixVariance = Math.max( 1.0, (double)accuracyM * accuracyM );
+		if ( !this.initialized ) {
+			this.originLat = lat;
+			this.originLon = lon;
+			this.metersPerDegreeLon = METERS_PER_DEGREE * Math.cos( Math.toRadians( lat ) );
+			this.estimateEast = this.estimateNorth = 0;
+			this.outputEast = this.outputNorth = 0;
+			this.emittedEast = this.emittedNorth = Double.NaN;
+			this.variance = fixVariance;
+			this.initialized = true;
+		} else {
+			final double fixEast = ( lon - this.originLon ) * this.metersPerDegreeLon;
+			final double fixNorth = ( lat - this.originLat ) * METERS_PER_DEGREE;
+			final double gain = this.variance / ( this.variance + fixVariance );
+			this.estimateEast += gain * ( fixEast - this.estimateEast );
+			this.estimateNorth += gain * ( fixNorth - this.estimateNorth );
+			this.variance *= ( 1 - gain );
+		}
+		this.fixSinceEmit = true;
+	}
+
+	/**
+	 * @param azimuthRad heading in radians, 0 = north, clockwise
+	 */
+	public synchronized void onHeading( final double azimuthRad ) {
+		this.heading = azimuthRad;
+		this.hasHeading = true;
+	}
+
+	/**
+	 * advances estimate by one step along current heading, ignored until first fix and heading are known
+	 */
+	public synchronized void onStep() {
+		if ( !this.initialized || !this.hasHeading ) {
+			return;
+		}
+		this.estimateEast += this.stepLengthM * Math.sin( this.heading );
+		this.estimateNorth += this.stepLengthM * Math.cos( this.heading );
+		this.variance += STEP_VARIANCE;
+	}
+
+	/**
+	 * advances smoothed output to given time, call at the desired emit rate
+	 * @param nowNs monotonic time
+	 * @return true if output moved noticeably (or a fix arrived) since last true return, i.e. position should be emitted
+	 */
+	public synchronized boolean tick( final long nowNs ) {
+		if ( !this.initialized ) {
+			return false;
+		}
+		final long elapsedNs = this.lastTickNs == 0 ? Long.MAX_VALUE : nowNs - this.lastTickNs;
+		this.lastTickNs = nowNs;
+		final double alpha = this.smoothingNs <= 0 ? 1 : 1 - Math.exp( -(double)elapsedNs / this.smoothingNs );
+		this.outputEast += alpha * ( this.estimateEast - this.outputEast );
+		this.outputNorth += alpha * ( this.estimateNorth - this.outputNorth );
+
+		final double dEast = this.outputEast - this.emittedEast;
+		final double dNorth = this.outputNorth - this.emittedNorth;
+		// NaN (never emitted) fails the comparison, so first tick always emits
+		if ( this.fixSinceEmit || !( dEast * dEast + dNorth * dNorth < MIN_EMIT_DISTANCE_M * MIN_EMIT_DISTANCE_M ) ) {
+			this.emittedEast = this.outputEast;
+			this.emittedNorth = this.outputNorth;
+			this.fixSinceEmit = false;
+			return true;
+		}
+		return false;
+	}
+
+	public synchronized boolean isInitialized() {
+		return this.initialized;
+	}
+
+	/**
+	 * @return latitude of smoothed output
+	 */
+	public synchronized double getLatitude() {
+		return this.originLat + this.outputNorth / METERS_PER_DEGREE;
+	}
+
+	/**
+	 * @return longitude of smoothed output
+	 */
+	public synchronized double getLongitude() {
+		return this.originLon + this.outputEast / this.metersPerDegreeLon;
+	}
+
+	/**
+	 * @return estimated accuracy (1 sigma) in meters
+	 */
+	public synchronized float getAccuracy() {
+		return (float)Math.sqrt( this.variance );
+	}
+}
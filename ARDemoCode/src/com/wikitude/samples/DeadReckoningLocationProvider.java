@@ -0,0 +1,277 @@
+package com.wikitude.samples;
+
+import java.io.File;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.wikitude.samples.ArchitectViewHolderInterface.ILocationProvider;
+
+/**
+ * Location provider emitting interpolated positions between GPS fixes, so the position in the ARchitect World moves continuously instead of freezing and jumping.
+ * Fixes of a wrapped {@link LocationProvider} are fused with steps and heading in a {@link DeadReckoningEngine}.
+ * Steps come from the wrapped provider's motion classifier, which shares its accelerometer registration.
+ * Sensors are processed on a dedicated thread, positions are emitted on the main thread at a configurable rate.
+ * The emitted Location instance is reused, copy it if you need to keep it beyond the callback.
+ */
+public class DeadReckoningLocationProvider implements ILocationProvider {
+
+	/** emit positions 10 times a second by default */
+	public static final int DEFAULT_EMIT_INTERVAL_MS = 100;
+
+	/** heading is unreliable if device is held almost flat (camera pointing to ground), keep previous heading then */
+	private static final float MIN_HORIZONTAL_COMPONENT = 0.3f;
+
+	/** receives emitted positions */
+	private final LocationListener locationListener;
+
+	private final SensorManager sensorManager;
+
+	/** provides real fixes, GPS / network and Wi-Fi fingerprints indoors if available */
+	private final ILocationProvider fixProvider;
+
+	/** GPS / network provider of fixProvider, shares its accelerometer registration and step detection */
+	private final LocationProvider accelerometerProvider;
+
+	private final DeadReckoningEngine engine = new DeadReckoningEngine();
+
+	private final int emitIntervalMs;
+
+	private final Handler mainHandler = new Handler( Looper.getMainLooper() );
+
+	/** dedicated sensor thread, only exists while resumed */
+	private HandlerThread sensorThread;
+
+	private Handler sensorHandler;
+
+	/** latest real fix, template of emitted positions (provider, altitude, time) */
+	private final Location lastFix = new Location( "deadReckoning" );
+
+	private boolean hasFix = false;
+
+	/** reused for every emitted position */
+	private final Location emitted = new Location( "deadReckoning" );
+
+	/** preallocated sensor buffers */
+	private final float[] rotationMatrix = new float[9];
+	private final float[] rotationVector = new float[4];
+	private final float[] gravity = new float[3];
+	private final float[] geomagnetic = new float[3];
+
+	private boolean hasGravity = false, hasGeomagnetic = false, hasRotationVector = false;
+
+	/** feeds real fixes into engine, forwards status callbacks */
+	private final LocationListener fixListener = new LocationListener() {
+
+		@Override
+		public void onLocationChanged( final Location location ) {
+			if ( location != null ) {
+				synchronized ( DeadReckoningLocationProvider.this.lastFix ) {
+					DeadReckoningLocationProvider.this.lastFix.set( location );
+					DeadReckoningLocationProvider.this.hasFix = true;
+				}
+				DeadReckoningLocationProvider.this.engine.onFix( location.getLatitude(), location.getLongitude(), location.hasAccuracy() ? location.getAccuracy() : 1000 );
+			}
+		}
+
+		@Override
+		public void onStatusChanged( final String provider, final int status, final Bundle extras ) {
+			DeadReckoningLocationProvider.this.locationListener.onStatusChanged( provider, status, extras );
+		}
+
+		@Override
+		public void onProviderEnabled( final String provider ) {
+			DeadReckoningLocationProvider.this.locationListener.onProviderEnabled( provider );
+		}
+
+		@Override
+		public void onProviderDisabled( final String provider ) {
+			DeadReckoningLocationProvider.this.locationListener.onProviderDisabled( provider );
+		}
+	};
+
+	/** heading, called on sensor thread */
+	private final SensorEventListener sensorListener = new SensorEventListener() {
+
+		@Override
+		public void onSensorChanged( final SensorEvent event ) {
+			final DeadReckoningLocationProvider provider = DeadReckoningLocationProvider.this;
+			switch ( event.sensor.getType() ) {
+			case Sensor.TYPE_MAGNETIC_FIELD:
+				System.arraycopy( event.values, 0, provider.geomagnetic, 0, 3 );
+				provider.hasGeomagnetic = true;
+				provider.updateHeadingFromAccelerometerAndCompass();
+				break;
+
+			case Sensor.TYPE_ROTATION_VECTOR:
+				// some devices deliver 5 values, getRotationMatrixFromVector() fails on those before API 19
+				System.arraycopy( event.values, 0, provider.rotationVector, 0, Math.min( 4, event.values.length ) );
+				provider.hasRotationVector = true;
+				SensorManager.getRotationMatrixFromVector( provider.rotationMatrix, provider.rotationVector );
+				provider.updateHeading();
+				break;
+			}
+		}
+
+		@Override
+		public void onAccuracyChanged( final Sensor sensor, final int accuracy ) {
+		}
+	};
+
+	/** samples and steps of accelerometerProvider, called on sensor thread */
+	private final LocationProvider.AccelerometerListener accelerometerListener = new LocationProvider.AccelerometerListener() {
+
+		@Override
+		public void onAccelerometer( final float[] values, final long timestampNs, final boolean step ) {
+			DeadReckoningLocationProvider.this.onAccelerometer( values, step );
+		}
+	};
+
+	/** advances engine, runs on sensor thread */
+	private final Runnable tickRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			if ( DeadReckoningLocationProvider.this.engine.tick( SystemClock.elapsedRealtime() * 1000000L ) ) {
+				DeadReckoningLocationProvider.this.mainHandler.removeCallbacks( DeadReckoningLocationProvider.this.emitRunnable );
+				DeadReckoningLocationProvider.this.mainHandler.post( DeadReckoningLocationProvider.this.emitRunnable );
+			}
+			final Handler handler = DeadReckoningLocationProvider.this.sensorHandler;
+			if ( handler != null ) {
+				handler.postDelayed( this, DeadReckoningLocationProvider.this.emitIntervalMs );
+			}
+		}
+	};
+
+	/** hands current position to locationListener, runs on main thread */
+	private final Runnable emitRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			final DeadReckoningLocationProvider provider = DeadReckoningLocationProvider.this;
+			synchronized ( provider.lastFix ) {
+				if ( !provider.hasFix ) {
+					return;
+				}
+				provider.emitted.set( provider.lastFix );
+			}
+			provider.emitted.setLatitude( provider.engine.getLatitude() );
+			provider.emitted.setLongitude( provider.engine.getLongitude() );
+			provider.emitted.setAccuracy( provider.engine.getAccuracy() );
+			provider.locationListener.onLocationChanged( provider.emitted );
+		}
+	};
+
+	public DeadReckoningLocationProvider( final Context context, final LocationListener locationListener ) {
+		this( context, locationListener, DEFAULT_EMIT_INTERVAL_MS );
+	}
+
+	/**
+	 * @param emitIntervalMs interval of interpolated positions, e.g. 100 for 10 Hz
+	 */
+	public DeadReckoningLocationProvider( final Context context, final LocationListener locationListener, final int emitIntervalMs ) {
+		this( context, locationListener, emitIntervalMs, null );
+	}
+
+	/**
+	 * @param emitIntervalMs interval of interpolated positions, e.g. 100 for 10 Hz
+	 * @param fingerprintFile Wi-Fi fingerprint database for indoor fixes ({@link WifiFingerprintLocationProvider}), null to use GPS / network only
+	 */
+	public DeadReckoningLocationProvider( final Context context, final LocationListener locationListener, final int emitIntervalMs, final File fingerprintFile ) {
+		this.locationListener = locationListener;
+		this.emitIntervalMs = emitIntervalMs;
+		this.sensorManager = (SensorManager)context.getSystemService( Context.SENSOR_SERVICE );
+		if ( fingerprintFile != null ) {
+			final WifiFingerprintLocationProvider wifiProvider = new WifiFingerprintLocationProvider( context, this.fixListener, fingerprintFile );
+			this.accelerometerProvider = wifiProvider.getOutdoorProvider();
+			this.fixProvider = wifiProvider;
+		} else {
+			this.accelerometerProvider = new LocationProvider( context, this.fixListener );
+			this.fixProvider = this.accelerometerProvider;
+		}
+	}
+
+	@Override
+	public void onResume() {
+		this.sensorThread = new HandlerThread( "DeadReckoning", Process.THREAD_PRIORITY_MORE_FAVORABLE );
+		this.sensorThread.start();
+		this.sensorHandler = new Handler( this.sensorThread.getLooper() );
+		this.hasRotationVector = this.hasGravity = this.hasGeomagnetic = false;
+
+		/* fix provider registers the accelerometer anyway, reuse its registration and step detection */
+		this.accelerometerProvider.setAccelerometerListener( this.accelerometerListener, this.sensorHandler );
+		this.fixProvider.onResume();
+
+		if ( this.sensorManager != null ) {
+			if ( !this.registerSensor( Sensor.TYPE_ROTATION_VECTOR ) ) {
+				this.registerSensor( Sensor.TYPE_MAGNETIC_FIELD );
+			}
+		}
+		this.sensorHandler.post( this.tickRunnable );
+	}
+
+	@Override
+	public void onPause() {
+		this.fixProvider.onPause();
+		if ( this.sensorManager != null ) {
+			this.sensorManager.unregisterListener( this.sensorListener );
+		}
+		if ( this.sensorThread != null ) {
+			this.sensorHandler.removeCallbacks( this.tickRunnable );
+			this.sensorHandler = null;
+			this.sensorThread.quit();
+			this.sensorThread = null;
+		}
+		this.mainHandler.removeCallbacks( this.emitRunnable );
+	}
+
+	/**
+	 * @return true if sensor exists and was registered on sensor thread
+	 */
+	private boolean registerSensor( final int type ) {
+		final Sensor sensor = this.sensorManager.getDefaultSensor( type );
+		return sensor != null && this.sensorManager.registerListener( this.sensorListener, sensor, SensorManager.SENSOR_DELAY_GAME, this.sensorHandler );
+	}
+
+	/**
+	 * counts steps, accelerometer doubles as gravity sensor for heading without rotation vector. Runs on sensor thread.
+	 */
+	private void onAccelerometer( final float[] values, final boolean step ) {
+		if ( step ) {
+			this.engine.onStep();
+		}
+		if ( !this.hasRotationVector ) {
+			System.arraycopy( values, 0, this.gravity, 0, 3 );
+			this.hasGravity = true;
+			this.updateHeadingFromAccelerometerAndCompass();
+		}
+	}
+
+	private void updateHeadingFromAccelerometerAndCompass() {
+		if ( this.hasGravity && this.hasGeomagnetic && SensorManager.getRotationMatrix( this.rotationMatrix, null, this.gravity, this.geomagnetic ) ) {
+			this.updateHeading();
+		}
+	}
+
+	/**
+	 * heading of camera view direction (device -Z axis) projected to ground, independent of screen orientation
+	 */
+	private void updateHeading() {
+		final float east = -this.rotationMatrix[2];
+		final float north = -this.rotationMatrix[5];
+		if ( east * east + north * north >= MIN_HORIZONTAL_COMPONENT * MIN_HORIZONTAL_COMPONENT ) {
+			this.engine.onHeading( Math.atan2( east, north ) );
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package com.wikitude.samples;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.wikitude.samples.utils.memory.MemoryGovernor;
+import com.wikitude.samples.utils.memory.Releasable;
+
+/**
+ * Ground elevation of any lat/lon, bilinearly interpolated from a digital elevation model (e.g. SRTM, ASTER GDEM) in a memory-mapped grid file.
+ * The grid is stored in square tiles so the four samples of a lookup are usually read from one tile. Decoded tiles are kept in a small LRU cache,
+ * POIs of one area hit the same few tiles, so enriching thousands of POIs costs a few hash lookups and multiplications each.
+ * Mapped file pages are managed by the OS, only the tile cache is released on memory pressure. All methods are thread-safe.
+ * <p>
+ * File format (big endian): int magic 'DEM1', int rows, int columns, int tile size, double latitude of first row, double longitude of first column,
+ * double cell size in degrees, followed by tiles in row-major order, each tile size x tile size shorts (meters, row-major, rows from north to south).
+ * Samples outside the grid and voids are NO_DATA.
+ */
+public class ElevationService implements Releasable {
+
+	/** sample value of voids, as used by SRTM */
+	public static final short NO_DATA = -32768;
+
+	private static final int MAGIC = 0x44454D31;
+
+	private static final int HEADER_BYTES = 4 * 4 + 3 * 8;
+
+	/** tiles kept on TIER_TRIM */
+	private static final int TRIMMED_TILES = 2;
+
+	private final ByteBuffer grid;
+
+	private final int rows, columns, tileSize, tilesPerRow;
+
+	private final double north, west, cellSize;
+
+	private final int maxCachedTiles;
+
+	/** tile index -> decoded samples, access ordered */
+	private final LinkedHashMap<Integer, short[]> tiles;
+
+	/** most recently used tile, spares the map lookup for consecutive lookups in one tile */
+	private int lastTileIndex = -1;
+	private short[] lastTile;
+
+	/**
+	 * @param file grid file, see class description for format
+	 * @param maxCachedTiles number of decoded tiles kept in memory
+	 * @throws IOException if file can't be read or isn't a grid file
+	 */
+	public ElevationService( final File file, final int maxCachedTiles ) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile( file, "r" );
+		try {
+			// mapping stays valid after channel is closed
+			this.grid = raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, raf.length() );
+		} finally {
+			raf.close();
+		}
+		if ( this.grid.capacity() < HEADER_BYTES || this.grid.getInt( 0 ) != MAGIC ) {
+			throw new IOException( "not an elevation grid: " + file );
+		}
+		this.rows = this.grid.getInt( 4 );
+		this.columns = this.grid.getInt( 8 );
+		this.tileSize = this.grid.getInt( 12 );
+		this.north = this.grid.getDouble( 16 );
+		this.west = this.grid.getDouble( 24 );
+		this.cellSize = this.grid.getDouble( 32 );
+		if ( this.rows < 2 || this.columns < 2 || this.tileSize < 2 || this.cellSize <= 0 ) {
+			throw new IOException( "invalid elevation grid header: " + file );
+		}
+		this.tilesPerRow = ( this.columns + this.tileSize - 1 ) / this.tileSize;
+		final long tileRows = ( this.rows + this.tileSize - 1 ) / this.tileSize;
+		if ( HEADER_BYTES + tileRows * this.tilesPerRow * this.tileSize * this.tileSize * 2 > this.grid.capacity() ) {
+			throw new IOException( "truncated elevation grid: " + file );
+		}
+		this.maxCachedTiles = Math.max( 1, maxCachedTiles );
+		this.tiles = new LinkedHashMap<Integer, short[]>( 16, 0.75f, true ) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry<Integer, short[]> eldest ) {
+				return this.size() > ElevationService.this.maxCachedTiles;
+			}
+		};
+	}
+
+	/**
+	 * @return ground elevation in meters above sea level, NaN if position is outside grid or in a void
+	 */
+	public synchronized float getElevation( final double latitude, final double longitude ) {
+		final double y = ( this.north - latitude ) / this.cellSize;
+		final double x = ( longitude - this.west ) / this.cellSize;
+		if ( !( y >= 0 && x >= 0 && y <= this.rows - 1 && x <= this.columns - 1 ) ) {
+			return Float.NaN;
+		}
+		// top left sample of the cell, last row / column interpolate towards themselves
+		final int row = Math.min( (int)y, this.rows - 2 );
+		final int column = Math.min( (int)x, this.columns - 2 );
+		final double fy = y - row, fx = x - column;
+
+		final short s00, s01, s10, s11;
+		final int inTileRow = row % this.tileSize, inTileColumn = column % this.tileSize;
+		if ( inTileRow < this.tileSize - 1 && inTileColumn < this.tileSize - 1 ) {
+			// all four samples in one tile
+			final short[] tile = this.getTile( row / this.tileSize, column / this.tileSize );
+			final int offset = inTileRow * this.tileSize + inTileColumn;
+			s00 = tile[offset];
+			s01 = tile[offset + 1];
+			s10 = tile[offset + this.tileSize];
+			s11 = tile[offset + this.tileSize + 1];
+		} else {
+			s00 = this.getSample( row, column );
+			s01 = this.getSample( row, column + 1 );
+			s10 = this.getSample( row + 1, column );
+			s11 = this.getSample( row + 1, column + 1 );
+		}
+
+		if ( s00 != NO_DATA && s01 != NO_DATA && s10 != NO_DATA && s11 != NO_DATA ) {
+			final double top = s00 + ( s01 - s00 ) * fx;
+			final double bottom = s10 + ( s11 - s10 ) * fx;
+			return (float)( top + ( bottom - top ) * fy );
+		}
+		// void at a corner: interpolate the valid samples only
+		double sum = 0, weights = 0;
+		final double w00 = ( 1 - fx ) * ( 1 - fy ), w01 = fx * ( 1 - fy ), w10 = ( 1 - fx ) * fy, w11 = fx * fy;
+		if ( s00 != NO_DATA ) {
+			sum += s00 * w00;
+			weights += w00;
+		}
+		if ( s01 != NO_DATA ) {
+			sum += s01 * w01;
+			weights += w01;
+		}
+		if ( s10 != NO_DATA ) {
+			sum += s10 * w10;
+			weights += w10;
+		}
+		if ( s11 != NO_DATA ) {
+			sum += s11 * w11;
+			weights += w11;
+		}
+		return weights > 0 ? (float)( sum / weights ) : Float.NaN;
+	}
+
+	@Override
+	public synchronized long release( final int tier ) {
+		final int keep = tier >= MemoryGovernor.TIER_OPTIONAL ? 0 : TRIMMED_TILES;
+		final int remove = this.tiles.size() - keep;
+		if ( remove <= 0 ) {
+			return 0;
+		}
+		// iteration starts at least recently used tile
+		final Iterator<short[]> iterator = this.tiles.values().iterator();
+		for ( int i = 0; i < remove; i++ ) {
+			iterator.next();
+			iterator.remove();
+		}
+		if ( keep == 0 || !this.tiles.containsKey( this.lastTileIndex ) ) {
+			this.lastTileIndex = -1;
+			this.lastTile = null;
+		}
+		return (long)remove * this.tileSize * this.tileSize * 2;
+	}
+
+	private short getSample( final int row, final int column ) {
+		final short[] tile = this.getTile( row / this.tileSize, column / this.tileSize );
+		return tile[( row % this.tileSize ) * this.tileSize + column % this.tileSize];
+	}
+
+	private short[] getTile( final int tileRow, final int tileColumn ) {
+		final int index = tileRow * this.tilesPerRow + tileColumn;
+		if ( index == this.lastTileIndex ) {
+			return this.lastTile;
+		}
+		short[] tile = this.tiles.get( index );
+		if ( tile == null ) {
+			tile = new short[this.tileSize * this.tileSize];
+			final ByteBuffer source = this.grid.duplicate();
+			source.position( HEADER_BYTES + index * this.tileSize * this.tileSize * 2 );
+			source.asShortBuffer().get( tile );
+			this.tiles.put( index, tile );
+		}
+		this.lastTileIndex = index;
+		this.lastTile = tile;
+		return tile;
+	}
+
+	/**
+	 * writes a grid file, e.g. to convert DEM data on a desktop JVM before bundling it with the app
+	 * @param samples rows * columns elevations in meters, row-major from north to south, NO_DATA for voids
+	 * @param north latitude of first row
+	 * @param west longitude of first column
+	 * @param cellSize distance of samples in degrees
+	 */
+	public static void write( final File file, final short[] samples, final int rows, final int columns, final int tileSize, final double north, final double west, final double cellSize ) throws IOException {
+		final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ), 64 * 1024 ) );
+		try {
+			out.writeInt( MAGIC );
+			out.writeInt( rows );
+			out.writeInt( columns );
+			out.writeInt( tileSize );
+			out.writeDouble( north );
+			out.writeDouble( west );
+			out.writeDouble( cellSize );
+			final short[] tile = new short[tileSize * tileSize];
+			for ( int tileRow = 0; tileRow * tileSize < rows; tileRow++ ) {
+				for ( int tileColumn = 0; tileColumn * tileSize < columns; tileColumn++ ) {
+					Arrays.fill( tile, NO_DATA );
+					for ( int r = 0; r < tileSize && tileRow * tileSize + r < rows; r++ ) {
+						final int columnsInTile = Math.min( tileSize, columns - tileColumn * tileSize );
+						System.arraycopy( samples, ( tileRow * tileSize + r ) * columns + tileColumn * tileSize, tile, r * tileSize, columnsInTile );
+					}
+					for ( final short sample : tile ) {
+						out.writeShort( sample );
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
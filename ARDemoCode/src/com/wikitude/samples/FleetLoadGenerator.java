@@ -0,0 +1,580 @@
+package com.wikitude.samples;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Synthetic fleet for load testing the unit feed, a structured version of getRandomLatLonNearby(): 1k - 100k units walk or drive along a street grid around a centre,
+ * turn at intersections, stop for a while now and then and report fixes with GPS noise.
+ * Updates are emitted at a fixed total rate, round robin over the fleet, into a {@link Sink}: the native pipeline (onUnitPosition()) or a feed endpoint ({@link FeedSink}).
+ * Units only advance when they are emitted, so the generator's cost depends on the update rate, not on the fleet size.
+ * Batches go from the generator thread to the sink thread through a fixed pool, batches finding no free slot are dropped, so a slow stage shows up as drops instead of growing lag.
+ * Lag is measured from generation until the sink returned (native pipeline updated, or feed endpoint answered), CPU time per thread and of the whole process, see {@link #getStats()}.
+ */
+public class FleetLoadGenerator {
+
+	/** unit kinds, same order as the client's unit types: officers on foot or in patrol cars, K-9 units, technicians driving */
+	public static final int KIND_OFFICER = 0, KIND_K9 = 1, KIND_TECHNICIAN = 2;
+
+	/** generated fleets are sized for 1k - 100k units */
+	public static final int MAX_UNITS = 100 * 1000;
+
+	/** default spread of the fleet around its centre */
+	public static final double DEFAULT_RADIUS_METERS = 3000;
+
+	/** distance between intersections of the street grid */
+	private static final double BLOCK_METERS = 100;
+
+	/** emit interval, updates due in between go out in one batch */
+	private static final long TICK_MS = 50;
+
+	/** batches waiting for the sink, beyond this the sink is too slow and batches are dropped */
+	private static final int QUEUED_BATCHES = 4;
+
+	/** a batch holds the updates of this many ticks, so late ticks (GC, scheduling) still emit all updates due */
+	private static final int BATCH_TICKS = 4;
+
+	/** chance to stop at an intersection (dispatch, traffic), and for how long at most */
+	private static final double DWELL_PROBABILITY = 0.05;
+	private static final long MAX_DWELL_MS = 60 * 1000;
+
+	/** standard deviation of reported fixes around the true position */
+	private static final double GPS_NOISE_METERS = 4;
+
+	/** lag histogram of 1 ms buckets, lags beyond count into the last bucket */
+	private static final int LAG_BUCKETS = 5000;
+
+	private static final long REPORT_INTERVAL_MS = 5000;
+
+	private static final double METERS_PER_DEGREE = 111320.0;
+
+	private static final String TAG = "FleetLoadGenerator";
+
+	/**
+	 * receives batches of generated updates, on the generator's sink thread
+	 */
+	public interface Sink {
+
+		/**
+		 * @param count valid entries of the arrays, which are reused after returning
+		 * @param timesMs generation times, System.currentTimeMillis() time base
+		 * @throws IOException if delivery failed, updates count as dropped
+		 */
+		void deliver( int[] ids, double[] latitudes, double[] longitudes, long[] timesMs, int count ) throws IOException;
+	}
+
+	/**
+	 * posts batches as "id,lat,lon,timeMs" lines, the format of DispatchServer's /positions endpoint
+	 */
+	public static final class FeedSink implements Sink {
+
+		private static final int TIMEOUT_MS = 5000;
+
+		private final URL url;
+
+		private final StringBuilder body = new StringBuilder( 64 * 1024 );
+
+		private final byte[] buffer = new byte[4096];
+
+		/**
+		 * @param url e.g. http://10.0.2.2:8080/positions for a server on the emulator's host
+		 */
+		public FeedSink( final URL url ) {
+			this.url = url;
+		}
+
+		@Override
+		public void deliver( final int[] ids, final double[] latitudes, final double[] longitudes, final long[] timesMs, final int count ) throws IOException {
+			this.body.setLength( 0 );
+			for ( int i = 0; i < count; i++ ) {
+				this.body.append( ids[i] ).append( ',' ).append( latitudes[i] ).append( ',' ).append( longitudes[i] ).append( ',' ).append( timesMs[i] ).append( '\n' );
+			}
+			final byte[] bytes = this.body.toString().getBytes( "UTF-8" );
+			final HttpURLConnection connection = (HttpURLConnection)this.url.openConnection();
+			connection.setConnectTimeout( TIMEOUT_MS );
+			connection.setReadTimeout( TIMEOUT_MS );
+			connection.setDoOutput( true );
+			connection.setRequestMethod( "POST" );
+			connection.setRequestProperty( "Content-Type", "text/plain; charset=utf-8" );
+			connection.setFixedLengthStreamingMode( bytes.length );
+			final OutputStream out = connection.getOutputStream();
+			try {
+				out.write( bytes );
+			} finally {
+				out.close();
+			}
+			final int status = connection.getResponseCode();
+			if ( status != HttpURLConnection.HTTP_OK ) {
+				connection.disconnect();
+				throw new IOException( "feed answered " + status );
+			}
+			// reading the response completely keeps the connection alive for the next batch
+			final InputStream in = connection.getInputStream();
+			try {
+				while ( in.read( this.buffer ) >= 0 ) {
+					// discard
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * snapshot of counters since start()
+	 */
+	public static final class Stats {
+
+		public int units;
+
+		public long generated, delivered;
+
+		/** updates the generator could not emit in time, batches the sink didn't take in time, batches the sink failed on */
+		public long droppedGenerator, droppedQueueFull, droppedFailed;
+
+		/** generation until sink returned */
+		public double meanLagMs;
+		public long p50LagMs, p99LagMs, maxLagMs;
+
+		/** CPU time of generator thread, of sink thread (including the pipeline it calls) and of the whole process */
+		public long generatorCpuMs, sinkCpuMs, processCpuMs;
+
+		public long elapsedMs;
+
+		public double getDeliveredPerSecond() {
+			return this.elapsedMs > 0 ? this.delivered * 1000.0 / this.elapsedMs : 0;
+		}
+
+		/**
+		 * @return process CPU time per elapsed time, 1 equals one fully busy core
+		 */
+		public double getProcessCpuLoad() {
+			return this.elapsedMs > 0 ? this.processCpuMs / (double)this.elapsedMs : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format( "%d units, generated %d, delivered %d (%.0f/s), dropped %d generator / %d queue full / %d failed, lag mean %.1f ms p50 %d ms p99 %d ms max %d ms, cpu generator %d ms sink %d ms process %d ms (%.0f%% of a core) over %d ms", this.units, this.generated, this.delivered, this.getDeliveredPerSecond(), this.droppedGenerator, this.droppedQueueFull, this.droppedFailed, this.meanLagMs, this.p50LagMs, this.p99LagMs, this.maxLagMs, this.generatorCpuMs, this.sinkCpuMs, this.processCpuMs, this.getProcessCpuLoad() * 100, this.elapsedMs );
+		}
+	}
+
+	/**
+	 * updates of one tick, pooled
+	 */
+	private static final class Batch {
+
+		final int[] ids;
+		final double[] latitudes, longitudes;
+		final long[] timesMs;
+		int count;
+
+		Batch( final int capacity ) {
+			this.ids = new int[capacity];
+			this.latitudes = new double[capacity];
+			this.longitudes = new double[capacity];
+			this.timesMs = new long[capacity];
+		}
+	}
+
+	private final Sink sink;
+
+	private final int ratePerSecond;
+
+	private final double centerLatitude, centerLongitude, metersPerDegreeLongitude;
+
+	/** grid nodes farther than this from the centre are not entered */
+	private final int maxBlocks;
+
+	private final Random random;
+
+	/* per unit, unit id is index + 1. Units move from node (fromRow, fromColumn) to the adjacent node (toRow, toColumn), leaving at departMs */
+	private final int[] kinds, fromRows, fromColumns, toRows, toColumns;
+	private final long[] departMs;
+	private final float[] speeds;
+
+	/** reused by generator thread */
+	private final double[] position = new double[2];
+
+	/** next unit to emit, round robin */
+	private int cursor = 0;
+
+	/** fraction of an update carried to the next tick, keeps low rates exact */
+	private double carry = 0;
+
+	private final ArrayBlockingQueue<Batch> freeBatches = new ArrayBlockingQueue<Batch>( QUEUED_BATCHES );
+	private final ArrayBlockingQueue<Batch> readyBatches = new ArrayBlockingQueue<Batch>( QUEUED_BATCHES );
+
+	private HandlerThread generatorThread, sinkThread;
+
+	private Handler generatorHandler, sinkHandler;
+
+	private long lastTickMs, lastReportMs;
+
+	/* counters, guarded by this */
+	private long startedAtMs, startedProcessCpuMs, generated, delivered, droppedGenerator, droppedQueueFull, droppedFailed, lagSumMs, maxLagMs, generatorCpuNs, sinkCpuNs;
+	private final long[] lagHistogram = new long[LAG_BUCKETS];
+
+	/** thread CPU time at start of each thread, only touched by that thread */
+	private long generatorCpuStartNs, sinkCpuStartNs;
+
+	private final Runnable tickRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			FleetLoadGenerator.this.tick();
+			final Handler handler = FleetLoadGenerator.this.generatorHandler;
+			if ( handler != null ) {
+				handler.postDelayed( this, TICK_MS );
+			}
+		}
+	};
+
+	private final Runnable drainRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			FleetLoadGenerator.this.drain();
+		}
+	};
+
+	/**
+	 * places units on the street grid, call start() to emit updates
+	 * @param units fleet size, at most MAX_UNITS
+	 * @param ratePerSecond updates per second of the whole fleet, each unit reports every units / ratePerSecond seconds
+	 * @param seed same seed gives same fleet and paths
+	 */
+	public FleetLoadGenerator( final double centerLatitude, final double centerLongitude, final double radiusMeters, final int units, final int ratePerSecond, final long seed, final Sink sink ) {
+		if ( units <= 0 || units > MAX_UNITS || ratePerSecond <= 0 ) {
+			throw new IllegalArgumentException( "1 - " + MAX_UNITS + " units and a positive rate required" );
+		}
+		this.sink = sink;
+		this.ratePerSecond = ratePerSecond;
+		this.centerLatitude = centerLatitude;
+		this.centerLongitude = centerLongitude;
+		this.metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos( Math.toRadians( centerLatitude ) );
+		this.maxBlocks = Math.max( 1, (int)( radiusMeters / BLOCK_METERS ) );
+		this.random = new Random( seed );
+		this.kinds = new int[units];
+		this.fromRows = new int[units];
+		this.fromColumns = new int[units];
+		this.toRows = new int[units];
+		this.toColumns = new int[units];
+		this.departMs = new long[units];
+		this.speeds = new float[units];
+
+		final long nowMs = System.currentTimeMillis();
+		for ( int i = 0; i < units; i++ ) {
+			this.kinds[i] = i % 3;
+			this.speeds[i] = this.randomSpeed( this.kinds[i] );
+			// uniform over the disc of intersections
+			final double distance = this.maxBlocks * Math.sqrt( this.random.nextDouble() );
+			final double bearing = this.random.nextDouble() * 2 * Math.PI;
+			this.fromRows[i] = (int)Math.round( distance * Math.cos( bearing ) );
+			this.fromColumns[i] = (int)Math.round( distance * Math.sin( bearing ) );
+			this.toRows[i] = this.fromRows[i];
+			this.toColumns[i] = this.fromColumns[i];
+			this.chooseNextNode( i, this.random.nextInt( 4 ) );
+			// somewhere along its first block already
+			this.departMs[i] = nowMs - (long)( this.random.nextDouble() * this.blockMs( i ) );
+		}
+
+		final int batchCapacity = (int)Math.min( units, Math.ceil( ratePerSecond * TICK_MS / 1000.0 ) * BATCH_TICKS ) + 1;
+		for ( int i = 0; i < QUEUED_BATCHES; i++ ) {
+			this.freeBatches.add( new Batch( batchCapacity ) );
+		}
+	}
+
+	public int getUnitCount() {
+		return this.kinds.length;
+	}
+
+	/**
+	 * @param index 0 .. getUnitCount() - 1
+	 * @return id of unit, used as POI id
+	 */
+	public int getUnitId( final int index ) {
+		return index + 1;
+	}
+
+	/**
+	 * @return one of KIND_*
+	 */
+	public int getKind( final int index ) {
+		return this.kinds[index];
+	}
+
+	/**
+	 * true position of unit, without GPS noise. Not thread-safe with a running generator, call before start()
+	 * @param out receives latitude and longitude
+	 */
+	public void getPosition( final int index, final long nowMs, final double[] out ) {
+		this.advance( index, nowMs );
+		this.position( index, nowMs, out );
+	}
+
+	/**
+	 * starts emitting, counters restart
+	 */
+	public synchronized void start() {
+		if ( this.generatorThread != null ) {
+			return;
+		}
+		this.resetCounters();
+		// batches discarded by stop()
+		this.readyBatches.drainTo( this.freeBatches );
+		this.sinkThread = new HandlerThread( "FleetLoadSink", Process.THREAD_PRIORITY_DEFAULT );
+		this.sinkThread.start();
+		this.sinkHandler = new Handler( this.sinkThread.getLooper() );
+		this.sinkHandler.post( new Runnable() {
+
+			@Override
+			public void run() {
+				FleetLoadGenerator.this.sinkCpuStartNs = Debug.threadCpuTimeNanos();
+			}
+		} );
+		this.generatorThread = new HandlerThread( "FleetLoadGenerator", Process.THREAD_PRIORITY_DEFAULT );
+		this.generatorThread.start();
+		this.generatorHandler = new Handler( this.generatorThread.getLooper() );
+		this.generatorHandler.post( new Runnable() {
+
+			@Override
+			public void run() {
+				FleetLoadGenerator.this.generatorCpuStartNs = Debug.threadCpuTimeNanos();
+				FleetLoadGenerator.this.lastTickMs = System.currentTimeMillis();
+				FleetLoadGenerator.this.lastReportMs = FleetLoadGenerator.this.lastTickMs;
+			}
+		} );
+		this.generatorHandler.postDelayed( this.tickRunnable, TICK_MS );
+	}
+
+	/**
+	 * stops emitting, batches not delivered yet are discarded
+	 */
+	public synchronized void stop() {
+		if ( this.generatorThread == null ) {
+			return;
+		}
+		this.generatorHandler.removeCallbacks( this.tickRunnable );
+		this.generatorHandler = null;
+		this.generatorThread.quit();
+		this.generatorThread = null;
+		this.sinkHandler = null;
+		this.sinkThread.quit();
+		this.sinkThread = null;
+	}
+
+	public synchronized Stats getStats() {
+		final Stats stats = new Stats();
+		stats.units = this.kinds.length;
+		stats.generated = this.generated;
+		stats.delivered = this.delivered;
+		stats.droppedGenerator = this.droppedGenerator;
+		stats.droppedQueueFull = this.droppedQueueFull;
+		stats.droppedFailed = this.droppedFailed;
+		stats.meanLagMs = this.delivered > 0 ? this.lagSumMs / (double)this.delivered : 0;
+		stats.p50LagMs = this.lagPercentile( 0.5 );
+		stats.p99LagMs = this.lagPercentile( 0.99 );
+		stats.maxLagMs = this.maxLagMs;
+		stats.generatorCpuMs = this.generatorCpuNs / 1000000;
+		stats.sinkCpuMs = this.sinkCpuNs / 1000000;
+		stats.processCpuMs = Process.getElapsedCpuTime() - this.startedProcessCpuMs;
+		stats.elapsedMs = System.currentTimeMillis() - this.startedAtMs;
+		return stats;
+	}
+
+	/**
+	 * emits updates due since last tick, runs on generator thread
+	 */
+	private void tick() {
+		final long nowMs = System.currentTimeMillis();
+		final double due = this.ratePerSecond * ( nowMs - this.lastTickMs ) / 1000.0 + this.carry;
+		this.lastTickMs = nowMs;
+		final int count = (int)due;
+		this.carry = due - count;
+
+		final Batch batch = this.freeBatches.poll();
+		if ( batch == null ) {
+			// sink is still busy with all batches
+			synchronized ( this ) {
+				this.generated += count;
+				this.droppedQueueFull += count;
+			}
+		} else {
+			final int emitted = Math.min( count, batch.ids.length );
+			final double[] position = this.position;
+			for ( int i = 0; i < emitted; i++ ) {
+				final int index = this.cursor;
+				this.cursor = ( this.cursor + 1 ) % this.kinds.length;
+				this.advance( index, nowMs );
+				this.position( index, nowMs, position );
+				batch.ids[i] = index + 1;
+				batch.latitudes[i] = position[0] + this.random.nextGaussian() * GPS_NOISE_METERS / METERS_PER_DEGREE;
+				batch.longitudes[i] = position[1] + this.random.nextGaussian() * GPS_NOISE_METERS / this.metersPerDegreeLongitude;
+				batch.timesMs[i] = nowMs;
+			}
+			batch.count = emitted;
+			synchronized ( this ) {
+				this.generated += count;
+				// tick came too late to emit all updates due
+				this.droppedGenerator += count - emitted;
+			}
+			this.readyBatches.add( batch );
+			final Handler sinkHandler = this.sinkHandler;
+			if ( sinkHandler != null ) {
+				sinkHandler.post( this.drainRunnable );
+			}
+		}
+
+		synchronized ( this ) {
+			this.generatorCpuNs = Debug.threadCpuTimeNanos() - this.generatorCpuStartNs;
+		}
+		if ( nowMs - this.lastReportMs >= REPORT_INTERVAL_MS ) {
+			this.lastReportMs = nowMs;
+			Log.i( TAG, this.getStats().toString() );
+		}
+	}
+
+	/**
+	 * hands ready batches to the sink, runs on sink thread
+	 */
+	private void drain() {
+		Batch batch;
+		while ( ( batch = this.readyBatches.poll() ) != null ) {
+			boolean failed = false;
+			try {
+				this.sink.deliver( batch.ids, batch.latitudes, batch.longitudes, batch.timesMs, batch.count );
+			} catch ( final IOException e ) {
+				Log.w( TAG, "delivery failed: " + e.getMessage() );
+				failed = true;
+			}
+			final long nowMs = System.currentTimeMillis();
+			synchronized ( this ) {
+				if ( failed ) {
+					this.droppedFailed += batch.count;
+				} else {
+					for ( int i = 0; i < batch.count; i++ ) {
+						final long lagMs = Math.max( 0, nowMs - batch.timesMs[i] );
+						this.lagSumMs += lagMs;
+						this.maxLagMs = Math.max( this.maxLagMs, lagMs );
+						this.lagHistogram[(int)Math.min( LAG_BUCKETS - 1, lagMs )]++;
+					}
+					this.delivered += batch.count;
+				}
+				this.sinkCpuNs = Debug.threadCpuTimeNanos() - this.sinkCpuStartNs;
+			}
+			batch.count = 0;
+			this.freeBatches.add( batch );
+		}
+	}
+
+	/**
+	 * moves unit along blocks until it is on the block it travels at given time
+	 */
+	private void advance( final int index, final long nowMs ) {
+		long arrivalMs;
+		while ( ( arrivalMs = this.departMs[index] + this.blockMs( index ) ) <= nowMs ) {
+			final int rowStep = this.toRows[index] - this.fromRows[index], columnStep = this.toColumns[index] - this.fromColumns[index];
+			this.fromRows[index] = this.toRows[index];
+			this.fromColumns[index] = this.toColumns[index];
+			// mostly straight on, sometimes turn, rarely back
+			final double turn = this.random.nextDouble();
+			final int direction = turn < 0.6 ? 0 : turn < 0.75 ? 1 : turn < 0.9 ? 3 : 2;
+			this.chooseNextNode( index, ( directionOf( rowStep, columnStep ) + direction ) % 4 );
+			this.departMs[index] = arrivalMs;
+			if ( this.random.nextDouble() < DWELL_PROBABILITY ) {
+				this.departMs[index] += (long)( this.random.nextDouble() * MAX_DWELL_MS );
+			}
+		}
+	}
+
+	/**
+	 * sets next node in given direction (0 north, 1 east, 2 south, 3 west), turns if it is beyond the fleet's radius
+	 */
+	private void chooseNextNode( final int index, final int direction ) {
+		final int row = this.fromRows[index], column = this.fromColumns[index];
+		for ( int i = 0; i < 4; i++ ) {
+			final int d = ( direction + i ) % 4;
+			final int nextRow = row + ( d == 0 ? 1 : d == 2 ? -1 : 0 );
+			final int nextColumn = column + ( d == 1 ? 1 : d == 3 ? -1 : 0 );
+			if ( nextRow * nextRow + nextColumn * nextColumn <= this.maxBlocks * this.maxBlocks ) {
+				this.toRows[index] = nextRow;
+				this.toColumns[index] = nextColumn;
+				return;
+			}
+		}
+		// single node fleet, stay
+		this.toRows[index] = row;
+		this.toColumns[index] = column;
+	}
+
+	private void position( final int index, final long nowMs, final double[] out ) {
+		final double progress = Math.max( 0, Math.min( 1, ( nowMs - this.departMs[index] ) / (double)this.blockMs( index ) ) );
+		final double row = this.fromRows[index] + ( this.toRows[index] - this.fromRows[index] ) * progress;
+		final double column = this.fromColumns[index] + ( this.toColumns[index] - this.fromColumns[index] ) * progress;
+		out[0] = this.centerLatitude + row * BLOCK_METERS / METERS_PER_DEGREE;
+		out[1] = this.centerLongitude + column * BLOCK_METERS / this.metersPerDegreeLongitude;
+	}
+
+	private long blockMs( final int index ) {
+		return Math.max( 1, (long)( BLOCK_METERS * 1000 / this.speeds[index] ) );
+	}
+
+	private float randomSpeed( final int kind ) {
+		switch ( kind ) {
+			case KIND_OFFICER:
+				// a third patrols by car
+				return this.random.nextInt( 3 ) == 0 ? 8 + this.random.nextFloat() * 6 : 1.2f + this.random.nextFloat() * 0.6f;
+			case KIND_K9:
+				return 2 + this.random.nextFloat() * 1.5f;
+			default:
+				return 6 + this.random.nextFloat() * 6;
+		}
+	}
+
+	/**
+	 * @return direction of a step between adjacent nodes, 0 north, 1 east, 2 south, 3 west
+	 */
+	private static int directionOf( final int rowStep, final int columnStep ) {
+		return rowStep > 0 ? 0 : columnStep > 0 ? 1 : rowStep < 0 ? 2 : 3;
+	}
+
+	private long lagPercentile( final double fraction ) {
+		final long target = (long)Math.ceil( this.delivered * fraction );
+		long seen = 0;
+		for ( int i = 0; i < LAG_BUCKETS; i++ ) {
+			seen += this.lagHistogram[i];
+			if ( seen >= target && seen > 0 ) {
+				return Math.min( i, this.maxLagMs );
+			}
+		}
+		return 0;
+	}
+
+	private synchronized void resetCounters() {
+		this.startedAtMs = System.currentTimeMillis();
+		this.startedProcessCpuMs = Process.getElapsedCpuTime();
+		this.generated = 0;
+		this.delivered = 0;
+		this.droppedGenerator = 0;
+		this.droppedQueueFull = 0;
+		this.droppedFailed = 0;
+		this.lagSumMs = 0;
+		this.maxLagMs = 0;
+		this.generatorCpuNs = 0;
+		this.sinkCpuNs = 0;
+		for ( int i = 0; i < LAG_BUCKETS; i++ ) {
+			this.lagHistogram[i] = 0;
+		}
+	}
+}
@@ -0,0 +1,526 @@
+package com.wikitude.samples;
+
+import java.util.Arrays;
+
+import com.wikitude.samples.utils.collections.IntIntMap;
+import com.wikitude.samples.utils.memory.Releasable;
+
+/**
+ * Evaluates unit positions against polygon geofences (buildings, perimeters) and reports enter / exit transitions per unit.
+ * Fence bounding boxes are indexed in a uniform lat/lon grid, exact point-in-polygon tests run only for fences whose box contains the point.
+ * Fences spanning more than MAX_FENCE_CELLS cells (districts, whole sites) are not put into the grid but box-tested for every position.
+ * Polygons, grid and per-unit membership live in primitive arrays, evaluating a position allocates nothing.
+ * Fences may be added at any time, the grid is rebuilt lazily on next evaluation.
+ * Transitions are collected during evaluation and handed out in batches by {@link #drainTransitions(Listener)}, outside the engine's lock.
+ * Register it with MemoryGovernor: units outside all fences are dropped (they are tracked again once they enter one), on TIER_OPTIONAL the grid is dropped too.
+ * All methods are thread-safe.
+ */
+public class GeofenceEngine implements Releasable {
+
+	/**
+	 * notified about membership changes, on the thread calling {@link GeofenceEngine#drainTransitions(Listener)}
+	 */
+	public interface Listener {
+		void onGeofenceTransition( int unitId, int fenceId, boolean entered );
+	}
+
+	/** default grid cell size, ~110m in latitude, in the order of building sizes */
+	public static final double DEFAULT_CELL_SIZE_DEGREES = 0.001;
+
+	/** fences a unit can be inside at the same time, further overlapping fences are ignored */
+	private static final int MAX_INSIDE = 8;
+
+	/** grid cells a fence may cover, larger fences would flood the grid with references */
+	private static final int MAX_FENCE_CELLS = 256;
+
+	/** transitions kept until drained, further ones are dropped, e.g. while nobody drains */
+	private static final int MAX_PENDING_TRANSITIONS = 16 * 1024;
+
+	private final double cellSizeDegrees;
+
+	/* fences: id, vertex range in vertex arrays, bounding box */
+	private int fenceCount = 0;
+	private int[] fenceIds = new int[64];
+	private int[] fenceVertexStart = new int[64];
+	private int[] fenceVertexCount = new int[64];
+	private double[] fenceMinLat = new double[64], fenceMaxLat = new double[64], fenceMinLon = new double[64], fenceMaxLon = new double[64];
+
+	/** fence id -> fence index */
+	private final IntIntMap fenceIndexes = new IntIntMap( 64 );
+
+	/* all vertices of all fences, consecutively */
+	private int vertexCount = 0;
+	private double[] vertexLat = new double[1024], vertexLon = new double[1024];
+
+	/* grid: open addressing hash of cell key -> range in cellFences */
+	private boolean gridDirty = true;
+	private long[] cellKeys;
+	private int[] cellStart, cellFenceCount;
+	private int[] cellFences;
+
+	/** indexes of fences too large for the grid */
+	private int largeFenceCount = 0;
+	private int[] largeFences;
+
+	/* units: id and inside fence indexes per slot, MAX_INSIDE entries per unit */
+	private final IntIntMap unitSlots = new IntIntMap( 64 );
+	private int unitCount = 0;
+	private int[] unitIds = new int[64];
+	private int[] unitInside = new int[64 * MAX_INSIDE];
+	private int[] unitInsideCount = new int[64];
+
+	/** scratch buffer of fences containing current point */
+	private final int[] scratchInside = new int[MAX_INSIDE];
+
+	/** number of point-in-polygon tests, for benchmarks */
+	private long polygonTests = 0;
+
+	/* transitions since last drain: unit id, fence id, entered; swapped with the drained buffers under lock */
+	private int pendingTransitions = 0;
+	private int[] pendingUnitIds = new int[64], pendingFenceIds = new int[64];
+	private boolean[] pendingEntered = new boolean[64];
+	private int[] drainedUnitIds = new int[64], drainedFenceIds = new int[64];
+	private boolean[] drainedEntered = new boolean[64];
+
+	/** transitions dropped because nobody drained them */
+	private long droppedTransitions = 0;
+
+	/** serializes drains, the drained buffers are used outside the engine's lock */
+	private final Object drainLock = new Object();
+
+	public GeofenceEngine() {
+		this( DEFAULT_CELL_SIZE_DEGREES );
+	}
+
+	/**
+	 * @param cellSizeDegrees grid cell size, roughly the size of typical fences
+	 */
+	public GeofenceEngine( final double cellSizeDegrees ) {
+		this.cellSizeDegrees = cellSizeDegrees;
+	}
+
+	/**
+	 * adds a polygon fence, replacing fences must be removed first
+	 * @param fenceId id reported in transitions
+	 * @param latitudes polygon latitudes, in order, closing vertex optional
+	 * @param longitudes polygon longitudes
+	 */
+	public synchronized void addFence( final int fenceId, final double[] latitudes, final double[] longitudes ) {
+		if ( latitudes.length < 3 || latitudes.length != longitudes.length ) {
+			throw new IllegalArgumentException( "polygon needs at least 3 vertices" );
+		}
+		if ( this.fenceIndexes.get( fenceId ) != IntIntMap.MISSING ) {
+			throw new IllegalArgumentException( "fence " + fenceId + " already exists" );
+		}
+		if ( this.fenceCount == this.fenceIds.length ) {
+			this.growFences();
+		}
+		while ( this.vertexCount + latitudes.length > this.vertexLat.length ) {
+			this.vertexLat = Arrays.copyOf( this.vertexLat, this.vertexLat.length * 2 );
+			this.vertexLon = Arrays.copyOf( this.vertexLon, this.vertexLon.length * 2 );
+		}
+		final int fence = this.fenceCount++;
+		this.fenceIds[fence] = fenceId;
+		this.fenceVertexStart[fence] = this.vertexCount;
+		this.fenceVertexCount[fence] = latitudes.length;
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE, minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+		for ( int i = 0; i < latitudes.length; i++ ) {
+			this.vertexLat[this.vertexCount] = latitudes[i];
+			this.vertexLon[this.vertexCount] = longitudes[i];
+			this.vertexCount++;
+			minLat = Math.min( minLat, latitudes[i] );
+			maxLat = Math.max( maxLat, latitudes[i] );
+			minLon = Math.min( minLon, longitudes[i] );
+			maxLon = Math.max( maxLon, longitudes[i] );
+		}
+		this.fenceMinLat[fence] = minLat;
+		this.fenceMaxLat[fence] = maxLat;
+		this.fenceMinLon[fence] = minLon;
+		this.fenceMaxLon[fence] = maxLon;
+		this.fenceIndexes.put( fenceId, fence );
+		this.gridDirty = true;
+	}
+
+	/**
+	 * removes a fence, units inside it don't get an exit transition
+	 * @return true if fence existed
+	 */
+	public synchronized boolean removeFence( final int fenceId ) {
+		final int fence = this.fenceIndexes.remove( fenceId );
+		if ( fence == IntIntMap.MISSING ) {
+			return false;
+		}
+		// compact fences and vertices, removal is rare compared to evaluation
+		final int start = this.fenceVertexStart[fence], count = this.fenceVertexCount[fence];
+		System.arraycopy( this.vertexLat, start + count, this.vertexLat, start, this.vertexCount - start - count );
+		System.arraycopy( this.vertexLon, start + count, this.vertexLon, start, this.vertexCount - start - count );
+		this.vertexCount -= count;
+		for ( int f = fence + 1; f < this.fenceCount; f++ ) {
+			this.fenceIds[f - 1] = this.fenceIds[f];
+			this.fenceVertexStart[f - 1] = this.fenceVertexStart[f] - count;
+			this.fenceVertexCount[f - 1] = this.fenceVertexCount[f];
+			this.fenceMinLat[f - 1] = this.fenceMinLat[f];
+			this.fenceMaxLat[f - 1] = this.fenceMaxLat[f];
+			this.fenceMinLon[f - 1] = this.fenceMinLon[f];
+			this.fenceMaxLon[f - 1] = this.fenceMaxLon[f];
+			this.fenceIndexes.put( this.fenceIds[f - 1], f - 1 );
+		}
+		this.fenceCount--;
+		// fence indexes shifted: translate memberships, drop removed fence
+		for ( int unit = 0; unit < this.unitCount; unit++ ) {
+			final int base = unit * MAX_INSIDE;
+			int write = 0;
+			for ( int i = 0; i < this.unitInsideCount[unit]; i++ ) {
+				final int inside = this.unitInside[base + i];
+				if ( inside != fence ) {
+					this.unitInside[base + write++] = inside > fence ? inside - 1 : inside;
+				}
+			}
+			this.unitInsideCount[unit] = write;
+		}
+		this.gridDirty = true;
+		return true;
+	}
+
+	/**
+	 * @return number of fences
+	 */
+	public synchronized int getFenceCount() {
+		return this.fenceCount;
+	}
+
+	/**
+	 * @return number of exact point-in-polygon tests done so far
+	 */
+	public synchronized long getPolygonTests() {
+		return this.polygonTests;
+	}
+
+	/**
+	 * @return number of transitions dropped because they weren't drained in time
+	 */
+	public synchronized long getDroppedTransitions() {
+		return this.droppedTransitions;
+	}
+
+	/**
+	 * hands transitions collected since the previous drain to listener, in order. Listener runs outside the engine's lock, evaluation continues meanwhile
+	 * @return number of transitions
+	 */
+	public int drainTransitions( final Listener listener ) {
+		synchronized ( this.drainLock ) {
+			final int count;
+			synchronized ( this ) {
+				count = this.pendingTransitions;
+				final int[] unitIds = this.pendingUnitIds, fenceIds = this.pendingFenceIds;
+				final boolean[] entered = this.pendingEntered;
+				this.pendingUnitIds = this.drainedUnitIds;
+				this.pendingFenceIds = this.drainedFenceIds;
+				this.pendingEntered = this.drainedEntered;
+				this.drainedUnitIds = unitIds;
+				this.drainedFenceIds = fenceIds;
+				this.drainedEntered = entered;
+				this.pendingTransitions = 0;
+			}
+			for ( int i = 0; i < count; i++ ) {
+				listener.onGeofenceTransition( this.drainedUnitIds[i], this.drainedFenceIds[i], this.drainedEntered[i] );
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * evaluates a unit position, collects fences entered and left since the unit's previous position for the next drain
+	 * @return number of fences the unit is inside
+	 */
+	public synchronized int evaluate( final int unitId, final double lat, final double lon ) {
+		if ( this.gridDirty ) {
+			this.buildGrid();
+		}
+
+		// candidates of point's cell, exact test if box matches
+		int insideCount = 0;
+		final int cell = this.findCell( this.cellKey( lat, lon ) );
+		if ( cell >= 0 ) {
+			final int end = this.cellStart[cell] + this.cellFenceCount[cell];
+			for ( int i = this.cellStart[cell]; i < end && insideCount < MAX_INSIDE; i++ ) {
+				final int fence = this.cellFences[i];
+				if ( lat >= this.fenceMinLat[fence] && lat <= this.fenceMaxLat[fence] && lon >= this.fenceMinLon[fence] && lon <= this.fenceMaxLon[fence] && this.contains( fence, lat, lon ) ) {
+					this.scratchInside[insideCount++] = fence;
+				}
+			}
+		}
+		for ( int i = 0; i < this.largeFenceCount && insideCount < MAX_INSIDE; i++ ) {
+			final int fence = this.largeFences[i];
+			if ( lat >= this.fenceMinLat[fence] && lat <= this.fenceMaxLat[fence] && lon >= this.fenceMinLon[fence] && lon <= this.fenceMaxLon[fence] && this.contains( fence, lat, lon ) ) {
+				this.scratchInside[insideCount++] = fence;
+			}
+		}
+
+		int unit = this.unitSlots.get( unitId );
+		if ( unit == IntIntMap.MISSING ) {
+			if ( insideCount == 0 ) {
+				// don't track units that never entered a fence
+				return 0;
+			}
+			unit = this.addUnit( unitId );
+		}
+
+		// diff against previous membership, both lists are short
+		final int base = unit * MAX_INSIDE;
+		final int previousCount = this.unitInsideCount[unit];
+		for ( int i = 0; i < previousCount; i++ ) {
+			final int fence = this.unitInside[base + i];
+			if ( indexOf( this.scratchInside, insideCount, fence ) < 0 ) {
+				this.addTransition( unitId, this.fenceIds[fence], false );
+			}
+		}
+		for ( int i = 0; i < insideCount; i++ ) {
+			final int fence = this.scratchInside[i];
+			if ( indexOf( this.unitInside, base, base + previousCount, fence ) < 0 ) {
+				this.addTransition( unitId, this.fenceIds[fence], true );
+			}
+		}
+		System.arraycopy( this.scratchInside, 0, this.unitInside, base, insideCount );
+		this.unitInsideCount[unit] = insideCount;
+		return insideCount;
+	}
+
+	/**
+	 * @return true if unit is inside given fence according to its last evaluated position
+	 */
+	public synchronized boolean isInside( final int unitId, final int fenceId ) {
+		final int unit = this.unitSlots.get( unitId );
+		final int fence = this.fenceIndexes.get( fenceId );
+		if ( unit == IntIntMap.MISSING || fence == IntIntMap.MISSING ) {
+			return false;
+		}
+		return indexOf( this.unitInside, unit * MAX_INSIDE, unit * MAX_INSIDE + this.unitInsideCount[unit], fence ) >= 0;
+	}
+
+	@Override
+	public synchronized long release( final int tier ) {
+		long released = 0;
+		// units outside all fences need no state, entering a fence adds them again
+		int kept = 0;
+		this.unitSlots.clear();
+		for ( int unit = 0; unit < this.unitCount; unit++ ) {
+			if ( this.unitInsideCount[unit] > 0 ) {
+				this.unitIds[kept] = this.unitIds[unit];
+				this.unitInsideCount[kept] = this.unitInsideCount[unit];
+				System.arraycopy( this.unitInside, unit * MAX_INSIDE, this.unitInside, kept * MAX_INSIDE, MAX_INSIDE );
+				this.unitSlots.put( this.unitIds[kept], kept );
+				kept++;
+			}
+		}
+		this.unitCount = kept;
+		int capacity = 64;
+		while ( capacity < kept ) {
+			capacity *= 2;
+		}
+		if ( capacity < this.unitIds.length ) {
+			released += (long)( this.unitIds.length - capacity ) * ( 2 + MAX_INSIDE ) * 4;
+			this.unitIds = Arrays.copyOf( this.unitIds, capacity );
+			this.unitInsideCount = Arrays.copyOf( this.unitInsideCount, capacity );
+			this.unitInside = Arrays.copyOf( this.unitInside, capacity * MAX_INSIDE );
+		}
+		if ( tier >= TIER_OPTIONAL && this.cellKeys != null ) {
+			// rebuilt from fence boxes on next evaluation
+			released += this.cellKeys.length * 8L + this.cellStart.length * 4L + this.cellFenceCount.length * 4L + this.cellFences.length * 4L + this.largeFences.length * 4L;
+			this.cellKeys = null;
+			this.cellStart = this.cellFenceCount = this.cellFences = this.largeFences = null;
+			this.largeFenceCount = 0;
+			this.gridDirty = true;
+		}
+		return released;
+	}
+
+	/**
+	 * even-odd ray casting, lon as x and lat as y (fences are small, so planar math is exact enough)
+	 */
+	private boolean contains( final int fence, final double lat, final double lon ) {
+		this.polygonTests++;
+		final int start = this.fenceVertexStart[fence];
+		final int end = start + this.fenceVertexCount[fence];
+		boolean inside = false;
+		for ( int i = start, j = end - 1; i < end; j = i++ ) {
+			final double latI = this.vertexLat[i], latJ = this.vertexLat[j];
+			if ( ( latI > lat ) != ( latJ > lat ) ) {
+				final double lonCross = this.vertexLon[i] + ( lat - latI ) * ( this.vertexLon[j] - this.vertexLon[i] ) / ( latJ - latI );
+				if ( lon < lonCross ) {
+					inside = !inside;
+				}
+			}
+		}
+		return inside;
+	}
+
+	private long cellKey( final double lat, final double lon ) {
+		return cellKey( (int)Math.floor( lat / this.cellSizeDegrees ), (int)Math.floor( lon / this.cellSizeDegrees ) );
+	}
+
+	private static long cellKey( final int row, final int column ) {
+		return ( (long)row << 32 ) | ( column & 0xFFFFFFFFL );
+	}
+
+	/**
+	 * @return cell index or -1 if no fence overlaps cell
+	 */
+	private int findCell( final long key ) {
+		final int mask = this.cellKeys.length - 1;
+		int index = (int)( ( key * 0x9E3779B97F4A7C15L ) >>> 32 ) & mask;
+		while ( this.cellStart[index] >= 0 ) {
+			if ( this.cellKeys[index] == key ) {
+				return index;
+			}
+			index = ( index + 1 ) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return index of free or matching entry for key
+	 */
+	private int probeCell( final long key ) {
+		final int mask = this.cellKeys.length - 1;
+		int index = (int)( ( key * 0x9E3779B97F4A7C15L ) >>> 32 ) & mask;
+		while ( this.cellStart[index] >= 0 && this.cellKeys[index] != key ) {
+			index = ( index + 1 ) & mask;
+		}
+		return index;
+	}
+
+	/**
+	 * two passes over all fence boxes: count fences per cell, then fill fence lists (flat, like CSR).
+	 * The table has at least twice as many entries as cell references, so probing always finds a free entry
+	 */
+	private void buildGrid() {
+		int references = 0;
+		this.largeFences = new int[8];
+		this.largeFenceCount = 0;
+		for ( int fence = 0; fence < this.fenceCount; fence++ ) {
+			final long cells = this.cellSpan( fence );
+			if ( cells <= MAX_FENCE_CELLS ) {
+				references += (int)cells;
+			} else {
+				if ( this.largeFenceCount == this.largeFences.length ) {
+					this.largeFences = Arrays.copyOf( this.largeFences, this.largeFenceCount * 2 );
+				}
+				this.largeFences[this.largeFenceCount++] = fence;
+			}
+		}
+		final int capacity = Integer.highestOneBit( Math.max( 16, references ) ) * 4;
+		this.cellKeys = new long[capacity];
+		this.cellStart = new int[capacity];
+		this.cellFenceCount = new int[capacity];
+		Arrays.fill( this.cellStart, -1 );
+		this.cellFences = new int[references];
+
+		// pass 1: count, cellStart 0 marks used entry
+		for ( int fence = 0; fence < this.fenceCount; fence++ ) {
+			if ( this.cellSpan( fence ) > MAX_FENCE_CELLS ) {
+				continue;
+			}
+			for ( int row = this.row( this.fenceMinLat[fence] ); row <= this.row( this.fenceMaxLat[fence] ); row++ ) {
+				for ( int column = this.column( this.fenceMinLon[fence] ); column <= this.column( this.fenceMaxLon[fence] ); column++ ) {
+					final long key = cellKey( row, column );
+					final int index = this.probeCell( key );
+					this.cellKeys[index] = key;
+					this.cellStart[index] = 0;
+					this.cellFenceCount[index]++;
+				}
+			}
+		}
+		// prefix sums
+		int offset = 0;
+		for ( int index = 0; index < capacity; index++ ) {
+			if ( this.cellStart[index] >= 0 ) {
+				this.cellStart[index] = offset;
+				offset += this.cellFenceCount[index];
+				this.cellFenceCount[index] = 0;
+			}
+		}
+		// pass 2: fill
+		for ( int fence = 0; fence < this.fenceCount; fence++ ) {
+			if ( this.cellSpan( fence ) > MAX_FENCE_CELLS ) {
+				continue;
+			}
+			for ( int row = this.row( this.fenceMinLat[fence] ); row <= this.row( this.fenceMaxLat[fence] ); row++ ) {
+				for ( int column = this.column( this.fenceMinLon[fence] ); column <= this.column( this.fenceMaxLon[fence] ); column++ ) {
+					final int index = this.findCell( cellKey( row, column ) );
+					this.cellFences[this.cellStart[index] + this.cellFenceCount[index]++] = fence;
+				}
+			}
+		}
+		this.gridDirty = false;
+	}
+
+	/**
+	 * @return number of grid cells covered by fence's bounding box
+	 */
+	private long cellSpan( final int fence ) {
+		return (long)( this.row( this.fenceMaxLat[fence] ) - this.row( this.fenceMinLat[fence] ) + 1 ) * ( this.column( this.fenceMaxLon[fence] ) - this.column( this.fenceMinLon[fence] ) + 1 );
+	}
+
+	private int row( final double lat ) {
+		return (int)Math.floor( lat / this.cellSizeDegrees );
+	}
+
+	private int column( final double lon ) {
+		return (int)Math.floor( lon / this.cellSizeDegrees );
+	}
+
+	private int addUnit( final int unitId ) {
+		if ( this.unitCount == this.unitInsideCount.length ) {
+			this.unitIds = Arrays.copyOf( this.unitIds, this.unitCount * 2 );
+			this.unitInsideCount = Arrays.copyOf( this.unitInsideCount, this.unitCount * 2 );
+			this.unitInside = Arrays.copyOf( this.unitInside, this.unitCount * 2 * MAX_INSIDE );
+		}
+		final int unit = this.unitCount++;
+		this.unitIds[unit] = unitId;
+		this.unitInsideCount[unit] = 0;
+		this.unitSlots.put( unitId, unit );
+		return unit;
+	}
+
+	private void addTransition( final int unitId, final int fenceId, final boolean entered ) {
+		if ( this.pendingTransitions == this.pendingUnitIds.length ) {
+			if ( this.pendingTransitions >= MAX_PENDING_TRANSITIONS ) {
+				this.droppedTransitions++;
+				return;
+			}
+			final int capacity = this.pendingTransitions * 2;
+			this.pendingUnitIds = Arrays.copyOf( this.pendingUnitIds, capacity );
+			this.pendingFenceIds = Arrays.copyOf( this.pendingFenceIds, capacity );
+			this.pendingEntered = Arrays.copyOf( this.pendingEntered, capacity );
+		}
+		this.pendingUnitIds[this.pendingTransitions] = unitId;
+		this.pendingFenceIds[this.pendingTransitions] = fenceId;
+		this.pendingEntered[this.pendingTransitions] = entered;
+		this.pendingTransitions++;
+	}
+
+	private void growFences() {
+		final int capacity = this.fenceIds.length * 2;
+		this.fenceIds = Arrays.copyOf( this.fenceIds, capacity );
+		this.fenceVertexStart = Arrays.copyOf( this.fenceVertexStart, capacity );
+		this.fenceVertexCount = Arrays.copyOf( this.fenceVertexCount, capacity );
+		this.fenceMinLat = Arrays.copyOf( this.fenceMinLat, capacity );
+		this.fenceMaxLat = Arrays.copyOf( this.fenceMaxLat, capacity );
+		this.fenceMinLon = Arrays.copyOf( this.fenceMinLon, capacity );
+		this.fenceMaxLon = Arrays.copyOf( this.fenceMaxLon, capacity );
+	}
+
+	private static int indexOf( final int[] values, final int count, final int value ) {
+		return indexOf( values, 0, count, value );
+	}
+
+	private static int indexOf( final int[] values, final int from, final int to, final int value ) {
+		for ( int i = from; i < to; i++ ) {
+			if ( values[i] == value ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -1,9 +1,18 @@
 package com.wikitude.samples;
 
 import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 import android.widget.Toast;
 
 import com.wikitude.samples.ArchitectViewHolderInterface.ILocationProvider;
@@ -13,18 +22,42 @@ import com.wikitude.samples.ArchitectViewHolderInterface.ILocationProvider;
 
 /**
  * Sample implementation of a locationProvider, feel free to polish this very basic approach (compare http://goo.gl/pvkXV )
+ * GPS update rate follows the user's motion (stationary / walking / vehicle), classified by {@link MotionClassifier} from accelerometer and GPS speed.
+ * The accelerometer is registered once, other consumers of samples and steps attach via {@link #setAccelerometerListener(AccelerometerListener, Handler)}.
  */
 public class LocationProvider implements ILocationProvider {
 
+	/**
+	 * receives samples of the provider's accelerometer registration, including steps detected by its motion classifier
+	 */
+	public interface AccelerometerListener {
+
+		/**
+		 * @param values acceleration x, y, z in m/s^2, only valid during the call
+		 * @param timestampNs sample time, monotonic nanoseconds
+		 * @param step true if sample completes a step
+		 */
+		void onAccelerometer( float[] values, long timestampNs, boolean step );
+	}
+
 	/** location listener called on each location update */
 	private final LocationListener	locationListener;
 
 	/** system's locationManager allowing access to GPS / Network position */
 	private final LocationManager	locationManager;
 
-	/** location updates should fire approximately every second */
+	/** system's sensorManager, accelerometer drives motion classification */
+	private final SensorManager		sensorManager;
+
+	/** location updates should fire approximately every second while walking */
 	private static final int		LOCATION_UPDATE_MIN_TIME_GPS	= 1000;
 
+	/** location updates every 15 seconds are sufficient when standing at a post */
+	private static final int		LOCATION_UPDATE_MIN_TIME_GPS_STATIONARY	= 15 * 1000;
+
+	/** location updates twice a second when in a vehicle */
+	private static final int		LOCATION_UPDATE_MIN_TIME_GPS_VEHICLE	= 500;
+
 	/** location updates should fire, even if last signal is same than current one (0m distance to last location is OK) */
 	private static final int		LOCATION_UPDATE_DISTANCE_GPS	= 0;
 
@@ -43,21 +76,108 @@ public class LocationProvider implements ILocationProvider {
 	/** the context in which we're running */
 	private final Context			context;
 
+	/** classifies motion, decides on GPS update rate */
+	private final MotionClassifier	motionClassifier;
+
+	/** GPS update interval currently registered, 0 if GPS updates aren't requested */
+	private long					gpsMinTimeRegistered = 0;
+
+	/** GPS updates are (re-)requested on main thread, motion states may change on accelerometer thread */
+	private final Handler			mainHandler = new Handler( Looper.getMainLooper() );
+
+	private final Runnable			requestGpsUpdatesRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			LocationProvider.this.requestGpsUpdates();
+		}
+	};
+
+	/** shares accelerometer samples and steps, null if nobody else needs them */
+	private AccelerometerListener	accelerometerConsumer;
+
+	/** thread accelerometer samples are delivered on, null for main thread */
+	private Handler					accelerometerHandler;
+
+	/** forwards GPS fixes to locationListener and feeds speed into motion classifier */
+	private final LocationListener	gpsListener = new ForwardingLocationListener() {
+
+		@Override
+		public void onLocationChanged( final Location location ) {
+			if ( location != null && location.hasSpeed() ) {
+				synchronized ( LocationProvider.this.motionClassifier ) {
+					LocationProvider.this.motionClassifier.onSpeed( location.getSpeed(), SystemClock.elapsedRealtime() * 1000000L );
+				}
+			}
+			super.onLocationChanged( location );
+		}
+	};
+
+	/** forwards network fixes to locationListener */
+	private final LocationListener	networkListener = new ForwardingLocationListener();
+
+	/** feeds accelerometer samples into motion classifier and hands them on to accelerometerConsumer */
+	private final SensorEventListener	accelerometerListener = new SensorEventListener() {
+
+		@Override
+		public void onSensorChanged( final SensorEvent event ) {
+			final long timestampNs = SystemClock.elapsedRealtime() * 1000000L;
+			final boolean step;
+			synchronized ( LocationProvider.this.motionClassifier ) {
+				step = LocationProvider.this.motionClassifier.onAccelerometer( event.values[0], event.values[1], event.values[2], timestampNs );
+			}
+			final AccelerometerListener consumer = LocationProvider.this.accelerometerConsumer;
+			if ( consumer != null ) {
+				consumer.onAccelerometer( event.values, timestampNs, step );
+			}
+		}
+
+		@Override
+		public void onAccuracyChanged( final Sensor sensor, final int accuracy ) {
+		}
+	};
+
 
 	public LocationProvider( final Context context, LocationListener locationListener ) {
 		super();
 		this.locationManager = (LocationManager)context.getSystemService( Context.LOCATION_SERVICE );
+		this.sensorManager = (SensorManager)context.getSystemService( Context.SENSOR_SERVICE );
 		this.locationListener = locationListener;
-		this.context = context;
+		// kept beyond the creating activity by ArSessionEngine
+		this.context = context.getApplicationContext();
 		this.gpsProviderEnabled = this.locationManager.isProviderEnabled( LocationManager.GPS_PROVIDER );
 		this.networkProviderEnabled = this.locationManager.isProviderEnabled( LocationManager.NETWORK_PROVIDER );
+		this.motionClassifier = new MotionClassifier( new MotionClassifier.Listener() {
+
+			@Override
+			public void onMotionStateChanged( final int newState ) {
+				Log.d( "LocationProvider", "motion state " + newState + ", GPS interval " + getGpsMinTime( newState ) + "ms" );
+				LocationProvider.this.mainHandler.post( LocationProvider.this.requestGpsUpdatesRunnable );
+			}
+		} );
+	}
+
+	/**
+	 * shares the accelerometer registration with given listener, accelerometer is registered then even while GPS is disabled. Call while paused.
+	 * @param listener receives samples and steps, null to stop sharing
+	 * @param handler thread samples are delivered on (classifier included), null for main thread
+	 */
+	public void setAccelerometerListener( final AccelerometerListener listener, final Handler handler ) {
+		this.accelerometerConsumer = listener;
+		this.accelerometerHandler = handler;
 	}
 
 	@Override
 	public void onPause() {
 		if ( this.locationListener != null && this.locationManager != null && (this.gpsProviderEnabled || this.networkProviderEnabled) ) {
-			this.locationManager.removeUpdates( this.locationListener );
+			this.locationManager.removeUpdates( this.gpsListener );
+			this.locationManager.removeUpdates( this.networkListener );
+			this.gpsMinTimeRegistered = 0;
+		}
+		if ( this.sensorManager != null ) {
+			this.sensorManager.unregisterListener( this.accelerometerListener );
 		}
+		this.mainHandler.removeCallbacks( this.requestGpsUpdatesRunnable );
 	}
 
 	@Override
@@ -74,9 +194,7 @@ public class LocationProvider implements ILocationProvider {
 				if ( lastKnownGPSLocation != null && lastKnownGPSLocation.getTime() > System.currentTimeMillis() - LOCATION_OUTDATED_WHEN_OLDER_MS ) {
 					locationListener.onLocationChanged( lastKnownGPSLocation );
 				}
-				if (locationManager.getProvider(LocationManager.GPS_PROVIDER)!=null) {
-					this.locationManager.requestLocationUpdates( LocationManager.GPS_PROVIDER, LOCATION_UPDATE_MIN_TIME_GPS, LOCATION_UPDATE_DISTANCE_GPS, this.locationListener );
-				}
+				this.requestGpsUpdates();
 			}
 
 			/** is Network / WiFi positioning provider available? */
@@ -86,7 +204,7 @@ public class LocationProvider implements ILocationProvider {
 					locationListener.onLocationChanged( lastKnownNWLocation );
 				}
 				if (locationManager.getProvider(LocationManager.NETWORK_PROVIDER)!=null) {
-					this.locationManager.requestLocationUpdates( LocationManager.NETWORK_PROVIDER, LOCATION_UPDATE_MIN_TIME_NW, LOCATION_UPDATE_DISTANCE_NW, this.locationListener );
+					this.locationManager.requestLocationUpdates( LocationManager.NETWORK_PROVIDER, LOCATION_UPDATE_MIN_TIME_NW, LOCATION_UPDATE_DISTANCE_NW, this.networkListener );
 				}
 			}
 
@@ -95,5 +213,68 @@ public class LocationProvider implements ILocationProvider {
 				Toast.makeText( this.context, "Please enable GPS and Network positioning in your Settings ", Toast.LENGTH_LONG ).show();
 			}
 		}
+
+		/** motion classification only matters while GPS is used, shared samples always. Step detection needs game rate, shared consumers get the same single registration */
+		if ( this.sensorManager != null && ( this.gpsProviderEnabled || this.accelerometerConsumer != null ) ) {
+			final Sensor accelerometer = this.sensorManager.getDefaultSensor( Sensor.TYPE_ACCELEROMETER );
+			if ( accelerometer != null ) {
+				this.sensorManager.registerListener( this.accelerometerListener, accelerometer, SensorManager.SENSOR_DELAY_GAME, this.accelerometerHandler );
+			}
+		}
+	}
+
+	/**
+	 * (re-)registers GPS updates at the interval matching current motion state, no-op if already registered at that interval
+	 */
+	private void requestGpsUpdates() {
+		final long minTime = getGpsMinTime( this.motionClassifier.getState() );
+		if ( !this.gpsProviderEnabled || minTime == this.gpsMinTimeRegistered || locationManager.getProvider(LocationManager.GPS_PROVIDER)==null ) {
+			return;
+		}
+		if ( this.gpsMinTimeRegistered != 0 ) {
+			this.locationManager.removeUpdates( this.gpsListener );
+		}
+		this.locationManager.requestLocationUpdates( LocationManager.GPS_PROVIDER, minTime, LOCATION_UPDATE_DISTANCE_GPS, this.gpsListener );
+		this.gpsMinTimeRegistered = minTime;
+	}
+
+	/**
+	 * @return GPS update interval for given MotionClassifier state
+	 */
+	private static long getGpsMinTime( final int motionState ) {
+		switch ( motionState ) {
+		case MotionClassifier.STATE_STATIONARY:
+			return LOCATION_UPDATE_MIN_TIME_GPS_STATIONARY;
+		case MotionClassifier.STATE_VEHICLE:
+			return LOCATION_UPDATE_MIN_TIME_GPS_VEHICLE;
+		default:
+			return LOCATION_UPDATE_MIN_TIME_GPS;
+		}
+	}
+
+	/**
+	 * forwards all callbacks to locationListener, separate instances per provider allow re-registering GPS alone
+	 */
+	private class ForwardingLocationListener implements LocationListener {
+
+		@Override
+		public void onLocationChanged( final Location location ) {
+			LocationProvider.this.locationListener.onLocationChanged( location );
+		}
+
+		@Override
+		public void onStatusChanged( final String provider, final int status, final Bundle extras ) {
+			LocationProvider.this.locationListener.onStatusChanged( provider, status, extras );
+		}
+
+		@Override
+		public void onProviderEnabled( final String provider ) {
+			LocationProvider.this.locationListener.onProviderEnabled( provider );
+		}
+
+		@Override
+		public void onProviderDisabled( final String provider ) {
+			LocationProvider.this.locationListener.onProviderDisabled( provider );
+		}
 	}
 }
@@ -20,6 +20,7 @@ import android.widget.ListView;
 import android.widget.Toast;
 
 import com.wikitude.architect.ArchitectView;
+import com.wikitude.samples.utils.startup.StartupTrace;
 import com.wikitude.sdksamples.R;
 
 
@@ -33,10 +34,16 @@ public class MainActivity extends ListActivity{
 	@Override
 	protected void onCreate( Bundle savedInstanceState ) {
 		super.onCreate( savedInstanceState );
+		
+		// sample list path, not the launcher: trace from here unless ARDemoApplication started the launch
+		StartupTrace.startLaunchIfIdle();
+		
 		this.setContentView( this.getContentViewId() );
 		
 		// ensure to clean cache when it is no longer required
+		StartupTrace.beginSection( StartupTrace.PHASE_CACHE_CLEANUP );
 		MainActivity.deleteDirectoryContent ( ArchitectView.getCacheDirectoryAbsoluteFilePath(this) );
+		StartupTrace.endSection( StartupTrace.PHASE_CACHE_CLEANUP );
 
 		/*
 		// extract names of samples from res/arrays
@@ -48,6 +55,7 @@ public class MainActivity extends ListActivity{
 		*/
 		//doing it straight
 		
+		StartupTrace.beginSection( StartupTrace.PHASE_INTENT_ASSEMBLY );
 		final Intent intent = new Intent( this, MainSamplesListActivity.class );
 
 		/*
@@ -114,6 +122,7 @@ public class MainActivity extends ListActivity{
 		    Log.d(Tag, "DebugIntent2: " + String.format("%s %s (%s)", key,  
 		        value.toString(), value.getClass().getName()));
 		}
+		StartupTrace.endSection( StartupTrace.PHASE_INTENT_ASSEMBLY );
 		
 		// launch activity
 		this.startActivity(intent);
@@ -217,7 +226,12 @@ public class MainActivity extends ListActivity{
 
 		String[] assetsIWant;
 		try {
-			assetsIWant = getAssets().list("samples");
+			StartupTrace.beginSection( StartupTrace.PHASE_ASSET_LISTING );
+			try {
+				assetsIWant = getAssets().list("samples");
+			} finally {
+				StartupTrace.endSection( StartupTrace.PHASE_ASSET_LISTING );
+			}
 			int pos = -1;
 			int lastCategoryId = -1;
 			for(final String asset: assetsIWant) {
@@ -10,6 +10,8 @@ import android.widget.ArrayAdapter;
 import android.widget.ListView;
 import android.widget.Toast;
 
+import com.wikitude.samples.utils.prefetch.WorldPrefetcher;
+import com.wikitude.samples.utils.startup.StartupTrace;
 import com.wikitude.sdksamples.R;
 
 public class MainSamplesListActivity extends ListActivity {
@@ -21,9 +23,13 @@ public class MainSamplesListActivity extends ListActivity {
 	public static final String EXTRAS_KEY_ACTIVITIES_TILES_ARRAY = "activitiesTitles";
 	public static final String EXTRAS_KEY_ACTIVITIES_CLASSNAMES_ARRAY = "activitiesClassnames";
 
+	/** reads listed worlds in background while list is visible */
+	private WorldPrefetcher worldPrefetcher;
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		StartupTrace.beginSection(StartupTrace.PHASE_SAMPLE_LIST);
 		this.setContentView(this.getContentViewId());
 
 		this.setTitle(this.getActivityTitle());
@@ -34,6 +40,28 @@ public class MainSamplesListActivity extends ListActivity {
 		/* use default list-ArrayAdapter */
 		this.setListAdapter(new ArrayAdapter<String>(this,
 				android.R.layout.simple_list_item_1, android.R.id.text1, values));
+		StartupTrace.endSection(StartupTrace.PHASE_SAMPLE_LIST);
+
+		final String[] worldFolders = this.getArchitectWorldUrls();
+		final String[] worlds = new String[worldFolders.length];
+		for (int i = 0; i < worldFolders.length; i++) {
+			worlds[i] = getArchitectWorldPath(worldFolders[i]);
+		}
+		this.worldPrefetcher = new WorldPrefetcher(this, worlds, null);
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		/* prefetch worlds while user is choosing one */
+		this.worldPrefetcher.start();
+	}
+
+	@Override
+	protected void onPause() {
+		super.onPause();
+		/* list is left, no need to read any further */
+		this.worldPrefetcher.cancel();
 	}
 
 	@Override
@@ -48,9 +76,8 @@ public class MainSamplesListActivity extends ListActivity {
 			final Intent intent = new Intent(this, Class.forName(className));
 			intent.putExtra(EXTRAS_KEY_ACTIVITY_TITLE_STRING,
 					this.getListLabels()[position]);
-			intent.putExtra(EXTRAS_KEY_ACTIVITY_ARCHITECT_WORLD_URL, "samples"
-					+ File.separator + this.getArchitectWorldUrls()[position]
-					+ File.separator + "index.html");
+			intent.putExtra(EXTRAS_KEY_ACTIVITY_ARCHITECT_WORLD_URL,
+					getArchitectWorldPath(this.getArchitectWorldUrls()[position]));
 
 			/* launch activity */
 			this.startActivity(intent);
@@ -85,6 +112,14 @@ public class MainSamplesListActivity extends ListActivity {
 				EXTRAS_KEY_ACTIVITIES_ARCHITECT_WORLD_URLS_ARRAY);
 	}
 
+	/**
+	 * @return path of world's index.html in assets, as loaded by the launched activity
+	 */
+	private static String getArchitectWorldPath(final String worldFolder) {
+		return "samples" + File.separator + worldFolder + File.separator
+				+ "index.html";
+	}
+
 	protected int getContentViewId() {
 		return R.layout.list_sample;
 	}
@@ -0,0 +1,138 @@
+package com.wikitude.samples;
+
+/**
+ * Classifies user motion as stationary, walking or vehicle from accelerometer samples and GPS speed.
+ * Steps are detected by {@link StepDetector}, vehicle motion via GPS speed without step cadence.
+ * A new state is only reported after it was observed for its dwell time, so the classifier doesn't flap between states.
+ * Pure Java and allocation free per sample, feed it from any single thread (or synchronize on it).
+ * {@link #onAccelerometer(float, float, float, long)} reports the steps it detects, so other step consumers share its detector instead of running their own.
+ */
+public class MotionClassifier {
+
+	public static final int STATE_STATIONARY = 0;
+	public static final int STATE_WALKING = 1;
+	public static final int STATE_VEHICLE = 2;
+
+	/**
+	 * notified once classified state changed
+	 */
+	public interface Listener {
+		void onMotionStateChanged( int newState );
+	}
+
+	/** steps within STEP_WINDOW_NS needed to assume walking */
+	private static final int STEPS_FOR_WALKING = 3;
+
+	private static final long STEP_WINDOW_NS = 4L * 1000 * 1000 * 1000;
+
+	/** speed above which user is in a vehicle, 6 m/s ~ 22 km/h is faster than running officers */
+	private static final float VEHICLE_SPEED_MPS = 6f;
+
+	/** speed below which user is not considered moving at all */
+	private static final float STATIONARY_SPEED_MPS = 0.5f;
+
+	/** speed values older than this are ignored */
+	private static final long SPEED_MAX_AGE_NS = 20L * 1000 * 1000 * 1000;
+
+	/** time a candidate state must persist before it is reported, per target state: leaving stationary quickly keeps responsiveness, entering it slowly saves flapping */
+	private static final long[] DWELL_NS = { 30L * 1000 * 1000 * 1000, 2L * 1000 * 1000 * 1000, 5L * 1000 * 1000 * 1000 };
+
+	private final Listener listener;
+
+	private final StepDetector stepDetector = new StepDetector();
+
+	/** ring of recent step timestamps */
+	private final long[] stepTimes = new long[STEPS_FOR_WALKING];
+
+	private int stepIndex = 0;
+
+	private float speedMps = 0;
+
+	private long speedTimeNs = 0;
+
+	private boolean hasSpeed = false;
+
+	/** read by other threads via getState() */
+	private volatile int state = STATE_WALKING;
+
+	private int candidate = STATE_WALKING;
+
+	private long candidateSinceNs = 0;
+
+	/**
+	 * @param listener notified on state changes, on the thread feeding samples
+	 */
+	public MotionClassifier( final Listener listener ) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return currently classified state, starts with STATE_WALKING so initial fixes come in quickly
+	 */
+	public int getState() {
+		return this.state;
+	}
+
+	/**
+	 * @param x acceleration x, m/s^2
+	 * @param y acceleration y, m/s^2
+	 * @param z acceleration z, m/s^2
+	 * @param timestampNs sample time, monotonic nanoseconds
+	 * @return true if sample completes a step
+	 */
+	public boolean onAccelerometer( final float x, final float y, final float z, final long timestampNs ) {
+		final boolean step = this.stepDetector.onAccelerometer( x, y, z, timestampNs );
+		if ( step ) {
+			this.stepTimes[this.stepIndex] = timestampNs;
+			this.stepIndex = ( this.stepIndex + 1 ) % STEPS_FOR_WALKING;
+		}
+
+		this.evaluate( timestampNs );
+		return step;
+	}
+
+	/**
+	 * @param speedMps speed of latest fix in m/s
+	 * @param timestampNs time of fix, same time base as accelerometer samples
+	 */
+	public void onSpeed( final float speedMps, final long timestampNs ) {
+		this.speedMps = speedMps;
+		this.speedTimeNs = timestampNs;
+		this.hasSpeed = true;
+		this.evaluate( timestampNs );
+	}
+
+	private void evaluate( final long nowNs ) {
+		final int observed = this.classify( nowNs );
+		if ( observed == this.state ) {
+			this.candidate = observed;
+			return;
+		}
+		if ( observed != this.candidate ) {
+			this.candidate = observed;
+			this.candidateSinceNs = nowNs;
+			return;
+		}
+		if ( nowNs - this.candidateSinceNs >= DWELL_NS[observed] ) {
+			this.state = observed;
+			if ( this.listener != null ) {
+				this.listener.onMotionStateChanged( observed );
+			}
+		}
+	}
+
+	private int classify( final long nowNs ) {
+		// oldest of the last STEPS_FOR_WALKING steps within window -> cadence of walking
+		final long oldestStep = this.stepTimes[this.stepIndex];
+		final boolean walkingCadence = oldestStep != 0 && nowNs - oldestStep <= STEP_WINDOW_NS;
+		final boolean speedKnown = this.hasSpeed && nowNs - this.speedTimeNs <= SPEED_MAX_AGE_NS;
+
+		if ( speedKnown && this.speedMps >= VEHICLE_SPEED_MPS && !walkingCadence ) {
+			return STATE_VEHICLE;
+		}
+		if ( walkingCadence || ( speedKnown && this.speedMps >= STATIONARY_SPEED_MPS ) ) {
+			return STATE_WALKING;
+		}
+		return STATE_STATIONARY;
+	}
+}
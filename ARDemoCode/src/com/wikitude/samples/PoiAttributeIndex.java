@@ -0,0 +1,229 @@
+package com.wikitude.samples;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.wikitude.samples.utils.collections.CompressedBitmap;
+
+/**
+ * Index of categorical POI attributes (unit type, status, incident severity) as one {@link CompressedBitmap} per attribute value.
+ * A filter selects values per attribute: values of one attribute are OR-ed, attributes are AND-ed, so deriving the visible set is a few bitmap operations.
+ * {@link #applyFilter(Map, Delta)} reports only POIs that became visible or hidden since the previous filter, {@link #put(String, Map, Delta)} reports a POI whose
+ * changed attributes (e.g. a unit got engaged) changed its visibility under the current filter. All methods are thread-safe.
+ */
+public class PoiAttributeIndex {
+
+	/**
+	 * POIs whose visibility changed, by POI id
+	 */
+	public static class Delta {
+
+		public String[] shown = new String[0];
+
+		public String[] hidden = new String[0];
+
+		public boolean isEmpty() {
+			return this.shown.length == 0 && this.hidden.length == 0;
+		}
+	}
+
+	/** attribute name -> attribute value -> POIs with that value */
+	private final Map<String, Map<String, CompressedBitmap>> bitmaps = new HashMap<String, Map<String, CompressedBitmap>>();
+
+	/** POI id -> document number */
+	private final Map<String, Integer> docsByPoiId = new HashMap<String, Integer>();
+
+	/** document number -> POI id and indexed attributes, null for free numbers */
+	private String[] poiIds = new String[64];
+	private final List<Map<String, String>> docAttributes = new ArrayList<Map<String, String>>( 64 );
+
+	private int[] freeDocs = new int[16];
+	private int freeCount = 0;
+	private int docLimit = 0;
+
+	/** all indexed POIs */
+	private final CompressedBitmap all = new CompressedBitmap();
+
+	/** visible POIs of last applied filter, null before first filter (everything visible) */
+	private CompressedBitmap visible = null;
+
+	/** last applied filter, null before first filter */
+	private Map<String, String[]> filter = null;
+
+	/**
+	 * adds a POI or replaces its attributes, its visibility is updated with the next applyFilter()
+	 * @param attributes attribute name -> value, e.g. "type" -> "k9"
+	 */
+	public synchronized void put( final String poiId, final Map<String, String> attributes ) {
+		this.put( poiId, attributes, null );
+	}
+
+	/**
+	 * adds a POI or replaces its attributes and applies the current filter to it right away
+	 * @param attributes attribute name -> value, e.g. "type" -> "k9"
+	 * @param delta receives the POI if its visibility changed, new POIs count as visible. Null to leave visibility to the next applyFilter()
+	 */
+	public synchronized void put( final String poiId, final Map<String, String> attributes, final Delta delta ) {
+		final Integer existing = this.docsByPoiId.get( poiId );
+		final int doc;
+		if ( existing != null ) {
+			doc = existing;
+			this.removeFromBitmaps( doc );
+		} else {
+			doc = this.allocateDoc();
+			this.poiIds[doc] = poiId;
+			this.docsByPoiId.put( poiId, doc );
+			this.all.add( doc );
+			if ( this.visible != null ) {
+				// World shows new POIs, next filter hides them if they don't match
+				this.visible.add( doc );
+			}
+		}
+		final Map<String, String> copy = new HashMap<String, String>( attributes );
+		this.docAttributes.set( doc, copy );
+		for ( final Map.Entry<String, String> attribute : copy.entrySet() ) {
+			Map<String, CompressedBitmap> values = this.bitmaps.get( attribute.getKey() );
+			if ( values == null ) {
+				values = new HashMap<String, CompressedBitmap>();
+				this.bitmaps.put( attribute.getKey(), values );
+			}
+			CompressedBitmap bitmap = values.get( attribute.getValue() );
+			if ( bitmap == null ) {
+				bitmap = new CompressedBitmap();
+				values.put( attribute.getValue(), bitmap );
+			}
+			bitmap.add( doc );
+		}
+
+		if ( delta != null ) {
+			delta.shown = delta.hidden = new String[0];
+			if ( this.visible != null ) {
+				final boolean matches = this.matches( copy );
+				if ( matches != this.visible.contains( doc ) ) {
+					if ( matches ) {
+						this.visible.add( doc );
+						delta.shown = new String[] { poiId };
+					} else {
+						this.visible.remove( doc );
+						delta.hidden = new String[] { poiId };
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if POI was indexed
+	 */
+	public synchronized boolean remove( final String poiId ) {
+		final Integer doc = this.docsByPoiId.remove( poiId );
+		if ( doc == null ) {
+			return false;
+		}
+		this.removeFromBitmaps( doc );
+		this.all.remove( doc );
+		if ( this.visible != null ) {
+			this.visible.remove( doc );
+		}
+		this.poiIds[doc] = null;
+		this.docAttributes.set( doc, null );
+		if ( this.freeCount == this.freeDocs.length ) {
+			this.freeDocs = Arrays.copyOf( this.freeDocs, this.freeCount * 2 );
+		}
+		this.freeDocs[this.freeCount++] = doc;
+		return true;
+	}
+
+	/**
+	 * @return number of indexed POIs
+	 */
+	public synchronized int size() {
+		return this.docsByPoiId.size();
+	}
+
+	/**
+	 * derives visible POIs of given filter and the delta to the previous filter
+	 * @param filter attribute name -> accepted values, attributes without (or with empty) values don't restrict
+	 * @param delta receives POIs shown and hidden since previous filter, everything counts as visible before first filter
+	 * @return number of visible POIs
+	 */
+	public synchronized int applyFilter( final Map<String, String[]> filter, final Delta delta ) {
+		final CompressedBitmap matching = this.all.copy();
+		for ( final Map.Entry<String, String[]> attribute : filter.entrySet() ) {
+			final String[] accepted = attribute.getValue();
+			if ( accepted == null || accepted.length == 0 ) {
+				continue;
+			}
+			final Map<String, CompressedBitmap> values = this.bitmaps.get( attribute.getKey() );
+			final CompressedBitmap union = new CompressedBitmap();
+			if ( values != null ) {
+				for ( final String value : accepted ) {
+					final CompressedBitmap bitmap = values.get( value );
+					if ( bitmap != null ) {
+						union.or( bitmap );
+					}
+				}
+			}
+			matching.and( union );
+		}
+
+		final CompressedBitmap previous = this.visible != null ? this.visible : this.all;
+		final CompressedBitmap shown = matching.copy();
+		shown.andNot( previous );
+		final CompressedBitmap hidden = previous.copy();
+		hidden.andNot( matching );
+		delta.shown = this.toPoiIds( shown );
+		delta.hidden = this.toPoiIds( hidden );
+
+		this.visible = matching;
+		this.filter = new HashMap<String, String[]>( filter );
+		return matching.cardinality();
+	}
+
+	/**
+	 * @return true if attributes pass the last applied filter
+	 */
+	private boolean matches( final Map<String, String> attributes ) {
+		for ( final Map.Entry<String, String[]> attribute : this.filter.entrySet() ) {
+			final String[] accepted = attribute.getValue();
+			if ( accepted != null && accepted.length > 0 && !Arrays.asList( accepted ).contains( attributes.get( attribute.getKey() ) ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String[] toPoiIds( final CompressedBitmap docs ) {
+		final int[] values = docs.toArray();
+		final String[] ids = new String[values.length];
+		for ( int i = 0; i < values.length; i++ ) {
+			ids[i] = this.poiIds[values[i]];
+		}
+		return ids;
+	}
+
+	private void removeFromBitmaps( final int doc ) {
+		for ( final Map.Entry<String, String> attribute : this.docAttributes.get( doc ).entrySet() ) {
+			final Map<String, CompressedBitmap> values = this.bitmaps.get( attribute.getKey() );
+			final CompressedBitmap bitmap = values.get( attribute.getValue() );
+			bitmap.remove( doc );
+			if ( bitmap.isEmpty() ) {
+				values.remove( attribute.getValue() );
+			}
+		}
+	}
+
+	private int allocateDoc() {
+		if ( this.freeCount > 0 ) {
+			return this.freeDocs[--this.freeCount];
+		}
+		if ( this.docLimit == this.poiIds.length ) {
+			this.poiIds = Arrays.copyOf( this.poiIds, this.docLimit * 2 );
+		}
+		this.docAttributes.add( null );
+		return this.docLimit++;
+	}
+}
@@ -0,0 +1,246 @@
+package com.wikitude.samples;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.wikitude.samples.utils.memory.MemoryGovernor;
+import com.wikitude.samples.utils.memory.Releasable;
+
+/**
+ * Details of POIs shown in the World's detail panel, so selecting a marker neither waits for a query nor switches to a detail activity (which pauses camera and GPS).
+ * Details of POIs the World renders are prefetched on a loader thread and handed out in batches, selections of prefetched POIs are answered from memory.
+ * Details are kept serialized, LRU bounded and dropped under memory pressure as they can be loaded again.
+ */
+public class PoiDetailCache implements Releasable {
+
+	/**
+	 * source of details, e.g. database or web service
+	 */
+	public interface Loader {
+
+		/**
+		 * may block, runs on loader thread
+		 * @return details of POI, null if unknown
+		 */
+		JSONObject load( String id );
+	}
+
+	/**
+	 * receives loaded details on loader thread
+	 */
+	public interface Callback {
+
+		/**
+		 * @param details serialized JSON object POI id -> details
+		 */
+		void onDetailsLoaded( String details );
+	}
+
+	private final Loader loader;
+
+	private final int maxEntries;
+
+	/** access-ordered map POI id -> serialized details, guarded by itself */
+	private final LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>( 64, 0.75f, true );
+
+	private final HandlerThread thread;
+
+	private final Handler handler;
+
+	/**
+	 * @param loader source of details
+	 * @param maxEntries least recently used details are dropped beyond this, should cover the render budget
+	 */
+	public PoiDetailCache( final Loader loader, final int maxEntries ) {
+		this.loader = loader;
+		this.maxEntries = maxEntries;
+		this.thread = new HandlerThread( "PoiDetailLoader", Process.THREAD_PRIORITY_BACKGROUND );
+		this.thread.start();
+		this.handler = new Handler( this.thread.getLooper() );
+	}
+
+	/**
+	 * @return serialized details, null if not loaded (yet)
+	 */
+	public String get( final String id ) {
+		synchronized ( this.entries ) {
+			return this.entries.get( id );
+		}
+	}
+
+	/**
+	 * loads details of given POIs unless cached, e.g. of markers entering the render budget
+	 * @param ids POI ids, copied
+	 * @param callback receives newly loaded details in one batch on loader thread, not called if all were cached
+	 */
+	public void prefetch( final String[] ids, final Callback callback ) {
+		final List<String> missing = new ArrayList<String>( ids.length );
+		synchronized ( this.entries ) {
+			for ( final String id : ids ) {
+				if ( !this.entries.containsKey( id ) ) {
+					missing.add( id );
+				}
+			}
+		}
+		if ( missing.isEmpty() ) {
+			return;
+		}
+		this.handler.post( new Runnable() {
+
+			@Override
+			public void run() {
+				PoiDetailCache.this.load( missing, callback );
+			}
+		} );
+	}
+
+	/**
+	 * hands details of a single POI to callback, right away if cached, else on loader thread. Callback is not called for unknown POIs
+	 */
+	public void request( final String id, final Callback callback ) {
+		final String cached = this.get( id );
+		if ( cached == null ) {
+			final List<String> ids = new ArrayList<String>( 1 );
+			ids.add( id );
+			this.handler.post( new Runnable() {
+
+				@Override
+				public void run() {
+					PoiDetailCache.this.load( ids, callback );
+				}
+			} );
+			return;
+		}
+		final Map<String, String> details = new LinkedHashMap<String, String>( 2 );
+		details.put( id, cached );
+		callback.onDetailsLoaded( toJson( details ) );
+	}
+
+	/**
+	 * forgets details of a POI, e.g. after it changed
+	 */
+	public void remove( final String id ) {
+		synchronized ( this.entries ) {
+			this.entries.remove( id );
+		}
+	}
+
+	/**
+	 * forgets all details, e.g. after POIs changed
+	 */
+	public void clear() {
+		synchronized ( this.entries ) {
+			this.entries.clear();
+		}
+	}
+
+	/**
+	 * stops loader thread, pending loads are dropped
+	 */
+	public void close() {
+		this.thread.quit();
+	}
+
+	@Override
+	public long release( final int tier ) {
+		synchronized ( this.entries ) {
+			return this.trimTo( tier == MemoryGovernor.TIER_TRIM ? this.entries.size() / 2 : 0 );
+		}
+	}
+
+	/**
+	 * @param details serialized JSON object POI id -> details, e.g. from a Callback
+	 * @param id POI whose details are opened in the World's detail panel, null to only cache details
+	 * @return script handing details to World
+	 */
+	public static String getWorldScript( final String details, final String id ) {
+		final String cache = "World.cachePoiDetails( " + details + " );";
+		return id != null ? cache + " World.showPoiDetail( " + JSONObject.quote( id ) + " );" : cache;
+	}
+
+	/**
+	 * host of the architectsdk:// url a World without detail panel is redirected to by {@link #getShowDetailScript(String, String, String)}, with the same query
+	 */
+	public static final String DETAIL_FALLBACK_HOST = "poidetail";
+
+	/**
+	 * @return script opening World's detail panel with given details, for POIs the World passed in full, e.g. via architectsdk://markerselected.
+	 * Worlds without a detail panel invoke architectsdk://{@value #DETAIL_FALLBACK_HOST}?id=&amp;title=&amp;description= instead, e.g. to start {@link SamplePoiDetailActivity}
+	 */
+	public static String getShowDetailScript( final String id, final String name, final String description ) {
+		final Map<String, String> detail = new LinkedHashMap<String, String>();
+		detail.put( "id", String.valueOf( id ) );
+		detail.put( "name", String.valueOf( name ) );
+		detail.put( "description", String.valueOf( description ) );
+		final Map<String, String> details = new LinkedHashMap<String, String>( 2 );
+		details.put( String.valueOf( id ), new JSONObject( detail ).toString() );
+		final String fallback = "document.location = 'architectsdk://" + DETAIL_FALLBACK_HOST + "?id=' + encodeURIComponent( " + JSONObject.quote( String.valueOf( id ) )
+				+ " ) + '&title=' + encodeURIComponent( " + JSONObject.quote( String.valueOf( name ) ) + " ) + '&description=' + encodeURIComponent( "
+				+ JSONObject.quote( String.valueOf( description ) ) + " );";
+		return "if ( typeof World !== 'undefined' && typeof World.showPoiDetail === 'function' ) { " + getWorldScript( toJson( details ), String.valueOf( id ) ) + " } else { "
+				+ fallback + " }";
+	}
+
+	/**
+	 * runs on loader thread
+	 */
+	private void load( final List<String> ids, final Callback callback ) {
+		final Map<String, String> loaded = new LinkedHashMap<String, String>( ids.size() * 2 );
+		for ( final String id : ids ) {
+			// may have been loaded by an earlier request meanwhile
+			String detail = this.get( id );
+			if ( detail == null ) {
+				final JSONObject json = this.loader.load( id );
+				if ( json == null ) {
+					continue;
+				}
+				detail = json.toString();
+				synchronized ( this.entries ) {
+					this.entries.put( id, detail );
+					this.trimTo( this.maxEntries );
+				}
+			}
+			loaded.put( id, detail );
+		}
+		if ( !loaded.isEmpty() ) {
+			callback.onDetailsLoaded( toJson( loaded ) );
+		}
+	}
+
+	/**
+	 * hold entries lock
+	 * @return released bytes (estimate)
+	 */
+	private long trimTo( final int size ) {
+		long released = 0;
+		final Iterator<String> iterator = this.entries.values().iterator();
+		while ( this.entries.size() > size && iterator.hasNext() ) {
+			released += iterator.next().length() * 2;
+			iterator.remove();
+		}
+		return released;
+	}
+
+	/**
+	 * wraps serialized details without parsing them again
+	 */
+	private static String toJson( final Map<String, String> details ) {
+		final StringBuilder json = new StringBuilder( "{" );
+		for ( final Map.Entry<String, String> detail : details.entrySet() ) {
+			if ( json.length() > 1 ) {
+				json.append( ',' );
+			}
+			json.append( JSONObject.quote( detail.getKey() ) ).append( ':' ).append( detail.getValue() );
+		}
+		return json.append( '}' ).toString();
+	}
+}
@@ -0,0 +1,233 @@
+package com.wikitude.samples;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Incremental inverted index over POI names and descriptions, for searching POIs shown in the ARchitect World.
+ * Text is split into lower case tokens at every non letter / digit character, hyphenated words are indexed joined as well ("K-9 Unit" -> "k", "9", "k9", "unit").
+ * A query matches POIs containing, for every query token, a token starting with it, so "thef" finds "Theft reported".
+ * Hyphenated query words only match their joined form, so "k-9" finds "K-9 Unit 1" but not "Klaus building 9".
+ * POIs can be added, changed and removed at any time, only their own postings are touched. All methods are thread-safe.
+ */
+public class PoiSearchIndex {
+
+	/**
+	 * sorted document numbers of one token
+	 */
+	private static class Posting {
+
+		int[] docs = new int[4];
+
+		int size = 0;
+
+		void add( final int doc ) {
+			final int index = Arrays.binarySearch( this.docs, 0, this.size, doc );
+			if ( index >= 0 ) {
+				return;
+			}
+			final int insert = -index - 1;
+			if ( this.size == this.docs.length ) {
+				this.docs = Arrays.copyOf( this.docs, this.size * 2 );
+			}
+			System.arraycopy( this.docs, insert, this.docs, insert + 1, this.size - insert );
+			this.docs[insert] = doc;
+			this.size++;
+		}
+
+		void remove( final int doc ) {
+			final int index = Arrays.binarySearch( this.docs, 0, this.size, doc );
+			if ( index >= 0 ) {
+				System.arraycopy( this.docs, index + 1, this.docs, index, this.size - index - 1 );
+				this.size--;
+			}
+		}
+	}
+
+	/** token -> posting, sorted so prefixes are contiguous ranges */
+	private final TreeMap<String, Posting> postings = new TreeMap<String, Posting>();
+
+	/** POI id -> document number */
+	private final Map<String, Integer> docsByPoiId = new HashMap<String, Integer>();
+
+	/** document number -> POI id and its tokens (needed to remove its postings), null for free numbers */
+	private String[] poiIds = new String[64];
+	private String[][] docTokens = new String[64][];
+
+	/** free document numbers, reused so bitsets stay dense */
+	private int[] freeDocs = new int[16];
+	private int freeCount = 0;
+
+	private int docLimit = 0;
+
+	/** scratch bitsets of search, one bit per document number */
+	private long[] resultBits = new long[1], termBits = new long[1];
+
+	/**
+	 * adds a POI or replaces its text
+	 */
+	public synchronized void put( final String poiId, final String name, final String description ) {
+		final String[] tokens = tokenize( name + ' ' + description, false );
+		final Integer existing = this.docsByPoiId.get( poiId );
+		final int doc;
+		if ( existing != null ) {
+			doc = existing;
+			this.removePostings( doc );
+		} else {
+			doc = this.allocateDoc();
+			this.poiIds[doc] = poiId;
+			this.docsByPoiId.put( poiId, doc );
+		}
+		this.docTokens[doc] = tokens;
+		for ( final String token : tokens ) {
+			Posting posting = this.postings.get( token );
+			if ( posting == null ) {
+				posting = new Posting();
+				this.postings.put( token, posting );
+			}
+			posting.add( doc );
+		}
+	}
+
+	/**
+	 * @return true if POI was indexed
+	 */
+	public synchronized boolean remove( final String poiId ) {
+		final Integer doc = this.docsByPoiId.remove( poiId );
+		if ( doc == null ) {
+			return false;
+		}
+		this.removePostings( doc );
+		this.poiIds[doc] = null;
+		this.docTokens[doc] = null;
+		if ( this.freeCount == this.freeDocs.length ) {
+			this.freeDocs = Arrays.copyOf( this.freeDocs, this.freeCount * 2 );
+		}
+		this.freeDocs[this.freeCount++] = doc;
+		return true;
+	}
+
+	/**
+	 * @return number of indexed POIs
+	 */
+	public synchronized int size() {
+		return this.docsByPoiId.size();
+	}
+
+	/**
+	 * @param query search text, every token must prefix-match a token of the POI
+	 * @param out receives ids of matching POIs
+	 * @return number of matches, -1 if query has no tokens (i.e. everything matches)
+	 */
+	public synchronized int search( final String query, final List<String> out ) {
+		final String[] queryTokens = tokenize( query, true );
+		if ( queryTokens.length == 0 ) {
+			return -1;
+		}
+		final int words = ( this.docLimit + 63 ) >>> 6;
+		if ( this.resultBits.length < words ) {
+			this.resultBits = new long[words];
+			this.termBits = new long[words];
+		}
+
+		for ( int q = 0; q < queryTokens.length; q++ ) {
+			// union of postings of all tokens with query token as prefix
+			final long[] bits = q == 0 ? this.resultBits : this.termBits;
+			Arrays.fill( bits, 0, words, 0 );
+			final SortedMap<String, Posting> matching = this.postings.subMap( queryTokens[q], queryTokens[q] + Character.MAX_VALUE );
+			for ( final Posting posting : matching.values() ) {
+				for ( int i = 0; i < posting.size; i++ ) {
+					final int doc = posting.docs[i];
+					bits[doc >>> 6] |= 1L << doc;
+				}
+			}
+			if ( q > 0 ) {
+				boolean any = false;
+				for ( int w = 0; w < words; w++ ) {
+					this.resultBits[w] &= bits[w];
+					any |= this.resultBits[w] != 0;
+				}
+				if ( !any ) {
+					return 0;
+				}
+			}
+		}
+
+		int count = 0;
+		for ( int w = 0; w < words; w++ ) {
+			long word = this.resultBits[w];
+			while ( word != 0 ) {
+				final int doc = ( w << 6 ) + Long.numberOfTrailingZeros( word );
+				out.add( this.poiIds[doc] );
+				count++;
+				word &= word - 1;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param query true to keep only joined form of hyphenated words, false to index parts and joined form
+	 * @return distinct lower case tokens of text
+	 */
+	static String[] tokenize( final String text, final boolean query ) {
+		final String[] words = text.toLowerCase( Locale.US ).split( "[^\\p{L}\\p{N}-]+" );
+		final List<String> parts = new ArrayList<String>( words.length + 4 );
+		for ( final String word : words ) {
+			final String[] hyphenParts = word.split( "-+" );
+			final StringBuilder joined = new StringBuilder( word.length() );
+			int nonEmpty = 0;
+			for ( final String part : hyphenParts ) {
+				if ( part.length() > 0 ) {
+					joined.append( part );
+					nonEmpty++;
+					if ( !query ) {
+						parts.add( part );
+					}
+				}
+			}
+			if ( nonEmpty > 1 || ( query && nonEmpty == 1 ) ) {
+				parts.add( joined.toString() );
+			}
+		}
+		final String[] tokens = parts.toArray( new String[parts.size()] );
+		Arrays.sort( tokens );
+		// drop duplicates
+		int distinct = 0;
+		for ( int i = 0; i < tokens.length; i++ ) {
+			if ( distinct == 0 || !tokens[i].equals( tokens[distinct - 1] ) ) {
+				tokens[distinct++] = tokens[i];
+			}
+		}
+		return distinct == tokens.length ? tokens : Arrays.copyOf( tokens, distinct );
+	}
+
+	private void removePostings( final int doc ) {
+		for ( final String token : this.docTokens[doc] ) {
+			final Posting posting = this.postings.get( token );
+			if ( posting != null ) {
+				posting.remove( doc );
+				if ( posting.size == 0 ) {
+					this.postings.remove( token );
+				}
+			}
+		}
+	}
+
+	private int allocateDoc() {
+		if ( this.freeCount > 0 ) {
+			return this.freeDocs[--this.freeCount];
+		}
+		if ( this.docLimit == this.poiIds.length ) {
+			this.poiIds = Arrays.copyOf( this.poiIds, this.docLimit * 2 );
+			this.docTokens = Arrays.copyOf( this.docTokens, this.docLimit * 2 );
+		}
+		return this.docLimit++;
+	}
+}
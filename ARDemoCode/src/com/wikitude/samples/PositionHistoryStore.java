@@ -0,0 +1,729 @@
+package com.wikitude.samples;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.wikitude.samples.utils.memory.MemoryGovernor;
+import com.wikitude.samples.utils.memory.Releasable;
+
+/**
+ * Append-only history of unit positions, e.g. to review an incident after a shift. Positions go into time-partitioned segment files holding one column per field,
+ * scans only decode the rows of blocks whose time and bounding box ranges overlap the query.
+ * Appends copy into a preallocated buffer, a writer thread moves them into the memory-mapped open segment, so appending allocates nothing and never waits for the disk.
+ * Segments are closed once their partition has passed (or they are full), compacted and read through read-only mappings.
+ * Register it with {@link MemoryGovernor}: from TIER_OPTIONAL on the open segment's dirty pages are written back, so the system can reclaim them like the clean pages of
+ * closed segments. The append buffers are kept, appending must not allocate. All methods are thread-safe.
+ * <p>
+ * File format (little endian): int magic 'UPH1', int capacity (rows), int rows, int reserved, long start time (ms), int origin latitude, int origin longitude
+ * (1e-7 degrees), followed by one entry per block of BLOCK_ROWS rows (int min / max time, latitude, longitude, as stored in the columns) and the columns of
+ * capacity rows each: int unit ids, int times (ms after start time), int latitudes and longitudes (1e-7 degrees relative to origin), short accuracies (decimeters).
+ * Open segments end in OPEN_SUFFIX, closed ones in SEGMENT_SUFFIX, both are named after their start time.
+ */
+public class PositionHistoryStore implements Releasable {
+
+	/**
+	 * receives positions of a scan, on the scanning thread
+	 */
+	public interface Visitor {
+
+		/**
+		 * @param accuracyMeters NaN if unknown
+		 */
+		void onPosition( int unitId, long timeMs, double lat, double lon, float accuracyMeters );
+	}
+
+	public static final class Stats {
+
+		public long appended, dropped, rows;
+
+		public int segments;
+
+		/** size of all segment files, open ones at full capacity */
+		public long diskBytes;
+
+		/** longest time the writer took to move buffered positions into the open segment */
+		public long maxFlushMs;
+
+		@Override
+		public String toString() {
+			return this.appended + " appended, " + this.dropped + " dropped, " + this.rows + " rows in " + this.segments + " segments (" + ( this.diskBytes >> 10 )
+					+ " KB), max flush " + this.maxFlushMs + " ms";
+		}
+	}
+
+	/** one segment per 10 minutes, a shift is a few dozen files */
+	public static final long DEFAULT_PARTITION_MS = 10 * 60 * 1000;
+
+	/** covers 1k positions per second for a full partition */
+	public static final int DEFAULT_SEGMENT_ROWS = 1 << 20;
+
+	/** a shift plus handover */
+	public static final long DEFAULT_RETENTION_MS = 24 * 60 * 60 * 1000;
+
+	public static final String OPEN_SUFFIX = ".open", SEGMENT_SUFFIX = ".seg";
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final String TAG = "PositionHistoryStore";
+
+	private static final int MAGIC = 0x55504831;
+
+	private static final int HEADER_BYTES = 4 * 4 + 8 + 2 * 4;
+
+	/** rows per block index entry, blocks not overlapping a query are skipped */
+	private static final int BLOCK_ROWS = 256;
+
+	private static final int BLOCK_ENTRY_BYTES = 6 * 4;
+
+	/** bytes of one row over all columns */
+	private static final int ROW_BYTES = 4 * 4 + 2;
+
+	/** fixed point scale of coordinates, 1e-7 degrees is ~1 cm */
+	private static final double FIXED_POINT = 1e7;
+
+	/** stored accuracy of positions without accuracy, larger accuracies are clamped below */
+	private static final int UNKNOWN_ACCURACY = 0xFFFF;
+
+	/** positions buffered between flushes, beyond this appends are dropped */
+	private static final int BUFFER_ROWS = 8192;
+
+	private static final long FLUSH_INTERVAL_MS = 200;
+
+	/** orders segments by start time */
+	private static final Comparator<Segment> BY_START = new Comparator<Segment>() {
+
+		@Override
+		public int compare( final Segment a, final Segment b ) {
+			return a.startMs < b.startMs ? -1 : ( a.startMs == b.startMs ? 0 : 1 );
+		}
+	};
+
+	/**
+	 * mapped segment file, columns are read and written at absolute offsets
+	 */
+	private static final class Segment {
+
+		final File file;
+
+		final ByteBuffer buffer;
+
+		final int capacity;
+
+		final long startMs;
+
+		final int originLat, originLon;
+
+		final int idsOffset, timesOffset, latsOffset, lonsOffset, accuraciesOffset;
+
+		/** rows readers may scan, written by the writer after the rows */
+		volatile int rows;
+
+		/** time range of all rows, skips segments outside a query */
+		volatile long minTimeMs, maxTimeMs;
+
+		Segment( final File file, final ByteBuffer buffer ) {
+			this.file = file;
+			this.buffer = buffer;
+			this.capacity = buffer.getInt( 4 );
+			this.startMs = buffer.getLong( 16 );
+			this.originLat = buffer.getInt( 24 );
+			this.originLon = buffer.getInt( 28 );
+			this.idsOffset = HEADER_BYTES + blocks( this.capacity ) * BLOCK_ENTRY_BYTES;
+			this.timesOffset = this.idsOffset + this.capacity * 4;
+			this.latsOffset = this.timesOffset + this.capacity * 4;
+			this.lonsOffset = this.latsOffset + this.capacity * 4;
+			this.accuraciesOffset = this.lonsOffset + this.capacity * 4;
+			final int rows = buffer.getInt( 8 );
+			long minTimeMs = Long.MAX_VALUE, maxTimeMs = Long.MIN_VALUE;
+			for ( int block = 0; block < blocks( rows ); block++ ) {
+				final int entry = HEADER_BYTES + block * BLOCK_ENTRY_BYTES;
+				minTimeMs = Math.min( minTimeMs, this.startMs + buffer.getInt( entry ) );
+				maxTimeMs = Math.max( maxTimeMs, this.startMs + buffer.getInt( entry + 4 ) );
+			}
+			this.minTimeMs = minTimeMs;
+			this.maxTimeMs = maxTimeMs;
+			this.rows = rows;
+		}
+
+		static int blocks( final int rows ) {
+			return ( rows + BLOCK_ROWS - 1 ) / BLOCK_ROWS;
+		}
+
+		static int bytes( final int capacity ) {
+			return HEADER_BYTES + blocks( capacity ) * BLOCK_ENTRY_BYTES + capacity * ROW_BYTES;
+		}
+	}
+
+	/**
+	 * positions appended since the last flush
+	 */
+	private static final class Buffer {
+
+		final int[] ids = new int[BUFFER_ROWS];
+		final long[] times = new long[BUFFER_ROWS];
+		final double[] latitudes = new double[BUFFER_ROWS], longitudes = new double[BUFFER_ROWS];
+		final float[] accuracies = new float[BUFFER_ROWS];
+		int count = 0;
+	}
+
+	private final File directory;
+
+	private final long partitionMs, retentionMs;
+
+	private final int segmentRows;
+
+	/** appends go to pending, the writer swaps it with draining. Guarded by this */
+	private Buffer pending = new Buffer(), draining = new Buffer();
+	private long appended = 0, dropped = 0;
+
+	/** all segments by start time, replaced as a whole by the writer */
+	private volatile Segment[] segments = new Segment[0];
+
+	/* writer thread only */
+	private Segment openSegment;
+	private int writtenRows;
+
+	/** rows of the open segment already written back to its file, writer thread only */
+	private int forcedRows;
+
+	/** published rows of the open segment not written back yet */
+	private volatile int dirtyRows = 0;
+
+	private volatile long maxFlushMs = 0;
+
+	private final HandlerThread thread;
+
+	private final Handler handler;
+
+	private final Runnable flushRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			PositionHistoryStore.this.flush();
+			PositionHistoryStore.this.handler.postDelayed( this, FLUSH_INTERVAL_MS );
+		}
+	};
+
+	/** writes back dirty pages of the open segment */
+	private final Runnable forceRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			PositionHistoryStore.this.flush();
+			final Segment open = PositionHistoryStore.this.openSegment;
+			if ( open != null && PositionHistoryStore.this.forcedRows != PositionHistoryStore.this.writtenRows ) {
+				( (MappedByteBuffer)open.buffer ).force();
+				PositionHistoryStore.this.forcedRows = PositionHistoryStore.this.writtenRows;
+				PositionHistoryStore.this.dirtyRows = 0;
+			}
+		}
+	};
+
+	public PositionHistoryStore( final File directory ) {
+		this( directory, DEFAULT_PARTITION_MS, DEFAULT_SEGMENT_ROWS, DEFAULT_RETENTION_MS );
+	}
+
+	/**
+	 * opens segments in directory (created if missing) on the writer thread, recent positions become scannable shortly after
+	 * @param partitionMs time covered by one segment
+	 * @param segmentRows positions per segment, a new segment is started early once full
+	 * @param retentionMs segments with all positions older than this are deleted
+	 */
+	public PositionHistoryStore( final File directory, final long partitionMs, final int segmentRows, final long retentionMs ) {
+		if ( segmentRows <= 0 || segmentRows > ( Integer.MAX_VALUE - HEADER_BYTES ) / ( ROW_BYTES + BLOCK_ENTRY_BYTES ) ) {
+			throw new IllegalArgumentException( "segmentRows out of range: " + segmentRows );
+		}
+		this.directory = directory;
+		this.partitionMs = partitionMs;
+		this.segmentRows = segmentRows;
+		this.retentionMs = retentionMs;
+		this.thread = new HandlerThread( "PositionHistory", Process.THREAD_PRIORITY_BACKGROUND );
+		this.thread.start();
+		this.handler = new Handler( this.thread.getLooper() );
+		this.handler.post( new Runnable() {
+
+			@Override
+			public void run() {
+				PositionHistoryStore.this.open();
+			}
+		} );
+		this.handler.postDelayed( this.flushRunnable, FLUSH_INTERVAL_MS );
+	}
+
+	/**
+	 * stores a position, may be called from any thread, doesn't allocate
+	 * @param timeMs time of position, in System.currentTimeMillis() time base
+	 * @param accuracyMeters NaN if unknown
+	 * @return false if the writer doesn't keep up and the position was dropped
+	 */
+	public synchronized boolean append( final int unitId, final long timeMs, final double lat, final double lon, final float accuracyMeters ) {
+		final Buffer buffer = this.pending;
+		if ( buffer.count == BUFFER_ROWS ) {
+			this.dropped++;
+			return false;
+		}
+		final int i = buffer.count++;
+		buffer.ids[i] = unitId;
+		buffer.times[i] = timeMs;
+		buffer.latitudes[i] = lat;
+		buffer.longitudes[i] = lon;
+		buffer.accuracies[i] = accuracyMeters;
+		this.appended++;
+		return true;
+	}
+
+	/**
+	 * visits positions of a time window, in order of segments and append order within a segment (roughly by time).
+	 * Positions appended within the last FLUSH_INTERVAL_MS may not be visible yet
+	 * @param fromMs first time, inclusive
+	 * @param toMs last time, inclusive
+	 * @return number of positions visited
+	 */
+	public int scan( final long fromMs, final long toMs, final Visitor visitor ) {
+		return this.scan( fromMs, toMs, -90, -180, 90, 180, visitor );
+	}
+
+	/**
+	 * visits positions of a time window within a bounding box (inclusive, must not cross the antimeridian), see scan( long, long, Visitor )
+	 * @return number of positions visited
+	 */
+	public int scan( final long fromMs, final long toMs, final double south, final double west, final double north, final double east, final Visitor visitor ) {
+		final long fixedSouth = Math.round( south * FIXED_POINT ), fixedNorth = Math.round( north * FIXED_POINT );
+		final long fixedWest = Math.round( west * FIXED_POINT ), fixedEast = Math.round( east * FIXED_POINT );
+		int visited = 0;
+		for ( final Segment segment : this.segments ) {
+			final int rows = segment.rows;
+			if ( rows == 0 || segment.maxTimeMs < fromMs || segment.minTimeMs > toMs ) {
+				continue;
+			}
+			// query in the segment's stored units
+			final int minTime = clamp( fromMs - segment.startMs ), maxTime = clamp( toMs - segment.startMs );
+			final int minLat = clamp( fixedSouth - segment.originLat ), maxLat = clamp( fixedNorth - segment.originLat );
+			final int minLon = clamp( fixedWest - segment.originLon ), maxLon = clamp( fixedEast - segment.originLon );
+			final ByteBuffer buffer = segment.buffer;
+			for ( int block = 0; block < Segment.blocks( rows ); block++ ) {
+				final int entry = HEADER_BYTES + block * BLOCK_ENTRY_BYTES;
+				if ( buffer.getInt( entry ) > maxTime || buffer.getInt( entry + 4 ) < minTime || buffer.getInt( entry + 8 ) > maxLat || buffer.getInt( entry + 12 ) < minLat
+						|| buffer.getInt( entry + 16 ) > maxLon || buffer.getInt( entry + 20 ) < minLon ) {
+					continue;
+				}
+				final int end = Math.min( rows, ( block + 1 ) * BLOCK_ROWS );
+				for ( int row = block * BLOCK_ROWS; row < end; row++ ) {
+					final int time = buffer.getInt( segment.timesOffset + row * 4 );
+					if ( time < minTime || time > maxTime ) {
+						continue;
+					}
+					final int lat = buffer.getInt( segment.latsOffset + row * 4 );
+					if ( lat < minLat || lat > maxLat ) {
+						continue;
+					}
+					final int lon = buffer.getInt( segment.lonsOffset + row * 4 );
+					if ( lon < minLon || lon > maxLon ) {
+						continue;
+					}
+					final int accuracy = buffer.getShort( segment.accuraciesOffset + row * 2 ) & 0xFFFF;
+					visitor.onPosition( buffer.getInt( segment.idsOffset + row * 4 ), segment.startMs + time, ( segment.originLat + lat ) / FIXED_POINT,
+							( segment.originLon + lon ) / FIXED_POINT, accuracy == UNKNOWN_ACCURACY ? Float.NaN : accuracy / 10f );
+					visited++;
+				}
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * @return time of the oldest stored position, Long.MAX_VALUE if none
+	 */
+	public long getMinTimeMs() {
+		long minTimeMs = Long.MAX_VALUE;
+		for ( final Segment segment : this.segments ) {
+			if ( segment.rows > 0 ) {
+				minTimeMs = Math.min( minTimeMs, segment.minTimeMs );
+			}
+		}
+		return minTimeMs;
+	}
+
+	/**
+	 * @return time of the latest stored position, Long.MIN_VALUE if none
+	 */
+	public long getMaxTimeMs() {
+		long maxTimeMs = Long.MIN_VALUE;
+		for ( final Segment segment : this.segments ) {
+			if ( segment.rows > 0 ) {
+				maxTimeMs = Math.max( maxTimeMs, segment.maxTimeMs );
+			}
+		}
+		return maxTimeMs;
+	}
+
+	public Stats getStats() {
+		final Stats stats = new Stats();
+		synchronized ( this ) {
+			stats.appended = this.appended;
+			stats.dropped = this.dropped;
+		}
+		final Segment[] segments = this.segments;
+		stats.segments = segments.length;
+		for ( final Segment segment : segments ) {
+			stats.rows += segment.rows;
+			stats.diskBytes += segment.buffer.capacity();
+		}
+		stats.maxFlushMs = this.maxFlushMs;
+		return stats;
+	}
+
+	@Override
+	public long release( final int tier ) {
+		if ( tier < MemoryGovernor.TIER_OPTIONAL ) {
+			return 0;
+		}
+		// estimate, the writer forces asynchronously
+		final long dirtyBytes = (long)this.dirtyRows * ROW_BYTES;
+		this.handler.post( this.forceRunnable );
+		return dirtyBytes;
+	}
+
+	/**
+	 * writes buffered positions and stops the writer, the open segment is continued by the next store on this directory if its partition hasn't passed.
+	 * Scans keep working
+	 */
+	public void close() {
+		this.handler.removeCallbacks( this.flushRunnable );
+		this.handler.post( new Runnable() {
+
+			@Override
+			public void run() {
+				PositionHistoryStore.this.flush();
+				final Segment open = PositionHistoryStore.this.openSegment;
+				if ( open != null ) {
+					( (MappedByteBuffer)open.buffer ).force();
+				}
+				PositionHistoryStore.this.thread.quit();
+			}
+		} );
+	}
+
+	/**
+	 * maps segments of directory, continues the latest open segment if its partition hasn't passed and closes older ones (left by a crash)
+	 */
+	private void open() {
+		if ( !this.directory.isDirectory() && !this.directory.mkdirs() ) {
+			Log.w( TAG, "can't create " + this.directory + ", positions are dropped" );
+			return;
+		}
+		final File[] files = this.directory.listFiles();
+		Segment latestOpen = null;
+		Segment[] segments = new Segment[0];
+		for ( final File file : files != null ? files : new File[0] ) {
+			final String name = file.getName();
+			if ( name.endsWith( TEMP_SUFFIX ) ) {
+				// crashed while closing, its open segment still exists
+				file.delete();
+				continue;
+			}
+			final boolean open = name.endsWith( OPEN_SUFFIX );
+			if ( !open && !name.endsWith( SEGMENT_SUFFIX ) ) {
+				continue;
+			}
+			try {
+				final Segment segment = map( file, open );
+				segments = Arrays.copyOf( segments, segments.length + 1 );
+				segments[segments.length - 1] = segment;
+				if ( open && ( latestOpen == null || segment.startMs > latestOpen.startMs ) ) {
+					latestOpen = segment;
+				}
+			} catch ( final IOException e ) {
+				Log.w( TAG, "skipping unreadable segment " + file, e );
+			}
+		}
+		Arrays.sort( segments, BY_START );
+		this.segments = segments;
+
+		final long nowMs = System.currentTimeMillis();
+		for ( final Segment segment : segments ) {
+			if ( segment.file.getName().endsWith( OPEN_SUFFIX ) ) {
+				if ( segment == latestOpen && nowMs < segment.startMs + this.partitionMs && segment.rows < segment.capacity ) {
+					this.openSegment = segment;
+					this.writtenRows = this.forcedRows = segment.rows;
+				} else {
+					this.closeSegment( segment );
+				}
+			}
+		}
+		this.deleteExpired( nowMs );
+	}
+
+	/**
+	 * moves buffered positions into the open segment and makes them scannable, runs on writer thread
+	 */
+	private void flush() {
+		synchronized ( this ) {
+			final Buffer full = this.pending;
+			this.pending = this.draining;
+			this.draining = full;
+		}
+		final Buffer buffer = this.draining;
+		if ( buffer.count == 0 ) {
+			return;
+		}
+		final long startedAt = SystemClock.elapsedRealtime();
+		for ( int i = 0; i < buffer.count; i++ ) {
+			if ( !this.write( buffer.ids[i], buffer.times[i], buffer.latitudes[i], buffer.longitudes[i], buffer.accuracies[i] ) ) {
+				synchronized ( this ) {
+					this.dropped += buffer.count - i;
+				}
+				break;
+			}
+		}
+		buffer.count = 0;
+		this.publish();
+		this.maxFlushMs = Math.max( this.maxFlushMs, SystemClock.elapsedRealtime() - startedAt );
+	}
+
+	/**
+	 * writes a row into the open segment, starting a new one if needed
+	 * @return false if no segment could be created
+	 */
+	private boolean write( final int unitId, final long timeMs, final double lat, final double lon, final float accuracyMeters ) {
+		final long fixedLat = Math.round( lat * FIXED_POINT ), fixedLon = Math.round( lon * FIXED_POINT );
+		Segment segment = this.openSegment;
+		if ( segment != null && ( this.writtenRows == segment.capacity || timeMs >= segment.startMs + this.partitionMs || !fits( timeMs - segment.startMs )
+				|| !fits( fixedLat - segment.originLat ) || !fits( fixedLon - segment.originLon ) ) ) {
+			this.publish();
+			this.openSegment = null;
+			this.closeSegment( segment );
+			this.deleteExpired( System.currentTimeMillis() );
+			segment = null;
+		}
+		if ( segment == null ) {
+			try {
+				segment = this.create( timeMs, (int)fixedLat, (int)fixedLon );
+			} catch ( final IOException e ) {
+				Log.w( TAG, "can't create segment, positions are dropped", e );
+				return false;
+			}
+			this.openSegment = segment;
+			this.writtenRows = this.forcedRows = 0;
+		}
+
+		final ByteBuffer buffer = segment.buffer;
+		final int row = this.writtenRows++;
+		final int time = (int)( timeMs - segment.startMs ), latitude = (int)( fixedLat - segment.originLat ), longitude = (int)( fixedLon - segment.originLon );
+		buffer.putInt( segment.idsOffset + row * 4, unitId );
+		buffer.putInt( segment.timesOffset + row * 4, time );
+		buffer.putInt( segment.latsOffset + row * 4, latitude );
+		buffer.putInt( segment.lonsOffset + row * 4, longitude );
+		buffer.putShort( segment.accuraciesOffset + row * 2, (short)( accuracyMeters >= 0 ? Math.min( UNKNOWN_ACCURACY - 1, Math.round( accuracyMeters * 10 ) ) : UNKNOWN_ACCURACY ) );
+
+		final int entry = HEADER_BYTES + ( row / BLOCK_ROWS ) * BLOCK_ENTRY_BYTES;
+		if ( row % BLOCK_ROWS == 0 ) {
+			buffer.putInt( entry, time );
+			buffer.putInt( entry + 4, time );
+			buffer.putInt( entry + 8, latitude );
+			buffer.putInt( entry + 12, latitude );
+			buffer.putInt( entry + 16, longitude );
+			buffer.putInt( entry + 20, longitude );
+		} else {
+			// ranges only grow, so scans never see a block narrower than its published rows
+			widen( buffer, entry, time );
+			widen( buffer, entry + 8, latitude );
+			widen( buffer, entry + 16, longitude );
+		}
+		if ( timeMs < segment.minTimeMs ) {
+			segment.minTimeMs = timeMs;
+		}
+		if ( timeMs > segment.maxTimeMs ) {
+			segment.maxTimeMs = timeMs;
+		}
+		return true;
+	}
+
+	/**
+	 * makes written rows of the open segment scannable and records them in its header, so they survive a crash of the app
+	 */
+	private void publish() {
+		final Segment segment = this.openSegment;
+		if ( segment != null && segment.rows != this.writtenRows ) {
+			segment.buffer.putInt( 8, this.writtenRows );
+			segment.rows = this.writtenRows;
+			this.dirtyRows = this.writtenRows - this.forcedRows;
+		}
+	}
+
+	/**
+	 * creates and maps an open segment at full capacity, its file is sparse until rows are written
+	 */
+	private Segment create( final long startMs, final int originLat, final int originLon ) throws IOException {
+		long start = startMs;
+		File file = new File( this.directory, start + OPEN_SUFFIX );
+		// segments started in the same millisecond
+		while ( file.exists() || new File( this.directory, start + SEGMENT_SUFFIX ).exists() ) {
+			file = new File( this.directory, ++start + OPEN_SUFFIX );
+		}
+		final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+		final MappedByteBuffer buffer;
+		try {
+			raf.setLength( Segment.bytes( this.segmentRows ) );
+			buffer = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, raf.length() );
+		} finally {
+			raf.close();
+		}
+		buffer.order( ByteOrder.LITTLE_ENDIAN );
+		buffer.putInt( 0, MAGIC );
+		buffer.putInt( 4, this.segmentRows );
+		buffer.putInt( 8, 0 );
+		buffer.putLong( 16, start );
+		buffer.putInt( 24, originLat );
+		buffer.putInt( 28, originLon );
+		final Segment segment = new Segment( file, buffer );
+		final Segment[] segments = Arrays.copyOf( this.segments, this.segments.length + 1 );
+		segments[segments.length - 1] = segment;
+		Arrays.sort( segments, BY_START );
+		this.segments = segments;
+		return segment;
+	}
+
+	/**
+	 * writes rows of an open segment to a compacted segment file and replaces it, an empty segment is deleted.
+	 * On failure the open segment stays in place and is closed again on the next start
+	 */
+	private void closeSegment( final Segment open ) {
+		final int rows = open.rows;
+		Segment closed = null;
+		if ( rows > 0 ) {
+			final File temp = new File( this.directory, open.startMs + TEMP_SUFFIX );
+			final File file = new File( this.directory, open.startMs + SEGMENT_SUFFIX );
+			try {
+				final RandomAccessFile raf = new RandomAccessFile( temp, "rw" );
+				try {
+					raf.setLength( 0 );
+					final FileChannel channel = raf.getChannel();
+					final ByteBuffer header = ByteBuffer.allocate( HEADER_BYTES ).order( ByteOrder.LITTLE_ENDIAN );
+					header.putInt( MAGIC ).putInt( rows ).putInt( rows ).putInt( 0 ).putLong( open.startMs ).putInt( open.originLat ).putInt( open.originLon );
+					header.flip();
+					writeFully( channel, header );
+					writeFully( channel, slice( open.buffer, HEADER_BYTES, Segment.blocks( rows ) * BLOCK_ENTRY_BYTES ) );
+					writeFully( channel, slice( open.buffer, open.idsOffset, rows * 4 ) );
+					writeFully( channel, slice( open.buffer, open.timesOffset, rows * 4 ) );
+					writeFully( channel, slice( open.buffer, open.latsOffset, rows * 4 ) );
+					writeFully( channel, slice( open.buffer, open.lonsOffset, rows * 4 ) );
+					writeFully( channel, slice( open.buffer, open.accuraciesOffset, rows * 2 ) );
+					channel.force( true );
+				} finally {
+					raf.close();
+				}
+				if ( !temp.renameTo( file ) ) {
+					throw new IOException( "can't rename " + temp );
+				}
+				closed = map( file, false );
+			} catch ( final IOException e ) {
+				Log.w( TAG, "closing " + open.file + " failed, it's retried on next start", e );
+				temp.delete();
+				return;
+			}
+		}
+		final Segment[] segments = this.segments;
+		for ( int i = 0; i < segments.length; i++ ) {
+			if ( segments[i] == open ) {
+				final Segment[] replaced;
+				if ( closed != null ) {
+					replaced = segments.clone();
+					replaced[i] = closed;
+				} else {
+					replaced = new Segment[segments.length - 1];
+					System.arraycopy( segments, 0, replaced, 0, i );
+					System.arraycopy( segments, i + 1, replaced, i, replaced.length - i );
+				}
+				this.segments = replaced;
+				break;
+			}
+		}
+		// scans still holding the open segment keep reading its mapping
+		open.file.delete();
+	}
+
+	/**
+	 * deletes closed segments whose latest position is beyond retention
+	 */
+	private void deleteExpired( final long nowMs ) {
+		final Segment[] segments = this.segments;
+		int kept = 0;
+		final Segment[] remaining = new Segment[segments.length];
+		for ( final Segment segment : segments ) {
+			if ( segment != this.openSegment && segment.rows > 0 && segment.maxTimeMs < nowMs - this.retentionMs && segment.file.getName().endsWith( SEGMENT_SUFFIX ) ) {
+				segment.file.delete();
+			} else {
+				remaining[kept++] = segment;
+			}
+		}
+		if ( kept < segments.length ) {
+			this.segments = Arrays.copyOf( remaining, kept );
+		}
+	}
+
+	private static Segment map( final File file, final boolean writable ) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile( file, writable ? "rw" : "r" );
+		final MappedByteBuffer buffer;
+		try {
+			if ( raf.length() < HEADER_BYTES ) {
+				throw new IOException( "not a position history segment: " + file );
+			}
+			// mapping stays valid after channel is closed
+			buffer = raf.getChannel().map( writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, raf.length() );
+		} finally {
+			raf.close();
+		}
+		buffer.order( ByteOrder.LITTLE_ENDIAN );
+		final int capacity = buffer.getInt( 4 ), rows = buffer.getInt( 8 );
+		if ( buffer.getInt( 0 ) != MAGIC || capacity < 0 || rows < 0 || rows > capacity || (long)Segment.bytes( capacity ) > buffer.capacity() ) {
+			throw new IOException( "invalid position history segment: " + file );
+		}
+		return new Segment( file, buffer );
+	}
+
+	private static ByteBuffer slice( final ByteBuffer buffer, final int offset, final int length ) {
+		final ByteBuffer slice = buffer.duplicate();
+		slice.limit( offset + length );
+		slice.position( offset );
+		return slice;
+	}
+
+	private static void writeFully( final FileChannel channel, final ByteBuffer buffer ) throws IOException {
+		while ( buffer.hasRemaining() ) {
+			channel.write( buffer );
+		}
+	}
+
+	/**
+	 * widens the min / max pair at offset to include value
+	 */
+	private static void widen( final ByteBuffer buffer, final int offset, final int value ) {
+		if ( value < buffer.getInt( offset ) ) {
+			buffer.putInt( offset, value );
+		} else if ( value > buffer.getInt( offset + 4 ) ) {
+			buffer.putInt( offset + 4, value );
+		}
+	}
+
+	private static boolean fits( final long value ) {
+		return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+	}
+
+	private static int clamp( final long value ) {
+		return (int)Math.max( Integer.MIN_VALUE, Math.min( Integer.MAX_VALUE, value ) );
+	}
+}
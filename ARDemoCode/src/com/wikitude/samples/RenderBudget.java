@@ -0,0 +1,475 @@
+package com.wikitude.samples;
+
+import java.util.Arrays;
+
+import com.wikitude.samples.utils.collections.IndexedDoubleHeap;
+import com.wikitude.samples.utils.collections.IntIntMap;
+
+/**
+ * Limits the markers rendered in the ARchitect World to the K most relevant POIs, the renderer degrades badly beyond ~100 live markers.
+ * POIs are scored by distance to the user, recency of their last update, incident severity and selection state.
+ * The K best are kept in a min-heap, the others in a max-heap; a score change moves at most a few POIs between them, each in O(log n).
+ * K follows the frame time reported by the World (multiplicative decrease when frames are slow, additive increase when there is headroom).
+ * Membership changes are collected until {@link #drainDelta(Delta)}, so the World only receives POIs whose visibility changed; it creates markers for shown POIs only.
+ * All methods are thread-safe.
+ */
+public class RenderBudget {
+
+	/** severities of POIs, as in PoiAttributeIndex values "low", "medium", "high" */
+	public static final int SEVERITY_LOW = 0;
+	public static final int SEVERITY_MEDIUM = 1;
+	public static final int SEVERITY_HIGH = 2;
+
+	/** aim for 30 fps */
+	private static final float TARGET_FRAME_MS = 33;
+
+	/** frame times below TARGET_FRAME_MS * HEADROOM allow more markers */
+	private static final float HEADROOM = 0.75f;
+
+	private static final float DECREASE_FACTOR = 0.8f;
+
+	private static final int INCREASE_STEP = 5;
+
+	/** score weights, distance dominates, severity can outweigh a few hundred meters */
+	private static final double WEIGHT_DISTANCE = 1.0;
+	private static final double WEIGHT_RECENCY = 0.5;
+	private static final double WEIGHT_SEVERITY = 0.4;
+
+	/** selected POI always stays rendered */
+	private static final double SELECTED_BONUS = 100;
+
+	/** distance at which distance score is halved */
+	private static final double HALF_SCORE_DISTANCE_METERS = 150;
+
+	/** recency score decays with this time constant */
+	private static final double RECENCY_TIME_CONSTANT_MS = 60 * 1000;
+
+	private static final double METERS_PER_DEGREE = 111319.5;
+
+	/** user positions closer than this to the one of the last full rescore don't rescore all POIs */
+	private static final double RESCORE_DISTANCE_METERS = 20;
+
+	/** all POIs are rescored at least this often while user positions arrive, so recency scores follow time */
+	private static final long RESCORE_INTERVAL_MS = 5 * 1000;
+
+	/**
+	 * POIs whose rendering state changed, by POI id
+	 */
+	public static class Delta {
+
+		public int[] shown = new int[0];
+
+		public int[] hidden = new int[0];
+
+		public boolean isEmpty() {
+			return this.shown.length == 0 && this.hidden.length == 0;
+		}
+	}
+
+	private final int minK, maxK;
+
+	private int k;
+
+	/** POI id -> slot */
+	private final IntIntMap slots = new IntIntMap( 256 );
+
+	/** slot -> POI state, id -1 for free slots */
+	private int[] ids = new int[64];
+	private double[] latitudes = new double[64], longitudes = new double[64];
+	private long[] updatedAtMs = new long[64];
+	private byte[] severities = new byte[64];
+
+	/** slot -> rendering state last drained, i.e. as known by World */
+	private boolean[] reportedShown = new boolean[64];
+
+	/** ids of POIs reported shown, i.e. POIs World has a marker for, compact */
+	private int[] shownIds = new int[64];
+	private int shownCount = 0;
+
+	/** POI id -> index in shownIds */
+	private final IntIntMap shownIndexes = new IntIntMap( 128 );
+
+	/** slot -> position updated since last rescoreMoved() */
+	private boolean[] moved = new boolean[64];
+
+	/** slots moved since last rescoreMoved(), each at most once */
+	private int[] movedSlots = new int[64];
+	private int movedCount = 0;
+
+	private int[] freeSlots = new int[16];
+	private int freeCount = 0;
+	private int slotLimit = 0;
+
+	/** K best POIs, worst on top */
+	private final IndexedDoubleHeap top = new IndexedDoubleHeap( false, 128 );
+
+	/** remaining POIs, best on top */
+	private final IndexedDoubleHeap rest = new IndexedDoubleHeap( true, 256 );
+
+	/** slots whose membership changed since last drain, may contain duplicates */
+	private int[] changed = new int[64];
+	private int changedCount = 0;
+
+	private int selectedSlot = -1;
+
+	/** user position and time all POIs were scored for last, POIs rescored in between are scored for it, too */
+	private double userLatitude, userLongitude, metersPerDegreeLongitude;
+	private boolean hasUser = false;
+
+	private long nowMs = 0;
+
+	/**
+	 * @param initialK markers rendered initially
+	 * @param minK markers rendered even on slow devices
+	 * @param maxK markers rendered at most
+	 */
+	public RenderBudget( final int initialK, final int minK, final int maxK ) {
+		this.minK = minK;
+		this.maxK = maxK;
+		this.k = Math.max( minK, Math.min( maxK, initialK ) );
+	}
+
+	/**
+	 * adds a POI or replaces its position and severity
+	 * @param severity one of SEVERITY_*
+	 * @param timeMs time of POI data, recent POIs score higher
+	 */
+	public synchronized void put( final int id, final double latitude, final double longitude, final int severity, final long timeMs ) {
+		int slot = this.slots.get( id );
+		if ( slot == IntIntMap.MISSING ) {
+			slot = this.allocateSlot();
+			this.slots.put( id, slot );
+			this.ids[slot] = id;
+			// World creates markers for shown POIs only, next drain shows new POIs among the K best
+			this.reportedShown[slot] = false;
+			this.markChanged( slot );
+		}
+		this.latitudes[slot] = latitude;
+		this.longitudes[slot] = longitude;
+		this.severities[slot] = (byte)severity;
+		this.updatedAtMs[slot] = timeMs;
+		this.nowMs = Math.max( this.nowMs, timeMs );
+		this.rescore( slot );
+	}
+
+	/**
+	 * moves a POI, e.g. a unit reported a new position. Ignored for unknown POIs.
+	 * Only the position is stored, the POI is rescored with the next {@link #rescoreMoved()}, so a unit reporting many fixes in between is rescored once.
+	 */
+	public synchronized void updatePosition( final int id, final double latitude, final double longitude, final long timeMs ) {
+		final int slot = this.slots.get( id );
+		if ( slot == IntIntMap.MISSING ) {
+			return;
+		}
+		this.latitudes[slot] = latitude;
+		this.longitudes[slot] = longitude;
+		this.updatedAtMs[slot] = timeMs;
+		this.nowMs = Math.max( this.nowMs, timeMs );
+		if ( !this.moved[slot] ) {
+			this.moved[slot] = true;
+			if ( this.movedCount == this.movedSlots.length ) {
+				this.movedSlots = Arrays.copyOf( this.movedSlots, this.movedCount * 2 );
+			}
+			this.movedSlots[this.movedCount++] = slot;
+		}
+	}
+
+	/**
+	 * rescores POIs moved by {@link #updatePosition(int, double, double, long)} since last call, e.g. once per publish of unit positions
+	 */
+	public synchronized void rescoreMoved() {
+		for ( int i = 0; i < this.movedCount; i++ ) {
+			final int slot = this.movedSlots[i];
+			// slot may have been removed (and reused) since it moved
+			if ( this.moved[slot] ) {
+				this.moved[slot] = false;
+				this.rescore( slot );
+			}
+		}
+		this.movedCount = 0;
+	}
+
+	/**
+	 * @return true if POI was known
+	 */
+	public synchronized boolean remove( final int id ) {
+		final int slot = this.slots.remove( id );
+		if ( slot == IntIntMap.MISSING ) {
+			return false;
+		}
+		if ( this.top.remove( slot ) ) {
+			this.rebalance();
+		} else {
+			this.rest.remove( slot );
+		}
+		if ( this.selectedSlot == slot ) {
+			this.selectedSlot = -1;
+		}
+		// World removes the marker itself, nothing to report
+		if ( this.reportedShown[slot] ) {
+			this.reportedShown[slot] = false;
+			this.removeShown( id );
+		}
+		this.ids[slot] = -1;
+		this.moved[slot] = false;
+		if ( this.freeCount == this.freeSlots.length ) {
+			this.freeSlots = Arrays.copyOf( this.freeSlots, this.freeCount * 2 );
+		}
+		this.freeSlots[this.freeCount++] = slot;
+		return true;
+	}
+
+	/**
+	 * @param id selected POI, -1 if none
+	 */
+	public synchronized void setSelected( final int id ) {
+		final int previous = this.selectedSlot;
+		this.selectedSlot = id >= 0 ? this.slots.get( id ) : -1;
+		if ( previous >= 0 && previous != this.selectedSlot ) {
+			this.rescore( previous );
+		}
+		if ( this.selectedSlot >= 0 ) {
+			this.rescore( this.selectedSlot );
+		}
+	}
+
+	/**
+	 * rescores all POIs for new user position and current time, once user moved RESCORE_DISTANCE_METERS or RESCORE_INTERVAL_MS passed since last time.
+	 * Fixes in between are ignored, moved POIs are still rescored by {@link #rescoreMoved()}.
+	 */
+	public synchronized void setUserPosition( final double latitude, final double longitude, final long nowMs ) {
+		if ( this.hasUser && nowMs - this.nowMs < RESCORE_INTERVAL_MS ) {
+			final double dy = ( latitude - this.userLatitude ) * METERS_PER_DEGREE;
+			final double dx = ( longitude - this.userLongitude ) * this.metersPerDegreeLongitude;
+			if ( dx * dx + dy * dy < RESCORE_DISTANCE_METERS * RESCORE_DISTANCE_METERS ) {
+				return;
+			}
+		}
+		this.userLatitude = latitude;
+		this.userLongitude = longitude;
+		this.metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos( Math.toRadians( latitude ) );
+		this.hasUser = true;
+		this.nowMs = nowMs;
+		for ( int slot = 0; slot < this.slotLimit; slot++ ) {
+			this.moved[slot] = false;
+			if ( this.ids[slot] >= 0 ) {
+				this.rescore( slot );
+			}
+		}
+		this.movedCount = 0;
+	}
+
+	/**
+	 * adapts K to measured rendering performance
+	 * @param averageFrameMs average frame time of the last few seconds
+	 */
+	public synchronized void onFrameTime( final float averageFrameMs ) {
+		final int newK;
+		if ( averageFrameMs > TARGET_FRAME_MS ) {
+			newK = Math.max( this.minK, (int)( this.k * DECREASE_FACTOR ) );
+		} else if ( averageFrameMs < TARGET_FRAME_MS * HEADROOM && this.top.size() >= this.k ) {
+			// only grow if budget is actually used, otherwise K would creep up while few POIs exist
+			newK = Math.min( this.maxK, this.k + INCREASE_STEP );
+		} else {
+			return;
+		}
+		if ( newK != this.k ) {
+			this.k = newK;
+			this.rebalance();
+		}
+	}
+
+	/**
+	 * @return number of markers currently allowed
+	 */
+	public synchronized int getK() {
+		return this.k;
+	}
+
+	/**
+	 * @return maximum number of markers, e.g. capacity for {@link #copyShownIds(int[])}
+	 */
+	public int getMaxK() {
+		return this.maxK;
+	}
+
+	/**
+	 * copies ids of POIs World has a marker for, as of the last {@link #drainDelta(Delta)}
+	 * @param out receives ids, ids beyond its length are not copied
+	 * @return number of shown POIs, may exceed out.length
+	 */
+	public synchronized int copyShownIds( final int[] out ) {
+		System.arraycopy( this.shownIds, 0, out, 0, Math.min( this.shownCount, out.length ) );
+		return this.shownCount;
+	}
+
+	/**
+	 * @return true if POI is among the K best
+	 */
+	public synchronized boolean isRendered( final int id ) {
+		final int slot = this.slots.get( id );
+		return slot != IntIntMap.MISSING && this.top.contains( slot );
+	}
+
+	/**
+	 * reports POIs that entered or left the K best since last drain
+	 * @return true if delta isn't empty
+	 */
+	public synchronized boolean drainDelta( final Delta delta ) {
+		int shownCount = 0, hiddenCount = 0;
+		final int[] shown = new int[this.changedCount], hidden = new int[this.changedCount];
+		for ( int i = 0; i < this.changedCount; i++ ) {
+			final int slot = this.changed[i];
+			if ( this.ids[slot] < 0 ) {
+				continue;
+			}
+			final boolean rendered = this.top.contains( slot );
+			if ( rendered != this.reportedShown[slot] ) {
+				this.reportedShown[slot] = rendered;
+				if ( rendered ) {
+					shown[shownCount++] = this.ids[slot];
+					this.addShown( this.ids[slot] );
+				} else {
+					hidden[hiddenCount++] = this.ids[slot];
+					this.removeShown( this.ids[slot] );
+				}
+			}
+		}
+		this.changedCount = 0;
+		delta.shown = Arrays.copyOf( shown, shownCount );
+		delta.hidden = Arrays.copyOf( hidden, hiddenCount );
+		return !delta.isEmpty();
+	}
+
+	/**
+	 * recomputes score of slot and restores top-K invariant
+	 */
+	private void rescore( final int slot ) {
+		final double score = this.score( slot );
+		if ( this.top.contains( slot ) ) {
+			this.top.put( slot, score );
+		} else if ( this.rest.contains( slot ) ) {
+			this.rest.put( slot, score );
+		} else {
+			// new POI enters top if there is room, rebalance() swaps it in otherwise
+			if ( this.top.size() < this.k ) {
+				this.top.put( slot, score );
+				this.markChanged( slot );
+			} else {
+				this.rest.put( slot, score );
+			}
+		}
+		this.rebalance();
+	}
+
+	/**
+	 * moves POIs between heaps until top holds the K best, O(log n) per moved POI
+	 */
+	private void rebalance() {
+		while ( this.top.size() > this.k ) {
+			this.moveToRest( this.top.peek() );
+		}
+		while ( this.top.size() < this.k && !this.rest.isEmpty() ) {
+			this.moveToTop( this.rest.peek() );
+		}
+		while ( !this.rest.isEmpty() && !this.top.isEmpty() && this.rest.getPriority( this.rest.peek() ) > this.top.getPriority( this.top.peek() ) ) {
+			final int worstTop = this.top.peek();
+			final int bestRest = this.rest.peek();
+			this.moveToRest( worstTop );
+			this.moveToTop( bestRest );
+		}
+	}
+
+	private void moveToTop( final int slot ) {
+		final double score = this.rest.getPriority( slot );
+		this.rest.remove( slot );
+		this.top.put( slot, score );
+		this.markChanged( slot );
+	}
+
+	private void moveToRest( final int slot ) {
+		final double score = this.top.getPriority( slot );
+		this.top.remove( slot );
+		this.rest.put( slot, score );
+		this.markChanged( slot );
+	}
+
+	private double score( final int slot ) {
+		double score = WEIGHT_SEVERITY * this.severities[slot] / SEVERITY_HIGH;
+		if ( this.hasUser ) {
+			final double dy = ( this.latitudes[slot] - this.userLatitude ) * METERS_PER_DEGREE;
+			final double dx = ( this.longitudes[slot] - this.userLongitude ) * this.metersPerDegreeLongitude;
+			score += WEIGHT_DISTANCE / ( 1 + Math.sqrt( dx * dx + dy * dy ) / HALF_SCORE_DISTANCE_METERS );
+		}
+		final long ageMs = Math.max( 0, this.nowMs - this.updatedAtMs[slot] );
+		score += WEIGHT_RECENCY * Math.exp( -ageMs / RECENCY_TIME_CONSTANT_MS );
+		if ( slot == this.selectedSlot ) {
+			score += SELECTED_BONUS;
+		}
+		return score;
+	}
+
+	private void markChanged( final int slot ) {
+		if ( this.changedCount == this.changed.length ) {
+			this.compactChanged();
+		}
+		this.changed[this.changedCount++] = slot;
+	}
+
+	/**
+	 * drops duplicates of changed slots, grows array if still full
+	 */
+	private void compactChanged() {
+		Arrays.sort( this.changed, 0, this.changedCount );
+		int distinct = 0;
+		for ( int i = 0; i < this.changedCount; i++ ) {
+			if ( distinct == 0 || this.changed[i] != this.changed[distinct - 1] ) {
+				this.changed[distinct++] = this.changed[i];
+			}
+		}
+		this.changedCount = distinct;
+		if ( this.changedCount > this.changed.length / 2 ) {
+			this.changed = Arrays.copyOf( this.changed, this.changed.length * 2 );
+		}
+	}
+
+	private void addShown( final int id ) {
+		if ( this.shownCount == this.shownIds.length ) {
+			this.shownIds = Arrays.copyOf( this.shownIds, this.shownCount * 2 );
+		}
+		this.shownIndexes.put( id, this.shownCount );
+		this.shownIds[this.shownCount++] = id;
+	}
+
+	/**
+	 * swaps last shown id into the removed one's place
+	 */
+	private void removeShown( final int id ) {
+		final int index = this.shownIndexes.remove( id );
+		if ( index == IntIntMap.MISSING ) {
+			return;
+		}
+		final int last = this.shownIds[--this.shownCount];
+		if ( index < this.shownCount ) {
+			this.shownIds[index] = last;
+			this.shownIndexes.put( last, index );
+		}
+	}
+
+	private int allocateSlot() {
+		if ( this.freeCount > 0 ) {
+			return this.freeSlots[--this.freeCount];
+		}
+		if ( this.slotLimit == this.ids.length ) {
+			final int capacity = this.slotLimit * 2;
+			this.ids = Arrays.copyOf( this.ids, capacity );
+			this.latitudes = Arrays.copyOf( this.latitudes, capacity );
+			this.longitudes = Arrays.copyOf( this.longitudes, capacity );
+			this.updatedAtMs = Arrays.copyOf( this.updatedAtMs, capacity );
+			this.severities = Arrays.copyOf( this.severities, capacity );
+			this.reportedShown = Arrays.copyOf( this.reportedShown, capacity );
+			this.moved = Arrays.copyOf( this.moved, capacity );
+		}
+		return this.slotLimit++;
+	}
+}
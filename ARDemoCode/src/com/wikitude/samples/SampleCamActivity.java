@@ -1,13 +1,12 @@
 package com.wikitude.samples;
 
+import java.io.File;
 import java.util.Arrays;
 
 import android.content.Intent;
-import android.hardware.SensorManager;
 import android.location.LocationListener;
 import android.os.Bundle;
 import android.util.Log;
-import android.widget.Toast;
 
 import com.wikitude.architect.ArchitectView.ArchitectUrlListener;
 import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
@@ -25,12 +24,17 @@ public class SampleCamActivity extends AbstractArchitectCamActivity {
 	 * extras key for architect-url to load, usually already known upfront, can be relative folder to assets (myWorld.html --> assets/myWorld.html is loaded) or web-url ("http://myserver.com/myWorld.html"). Note that argument passing is only possible via web-url 
 	 */
 	protected static final String EXTRAS_KEY_ACTIVITY_ARCHITECT_WORLD_URL = "activityArchitectWorldUrl";
+
+	/**
+	 * Wi-Fi fingerprint database in app's files directory, enables indoor positioning if present (see WifiFingerprintIndex for format)
+	 */
+	protected static final String WIFI_FINGERPRINT_FILE = "wifi_fingerprints.csv";
 	
 
 	/**
-	 * last time the calibration toast was shown, this avoids too many toast shown when compass needs calibration
+	 * shows calibration toast when compass needs calibration, at most every 5 seconds
 	 */
-	private long lastCalibrationToastShownTimeMillis = System.currentTimeMillis();
+	private CompassAccuracyHint compassAccuracyHint;
 
 	@Override
 	public String getARchitectWorldPath() {
@@ -80,16 +84,26 @@ public class SampleCamActivity extends AbstractArchitectCamActivity {
 	
 	@Override
 	public SensorAccuracyChangeListener getSensorAccuracyListener() {
-		return new SensorAccuracyChangeListener() {
-			@Override
-			public void onCompassAccuracyChanged( int accuracy ) {
-				/* UNRELIABLE = 0, LOW = 1, MEDIUM = 2, HIGH = 3 */
-				if ( accuracy < SensorManager.SENSOR_STATUS_ACCURACY_MEDIUM && SampleCamActivity.this != null && !SampleCamActivity.this.isFinishing() && System.currentTimeMillis() - SampleCamActivity.this.lastCalibrationToastShownTimeMillis > 5 * 1000) {
-					Toast.makeText( SampleCamActivity.this, R.string.compass_accuracy_low, Toast.LENGTH_LONG ).show();
-					SampleCamActivity.this.lastCalibrationToastShownTimeMillis = System.currentTimeMillis();
-				}
-			}
-		};
+		if ( this.compassAccuracyHint == null ) {
+			this.compassAccuracyHint = new CompassAccuracyHint( this );
+		}
+		return this.compassAccuracyHint.getSensorAccuracyListener();
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		if ( this.compassAccuracyHint != null ) {
+			this.compassAccuracyHint.subscribe();
+		}
+	}
+
+	@Override
+	protected void onPause() {
+		super.onPause();
+		if ( this.compassAccuracyHint != null ) {
+			this.compassAccuracyHint.unsubscribe();
+		}
 	}
 
 	@Override
@@ -106,7 +120,8 @@ public class SampleCamActivity extends AbstractArchitectCamActivity {
 
 	@Override
 	public ILocationProvider getLocationProvider(final LocationListener locationListener) {
-		return new LocationProvider(this, locationListener);
+		final File fingerprintFile = new File(this.getFilesDir(), WIFI_FINGERPRINT_FILE);
+		return new DeadReckoningLocationProvider(this.getApplicationContext(), locationListener, DeadReckoningLocationProvider.DEFAULT_EMIT_INTERVAL_MS, fingerprintFile.exists() ? fingerprintFile : null);
 	}
 	
 	@Override
@@ -5,7 +5,6 @@ import java.io.FileOutputStream;
 
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.hardware.SensorManager;
 import android.location.LocationListener;
 import android.net.Uri;
 import android.os.Environment;
@@ -15,6 +14,7 @@ import com.wikitude.architect.ArchitectView;
 import com.wikitude.architect.ArchitectView.ArchitectUrlListener;
 import com.wikitude.architect.ArchitectView.CaptureScreenCallback;
 import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
+import com.wikitude.samples.utils.urlrouter.ArchitectUrlRouter;
 import com.wikitude.sdksamples.R;
 
 public class SampleCamCaptureScreenActivity extends AbstractArchitectCamActivity {
@@ -29,6 +29,11 @@ public class SampleCamCaptureScreenActivity extends AbstractArchitectCamActivity
 	 */
 	protected static final String EXTRAS_KEY_ACTIVITY_ARCHITECT_WORLD_URL = "activityArchitectWorldUrl";
 
+	/**
+	 * shows calibration toast when compass needs calibration, at most every 5 seconds
+	 */
+	private CompassAccuracyHint compassAccuracyHint;
+
 	@Override
 	public String getARchitectWorldPath() {
 		return getIntent().getExtras().getString(
@@ -60,85 +65,100 @@ public class SampleCamCaptureScreenActivity extends AbstractArchitectCamActivity
 	
 	@Override
 	public SensorAccuracyChangeListener getSensorAccuracyListener() {
-		return new SensorAccuracyChangeListener() {
-			@Override
-			public void onCompassAccuracyChanged( int accuracy ) {
-				/* UNRELIABLE = 0, LOW = 1, MEDIUM = 2, HIGH = 3 */
-				if ( accuracy < SensorManager.SENSOR_STATUS_ACCURACY_MEDIUM && SampleCamCaptureScreenActivity.this != null && !SampleCamCaptureScreenActivity.this.isFinishing() ) {
-					Toast.makeText( SampleCamCaptureScreenActivity.this, R.string.compass_accuracy_low, Toast.LENGTH_LONG ).show();
-				}
-			}
-		};
+		if ( this.compassAccuracyHint == null ) {
+			this.compassAccuracyHint = new CompassAccuracyHint( this );
+		}
+		return this.compassAccuracyHint.getSensorAccuracyListener();
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		if ( this.compassAccuracyHint != null ) {
+			this.compassAccuracyHint.subscribe();
+		}
+	}
+
+	@Override
+	protected void onPause() {
+		super.onPause();
+		if ( this.compassAccuracyHint != null ) {
+			this.compassAccuracyHint.unsubscribe();
+		}
 	}
 
 	@Override
 	public ArchitectUrlListener getUrlListener() {
-		return new ArchitectUrlListener() {
+		final ArchitectUrlRouter router = new ArchitectUrlRouter().register("markerselected", new ArchitectUrlRouter.Handler() {
 
 			@Override
-			public boolean urlWasInvoked(final String uriString) {
-				
-				Uri invokedUri = Uri.parse(uriString);
-				
+			public void onMessage(final ArchitectUrlRouter.Message message) {
 				// pressed "More" button on POI-detail panel
-				if ("markerselected".equalsIgnoreCase(invokedUri.getHost())) {
-					final Intent poiDetailIntent = new Intent(SampleCamCaptureScreenActivity.this, SamplePoiDetailActivity.class);
-					poiDetailIntent.putExtra(SamplePoiDetailActivity.EXTRAS_KEY_POI_ID, String.valueOf(invokedUri.getQueryParameter("id")) );
-					poiDetailIntent.putExtra(SamplePoiDetailActivity.EXTRAS_KEY_POI_TITILE, String.valueOf(invokedUri.getQueryParameter("title")) );
-					poiDetailIntent.putExtra(SamplePoiDetailActivity.EXTRAS_KEY_POI_DESCR, String.valueOf(invokedUri.getQueryParameter("description")) );
-					SampleCamCaptureScreenActivity.this.startActivity(poiDetailIntent);
-					return true;
-				}
-				
-				// pressed snapshot button. check if host is button to fetch e.g. 'architectsdk://button?action=captureScreen', you may add more checks if more buttons are used inside AR scene
-				else if ("button".equalsIgnoreCase(invokedUri.getHost())) {
-					SampleCamCaptureScreenActivity.this.architectView.captureScreen(ArchitectView.CaptureScreenCallback.CAPTURE_MODE_CAM_AND_WEBVIEW, new CaptureScreenCallback() {
+				// details are shown in World's detail panel if it has one, starting a detail activity would pause camera and GPS
+				SampleCamCaptureScreenActivity.this.architectView.callJavascript(PoiDetailCache.getShowDetailScript(message.getParameter("id"), message.getParameter("title"), message.getParameter("description")));
+			}
+		}).register(PoiDetailCache.DETAIL_FALLBACK_HOST, new ArchitectUrlRouter.Handler() {
+
+			@Override
+			public void onMessage(final ArchitectUrlRouter.Message message) {
+				// World has no detail panel
+				SampleCamCaptureScreenActivity.this.startActivity(SamplePoiDetailActivity.getIntent(SampleCamCaptureScreenActivity.this, message));
+			}
+		}).register("button", new ArchitectUrlRouter.Handler() {
+
+			// pressed snapshot button, e.g. 'architectsdk://button?action=captureScreen', you may add more checks if more buttons are used inside AR scene
+			@Override
+			public void onMessage(final ArchitectUrlRouter.Message message) {
+				SampleCamCaptureScreenActivity.this.architectView.captureScreen(ArchitectView.CaptureScreenCallback.CAPTURE_MODE_CAM_AND_WEBVIEW, new CaptureScreenCallback() {
+					
+					@Override
+					public void onScreenCaptured(final Bitmap screenCapture) {
+						// store screenCapture into external cache directory
+						final File screenCaptureFile = new File(Environment.getExternalStorageDirectory().toString(), "screenCapture_" + System.currentTimeMillis() + ".jpg");
+						
+						// 1. Save bitmap to file & compress to jpeg. You may use PNG too
+						try {
+							final FileOutputStream out = new FileOutputStream(screenCaptureFile);
+							screenCapture.compress(Bitmap.CompressFormat.JPEG, 90, out);
+							out.flush();
+							out.close();
 						
-						@Override
-						public void onScreenCaptured(final Bitmap screenCapture) {
-							// store screenCapture into external cache directory
-							final File screenCaptureFile = new File(Environment.getExternalStorageDirectory().toString(), "screenCapture_" + System.currentTimeMillis() + ".jpg");
-							
-							// 1. Save bitmap to file & compress to jpeg. You may use PNG too
-							try {
-								final FileOutputStream out = new FileOutputStream(screenCaptureFile);
-								screenCapture.compress(Bitmap.CompressFormat.JPEG, 90, out);
-								out.flush();
-								out.close();
-							
-								// 2. create send intent
-								final Intent share = new Intent(Intent.ACTION_SEND);
-								share.setType("image/jpg");
-								share.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(screenCaptureFile));
-		
-								// 3. launch intent-chooser
-								final String chooserTitle = "Share Snaphot";
-								SampleCamCaptureScreenActivity.this.startActivity(Intent.createChooser(share, chooserTitle));
-							
-							} catch (final Exception e) {
-								// should not occur when all permissions are set
-								SampleCamCaptureScreenActivity.this.runOnUiThread(new Runnable() {
-									
-									@Override
-									public void run() {
-										// show toast message in case something went wrong
-										Toast.makeText(SampleCamCaptureScreenActivity.this, "Unexpected error, " + e.getMessage(), Toast.LENGTH_LONG).show();	
-									}
-								});
-							}
+							// 2. create send intent
+							final Intent share = new Intent(Intent.ACTION_SEND);
+							share.setType("image/jpg");
+							share.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(screenCaptureFile));
+	
+							// 3. launch intent-chooser
+							final String chooserTitle = "Share Snaphot";
+							SampleCamCaptureScreenActivity.this.startActivity(Intent.createChooser(share, chooserTitle));
+						
+						} catch (final Exception e) {
+							// should not occur when all permissions are set
+							SampleCamCaptureScreenActivity.this.runOnUiThread(new Runnable() {
+								
+								@Override
+								public void run() {
+									// show toast message in case something went wrong
+									Toast.makeText(SampleCamCaptureScreenActivity.this, "Unexpected error, " + e.getMessage(), Toast.LENGTH_LONG).show();	
+								}
+							});
 						}
-					});
-				}
-				return true;
+					}
+				});
+			}
+		});
+		return new ArchitectUrlListener() {
+
+			@Override
+			public boolean urlWasInvoked(final String uriString) {
+				return router.urlWasInvoked(uriString);
 			}
-				
 		};
-		
 	}
 
 	@Override
 	public ILocationProvider getLocationProvider(final LocationListener locationListener) {
-		return new LocationProvider(this, locationListener);
+		return new LocationProvider(this.getApplicationContext(), locationListener);
 	}
 	
 	@Override
@@ -1,60 +1,373 @@
 package com.wikitude.samples;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
 import android.location.Location;
-import android.location.LocationListener;
 import android.os.Bundle;
+import android.util.Log;
 import android.widget.Toast;
 
+import com.wikitude.architect.ArchitectView.ArchitectUrlListener;
+import com.wikitude.samples.utils.atlas.IconAtlas;
+import com.wikitude.samples.utils.memory.MemoryGovernor;
+import com.wikitude.samples.utils.rpc.ArchitectRpcChannel;
+import com.wikitude.samples.utils.startup.StartupTrace;
+import com.wikitude.samples.utils.urlrouter.ArchitectUrlRouter;
 import com.wikitude.sdksamples.R;
 
 public class SampleCamContentFromNativeActivity extends SampleCamActivity {
+
+	/** categorical POI attributes, filterable in World via architectsdk://filter?type=k9,officer&status=on_call&severity=high */
+	public static final String ATTR_TYPE = "type";
+	public static final String ATTR_STATUS = "status";
+	public static final String ATTR_SEVERITY = "severity";
+
+	protected static final String[] FILTER_ATTRIBUTES = { ATTR_TYPE, ATTR_STATUS, ATTR_SEVERITY };
+
+	/** World's marker images, tinted per unit type for the icon atlas */
+	protected static final String MARKER_ICON_FOLDER = "samples/3_Point$Of$Interest_3_Multiple$Pois/assets/";
+
+	/** icon atlas in app's cache directory, built once per process */
+	protected static final String ICON_ATLAS_FILE = "marker_atlas.png";
+
+	/** elevation grid in app's files directory, see ElevationService for format. POIs and user get ground altitudes if it exists */
+	protected static final String ELEVATION_GRID_FILE = "terrain.dem";
+
+	/** segments of the position history in app's files directory */
+	protected static final String POSITION_HISTORY_FOLDER = "position_history";
+
+	/** markers rendered initially, at least and at most, actual number follows frame time reported by World */
+	private static final int RENDER_BUDGET_INITIAL = 100;
+	private static final int RENDER_BUDGET_MIN = 20;
+	private static final int RENDER_BUDGET_MAX = 300;
+
+	/**
+	 * intent extras replacing the dummy POIs by a synthetic fleet which reports positions, for load tests of the unit feed, e.g.
+	 * adb shell am start -n com.wikitude.sdksamples/com.wikitude.samples.SampleCamContentFromNativeActivity --ei loadTestUnits 10000 --ei loadTestRate 5000 [--es loadTestFeedUrl http://10.0.2.2:8080/positions].
+	 * Without feed url updates go right into onUnitPosition(), with it to a feed endpoint like DispatchServer. Stats are logged by FleetLoadGenerator
+	 */
+	public static final String EXTRA_LOAD_TEST_UNITS = "loadTestUnits";
+	public static final String EXTRA_LOAD_TEST_RATE = "loadTestRate";
+	public static final String EXTRA_LOAD_TEST_FEED_URL = "loadTestFeedUrl";
+
+	/** updates per second of a load test without rate */
+	private static final int LOAD_TEST_DEFAULT_RATE = 1000;
+
+	/** units of a load test's fleet sent to World per call */
+	private static final int LOAD_TEST_POI_BATCH = 1000;
+
+	/** details of all rendered markers fit into detail cache */
+	private static final int POI_DETAIL_CACHE_ENTRIES = RENDER_BUDGET_MAX;
+
+	/** dummy geofences: square buildings of DEMO_FENCE_SIZE_METERS on a grid around the user, DEMO_FENCE_RINGS rings of cells in each direction */
+	private static final double DEMO_FENCE_SIZE_METERS = 60;
+	private static final double DEMO_FENCE_SPACING_METERS = 250;
+	private static final int DEMO_FENCE_RINGS = 4;
+
+	/** decoded elevation tiles kept in memory */
+	private static final int ELEVATION_CACHED_TILES = 16;
+
+	private static final String TAG = "SampleCamContentFromNative";
+
+	/** dummy attribute values of generated POIs */
+	private static final String[] TYPES = { "officer", "k9", "technician" };
+	private static final String[] STATUSES = { "on_call", "engaged" };
+	private static final String[] SEVERITIES = { "low", "medium", "high" };
+
+	/** marker tint per entry of TYPES */
+	private static final int[] TYPE_COLORS = { Color.rgb( 0x33, 0x99, 0xFF ), Color.rgb( 0xFF, 0xAA, 0x00 ), Color.rgb( 0x66, 0xCC, 0x33 ) };
+
+	/** status dot color per entry of STATUSES */
+	private static final int[] STATUS_COLORS = { Color.rgb( 0x00, 0xCC, 0x44 ), Color.rgb( 0xEE, 0x22, 0x22 ) };
+
+	/** atlas shared by all instances, null until built */
+	private static IconAtlas iconAtlas;
 	
 	protected JSONArray poiData;
 	protected boolean isLoading = false;
 
+	/** extrapolates positions of remote units between feed updates */
+	protected final UnitTrajectoryPredictor unitPredictor = new UnitTrajectoryPredictor();
+
+	/** pushes predicted unit positions to World in batches */
+	protected UnitPositionPublisher unitPublisher;
+
+	/** where units have been, shown as simplified trails. Kept for rendered units only, so at most one per rendered marker */
+	protected final BreadcrumbTrails unitTrails = new BreadcrumbTrails( BreadcrumbTrails.DEFAULT_CAPACITY, BreadcrumbTrails.DEFAULT_POINT_BUDGET, RENDER_BUDGET_MAX );
+
+	/** every unit position of the shift, for incident review */
+	protected PositionHistoryStore positionHistory;
+
+	/** drives World from the position history instead of live positions, controlled from World via Rpc.call("replay", {time: ms, speed: x}) */
+	protected UnitHistoryReplay unitReplay;
+
+	/** true while World shows the replay, live positions don't move the render budget then */
+	protected volatile boolean replaying = false;
+
+	/** full text search over names and descriptions of pushed POIs, queried from World via Rpc.call("search", {q: query}) */
+	protected final PoiSearchIndex poiSearchIndex = new PoiSearchIndex();
+
+	/** bitmaps of categorical attributes, derives visible POIs of a filter */
+	protected final PoiAttributeIndex poiAttributeIndex = new PoiAttributeIndex();
+
+	/** keeps only the most relevant markers rendered, World reports frame times and selection via architectsdk://frameTime?ms= and architectsdk://select?id= */
+	protected final RenderBudget renderBudget = new RenderBudget( RENDER_BUDGET_INITIAL, RENDER_BUDGET_MIN, RENDER_BUDGET_MAX );
+
+	/** rescores POIs once user moved far enough or a while passed, see RenderBudget.setUserPosition */
+	private final ArSessionEngine.Listener renderBudgetUpdater = new ArSessionEngine.Listener() {
+
+		@Override
+		public void onSessionLocation( final Location location ) {
+			SampleCamContentFromNativeActivity.this.renderBudget.setUserPosition( location.getLatitude(), location.getLongitude(), System.currentTimeMillis() );
+			SampleCamContentFromNativeActivity.this.pushRenderBudget();
+		}
+	};
+
+	/** request / reply channel of World (js/rpc.js), created with the url listener */
+	protected ArchitectRpcChannel rpcChannel;
+
+	/** pushed POIs by id, source of details */
+	protected final Map<String, JSONObject> poiById = new ConcurrentHashMap<String, JSONObject>();
+
+	/** details shown in World's detail panel, prefetched for rendered markers */
+	protected PoiDetailCache poiDetailCache;
+
+	/** hands loaded details to World, which shows them without asking native once a marker is selected */
+	private final PoiDetailCache.Callback poiDetailPusher = new PoiDetailCache.Callback() {
+
+		@Override
+		public void onDetailsLoaded( final String details ) {
+			SampleCamContentFromNativeActivity.this.callJavaScript( "World.cachePoiDetails", new String[] { details } );
+		}
+	};
+
+	/** synthetic fleet of a load test, null unless started with EXTRA_LOAD_TEST_UNITS. Created by the loader thread */
+	protected volatile FleetLoadGenerator loadGenerator;
+
+	/** feeds the fleet of a load test into the same pipeline as real feed updates, on the generator's sink thread */
+	private final FleetLoadGenerator.Sink unitPositionSink = new FleetLoadGenerator.Sink() {
+
+		@Override
+		public void deliver( final int[] ids, final double[] latitudes, final double[] longitudes, final long[] timesMs, final int count ) {
+			for ( int i = 0; i < count; i++ ) {
+				SampleCamContentFromNativeActivity.this.onUnitPosition( ids[i], latitudes[i], longitudes[i], timesMs[i] );
+			}
+		}
+	};
+
+	/** UI thread only */
+	private boolean resumed = false;
+
+	/** ground elevation of POIs, null if no elevation grid is installed */
+	protected ElevationService elevationService;
+
+	/** units entering / leaving geofences (buildings), transitions reach World in batches via unitPublisher. Add your fences via addFence(), dummy fences are added otherwise (see addDemoFences()) */
+	protected final GeofenceEngine geofenceEngine = new GeofenceEngine();
+
 
 	/** Called when the activity is first created. */
 	@Override
 	public void onCreate( final Bundle savedInstanceState ) {
 		super.onCreate( savedInstanceState );
 
+		final File elevationGrid = new File( this.getFilesDir(), ELEVATION_GRID_FILE );
+		if ( elevationGrid.exists() ) {
+			try {
+				this.elevationService = new ElevationService( elevationGrid, ELEVATION_CACHED_TILES );
+				MemoryGovernor.getInstance().register( this.elevationService );
+			} catch ( final IOException e ) {
+				Log.w( TAG, "elevation grid not usable, POIs stay on user level", e );
+			}
+		}
+
+		// user is placed on ground elevation too if GPS has no altitude, like the POIs
+		if ( this.elevationService != null ) {
+			this.sessionEngine.setElevationService( this.elevationService );
+		}
+		
+		this.architectView.registerSensorAccuracyChangeListener( this.sensorAccuracyListener );
+		this.unitPublisher = new UnitPositionPublisher( this.architectView, this.unitPredictor );
+		this.unitPublisher.setTrails( this.unitTrails );
+		this.unitPublisher.setRenderBudget( this.renderBudget );
+		this.unitPublisher.setGeofenceEngine( this.geofenceEngine );
+		this.positionHistory = new PositionHistoryStore( new File( this.getFilesDir(), POSITION_HISTORY_FOLDER ) );
+		this.unitReplay = new UnitHistoryReplay( this.positionHistory, this.renderBudget );
+		MemoryGovernor.getInstance().register( this.unitTrails );
+		MemoryGovernor.getInstance().register( this.unitPredictor );
+		MemoryGovernor.getInstance().register( this.positionHistory );
+		MemoryGovernor.getInstance().register( this.geofenceEngine );
+		this.sessionEngine.addListener( this.renderBudgetUpdater );
 
-		this.locationListener = new LocationListener() {
+		this.poiDetailCache = new PoiDetailCache( new PoiDetailCache.Loader() {
 
 			@Override
-			public void onStatusChanged( String provider, int status, Bundle extras ) {
+			public JSONObject load( final String id ) {
+				final JSONObject poi = SampleCamContentFromNativeActivity.this.poiById.get( id );
+				if ( poi == null ) {
+					return null;
+				}
+				// copy, updatePoiAttribute() changes the POI on session thread meanwhile
+				synchronized ( poi ) {
+					try {
+						return new JSONObject( poi.toString() );
+					} catch ( final JSONException e ) {
+						return null;
+					}
+				}
 			}
+		}, POI_DETAIL_CACHE_ENTRIES );
+		MemoryGovernor.getInstance().register( this.poiDetailCache );
+	}
 
-			@Override
-			public void onProviderEnabled( String provider ) {
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		MemoryGovernor.getInstance().unregister( this.unitTrails );
+		MemoryGovernor.getInstance().unregister( this.unitPredictor );
+		MemoryGovernor.getInstance().unregister( this.positionHistory );
+		MemoryGovernor.getInstance().unregister( this.geofenceEngine );
+		this.sessionEngine.removeListener( this.renderBudgetUpdater );
+		MemoryGovernor.getInstance().unregister( this.poiDetailCache );
+		this.poiDetailCache.close();
+		// created with the url listener, which the activity may not have reached
+		if ( this.rpcChannel != null ) {
+			this.rpcChannel.close();
+		}
+		this.positionHistory.close();
+		if ( this.loadGenerator != null ) {
+			this.loadGenerator.stop();
+		}
+		if ( this.elevationService != null ) {
+			MemoryGovernor.getInstance().unregister( this.elevationService );
+			if ( this.sessionEngine.getElevationService() == this.elevationService ) {
+				this.sessionEngine.setElevationService( null );
 			}
+		}
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		this.unitPublisher.start();
+		this.resumed = true;
+		if ( this.loadGenerator != null ) {
+			this.loadGenerator.start();
+		}
+	}
+
+	@Override
+	protected void onPause() {
+		super.onPause();
+		this.unitPublisher.stop();
+		if ( this.rpcChannel != null ) {
+			Log.i( TAG, "rpc channel: " + this.rpcChannel.getStats() );
+		}
+		Log.i( TAG, "position history: " + this.positionHistory.getStats() );
+		if ( this.replaying ) {
+			// replay continues where the user left
+			this.unitReplay.setSpeed( 0 );
+		}
+		this.resumed = false;
+		if ( this.loadGenerator != null ) {
+			this.loadGenerator.stop();
+			Log.i( TAG, "load test: " + this.loadGenerator.getStats() );
+		}
+	}
+
+	/**
+	 * call for every position of a remote unit received from your feed, World receives predicted positions and trails of all units in batches and geofence transitions
+	 * @param unitId id of unit, equals POI id in World
+	 * @param lat latitude of unit
+	 * @param lon longitude of unit
+	 * @param timeMs time of position, in System.currentTimeMillis() time base
+	 */
+	protected void onUnitPosition( final int unitId, final double lat, final double lon, final long timeMs ) {
+		this.onUnitPosition( unitId, lat, lon, Float.NaN, timeMs );
+	}
+
+	/**
+	 * see onUnitPosition( int, double, double, long ), for feeds reporting accuracy
+	 * @param accuracyMeters accuracy of position, NaN if unknown
+	 */
+	protected void onUnitPosition( final int unitId, final double lat, final double lon, final float accuracyMeters, final long timeMs ) {
+		this.positionHistory.append( unitId, timeMs, lat, lon, accuracyMeters );
+		this.unitPredictor.onFix( unitId, lat, lon, timeMs );
+		if ( this.renderBudget.isRendered( unitId ) ) {
+			this.unitTrails.append( unitId, lat, lon, timeMs );
+		}
+		this.geofenceEngine.evaluate( unitId, lat, lon );
+		// budget is rescored once per publish tick with the latest position per unit, changed markers are pushed with the next user position.
+		// The replay moves the budget while World shows it
+		if ( !this.replaying ) {
+			this.renderBudget.updatePosition( unitId, lat, lon, timeMs );
+		}
+	}
+
+	/**
+	 * call when a unit's status changes, World only switches the icon frame of its marker. A status filter applied in World shows or hides the marker accordingly
+	 * @param unitId id of unit, equals POI id in World
+	 * @param status one of the statuses the icon atlas was built for, e.g. "engaged"
+	 */
+	protected void onUnitStatus( final int unitId, final String status ) {
+		this.sessionEngine.callJavaScript( this.getSessionWorld(), "World.updateUnitStatus( " + unitId + ", " + JSONObject.quote( status ) + " );" );
+		this.sessionEngine.post( new Runnable() {
 
 			@Override
-			public void onProviderDisabled( String provider ) {
+			public void run() {
+				SampleCamContentFromNativeActivity.this.updatePoiAttribute( String.valueOf( unitId ), ATTR_STATUS, status );
 			}
+		} );
+	}
 
-			@Override
-			public void onLocationChanged( final Location location ) {
-				if (location!=null) {
-					SampleCamContentFromNativeActivity.this.lastKnownLocaton = location;
-				if ( SampleCamContentFromNativeActivity.this.architectView != null ) {
-					if ( location.hasAltitude() ) {
-						SampleCamContentFromNativeActivity.this.architectView.setLocation( location.getLatitude(), location.getLongitude(), location.getAltitude(), location.getAccuracy() );
-					} else {
-						SampleCamContentFromNativeActivity.this.architectView.setLocation( location.getLatitude(), location.getLongitude(), location.getAccuracy() );
-					}
-				}
-				}
+	/**
+	 * changes an attribute of a pushed POI and re-evaluates the current filter for it. Runs on session thread
+	 */
+	protected void updatePoiAttribute( final String poiId, final String attribute, final String value ) {
+		final JSONObject poi = this.poiById.get( poiId );
+		if ( poi == null ) {
+			return;
+		}
+		synchronized ( poi ) {
+			try {
+				poi.put( attribute, value );
+			} catch ( final JSONException e ) {
+				return;
 			}
-		};
-		
-		this.architectView.registerSensorAccuracyChangeListener( this.sensorAccuracyListener );
-		this.locationProvider = new LocationProvider( this, this.locationListener );
+		}
+		this.poiDetailCache.remove( poiId );
+		final Map<String, String> attributes = new HashMap<String, String>();
+		for ( final String name : FILTER_ATTRIBUTES ) {
+			if ( poi.has( name ) ) {
+				attributes.put( name, poi.optString( name ) );
+			}
+		}
+		final PoiAttributeIndex.Delta delta = new PoiAttributeIndex.Delta();
+		this.poiAttributeIndex.put( poiId, attributes, delta );
+		if ( !delta.isEmpty() ) {
+			this.callJavaScript( "World.applyFilterDelta", new String[] { new JSONArray( Arrays.asList( delta.shown ) ).toString(), new JSONArray( Arrays.asList( delta.hidden ) ).toString() } );
+		}
 	}
 
 
@@ -95,8 +408,57 @@ public class SampleCamContentFromNativeActivity extends SampleCamActivity {
 			
 			if (SampleCamContentFromNativeActivity.this.lastKnownLocaton!=null && !SampleCamContentFromNativeActivity.this.isFinishing()) {
 				// TODO: you may replace this dummy implementation and instead load POI information e.g. from your database
-				SampleCamContentFromNativeActivity.this.poiData = SampleCamContentFromNativeActivity.getPoiInformation(SampleCamContentFromNativeActivity.this.lastKnownLocaton, 20);
-				SampleCamContentFromNativeActivity.this.callJavaScript("World.loadPoisFromJsonData", new String[] { SampleCamContentFromNativeActivity.this.poiData.toString() });
+				final FleetLoadGenerator generator = SampleCamContentFromNativeActivity.this.createLoadGenerator(SampleCamContentFromNativeActivity.this.lastKnownLocaton);
+				if ( SampleCamContentFromNativeActivity.this.geofenceEngine.getFenceCount() == 0 ) {
+					SampleCamContentFromNativeActivity.this.addDemoFences( SampleCamContentFromNativeActivity.this.lastKnownLocaton );
+				}
+				// before POIs: markers are only created for POIs shown by the render budget, and with the atlas
+				final IconAtlas atlas = SampleCamContentFromNativeActivity.this.getIconAtlas();
+				final String setupScript = "World.enableRenderBudget(); " + ( atlas != null ? "World.setIconAtlas( " + atlas.toJson().toString() + " ); " : "" );
+				final String world = SampleCamContentFromNativeActivity.this.getSessionWorld();
+				// create markers of the render budget right away
+				final Runnable pushRenderBudget = new Runnable() {
+
+					@Override
+					public void run() {
+						SampleCamContentFromNativeActivity.this.pushRenderBudget();
+					}
+				};
+				if (generator != null) {
+					// fleet goes to World in batches, one JSON of all units would take tens of MB and stall World while evaluated.
+					// Only the first batch is replayed to AR views opened later, the activity keeps its view across configuration changes
+					final int units = generator.getUnitCount();
+					for (int from = 0; from < units; from += LOAD_TEST_POI_BATCH) {
+						final JSONArray batch = SampleCamContentFromNativeActivity.getFleetPoiInformation(generator, SampleCamContentFromNativeActivity.this.elevationService, from, Math.min(units, from + LOAD_TEST_POI_BATCH));
+						SampleCamContentFromNativeActivity.this.indexPois( batch );
+						if (from == 0) {
+							SampleCamContentFromNativeActivity.this.sessionEngine.publishPois(world, setupScript + "World.loadPoisFromJsonData( " + batch.toString() + " );");
+						} else {
+							SampleCamContentFromNativeActivity.this.sessionEngine.callJavaScript(world, "World.addPoisFromJsonData( " + batch.toString() + " );");
+						}
+						SampleCamContentFromNativeActivity.this.sessionEngine.post(pushRenderBudget);
+					}
+				} else {
+					SampleCamContentFromNativeActivity.this.poiData = SampleCamContentFromNativeActivity.getPoiInformation(SampleCamContentFromNativeActivity.this.lastKnownLocaton, 20, SampleCamContentFromNativeActivity.this.elevationService);
+					SampleCamContentFromNativeActivity.this.indexPois( SampleCamContentFromNativeActivity.this.poiData );
+					// POIs go to all AR views of the session, also to those opened later
+					SampleCamContentFromNativeActivity.this.sessionEngine.publishPois(world, setupScript + "World.loadPoisFromJsonData( " + SampleCamContentFromNativeActivity.this.poiData.toString() + " );");
+					SampleCamContentFromNativeActivity.this.sessionEngine.post(pushRenderBudget);
+				}
+				StartupTrace.milestone( StartupTrace.MILESTONE_FIRST_POI_PUSH );
+				if (generator != null) {
+					// fleet reports positions once World knows its POIs
+					SampleCamContentFromNativeActivity.this.runOnUiThread(new Runnable() {
+
+						@Override
+						public void run() {
+							SampleCamContentFromNativeActivity.this.loadGenerator = generator;
+							if (SampleCamContentFromNativeActivity.this.resumed) {
+								generator.start();
+							}
+						}
+					});
+				}
 			}
 			
 			SampleCamContentFromNativeActivity.this.isLoading = false;
@@ -104,6 +466,289 @@ public class SampleCamContentFromNativeActivity extends SampleCamActivity {
 	};
 	
 	
+	/**
+	 * adds dummy square geofences around given position, ids count from 1 row by row. Runs on loader thread
+	 */
+	protected void addDemoFences( final Location center ) {
+		final double metersPerDegreeLat = 111320;
+		final double metersPerDegreeLon = metersPerDegreeLat * Math.cos( Math.toRadians( center.getLatitude() ) );
+		final double halfLat = DEMO_FENCE_SIZE_METERS / 2 / metersPerDegreeLat, halfLon = DEMO_FENCE_SIZE_METERS / 2 / metersPerDegreeLon;
+		int fenceId = 1;
+		for ( int row = -DEMO_FENCE_RINGS; row <= DEMO_FENCE_RINGS; row++ ) {
+			for ( int column = -DEMO_FENCE_RINGS; column <= DEMO_FENCE_RINGS; column++ ) {
+				final double lat = center.getLatitude() + row * DEMO_FENCE_SPACING_METERS / metersPerDegreeLat;
+				final double lon = center.getLongitude() + column * DEMO_FENCE_SPACING_METERS / metersPerDegreeLon;
+				this.geofenceEngine.addFence( fenceId++, new double[] { lat - halfLat, lat - halfLat, lat + halfLat, lat + halfLat }, new double[] { lon - halfLon, lon + halfLon, lon + halfLon, lon - halfLon } );
+			}
+		}
+	}
+
+	/**
+	 * builds icon atlas on first call, runs on loader thread
+	 * @return atlas of all unit types and statuses, idle and selected, null if it could not be built (World uses plain marker images then)
+	 */
+	protected IconAtlas getIconAtlas() {
+		synchronized ( SampleCamContentFromNativeActivity.class ) {
+			if ( iconAtlas == null ) {
+				try {
+					iconAtlas = this.createIconAtlas( new File( this.getCacheDir(), ICON_ATLAS_FILE ) );
+				} catch ( final IOException e ) {
+					Log.w( TAG, "icon atlas not available", e );
+				}
+			}
+			return iconAtlas;
+		}
+	}
+
+	/**
+	 * tints idle and selected marker per unit type and adds a status dot, keys are "type_status_idle" and "type_status_selected"
+	 */
+	protected IconAtlas createIconAtlas( final File file ) throws IOException {
+		final Bitmap[] markers = { this.decodeMarkerIcon( "marker_idle.png" ), this.decodeMarkerIcon( "marker_selected.png" ) };
+		final String[] states = { "idle", "selected" };
+		final Map<String, Bitmap> icons = new LinkedHashMap<String, Bitmap>();
+		final Paint tintPaint = new Paint( Paint.FILTER_BITMAP_FLAG );
+		final Paint dotPaint = new Paint( Paint.ANTI_ALIAS_FLAG );
+		try {
+			for ( int type = 0; type < TYPES.length; type++ ) {
+				tintPaint.setColorFilter( new PorterDuffColorFilter( TYPE_COLORS[type], PorterDuff.Mode.MULTIPLY ) );
+				for ( int status = 0; status < STATUSES.length; status++ ) {
+					for ( int state = 0; state < states.length; state++ ) {
+						final Bitmap marker = markers[state];
+						final Bitmap icon = Bitmap.createBitmap( marker.getWidth(), marker.getHeight(), Bitmap.Config.ARGB_8888 );
+						final Canvas canvas = new Canvas( icon );
+						canvas.drawBitmap( marker, 0, 0, tintPaint );
+						final float radius = marker.getHeight() / 6f;
+						dotPaint.setColor( Color.WHITE );
+						canvas.drawCircle( marker.getWidth() - radius - 1, radius + 1, radius, dotPaint );
+						dotPaint.setColor( STATUS_COLORS[status] );
+						canvas.drawCircle( marker.getWidth() - radius - 1, radius + 1, radius * 0.75f, dotPaint );
+						icons.put( TYPES[type] + "_" + STATUSES[status] + "_" + states[state], icon );
+					}
+				}
+			}
+			return IconAtlas.write( file, icons );
+		} finally {
+			for ( final Bitmap icon : icons.values() ) {
+				icon.recycle();
+			}
+			markers[0].recycle();
+			markers[1].recycle();
+		}
+	}
+
+	private Bitmap decodeMarkerIcon( final String name ) throws IOException {
+		final InputStream in = this.getAssets().open( MARKER_ICON_FOLDER + name );
+		try {
+			final Bitmap bitmap = BitmapFactory.decodeStream( in );
+			if ( bitmap == null ) {
+				throw new IOException( "could not decode " + name );
+			}
+			return bitmap;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * adds POIs to search and attribute index, call again with changed POIs to update them
+	 * @param pois POIs as created by getPoiInformation()
+	 */
+	protected void indexPois( final JSONArray pois ) {
+		final Map<String, String> attributes = new HashMap<String, String>();
+		for ( int i = 0; i < pois.length(); i++ ) {
+			final JSONObject poi = pois.optJSONObject( i );
+			if ( poi != null ) {
+				this.poiById.put( poi.optString( "id" ), poi );
+				this.poiDetailCache.remove( poi.optString( "id" ) );
+				this.poiSearchIndex.put( poi.optString( "id" ), poi.optString( "name" ), poi.optString( "description" ) );
+				attributes.clear();
+				for ( final String attribute : FILTER_ATTRIBUTES ) {
+					if ( poi.has( attribute ) ) {
+						attributes.put( attribute, poi.optString( attribute ) );
+					}
+				}
+				this.poiAttributeIndex.put( poi.optString( "id" ), attributes );
+				try {
+					this.renderBudget.put( Integer.parseInt( poi.optString( "id" ) ), poi.optDouble( "latitude" ), poi.optDouble( "longitude" ), Math.max( 0, Arrays.asList( SEVERITIES ).indexOf( poi.optString( ATTR_SEVERITY ) ) ), System.currentTimeMillis() );
+				} catch ( final NumberFormatException e ) {
+					// only numeric ids are budgeted, such POIs are always rendered
+				}
+			}
+		}
+	}
+
+	/**
+	 * POIs of the native feed, SampleCamActivity's views of the same world load their own data
+	 */
+	@Override
+	protected String getSessionWorld() {
+		return super.getSessionWorld() + "#native";
+	}
+
+	@Override
+	public ArchitectUrlListener getUrlListener() {
+		this.rpcChannel = new ArchitectRpcChannel( this.architectView ).register( "search", new ArchitectRpcChannel.Method() {
+
+			@Override
+			public void onCall( final Object params, final ArchitectRpcChannel.Reply reply ) {
+				final String query = params instanceof JSONObject ? ( (JSONObject)params ).optString( "q", null ) : null;
+				SampleCamContentFromNativeActivity.this.sessionEngine.post( new Runnable() {
+
+					@Override
+					public void run() {
+						reply.resolve( SampleCamContentFromNativeActivity.this.search( query ) );
+					}
+				} );
+			}
+		} ).register( "replay", new ArchitectRpcChannel.Method() {
+
+			@Override
+			public void onCall( final Object params, final ArchitectRpcChannel.Reply reply ) {
+				reply.resolve( SampleCamContentFromNativeActivity.this.replay( params instanceof JSONObject ? (JSONObject)params : null ) );
+			}
+		} );
+
+		// messages are parsed on UI thread, queries run on session thread
+		final ArchitectUrlRouter router = new ArchitectUrlRouter().register( ArchitectRpcChannel.HOST, this.rpcChannel ).register( "filter", new ArchitectUrlRouter.Handler() {
+
+			@Override
+			public void onMessage( final ArchitectUrlRouter.Message message ) {
+				final Map<String, String[]> filter = new HashMap<String, String[]>();
+				for ( final String attribute : FILTER_ATTRIBUTES ) {
+					final String values = message.getParameter( attribute );
+					if ( values != null && values.length() > 0 ) {
+						filter.put( attribute, values.split( "," ) );
+					}
+				}
+				SampleCamContentFromNativeActivity.this.sessionEngine.post( new Runnable() {
+
+					@Override
+					public void run() {
+						SampleCamContentFromNativeActivity.this.filter( filter );
+					}
+				} );
+			}
+		} ).register( "select", new ArchitectUrlRouter.Handler() {
+
+			@Override
+			public void onMessage( final ArchitectUrlRouter.Message message ) {
+				// empty or non-numeric id deselects
+				final int id = message.getInt( "id", -1 );
+				// World asks for details only if they were not prefetched
+				if ( id >= 0 && message.parameterEquals( "detail", "1" ) ) {
+					SampleCamContentFromNativeActivity.this.poiDetailCache.request( String.valueOf( id ), SampleCamContentFromNativeActivity.this.poiDetailPusher );
+				}
+				SampleCamContentFromNativeActivity.this.sessionEngine.post( new Runnable() {
+
+					@Override
+					public void run() {
+						SampleCamContentFromNativeActivity.this.renderBudget.setSelected( id );
+						SampleCamContentFromNativeActivity.this.pushRenderBudget();
+					}
+				} );
+			}
+		} ).register( "frameTime", new ArchitectUrlRouter.Handler() {
+
+			@Override
+			public void onMessage( final ArchitectUrlRouter.Message message ) {
+				final float ms = message.getFloat( "ms", Float.NaN );
+				if ( Float.isNaN( ms ) ) {
+					// malformed, ignore
+					return;
+				}
+				SampleCamContentFromNativeActivity.this.sessionEngine.post( new Runnable() {
+
+					@Override
+					public void run() {
+						SampleCamContentFromNativeActivity.this.renderBudget.onFrameTime( ms );
+						SampleCamContentFromNativeActivity.this.pushRenderBudget();
+					}
+				} );
+			}
+		} );
+		return new ArchitectUrlListener() {
+
+			@Override
+			public boolean urlWasInvoked( final String url ) {
+				return router.urlWasInvoked( url );
+			}
+		};
+	}
+
+	/**
+	 * switches World between live positions and a replay of the position history. Runs on UI thread
+	 * @param params optional "time" to jump to (ms) and "speed" of playback (0 pauses), null returns to live positions
+	 * @return time range of the history as {from, to} in ms, empty if nothing was recorded yet
+	 */
+	protected JSONObject replay( final JSONObject params ) {
+		if ( params == null ) {
+			this.replaying = false;
+			this.unitPublisher.setSource( null );
+		} else {
+			if ( params.has( "time" ) ) {
+				this.unitReplay.seek( params.optLong( "time" ) );
+			}
+			if ( params.has( "speed" ) ) {
+				this.unitReplay.setSpeed( (float)params.optDouble( "speed", 1 ) );
+			}
+			this.replaying = true;
+			this.unitPublisher.setSource( this.unitReplay );
+		}
+		final Map<String, Object> range = new HashMap<String, Object>();
+		final long from = this.positionHistory.getMinTimeMs(), to = this.positionHistory.getMaxTimeMs();
+		if ( from <= to ) {
+			range.put( "from", from );
+			range.put( "to", to );
+		}
+		return new JSONObject( range );
+	}
+
+	/**
+	 * searches POI names and descriptions. Runs on session thread
+	 * @return ids of matching POIs, null to show all POIs (empty query)
+	 */
+	protected JSONArray search( final String query ) {
+		final List<String> matches = new ArrayList<String>();
+		if ( query == null || this.poiSearchIndex.search( query, matches ) < 0 ) {
+			return null;
+		}
+		return new JSONArray( matches );
+	}
+
+	/**
+	 * shows only POIs matching given attribute values in World, only POIs whose visibility changed are sent. Runs on session thread
+	 * @param filter attribute -> accepted values, empty to show all POIs
+	 */
+	protected void filter( final Map<String, String[]> filter ) {
+		final PoiAttributeIndex.Delta delta = new PoiAttributeIndex.Delta();
+		this.poiAttributeIndex.applyFilter( filter, delta );
+		if ( !delta.isEmpty() ) {
+			this.callJavaScript( "World.applyFilterDelta", new String[] { new JSONArray( Arrays.asList( delta.shown ) ).toString(), new JSONArray( Arrays.asList( delta.hidden ) ).toString() } );
+		}
+	}
+
+	/**
+	 * sends markers that entered or left the render budget to World and prefetches details of entered ones. Runs on session thread
+	 */
+	protected void pushRenderBudget() {
+		final RenderBudget.Delta delta = new RenderBudget.Delta();
+		if ( this.renderBudget.drainDelta( delta ) ) {
+			this.callJavaScript( "World.applyBudgetDelta", new String[] { Arrays.toString( delta.shown ), Arrays.toString( delta.hidden ) } );
+			// trails are only kept for rendered units, World drops hidden ones with the next trails publish
+			for ( final int hiddenId : delta.hidden ) {
+				this.unitTrails.remove( hiddenId );
+			}
+			if ( delta.shown.length > 0 ) {
+				final String[] ids = new String[delta.shown.length];
+				for ( int i = 0; i < ids.length; i++ ) {
+					ids[i] = String.valueOf( delta.shown[i] );
+				}
+				this.poiDetailCache.prefetch( ids, this.poiDetailPusher );
+			}
+		}
+	}
+
 	protected void loadData() {
 		if (!isLoading) {
 			final Thread t = new Thread(loadData);
@@ -112,7 +757,7 @@ public class SampleCamContentFromNativeActivity extends SampleCamActivity {
 	}
 	
 	/**
-	 * call JacaScript in architectView
+	 * call JacaScript in this activity's architectView, script is built on calling thread and evaluated on UI thread
 	 * @param methodName
 	 * @param arguments
 	 */
@@ -127,7 +772,7 @@ public class SampleCamContentFromNativeActivity extends SampleCamActivity {
 		
 		if (this.architectView!=null) {
 			final String js = ( methodName + "( " + argumentsString.toString() + " );" );
-			this.architectView.callJavascript(js);
+			this.sessionEngine.callJavaScript(this.architectView, js);
 		}
 	}
 	
@@ -139,6 +784,17 @@ public class SampleCamContentFromNativeActivity extends SampleCamActivity {
 	 * @return POI information in JSONArray
 	 */
 	public static JSONArray getPoiInformation(final Location userLocation, final int numberOfPlaces) {
+		return getPoiInformation(userLocation, numberOfPlaces, null);
+	}
+
+	/**
+	 * loads poiInformation with ground altitudes and returns them as JSONArray
+	 * @param userLocation the location of the user
+	 * @param numberOfPlaces number of places to load (at max)
+	 * @param elevation ground elevation of places, null to place them on user level
+	 * @return POI information in JSONArray
+	 */
+	public static JSONArray getPoiInformation(final Location userLocation, final int numberOfPlaces, final ElevationService elevation) {
 		
 		if (userLocation==null) {
 			return null;
@@ -153,6 +809,7 @@ public class SampleCamContentFromNativeActivity extends SampleCamActivity {
 		final String ATTR_LATITUDE = "latitude";
 		final String ATTR_LONGITUDE = "longitude";
 		final String ATTR_ALTITUDE = "altitude";
+		final float UNKNOWN_ALTITUDE = -32768f;  // equals "AR.CONST.UNKNOWN_ALTITUDE" in JavaScript (compare AR.GeoLocation specification)
 		
 		for (int i=1;i <= numberOfPlaces; i++) {
 			final HashMap<String, String> poiInformation = new HashMap<String, String>();
@@ -162,15 +819,82 @@ public class SampleCamContentFromNativeActivity extends SampleCamActivity {
 			double[] poiLocationLatLon = getRandomLatLonNearby(userLocation.getLatitude(), userLocation.getLongitude());
 			poiInformation.put(ATTR_LATITUDE, String.valueOf(poiLocationLatLon[0]));
 			poiInformation.put(ATTR_LONGITUDE, String.valueOf(poiLocationLatLon[1]));
-			final float UNKNOWN_ALTITUDE = -32768f;  // equals "AR.CONST.UNKNOWN_ALTITUDE" in JavaScript (compare AR.GeoLocation specification)
 			// Use "AR.CONST.UNKNOWN_ALTITUDE" to tell ARchitect that altitude of places should be on user level. Be aware to handle altitude properly in locationManager in case you use valid POI altitude value (e.g. pass altitude only if GPS accuracy is <7m).
-			poiInformation.put(ATTR_ALTITUDE, String.valueOf(UNKNOWN_ALTITUDE));
+			final float groundAltitude = elevation != null ? elevation.getElevation(poiLocationLatLon[0], poiLocationLatLon[1]) : Float.NaN;
+			poiInformation.put(ATTR_ALTITUDE, String.valueOf(Float.isNaN(groundAltitude) ? UNKNOWN_ALTITUDE : groundAltitude));
+			poiInformation.put(ATTR_TYPE, TYPES[i % TYPES.length]);
+			poiInformation.put(ATTR_STATUS, STATUSES[i % STATUSES.length]);
+			poiInformation.put(ATTR_SEVERITY, SEVERITIES[i % SEVERITIES.length]);
 			pois.put(new JSONObject(poiInformation));
 		}
 		
 		return pois;
 	}
 	
+	/**
+	 * creates fleet of a load test if the intent asks for one, runs on loader thread
+	 * @param center centre of the fleet
+	 * @return generator, not started yet, null without load test or if its feed url is malformed
+	 */
+	protected FleetLoadGenerator createLoadGenerator(final Location center) {
+		final int units = this.getIntent().getIntExtra(EXTRA_LOAD_TEST_UNITS, 0);
+		if (units <= 0) {
+			return null;
+		}
+		final String feedUrl = this.getIntent().getStringExtra(EXTRA_LOAD_TEST_FEED_URL);
+		FleetLoadGenerator.Sink sink = this.unitPositionSink;
+		if (feedUrl != null) {
+			try {
+				sink = new FleetLoadGenerator.FeedSink(new URL(feedUrl));
+			} catch (final MalformedURLException e) {
+				Log.w(TAG, "load test skipped, malformed feed url " + feedUrl);
+				return null;
+			}
+		}
+		final int rate = this.getIntent().getIntExtra(EXTRA_LOAD_TEST_RATE, LOAD_TEST_DEFAULT_RATE);
+		return new FleetLoadGenerator(center.getLatitude(), center.getLongitude(), FleetLoadGenerator.DEFAULT_RADIUS_METERS, Math.min(units, FleetLoadGenerator.MAX_UNITS), Math.max(1, rate), units, sink);
+	}
+
+	/**
+	 * POIs of a load test's fleet at their current positions, same attributes as getPoiInformation()
+	 * @param generator fleet, not started yet
+	 * @param elevation ground elevation of units, null to place them on user level
+	 * @return POI information in JSONArray
+	 */
+	public static JSONArray getFleetPoiInformation(final FleetLoadGenerator generator, final ElevationService elevation) {
+		return getFleetPoiInformation(generator, elevation, 0, generator.getUnitCount());
+	}
+
+	/**
+	 * see getFleetPoiInformation(FleetLoadGenerator, ElevationService), for a range of units
+	 * @param from index of first unit
+	 * @param to index after last unit
+	 */
+	public static JSONArray getFleetPoiInformation(final FleetLoadGenerator generator, final ElevationService elevation, final int from, final int to) {
+		final JSONArray pois = new JSONArray();
+		final float UNKNOWN_ALTITUDE = -32768f;
+		final long nowMs = System.currentTimeMillis();
+		final double[] position = new double[2];
+		for (int i = from; i < to; i++) {
+			final int id = generator.getUnitId(i);
+			final String type = TYPES[generator.getKind(i)];
+			generator.getPosition(i, nowMs, position);
+			final HashMap<String, String> poiInformation = new HashMap<String, String>();
+			poiInformation.put("id", String.valueOf(id));
+			poiInformation.put("name", "Unit " + id);
+			poiInformation.put("description", "Simulated " + type);
+			poiInformation.put("latitude", String.valueOf(position[0]));
+			poiInformation.put("longitude", String.valueOf(position[1]));
+			final float groundAltitude = elevation != null ? elevation.getElevation(position[0], position[1]) : Float.NaN;
+			poiInformation.put("altitude", String.valueOf(Float.isNaN(groundAltitude) ? UNKNOWN_ALTITUDE : groundAltitude));
+			poiInformation.put(ATTR_TYPE, type);
+			poiInformation.put(ATTR_STATUS, STATUSES[id % STATUSES.length]);
+			poiInformation.put(ATTR_SEVERITY, SEVERITIES[id % SEVERITIES.length]);
+			pois.put(new JSONObject(poiInformation));
+		}
+		return pois;
+	}
+
 	/**
 	 * helper for creation of dummy places.
 	 * @param lat center latitude
@@ -1,14 +1,18 @@
 package com.wikitude.samples;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 
-import android.hardware.SensorManager;
 import android.location.LocationListener;
+import android.os.Bundle;
 import android.widget.Toast;
 
 import com.wikitude.architect.ArchitectView.ArchitectUrlListener;
 import com.wikitude.architect.ArchitectView.SensorAccuracyChangeListener;
+import com.wikitude.samples.utils.httpcache.WorldCacheProxy;
+import com.wikitude.samples.utils.prefetch.WorldPrefetcher;
 import com.wikitude.samples.utils.urllauncher.ARchitectUrlLauncherCamActivity;
 import com.wikitude.sdksamples.R;
 
@@ -16,15 +20,39 @@ import com.wikitude.sdksamples.R;
 public class SampleCamFragment extends AbstractArchitectCamFragmentV4{
 
 	/**
-	 * last time the calibration toast was shown, this avoids too many toast shown when compass needs calibration
+	 * shows calibration toast when compass needs calibration, at most every 5 seconds
 	 */
-	private long lastCalibrationToastShownTimeMillis = System.currentTimeMillis();
-	
+	private CompassAccuracyHint compassAccuracyHint;
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		// origin url, not the proxy url: proxy port changes per process
+		WorldPrefetcher.recordPick(getActivity(), this.getOriginWorldUrl());
+	}
+
 	@Override
 	public String getARchitectWorldPath() {
+		final String decodedUrl = this.getOriginWorldUrl();
+		if (decodedUrl == null) {
+			return null;
+		}
 		try {
-			final String decodedUrl = URLDecoder.decode(getActivity().getIntent().getExtras().getString(ARchitectUrlLauncherCamActivity.ARCHITECT_ACTIVITY_EXTRA_KEY_URL), "UTF-8");
+			// serve remote worlds via local caching proxy, so repeated launches don't hit the network for every resource
+			return WorldCacheProxy.getInstance(new File(getActivity().getCacheDir(), WorldCacheProxy.DEFAULT_CACHE_FOLDER)).toProxyUrl(decodedUrl);
+		} catch (IOException e) {
+			// proxy unavailable, load world directly
+			e.printStackTrace();
 			return decodedUrl;
+		}
+	}
+
+	/**
+	 * @return world url passed by ARchitectUrlLauncherCamActivity, null if it could not be decoded
+	 */
+	private String getOriginWorldUrl() {
+		try {
+			return URLDecoder.decode(getActivity().getIntent().getExtras().getString(ARchitectUrlLauncherCamActivity.ARCHITECT_ACTIVITY_EXTRA_KEY_URL), "UTF-8");
 		} catch (UnsupportedEncodingException e) {
 			Toast.makeText(this.getActivity(), "Unexpected Exception: " + e.getMessage(), Toast.LENGTH_LONG).show();
 			e.printStackTrace();
@@ -50,15 +78,26 @@ public class SampleCamFragment extends AbstractArchitectCamFragmentV4{
 
 	@Override
 	public SensorAccuracyChangeListener getSensorAccuracyListener() {
-		return new SensorAccuracyChangeListener() {
-			@Override
-			public void onCompassAccuracyChanged( int accuracy ) {
-				/* UNRELIABLE = 0, LOW = 1, MEDIUM = 2, HIGH = 3 */
-				if ( accuracy < SensorManager.SENSOR_STATUS_ACCURACY_MEDIUM && getActivity() != null && !getActivity().isFinishing()  && System.currentTimeMillis() - SampleCamFragment.this.lastCalibrationToastShownTimeMillis > 5 * 1000) {
-					Toast.makeText( getActivity(), R.string.compass_accuracy_low, Toast.LENGTH_LONG ).show();
-				}
-			}
-		};
+		if ( this.compassAccuracyHint == null ) {
+			this.compassAccuracyHint = new CompassAccuracyHint( this.getActivity() );
+		}
+		return this.compassAccuracyHint.getSensorAccuracyListener();
+	}
+
+	@Override
+	public void onResume() {
+		super.onResume();
+		if ( this.compassAccuracyHint != null ) {
+			this.compassAccuracyHint.subscribe();
+		}
+	}
+
+	@Override
+	public void onPause() {
+		super.onPause();
+		if ( this.compassAccuracyHint != null ) {
+			this.compassAccuracyHint.unsubscribe();
+		}
 	}
 
 	@Override
@@ -75,7 +114,8 @@ public class SampleCamFragment extends AbstractArchitectCamFragmentV4{
 
 	@Override
 	public ILocationProvider getLocationProvider(final LocationListener locationListener) {
-		return new LocationProvider(this.getActivity(), locationListener);
+		final File fingerprintFile = new File(this.getActivity().getFilesDir(), SampleCamActivity.WIFI_FINGERPRINT_FILE);
+		return new DeadReckoningLocationProvider(this.getActivity().getApplicationContext(), locationListener, DeadReckoningLocationProvider.DEFAULT_EMIT_INTERVAL_MS, fingerprintFile.exists() ? fingerprintFile : null);
 	}
 
 }
@@ -1,28 +1,32 @@
 package com.wikitude.samples;
 
-import android.content.Intent;
-import android.net.Uri;
-
 import com.wikitude.architect.ArchitectView.ArchitectUrlListener;
+import com.wikitude.samples.utils.urlrouter.ArchitectUrlRouter;
 
 public class SampleCamHandlePoiDetailActivity extends SampleCamActivity{
 	
 	public ArchitectUrlListener getUrlListener() {
+		// fetch e.g. document.location = "architectsdk://markerselected?id=1";
+		final ArchitectUrlRouter router = new ArchitectUrlRouter().register("markerselected", new ArchitectUrlRouter.Handler() {
+
+			@Override
+			public void onMessage(final ArchitectUrlRouter.Message message) {
+				// details are shown in World's detail panel if it has one, starting a detail activity would pause camera and GPS
+				SampleCamHandlePoiDetailActivity.this.architectView.callJavascript(PoiDetailCache.getShowDetailScript(message.getParameter("id"), message.getParameter("title"), message.getParameter("description")));
+			}
+		}).register(PoiDetailCache.DETAIL_FALLBACK_HOST, new ArchitectUrlRouter.Handler() {
+
+			@Override
+			public void onMessage(final ArchitectUrlRouter.Message message) {
+				// World has no detail panel
+				SampleCamHandlePoiDetailActivity.this.startActivity(SamplePoiDetailActivity.getIntent(SampleCamHandlePoiDetailActivity.this, message));
+			}
+		});
 		return new ArchitectUrlListener() {
 			
 			@Override
-			// fetch e.g. document.location = "architectsdk://markerselected?id=1";
 			public boolean urlWasInvoked(String uriString) {
-				Uri invokedUri = Uri.parse(uriString);
-				if ("markerselected".equalsIgnoreCase(invokedUri.getHost())) {
-						final Intent poiDetailIntent = new Intent(SampleCamHandlePoiDetailActivity.this, SamplePoiDetailActivity.class);
-						poiDetailIntent.putExtra(SamplePoiDetailActivity.EXTRAS_KEY_POI_ID, String.valueOf(invokedUri.getQueryParameter("id")) );
-						poiDetailIntent.putExtra(SamplePoiDetailActivity.EXTRAS_KEY_POI_TITILE, String.valueOf(invokedUri.getQueryParameter("title")) );
-						poiDetailIntent.putExtra(SamplePoiDetailActivity.EXTRAS_KEY_POI_DESCR, String.valueOf(invokedUri.getQueryParameter("description")) );
-						SampleCamHandlePoiDetailActivity.this.startActivity(poiDetailIntent);
-						return true;
-				}
-				return false;
+				return router.urlWasInvoked(uriString);
 			}
 		};
 	}
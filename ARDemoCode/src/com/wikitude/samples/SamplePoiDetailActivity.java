@@ -1,17 +1,34 @@
 package com.wikitude.samples;
 
 import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
 import android.os.Bundle;
 import android.widget.TextView;
 
+import com.wikitude.samples.utils.urlrouter.ArchitectUrlRouter;
 import com.wikitude.sdksamples.R;
 
+/**
+ * Shows POI details for Worlds without a detail panel, see PoiDetailCache.DETAIL_FALLBACK_HOST
+ */
 public class SamplePoiDetailActivity extends Activity {
 
 	public static final String EXTRAS_KEY_POI_ID = "id";
 	public static final String EXTRAS_KEY_POI_TITILE = "title";
 	public static final String EXTRAS_KEY_POI_DESCR = "description";
 
+	/**
+	 * @param message architectsdk:// message with id, title and description parameters
+	 */
+	public static Intent getIntent(final Context context, final ArchitectUrlRouter.Message message) {
+		final Intent poiDetailIntent = new Intent(context, SamplePoiDetailActivity.class);
+		poiDetailIntent.putExtra(EXTRAS_KEY_POI_ID, String.valueOf(message.getParameter("id")) );
+		poiDetailIntent.putExtra(EXTRAS_KEY_POI_TITILE, String.valueOf(message.getParameter("title")) );
+		poiDetailIntent.putExtra(EXTRAS_KEY_POI_DESCR, String.valueOf(message.getParameter("description")) );
+		return poiDetailIntent;
+	}
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
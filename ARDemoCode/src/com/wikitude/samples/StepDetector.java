@@ -0,0 +1,48 @@
+package com.wikitude.samples;
+
+/**
+ * Detects steps as peaks of the gravity-free acceleration magnitude (hardware step detector requires API 19).
+ * Pure Java and allocation free per sample, feed it from a single thread.
+ */
+public class StepDetector {
+
+	/** smoothing factor of gravity estimate (low-pass of magnitude) */
+	private static final float GRAVITY_ALPHA = 0.1f;
+
+	/** gravity-free acceleration peak treated as step, in m/s^2 */
+	private static final float STEP_THRESHOLD = 1.5f;
+
+	/** minimum time between two steps (max cadence ~4 steps/s) */
+	private static final long STEP_MIN_INTERVAL_NS = 250L * 1000 * 1000;
+
+	private float gravity = 9.81f;
+
+	private long lastStepNs = 0;
+
+	private boolean aboveThreshold = false;
+
+	/**
+	 * @param x acceleration x, m/s^2
+	 * @param y acceleration y, m/s^2
+	 * @param z acceleration z, m/s^2
+	 * @param timestampNs sample time, monotonic nanoseconds
+	 * @return true if sample completes a step
+	 */
+	public boolean onAccelerometer( final float x, final float y, final float z, final long timestampNs ) {
+		final float magnitude = (float)Math.sqrt( x * x + y * y + z * z );
+		this.gravity += GRAVITY_ALPHA * ( magnitude - this.gravity );
+		final float linear = magnitude - this.gravity;
+
+		boolean step = false;
+		if ( linear > STEP_THRESHOLD ) {
+			if ( !this.aboveThreshold && timestampNs - this.lastStepNs >= STEP_MIN_INTERVAL_NS ) {
+				this.lastStepNs = timestampNs;
+				step = true;
+			}
+			this.aboveThreshold = true;
+		} else if ( linear < STEP_THRESHOLD / 2 ) {
+			this.aboveThreshold = false;
+		}
+		return step;
+	}
+}
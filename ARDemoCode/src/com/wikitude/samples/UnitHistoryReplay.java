@@ -0,0 +1,211 @@
+package com.wikitude.samples;
+
+import java.util.Arrays;
+
+import android.os.SystemClock;
+
+import com.wikitude.samples.utils.collections.IntIntMap;
+
+/**
+ * Replays recorded unit positions of a {@link PositionHistoryStore} in World, e.g. to review where units were during an incident.
+ * Attached to a {@link UnitPositionPublisher} it replaces the live predictions: each publish feeds the positions recorded since the previous one into the replay's own
+ * {@link UnitTrajectoryPredictor} and the {@link RenderBudget}, so World receives the same batched deltas as live and markers are moved, never rebuilt.
+ * Replay time runs at a variable speed and pauses at the live edge. A seek only scans the positions recorded within SEEK_LOOKBACK_MS before the target time
+ * and feeds the latest one per unit, World hides units without position there until they report. Control methods are thread-safe, Source callbacks run on the publisher thread.
+ */
+public class UnitHistoryReplay implements UnitPositionPublisher.Source {
+
+	/** units silent this long before a seek target are offline at that time */
+	public static final long SEEK_LOOKBACK_MS = 5 * 60 * 1000;
+
+	/** fastest playback, an hour per minute */
+	public static final float MAX_SPEED = 60;
+
+	/** replay pauses this far behind live time, positions of the last history flush may not be scannable yet */
+	private static final long LIVE_EDGE_MS = 2000;
+
+	/** World's replay clock is updated at most this often */
+	private static final long CLOCK_UPDATE_INTERVAL_MS = 250;
+
+	private final PositionHistoryStore history;
+
+	private final RenderBudget renderBudget;
+
+	private final UnitTrajectoryPredictor predictor = new UnitTrajectoryPredictor();
+
+	/* replay clock: replay time at anchor plus elapsed time since anchor times speed. Guarded by this */
+	private long anchorTimeMs, anchorElapsedMs;
+	private float speed = 1;
+	private boolean seekPending = true;
+
+	/* publisher thread only */
+	private long scannedUntilMs;
+	private long lastClockUpdateMs = 0;
+
+	/** latest scanned position per unit, handed to the render budget once per publish. Publisher thread only */
+	private final IntIntMap scannedSlots = new IntIntMap( 256 );
+	private int[] scannedIds = new int[256];
+	private double[] scannedLatitudes = new double[256], scannedLongitudes = new double[256];
+	private long[] scannedTimes = new long[256];
+	private int scannedCount = 0;
+
+	/** feeds scanned positions of playback */
+	private final PositionHistoryStore.Visitor feeder = new PositionHistoryStore.Visitor() {
+
+		@Override
+		public void onPosition( final int unitId, final long timeMs, final double lat, final double lon, final float accuracyMeters ) {
+			UnitHistoryReplay.this.predictor.onFix( unitId, lat, lon, timeMs );
+			UnitHistoryReplay.this.track( unitId, lat, lon, timeMs );
+		}
+	};
+
+	/** collects latest positions of a seek, the predictor only needs those */
+	private final PositionHistoryStore.Visitor tracker = new PositionHistoryStore.Visitor() {
+
+		@Override
+		public void onPosition( final int unitId, final long timeMs, final double lat, final double lon, final float accuracyMeters ) {
+			UnitHistoryReplay.this.track( unitId, lat, lon, timeMs );
+		}
+	};
+
+	/**
+	 * @param renderBudget receives replayed positions, only feed it live positions while the replay is attached
+	 */
+	public UnitHistoryReplay( final PositionHistoryStore history, final RenderBudget renderBudget ) {
+		this.history = history;
+		this.renderBudget = renderBudget;
+		this.anchorTimeMs = System.currentTimeMillis() - LIVE_EDGE_MS;
+		this.anchorElapsedMs = SystemClock.elapsedRealtime();
+	}
+
+	/**
+	 * jumps to a time, applied with the next publish (see UnitPositionPublisher.requestPublish()). Times before the history start at its first position
+	 */
+	public synchronized void seek( final long timeMs ) {
+		final long minTimeMs = this.history.getMinTimeMs();
+		this.anchorTimeMs = Math.min( Math.max( timeMs, minTimeMs == Long.MAX_VALUE ? timeMs : minTimeMs ), System.currentTimeMillis() - LIVE_EDGE_MS );
+		this.anchorElapsedMs = SystemClock.elapsedRealtime();
+		this.seekPending = true;
+	}
+
+	/**
+	 * @param speed replay time per real time, 0 pauses, at most MAX_SPEED
+	 */
+	public synchronized void setSpeed( final float speed ) {
+		final long nowElapsedMs = SystemClock.elapsedRealtime();
+		this.anchorTimeMs = this.getTimeMs( nowElapsedMs );
+		this.anchorElapsedMs = nowElapsedMs;
+		this.speed = Math.max( 0, Math.min( MAX_SPEED, speed ) );
+	}
+
+	/**
+	 * @return replay speed, 0 while paused
+	 */
+	public synchronized float getSpeed() {
+		// pauses at live edge
+		this.getTimeMs( SystemClock.elapsedRealtime() );
+		return this.speed;
+	}
+
+	/**
+	 * @return current replay time
+	 */
+	public synchronized long getTimeMs() {
+		return this.getTimeMs( SystemClock.elapsedRealtime() );
+	}
+
+	@Override
+	public UnitTrajectoryPredictor getPredictor() {
+		return this.predictor;
+	}
+
+	@Override
+	public void onAttached( final StringBuilder script ) {
+		// World shows live positions, replay starts over at its time
+		synchronized ( this ) {
+			this.seekPending = true;
+		}
+	}
+
+	@Override
+	public long prepare( final StringBuilder script ) {
+		final long nowElapsedMs = SystemClock.elapsedRealtime();
+		final long timeMs;
+		final float speed;
+		final boolean seek;
+		synchronized ( this ) {
+			timeMs = this.getTimeMs( nowElapsedMs );
+			speed = this.speed;
+			seek = this.seekPending;
+			this.seekPending = false;
+		}
+		if ( seek ) {
+			this.predictor.clear();
+			this.history.scan( timeMs - SEEK_LOOKBACK_MS, timeMs, this.tracker );
+			for ( int i = 0; i < this.scannedCount; i++ ) {
+				this.predictor.onFix( this.scannedIds[i], this.scannedLatitudes[i], this.scannedLongitudes[i], this.scannedTimes[i] );
+			}
+			this.scannedUntilMs = timeMs;
+			script.append( "World.onReplaySeek(" ).append( timeMs ).append( ");" );
+		} else if ( timeMs > this.scannedUntilMs ) {
+			this.history.scan( this.scannedUntilMs + 1, timeMs, this.feeder );
+			this.scannedUntilMs = timeMs;
+		}
+		if ( this.scannedCount > 0 ) {
+			for ( int i = 0; i < this.scannedCount; i++ ) {
+				this.renderBudget.updatePosition( this.scannedIds[i], this.scannedLatitudes[i], this.scannedLongitudes[i], this.scannedTimes[i] );
+			}
+			this.scannedCount = 0;
+			this.scannedSlots.clear();
+		}
+		if ( seek || nowElapsedMs - this.lastClockUpdateMs >= CLOCK_UPDATE_INTERVAL_MS ) {
+			this.lastClockUpdateMs = nowElapsedMs;
+			script.append( "World.onReplayTime(" ).append( timeMs ).append( ',' ).append( speed ).append( ");" );
+		}
+		return timeMs;
+	}
+
+	@Override
+	public void onDetached( final StringBuilder script ) {
+		script.append( "World.onReplayEnded();" );
+	}
+
+	/**
+	 * replay time at given elapsed time, pauses replay once it reaches the live edge
+	 */
+	private long getTimeMs( final long nowElapsedMs ) {
+		final long timeMs = this.anchorTimeMs + (long)( ( nowElapsedMs - this.anchorElapsedMs ) * (double)this.speed );
+		final long liveEdgeMs = System.currentTimeMillis() - LIVE_EDGE_MS;
+		if ( timeMs < liveEdgeMs ) {
+			return timeMs;
+		}
+		this.anchorTimeMs = liveEdgeMs;
+		this.anchorElapsedMs = nowElapsedMs;
+		this.speed = 0;
+		return liveEdgeMs;
+	}
+
+	/**
+	 * keeps latest scanned position of unit, a unit moving many times within one publish rescores the render budget once
+	 */
+	private void track( final int unitId, final double lat, final double lon, final long timeMs ) {
+		int slot = this.scannedSlots.get( unitId );
+		if ( slot == IntIntMap.MISSING ) {
+			slot = this.scannedCount++;
+			if ( slot == this.scannedIds.length ) {
+				this.scannedIds = Arrays.copyOf( this.scannedIds, slot * 2 );
+				this.scannedLatitudes = Arrays.copyOf( this.scannedLatitudes, slot * 2 );
+				this.scannedLongitudes = Arrays.copyOf( this.scannedLongitudes, slot * 2 );
+				this.scannedTimes = Arrays.copyOf( this.scannedTimes, slot * 2 );
+			}
+			this.scannedSlots.put( unitId, slot );
+			this.scannedIds[slot] = unitId;
+			this.scannedTimes[slot] = Long.MIN_VALUE;
+		}
+		if ( timeMs >= this.scannedTimes[slot] ) {
+			this.scannedLatitudes[slot] = lat;
+			this.scannedLongitudes[slot] = lon;
+			this.scannedTimes[slot] = timeMs;
+		}
+	}
+}
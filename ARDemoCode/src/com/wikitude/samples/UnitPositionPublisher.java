@@ -0,0 +1,270 @@
+package com.wikitude.samples;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.wikitude.architect.ArchitectView;
+
+/**
+ * Pushes predicted unit positions of a {@link UnitTrajectoryPredictor} to the ARchitect World at a bounded rate.
+ * All units that changed since the previous tick go to World in a single bridge call (World.updateUnitPositions), instead of one call per unit and feed update.
+ * Predictions are made for System.currentTimeMillis(), so feed fix times must use the same time base.
+ * Optionally changed and removed breadcrumb trails are sent along (World.updateTrails, World.removeTrails) at a lower rate, in the same bridge call.
+ * Geofence transitions of a {@link GeofenceEngine} are flushed with every publish as one batch (World.onGeofenceTransitions).
+ * A {@link RenderBudget} fed with unit positions is rescored once per publish instead of once per fix, and only units World has a marker for are published.
+ * A {@link Source} may replace the live predictions, e.g. a replay of recorded positions, trails are only sent for live predictions.
+ * Batches are serialized on the publisher thread and evaluated on the UI thread through {@link ArSessionEngine#callJavaScript(ArchitectView, String)}.
+ */
+public class UnitPositionPublisher {
+
+	/**
+	 * replaces the live predictions. Callbacks run on the publisher thread, scripts appended to script are evaluated by World right before the positions of the same publish
+	 */
+	public interface Source {
+
+		/**
+		 * source replaced live predictions or another source
+		 */
+		void onAttached( StringBuilder script );
+
+		/**
+		 * called before each publish, may feed the source's predictor
+		 * @return time to predict positions for
+		 */
+		long prepare( StringBuilder script );
+
+		/**
+		 * live predictions or another source replaced this source
+		 */
+		void onDetached( StringBuilder script );
+
+		UnitTrajectoryPredictor getPredictor();
+	}
+
+	/** default publish rate, smooth enough for walking and driving units */
+	public static final int DEFAULT_RATE_HZ = 10;
+
+	private final ArchitectView architectView;
+
+	/** hands batches to the UI thread, ArchitectView must not be called from the publisher thread */
+	private final ArSessionEngine sessionEngine = ArSessionEngine.getInstance();
+
+	private final UnitTrajectoryPredictor predictor;
+
+	private final long intervalMs;
+
+	/** trails change slowly and are more expensive to render, send them at most once a second */
+	private static final long TRAILS_INTERVAL_MS = 1000;
+
+	private volatile BreadcrumbTrails trails;
+
+	private volatile RenderBudget renderBudget;
+
+	private volatile GeofenceEngine geofenceEngine;
+
+	private long lastTrailsPublishMs = 0;
+
+	/** source set by setSource(), null for live predictions */
+	private volatile Source requestedSource;
+
+	/** source of the previous publish, publisher thread only */
+	private Source source;
+
+	/** reused for every batch */
+	private final StringBuilder script = new StringBuilder( 1024 );
+
+	/** ids of units World has a marker for, publisher thread only */
+	private int[] shownIds = new int[0];
+
+	/** appends drained geofence transitions to script as "unitId,fenceId,entered," with entered 1 or 0 */
+	private final GeofenceEngine.Listener transitionAppender = new GeofenceEngine.Listener() {
+
+		@Override
+		public void onGeofenceTransition( final int unitId, final int fenceId, final boolean entered ) {
+			UnitPositionPublisher.this.script.append( unitId ).append( ',' ).append( fenceId ).append( ',' ).append( entered ? 1 : 0 ).append( ',' );
+		}
+	};
+
+	private HandlerThread thread;
+
+	private Handler handler;
+
+	private final Runnable tickRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			UnitPositionPublisher.this.publish();
+			final Handler handler = UnitPositionPublisher.this.handler;
+			if ( handler != null ) {
+				handler.postDelayed( this, UnitPositionPublisher.this.intervalMs );
+			}
+		}
+	};
+
+	public UnitPositionPublisher( final ArchitectView architectView, final UnitTrajectoryPredictor predictor ) {
+		this( architectView, predictor, DEFAULT_RATE_HZ );
+	}
+
+	/**
+	 * @param rateHz maximum number of bridge calls per second
+	 */
+	public UnitPositionPublisher( final ArchitectView architectView, final UnitTrajectoryPredictor predictor, final int rateHz ) {
+		this.architectView = architectView;
+		this.predictor = predictor;
+		this.intervalMs = 1000 / Math.max( 1, rateHz );
+	}
+
+	/**
+	 * @param trails trails to send along with positions, null to send positions only
+	 */
+	public void setTrails( final BreadcrumbTrails trails ) {
+		this.trails = trails;
+	}
+
+	/**
+	 * @param renderBudget rescored once per publish, so positions fed in between are collapsed to the latest per unit, and its shown POIs restrict published units. Null if there is no budget
+	 */
+	public void setRenderBudget( final RenderBudget renderBudget ) {
+		this.renderBudget = renderBudget;
+	}
+
+	/**
+	 * @param geofenceEngine transitions are drained once per publish, null if there are no geofences
+	 */
+	public void setGeofenceEngine( final GeofenceEngine geofenceEngine ) {
+		this.geofenceEngine = geofenceEngine;
+	}
+
+	/**
+	 * replaces live predictions by source from the next publish on, which happens right away
+	 * @param source null for live predictions
+	 */
+	public void setSource( final Source source ) {
+		this.requestedSource = source;
+		this.requestPublish();
+	}
+
+	/**
+	 * publishes right away instead of with the next tick, e.g. after the source jumped to another time
+	 */
+	public synchronized void requestPublish() {
+		if ( this.handler != null ) {
+			this.handler.removeCallbacks( this.tickRunnable );
+			this.handler.post( this.tickRunnable );
+		}
+	}
+
+	/**
+	 * starts publishing, call in onResume()
+	 */
+	public synchronized void start() {
+		if ( this.thread != null ) {
+			return;
+		}
+		this.thread = new HandlerThread( "UnitPositionPublisher", Process.THREAD_PRIORITY_BACKGROUND );
+		this.thread.start();
+		this.handler = new Handler( this.thread.getLooper() );
+		this.handler.post( this.tickRunnable );
+	}
+
+	/**
+	 * stops publishing, call in onPause()
+	 */
+	public synchronized void stop() {
+		if ( this.thread == null ) {
+			return;
+		}
+		this.handler.removeCallbacks( this.tickRunnable );
+		this.handler = null;
+		this.thread.quit();
+		this.thread = null;
+	}
+
+	/**
+	 * sends changed predictions of current time (and changed trails, geofence transitions) in one call, runs on publisher thread
+	 */
+	private void publish() {
+		if ( this.architectView == null ) {
+			return;
+		}
+		this.script.setLength( 0 );
+
+		final Source requested = this.requestedSource;
+		if ( requested != this.source ) {
+			if ( this.source != null ) {
+				this.source.onDetached( this.script );
+			}
+			this.source = requested;
+			if ( requested != null ) {
+				requested.onAttached( this.script );
+			}
+			// World shows positions of the previous source
+			( requested != null ? requested.getPredictor() : this.predictor ).invalidatePublished();
+		}
+		final Source source = this.source;
+		final long nowMs = source != null ? source.prepare( this.script ) : System.currentTimeMillis();
+		final UnitTrajectoryPredictor predictor = source != null ? source.getPredictor() : this.predictor;
+		final RenderBudget renderBudget = this.renderBudget;
+		if ( renderBudget != null ) {
+			renderBudget.rescoreMoved();
+		}
+
+		final int positionsStart = this.script.length();
+		this.script.append( "World.updateUnitPositions([" );
+		final int appended;
+		if ( renderBudget != null ) {
+			int shownCount;
+			while ( ( shownCount = renderBudget.copyShownIds( this.shownIds ) ) > this.shownIds.length ) {
+				this.shownIds = new int[Math.max( shownCount, renderBudget.getMaxK() )];
+			}
+			appended = predictor.appendChangedPredictions( nowMs, this.script, this.shownIds, shownCount );
+		} else {
+			appended = predictor.appendChangedPredictions( nowMs, this.script );
+		}
+		if ( appended > 0 ) {
+			// replace trailing comma
+			this.script.setLength( this.script.length() - 1 );
+			this.script.append( "]);" );
+		} else {
+			this.script.setLength( positionsStart );
+		}
+
+		final BreadcrumbTrails trails = this.trails;
+		if ( trails != null && source == null && nowMs - this.lastTrailsPublishMs >= TRAILS_INTERVAL_MS ) {
+			this.lastTrailsPublishMs = nowMs;
+			final int removedStart = this.script.length();
+			this.script.append( "World.removeTrails([" );
+			if ( trails.appendRemovedTrails( this.script ) > 0 ) {
+				this.script.setLength( this.script.length() - 1 );
+				this.script.append( "]);" );
+			} else {
+				this.script.setLength( removedStart );
+			}
+			final int trailsStart = this.script.length();
+			this.script.append( "World.updateTrails({" );
+			if ( trails.appendChangedTrails( this.script ) > 0 ) {
+				this.script.setLength( this.script.length() - 1 );
+				this.script.append( "});" );
+			} else {
+				this.script.setLength( trailsStart );
+			}
+		}
+
+		final GeofenceEngine geofenceEngine = this.geofenceEngine;
+		if ( geofenceEngine != null ) {
+			final int transitionsStart = this.script.length();
+			this.script.append( "World.onGeofenceTransitions([" );
+			if ( geofenceEngine.drainTransitions( this.transitionAppender ) > 0 ) {
+				this.script.setLength( this.script.length() - 1 );
+				this.script.append( "]);" );
+			} else {
+				this.script.setLength( transitionsStart );
+			}
+		}
+
+		if ( this.script.length() > 0 ) {
+			this.sessionEngine.callJavaScript( this.architectView, this.script.toString() );
+		}
+	}
+}
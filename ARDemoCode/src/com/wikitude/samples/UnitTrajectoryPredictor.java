@@ -0,0 +1,346 @@
+package com.wikitude.samples;
+
+import com.wikitude.samples.utils.collections.IntIntMap;
+import com.wikitude.samples.utils.memory.MemoryGovernor;
+import com.wikitude.samples.utils.memory.Releasable;
+
+/**
+ * Extrapolates positions of remote units (officers, vehicles) between sparse feed updates, so their markers move instead of teleporting.
+ * Keeps a short position history per unit id, derives velocity from it and extrapolates from the latest fix for a limited time.
+ * Confidence of a prediction decays exponentially with the age of the latest fix.
+ * All state lives in primitive arrays indexed by slot ({@link IntIntMap} maps unit id to slot), so thousands of units cost no per-unit objects.
+ * Register it with {@link MemoryGovernor}: arrays are shrunk to the tracked units, on TIER_REBUILDABLE all units are dropped and come back with their next fix.
+ * All methods are thread-safe.
+ */
+public class UnitTrajectoryPredictor implements Releasable {
+
+	/** default time constant of confidence decay */
+	public static final long DEFAULT_CONFIDENCE_DECAY_MS = 10 * 1000;
+
+	/** default maximum extrapolation, unit stays at last predicted position afterwards */
+	public static final long DEFAULT_MAX_EXTRAPOLATION_MS = 5 * 1000;
+
+	/** fixes kept per unit to derive velocity */
+	private static final int HISTORY = 4;
+
+	/** velocity needs fixes spanning at least this time, shorter spans are too noisy */
+	private static final long MIN_VELOCITY_SPAN_MS = 500;
+
+	/** faster velocities are treated as outliers (fix jumps) and ignored */
+	private static final double MAX_SPEED_MPS = 70;
+
+	private static final double METERS_PER_DEGREE = 111320.0;
+
+	/** bytes of all arrays per slot */
+	private static final int SLOT_BYTES = 6 * 4 + 2 * 8 + HISTORY * 3 * 8;
+
+	/** arrays never shrink below this many slots */
+	private static final int MIN_CAPACITY = 16;
+
+	private final long confidenceDecayMs;
+
+	private final long maxExtrapolationMs;
+
+	/** number of used slots, slots 0..count-1 are occupied */
+	private int count = 0;
+
+	/** per slot: unit id */
+	private int[] ids;
+
+	/** per slot: number of fixes in history and ring position of next fix */
+	private int[] historySize, historyNext;
+
+	/** per slot * HISTORY: history of fixes */
+	private double[] historyLat, historyLon;
+	private long[] historyTimeMs;
+
+	/** per slot: velocity in m/s east / north, derived on each fix */
+	private double[] velocityEast, velocityNorth;
+
+	/** per slot: last published values, used to skip units that didn't change */
+	private int[] publishedLatE6, publishedLonE6, publishedConfidence;
+
+	/** unit id -> slot */
+	private final IntIntMap slots;
+
+	public UnitTrajectoryPredictor() {
+		this( DEFAULT_CONFIDENCE_DECAY_MS, DEFAULT_MAX_EXTRAPOLATION_MS, 64 );
+	}
+
+	/**
+	 * @param confidenceDecayMs confidence falls to 1/e after this time without fix
+	 * @param maxExtrapolationMs extrapolate at most this far beyond latest fix
+	 * @param initialCapacity expected number of units, arrays grow as needed
+	 */
+	public UnitTrajectoryPredictor( final long confidenceDecayMs, final long maxExtrapolationMs, final int initialCapacity ) {
+		this.confidenceDecayMs = confidenceDecayMs;
+		this.maxExtrapolationMs = maxExtrapolationMs;
+		this.slots = new IntIntMap( initialCapacity );
+		this.allocate( Math.max( MIN_CAPACITY, initialCapacity ) );
+	}
+
+	/**
+	 * @return number of tracked units
+	 */
+	public synchronized int size() {
+		return this.count;
+	}
+
+	/**
+	 * adds a fix of a unit from the feed, unknown units are added
+	 * @param unitId id of unit, as used by World markers
+	 * @param lat latitude of fix
+	 * @param lon longitude of fix
+	 * @param timeMs time the fix was taken, same time base as predictions
+	 */
+	public synchronized void onFix( final int unitId, final double lat, final double lon, final long timeMs ) {
+		int slot = this.slots.get( unitId );
+		if ( slot == IntIntMap.MISSING ) {
+			slot = this.addSlot( unitId );
+		}
+		final int base = slot * HISTORY;
+		final int size = this.historySize[slot];
+		if ( size > 0 ) {
+			final int newest = base + ( this.historyNext[slot] + HISTORY - 1 ) % HISTORY;
+			if ( timeMs <= this.historyTimeMs[newest] ) {
+				// out of order or duplicate, history must stay sorted
+				return;
+			}
+		}
+		final int index = base + this.historyNext[slot];
+		this.historyLat[index] = lat;
+		this.historyLon[index] = lon;
+		this.historyTimeMs[index] = timeMs;
+		this.historyNext[slot] = ( this.historyNext[slot] + 1 ) % HISTORY;
+		if ( size < HISTORY ) {
+			this.historySize[slot] = size + 1;
+		}
+		this.updateVelocity( slot );
+	}
+
+	/**
+	 * stops tracking a unit
+	 * @return true if unit was tracked
+	 */
+	public synchronized boolean remove( final int unitId ) {
+		final int slot = this.slots.remove( unitId );
+		if ( slot == IntIntMap.MISSING ) {
+			return false;
+		}
+		final int last = this.count - 1;
+		if ( slot != last ) {
+			this.moveSlot( last, slot );
+			this.slots.put( this.ids[slot], slot );
+		}
+		this.count = last;
+		return true;
+	}
+
+	/**
+	 * stops tracking all units, e.g. before fixes of another time are fed
+	 */
+	public synchronized void clear() {
+		this.count = 0;
+		this.slots.clear();
+	}
+
+	/**
+	 * forgets what was appended, so the next appendChangedPredictions() appends all units, e.g. after World showed positions of another predictor
+	 */
+	public synchronized void invalidatePublished() {
+		for ( int slot = 0; slot < this.count; slot++ ) {
+			this.publishedLatE6[slot] = this.publishedLonE6[slot] = Integer.MIN_VALUE;
+			this.publishedConfidence[slot] = -100;
+		}
+	}
+
+	/**
+	 * appends predictions of all units which moved or changed confidence noticeably since their last append, as flat comma separated list
+	 * "id,latE6,lonE6,confidencePercent," (microdegrees and percent keep the bridge payload small and avoid floating point formatting)
+	 * @param nowMs time to predict for
+	 * @param out receives predictions
+	 * @return number of appended units
+	 */
+	public synchronized int appendChangedPredictions( final long nowMs, final StringBuilder out ) {
+		int appended = 0;
+		for ( int slot = 0; slot < this.count; slot++ ) {
+			if ( this.appendIfChanged( slot, nowMs, out ) ) {
+				appended++;
+			}
+		}
+		return appended;
+	}
+
+	/**
+	 * like {@link #appendChangedPredictions(long, StringBuilder)}, restricted to given units, e.g. those World has a marker for.
+	 * Other units aren't serialized at all, they are appended once given again if their prediction changed meanwhile
+	 * @param unitIds units to append
+	 * @param unitCount number of valid entries in unitIds
+	 */
+	public synchronized int appendChangedPredictions( final long nowMs, final StringBuilder out, final int[] unitIds, final int unitCount ) {
+		int appended = 0;
+		for ( int i = 0; i < unitCount; i++ ) {
+			final int slot = this.slots.get( unitIds[i] );
+			if ( slot != IntIntMap.MISSING && this.appendIfChanged( slot, nowMs, out ) ) {
+				appended++;
+			}
+		}
+		return appended;
+	}
+
+	/**
+	 * @return true if prediction of slot was appended
+	 */
+	private boolean appendIfChanged( final int slot, final long nowMs, final StringBuilder out ) {
+		final int newest = slot * HISTORY + ( this.historyNext[slot] + HISTORY - 1 ) % HISTORY;
+		final long ageMs = Math.max( 0, nowMs - this.historyTimeMs[newest] );
+		final double seconds = Math.min( ageMs, this.maxExtrapolationMs ) / 1000.0;
+		final double lat = this.historyLat[newest] + this.velocityNorth[slot] * seconds / METERS_PER_DEGREE;
+		final double lon = this.historyLon[newest] + this.velocityEast[slot] * seconds / metersPerDegreeLon( this.historyLat[newest] );
+		final int latE6 = (int)Math.round( lat * 1E6 );
+		final int lonE6 = (int)Math.round( lon * 1E6 );
+		final int confidence = (int)Math.round( 100 * Math.exp( -(double)ageMs / this.confidenceDecayMs ) );
+
+		if ( latE6 != this.publishedLatE6[slot] || lonE6 != this.publishedLonE6[slot] || Math.abs( confidence - this.publishedConfidence[slot] ) >= 5 ) {
+			this.publishedLatE6[slot] = latE6;
+			this.publishedLonE6[slot] = lonE6;
+			this.publishedConfidence[slot] = confidence;
+			out.append( this.ids[slot] ).append( ',' ).append( latE6 ).append( ',' ).append( lonE6 ).append( ',' ).append( confidence ).append( ',' );
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized long release( final int tier ) {
+		if ( tier >= MemoryGovernor.TIER_REBUILDABLE ) {
+			// positions are rebuildable from the feed, World keeps markers where they were until then
+			this.clear();
+		}
+		int capacity = MIN_CAPACITY;
+		while ( capacity < this.count ) {
+			capacity *= 2;
+		}
+		final int released = this.ids.length - capacity;
+		if ( released <= 0 ) {
+			return 0;
+		}
+		this.resize( capacity );
+		return (long)released * SLOT_BYTES;
+	}
+
+	/**
+	 * @return heading of unit in degrees (0 = north, clockwise), NaN if unknown or unit is not moving
+	 */
+	public synchronized double getHeading( final int unitId ) {
+		final int slot = this.slots.get( unitId );
+		if ( slot == IntIntMap.MISSING || ( this.velocityEast[slot] == 0 && this.velocityNorth[slot] == 0 ) ) {
+			return Double.NaN;
+		}
+		final double degrees = Math.toDegrees( Math.atan2( this.velocityEast[slot], this.velocityNorth[slot] ) );
+		return degrees < 0 ? degrees + 360 : degrees;
+	}
+
+	/**
+	 * @return speed of unit in m/s, 0 if unknown
+	 */
+	public synchronized double getSpeed( final int unitId ) {
+		final int slot = this.slots.get( unitId );
+		return slot == IntIntMap.MISSING ? 0 : Math.hypot( this.velocityEast[slot], this.velocityNorth[slot] );
+	}
+
+	/**
+	 * velocity from oldest to newest fix in history, averages out noise of single fixes
+	 */
+	private void updateVelocity( final int slot ) {
+		final int base = slot * HISTORY;
+		final int size = this.historySize[slot];
+		final int newest = base + ( this.historyNext[slot] + HISTORY - 1 ) % HISTORY;
+		final int oldest = base + ( this.historyNext[slot] + HISTORY - size ) % HISTORY;
+		final long spanMs = this.historyTimeMs[newest] - this.historyTimeMs[oldest];
+		if ( size < 2 || spanMs < MIN_VELOCITY_SPAN_MS ) {
+			this.velocityEast[slot] = this.velocityNorth[slot] = 0;
+			return;
+		}
+		final double east = ( this.historyLon[newest] - this.historyLon[oldest] ) * metersPerDegreeLon( this.historyLat[newest] ) * 1000 / spanMs;
+		final double north = ( this.historyLat[newest] - this.historyLat[oldest] ) * METERS_PER_DEGREE * 1000 / spanMs;
+		if ( east * east + north * north > MAX_SPEED_MPS * MAX_SPEED_MPS ) {
+			// unit jumped, don't extrapolate the jump
+			this.velocityEast[slot] = this.velocityNorth[slot] = 0;
+			return;
+		}
+		this.velocityEast[slot] = east;
+		this.velocityNorth[slot] = north;
+	}
+
+	private static double metersPerDegreeLon( final double lat ) {
+		return METERS_PER_DEGREE * Math.cos( Math.toRadians( lat ) );
+	}
+
+	private int addSlot( final int unitId ) {
+		if ( this.count == this.ids.length ) {
+			this.resize( this.ids.length * 2 );
+		}
+		final int slot = this.count++;
+		this.ids[slot] = unitId;
+		this.historySize[slot] = 0;
+		this.historyNext[slot] = 0;
+		this.velocityEast[slot] = this.velocityNorth[slot] = 0;
+		this.publishedLatE6[slot] = this.publishedLonE6[slot] = Integer.MIN_VALUE;
+		this.publishedConfidence[slot] = -100;
+		this.slots.put( unitId, slot );
+		return slot;
+	}
+
+	private void moveSlot( final int from, final int to ) {
+		this.ids[to] = this.ids[from];
+		this.historySize[to] = this.historySize[from];
+		this.historyNext[to] = this.historyNext[from];
+		System.arraycopy( this.historyLat, from * HISTORY, this.historyLat, to * HISTORY, HISTORY );
+		System.arraycopy( this.historyLon, from * HISTORY, this.historyLon, to * HISTORY, HISTORY );
+		System.arraycopy( this.historyTimeMs, from * HISTORY, this.historyTimeMs, to * HISTORY, HISTORY );
+		this.velocityEast[to] = this.velocityEast[from];
+		this.velocityNorth[to] = this.velocityNorth[from];
+		this.publishedLatE6[to] = this.publishedLatE6[from];
+		this.publishedLonE6[to] = this.publishedLonE6[from];
+		this.publishedConfidence[to] = this.publishedConfidence[from];
+	}
+
+	private void allocate( final int capacity ) {
+		this.ids = new int[capacity];
+		this.historySize = new int[capacity];
+		this.historyNext = new int[capacity];
+		this.historyLat = new double[capacity * HISTORY];
+		this.historyLon = new double[capacity * HISTORY];
+		this.historyTimeMs = new long[capacity * HISTORY];
+		this.velocityEast = new double[capacity];
+		this.velocityNorth = new double[capacity];
+		this.publishedLatE6 = new int[capacity];
+		this.publishedLonE6 = new int[capacity];
+		this.publishedConfidence = new int[capacity];
+	}
+
+	/**
+	 * moves used slots into arrays of given capacity
+	 */
+	private void resize( final int capacity ) {
+		final int[] ids = this.ids, historySize = this.historySize, historyNext = this.historyNext;
+		final double[] historyLat = this.historyLat, historyLon = this.historyLon, velocityEast = this.velocityEast, velocityNorth = this.velocityNorth;
+		final long[] historyTimeMs = this.historyTimeMs;
+		final int[] publishedLatE6 = this.publishedLatE6, publishedLonE6 = this.publishedLonE6, publishedConfidence = this.publishedConfidence;
+		final int count = this.count;
+
+		this.allocate( capacity );
+		System.arraycopy( ids, 0, this.ids, 0, count );
+		System.arraycopy( historySize, 0, this.historySize, 0, count );
+		System.arraycopy( historyNext, 0, this.historyNext, 0, count );
+		System.arraycopy( historyLat, 0, this.historyLat, 0, count * HISTORY );
+		System.arraycopy( historyLon, 0, this.historyLon, 0, count * HISTORY );
+		System.arraycopy( historyTimeMs, 0, this.historyTimeMs, 0, count * HISTORY );
+		System.arraycopy( velocityEast, 0, this.velocityEast, 0, count );
+		System.arraycopy( velocityNorth, 0, this.velocityNorth, 0, count );
+		System.arraycopy( publishedLatE6, 0, this.publishedLatE6, 0, count );
+		System.arraycopy( publishedLonE6, 0, this.publishedLonE6, 0, count );
+		System.arraycopy( publishedConfidence, 0, this.publishedConfidence, 0, count );
+	}
+}
@@ -0,0 +1,334 @@
+package com.wikitude.samples;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Database of Wi-Fi fingerprints (RSSI of access points recorded at known positions) with k-nearest-neighbour matching of live scans.
+ * Distance of a scan to a fingerprint is the euclidean distance of their RSSI vectors, access points missing on one side count as MISSING_LEVEL.
+ * Query time is bounded independent of database size: candidates are only taken from fingerprints which heard one of the scan's strongest
+ * access points at a similar level (a few meters around the user), at most MAX_CANDIDATES of them.
+ * Has no Android dependencies, so it can be evaluated on the JVM with recorded scans. All methods are thread-safe.
+ */
+public class WifiFingerprintIndex {
+
+	/** RSSI assumed for access points not heard, slightly below what receivers report */
+	public static final int MISSING_LEVEL = -100;
+
+	/** neighbours interpolated for a position */
+	private static final int K = 4;
+
+	/** strongest access points of a scan used to select candidates */
+	private static final int CANDIDATE_ACCESS_POINTS = 3;
+
+	/** candidate fingerprints must have heard a candidate access point within this many dB of the scan */
+	private static final int CANDIDATE_LEVEL_TOLERANCE = 8;
+
+	/** upper bound of fingerprints compared per query */
+	private static final int MAX_CANDIDATES = 600;
+
+	/** scans farther than this RMS difference per access point from the best fingerprint don't match (user outside surveyed area) */
+	private static final double MAX_RMS_DIFFERENCE = 12;
+
+	/** accuracy is never reported below this many meters, fingerprints are rarely surveyed denser */
+	private static final float MIN_ACCURACY_METERS = 3;
+
+	private static final double METERS_PER_DEGREE = 111319.5;
+
+	/** BSSID (lower case) -> access point number */
+	private final Map<String, Integer> accessPoints = new HashMap<String, Integer>();
+
+	/** access point number -> fingerprints that heard it, as (level + 128) << 32 | fingerprint, sorted by level once queried */
+	private long[][] postings = new long[64][];
+	private int[] postingSizes = new int[64];
+	private boolean[] postingSorted = new boolean[64];
+
+	/** fingerprint -> position and range of its readings in readingAccessPoints / readingLevels */
+	private double[] latitudes = new double[256], longitudes = new double[256];
+	private int[] readingOffsets = new int[257];
+	private int fingerprintCount = 0;
+
+	private int[] readingAccessPoints = new int[2048];
+	private byte[] readingLevels = new byte[2048];
+
+	/** scratch of queries: scan level per access point (0 = not heard), visit stamp per fingerprint */
+	private byte[] scanLevels = new byte[64];
+	private int[] visited = new int[256];
+	private int queryStamp = 0;
+
+	/** scratch of queries: access points of scan, best neighbours */
+	private int[] scanAccessPoints = new int[16];
+	private final int[] nearest = new int[K];
+	private final double[] nearestDistances = new double[K];
+
+	/**
+	 * adds a fingerprint
+	 * @param bssids access points heard at position
+	 * @param levels their RSSI in dBm
+	 */
+	public synchronized void add( final double latitude, final double longitude, final String[] bssids, final int[] levels, final int count ) {
+		final int fingerprint = this.fingerprintCount;
+		if ( fingerprint == this.latitudes.length ) {
+			this.latitudes = Arrays.copyOf( this.latitudes, fingerprint * 2 );
+			this.longitudes = Arrays.copyOf( this.longitudes, fingerprint * 2 );
+			this.readingOffsets = Arrays.copyOf( this.readingOffsets, fingerprint * 2 + 1 );
+			this.visited = Arrays.copyOf( this.visited, fingerprint * 2 );
+		}
+		this.latitudes[fingerprint] = latitude;
+		this.longitudes[fingerprint] = longitude;
+
+		int readings = this.readingOffsets[fingerprint];
+		if ( readings + count > this.readingAccessPoints.length ) {
+			final int capacity = Math.max( this.readingAccessPoints.length * 2, readings + count );
+			this.readingAccessPoints = Arrays.copyOf( this.readingAccessPoints, capacity );
+			this.readingLevels = Arrays.copyOf( this.readingLevels, capacity );
+		}
+		for ( int i = 0; i < count; i++ ) {
+			final int accessPoint = this.getOrAddAccessPoint( bssids[i] );
+			final int level = clampLevel( levels[i] );
+			this.readingAccessPoints[readings] = accessPoint;
+			this.readingLevels[readings] = (byte)level;
+			readings++;
+
+			if ( this.postings[accessPoint] == null ) {
+				this.postings[accessPoint] = new long[8];
+			} else if ( this.postingSizes[accessPoint] == this.postings[accessPoint].length ) {
+				this.postings[accessPoint] = Arrays.copyOf( this.postings[accessPoint], this.postingSizes[accessPoint] * 2 );
+			}
+			this.postings[accessPoint][this.postingSizes[accessPoint]++] = ( (long)( level + 128 ) << 32 ) | fingerprint;
+			this.postingSorted[accessPoint] = false;
+		}
+		this.readingOffsets[fingerprint + 1] = readings;
+		this.fingerprintCount++;
+	}
+
+	/**
+	 * @return number of fingerprints
+	 */
+	public synchronized int size() {
+		return this.fingerprintCount;
+	}
+
+	/**
+	 * reads fingerprints, one per line as "latitude,longitude,bssid,level,bssid,level,...", lines starting with '#' are ignored
+	 * @return number of fingerprints read
+	 * @throws IOException if reading fails or a line is malformed
+	 */
+	public int load( final BufferedReader reader ) throws IOException {
+		String[] bssids = new String[16];
+		int[] levels = new int[16];
+		int lineNumber = 0, loaded = 0;
+		String line;
+		while ( ( line = reader.readLine() ) != null ) {
+			lineNumber++;
+			if ( line.length() == 0 || line.charAt( 0 ) == '#' ) {
+				continue;
+			}
+			final String[] fields = line.split( "," );
+			if ( fields.length < 2 || fields.length % 2 != 0 ) {
+				throw new IOException( "malformed fingerprint at line " + lineNumber );
+			}
+			final int count = fields.length / 2 - 1;
+			if ( count > bssids.length ) {
+				bssids = new String[count];
+				levels = new int[count];
+			}
+			try {
+				for ( int i = 0; i < count; i++ ) {
+					bssids[i] = fields[2 + i * 2].trim();
+					levels[i] = Integer.parseInt( fields[3 + i * 2].trim() );
+				}
+				this.add( Double.parseDouble( fields[0] ), Double.parseDouble( fields[1] ), bssids, levels, count );
+			} catch ( final NumberFormatException e ) {
+				throw new IOException( "malformed fingerprint at line " + lineNumber );
+			}
+			loaded++;
+		}
+		return loaded;
+	}
+
+	/**
+	 * estimates position of a scan as weighted mean of its nearest fingerprints
+	 * @param bssids access points of scan
+	 * @param levels their RSSI in dBm
+	 * @param result receives latitude, longitude and accuracy in meters
+	 * @return false if scan matches no fingerprint (e.g. user outside surveyed area), result is unchanged then
+	 */
+	public synchronized boolean locate( final String[] bssids, final int[] levels, final int count, final double[] result ) {
+		// scan as sparse vector of known access points
+		if ( this.scanLevels.length < this.accessPoints.size() ) {
+			this.scanLevels = new byte[this.postings.length];
+		}
+		if ( this.scanAccessPoints.length < count ) {
+			this.scanAccessPoints = new int[count];
+		}
+		int scanCount = 0;
+		double missingDistance = 0;
+		for ( int i = 0; i < count; i++ ) {
+			final Integer accessPoint = this.accessPoints.get( bssids[i].toLowerCase( Locale.US ) );
+			if ( accessPoint != null && this.scanLevels[accessPoint] == 0 ) {
+				final int level = clampLevel( levels[i] );
+				this.scanLevels[accessPoint] = (byte)level;
+				this.scanAccessPoints[scanCount++] = accessPoint;
+				// distance contribution if fingerprint didn't hear it, corrected for readings of fingerprint below
+				missingDistance += ( level - MISSING_LEVEL ) * ( level - MISSING_LEVEL );
+			}
+		}
+		if ( scanCount == 0 ) {
+			return false;
+		}
+
+		Arrays.fill( this.nearest, -1 );
+		Arrays.fill( this.nearestDistances, Double.MAX_VALUE );
+		if ( ++this.queryStamp == Integer.MAX_VALUE ) {
+			Arrays.fill( this.visited, 0 );
+			this.queryStamp = 1;
+		}
+		this.sortStrongestFirst( scanCount );
+		final int candidateAccessPoints = Math.min( CANDIDATE_ACCESS_POINTS, scanCount );
+		final int candidatesPerAccessPoint = MAX_CANDIDATES / candidateAccessPoints;
+		double bestRms = Double.MAX_VALUE;
+		for ( int c = 0; c < candidateAccessPoints; c++ ) {
+			final int accessPoint = this.scanAccessPoints[c];
+			final long[] posting = this.getSortedPosting( accessPoint );
+			final int size = this.postingSizes[accessPoint];
+			final int level = this.scanLevels[accessPoint] + 128;
+			final long minKey = (long)( level - CANDIDATE_LEVEL_TOLERANCE ) << 32;
+			final long maxKey = ( (long)( level + CANDIDATE_LEVEL_TOLERANCE + 1 ) << 32 ) - 1;
+			// walk outwards from scan's level, so closest levels are compared first if budget is exceeded
+			int up = Arrays.binarySearch( posting, 0, size, (long)level << 32 );
+			up = up >= 0 ? up : -up - 1;
+			int down = up - 1;
+			for ( int taken = 0; taken < candidatesPerAccessPoint; taken++ ) {
+				final boolean canUp = up < size && posting[up] <= maxKey;
+				final boolean canDown = down >= 0 && posting[down] >= minKey;
+				final long key;
+				if ( canUp && ( !canDown || ( posting[up] >>> 32 ) - level <= level - ( posting[down] >>> 32 ) ) ) {
+					key = posting[up++];
+				} else if ( canDown ) {
+					key = posting[down--];
+				} else {
+					break;
+				}
+				final int fingerprint = (int)key;
+				if ( this.visited[fingerprint] == this.queryStamp ) {
+					continue;
+				}
+				this.visited[fingerprint] = this.queryStamp;
+				final double rms = this.insertNearest( fingerprint, missingDistance, scanCount );
+				bestRms = Math.min( bestRms, rms );
+			}
+		}
+		for ( int i = 0; i < scanCount; i++ ) {
+			this.scanLevels[this.scanAccessPoints[i]] = 0;
+		}
+		if ( this.nearest[0] < 0 || bestRms > MAX_RMS_DIFFERENCE ) {
+			return false;
+		}
+
+		// inverse distance weighted position, accuracy from spread of neighbours around it
+		double weightSum = 0, latitude = 0, longitude = 0;
+		for ( int i = 0; i < K && this.nearest[i] >= 0; i++ ) {
+			final double weight = 1 / ( Math.sqrt( this.nearestDistances[i] ) + 1 );
+			latitude += this.latitudes[this.nearest[i]] * weight;
+			longitude += this.longitudes[this.nearest[i]] * weight;
+			weightSum += weight;
+		}
+		latitude /= weightSum;
+		longitude /= weightSum;
+		final double metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos( Math.toRadians( latitude ) );
+		double spread = 0;
+		for ( int i = 0; i < K && this.nearest[i] >= 0; i++ ) {
+			final double weight = 1 / ( Math.sqrt( this.nearestDistances[i] ) + 1 );
+			final double dy = ( this.latitudes[this.nearest[i]] - latitude ) * METERS_PER_DEGREE;
+			final double dx = ( this.longitudes[this.nearest[i]] - longitude ) * metersPerDegreeLongitude;
+			spread += ( dx * dx + dy * dy ) * weight;
+		}
+		result[0] = latitude;
+		result[1] = longitude;
+		result[2] = Math.max( MIN_ACCURACY_METERS, Math.sqrt( spread / weightSum ) );
+		return true;
+	}
+
+	/**
+	 * computes squared distance of fingerprint to scan and keeps it if among K nearest
+	 * @return RMS difference per access point
+	 */
+	private double insertNearest( final int fingerprint, final double missingDistance, final int scanCount ) {
+		double distance = missingDistance;
+		int terms = scanCount;
+		for ( int r = this.readingOffsets[fingerprint]; r < this.readingOffsets[fingerprint + 1]; r++ ) {
+			final int level = this.readingLevels[r];
+			final int scanLevel = this.scanLevels[this.readingAccessPoints[r]];
+			if ( scanLevel != 0 ) {
+				distance += ( level - scanLevel ) * ( level - scanLevel ) - ( scanLevel - MISSING_LEVEL ) * ( scanLevel - MISSING_LEVEL );
+			} else {
+				distance += ( level - MISSING_LEVEL ) * ( level - MISSING_LEVEL );
+				terms++;
+			}
+		}
+		int index = K - 1;
+		if ( distance < this.nearestDistances[index] ) {
+			while ( index > 0 && distance < this.nearestDistances[index - 1] ) {
+				this.nearestDistances[index] = this.nearestDistances[index - 1];
+				this.nearest[index] = this.nearest[index - 1];
+				index--;
+			}
+			this.nearestDistances[index] = distance;
+			this.nearest[index] = fingerprint;
+		}
+		return Math.sqrt( distance / terms );
+	}
+
+	/**
+	 * sorts first CANDIDATE_ACCESS_POINTS access points of scan by level (strongest first), remaining order doesn't matter
+	 */
+	private void sortStrongestFirst( final int scanCount ) {
+		for ( int i = 0; i < Math.min( CANDIDATE_ACCESS_POINTS, scanCount ); i++ ) {
+			int strongest = i;
+			for ( int j = i + 1; j < scanCount; j++ ) {
+				if ( this.scanLevels[this.scanAccessPoints[j]] > this.scanLevels[this.scanAccessPoints[strongest]] ) {
+					strongest = j;
+				}
+			}
+			final int swap = this.scanAccessPoints[i];
+			this.scanAccessPoints[i] = this.scanAccessPoints[strongest];
+			this.scanAccessPoints[strongest] = swap;
+		}
+	}
+
+	private long[] getSortedPosting( final int accessPoint ) {
+		if ( !this.postingSorted[accessPoint] ) {
+			Arrays.sort( this.postings[accessPoint], 0, this.postingSizes[accessPoint] );
+			this.postingSorted[accessPoint] = true;
+		}
+		return this.postings[accessPoint];
+	}
+
+	private int getOrAddAccessPoint( final String bssid ) {
+		final String key = bssid.toLowerCase( Locale.US );
+		final Integer existing = this.accessPoints.get( key );
+		if ( existing != null ) {
+			return existing;
+		}
+		final int accessPoint = this.accessPoints.size();
+		if ( accessPoint == this.postings.length ) {
+			this.postings = Arrays.copyOf( this.postings, accessPoint * 2 );
+			this.postingSizes = Arrays.copyOf( this.postingSizes, accessPoint * 2 );
+			this.postingSorted = Arrays.copyOf( this.postingSorted, accessPoint * 2 );
+		}
+		this.accessPoints.put( key, accessPoint );
+		return accessPoint;
+	}
+
+	/**
+	 * @return level within [MISSING_LEVEL, -1], so it fits a byte and 0 can mark "not heard"
+	 */
+	private static int clampLevel( final int level ) {
+		return Math.max( MISSING_LEVEL, Math.min( -1, level ) );
+	}
+}
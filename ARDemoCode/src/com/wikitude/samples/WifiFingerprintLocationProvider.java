@@ -0,0 +1,221 @@
+package com.wikitude.samples;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.Location;
+import android.location.LocationListener;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.wikitude.samples.ArchitectViewHolderInterface.ILocationProvider;
+
+/**
+ * Location provider for inside buildings, where GPS is unavailable and network fixes are off by hundreds of meters.
+ * Wi-Fi scans are matched against a fingerprint database ({@link WifiFingerprintIndex}) recorded in the buildings beforehand.
+ * Fixes of a wrapped {@link LocationProvider} are forwarded as well, unless a recent Wi-Fi fix is more accurate, so the provider can replace LocationProvider anywhere.
+ * The database is loaded on a background thread on first resume, scans are ignored until it is ready. Requires ACCESS_WIFI_STATE and CHANGE_WIFI_STATE (scans).
+ */
+public class WifiFingerprintLocationProvider implements ILocationProvider {
+
+	/** provider name of emitted Wi-Fi fixes */
+	public static final String PROVIDER_WIFI_FINGERPRINT = "wifiFingerprint";
+
+	/** scans are throttled by most devices anyway, more frequent requests only cost battery */
+	private static final int SCAN_INTERVAL_MS = 3000;
+
+	/** a Wi-Fi fix suppresses less accurate GPS / network fixes for this long */
+	private static final long WIFI_FIX_VALID_MS = 10 * 1000;
+
+	private static final String TAG = "WifiFingerprint";
+
+	/** location listener called on each location update */
+	private final LocationListener locationListener;
+
+	private final Context context;
+
+	private final WifiManager wifiManager;
+
+	/** fingerprint database, "latitude,longitude,bssid,level,..." per line */
+	private final File fingerprintFile;
+
+	/** GPS / network fixes, used outdoors */
+	private final LocationProvider outdoorProvider;
+
+	private final Handler handler = new Handler( Looper.getMainLooper() );
+
+	/** null until loaded */
+	private volatile WifiFingerprintIndex index;
+
+	/** true while loader thread runs, a failed load is retried on next resume */
+	private volatile boolean loading = false;
+
+	private boolean receiverRegistered = false;
+
+	/** accuracy and elapsed realtime of last Wi-Fi fix, main thread only */
+	private float lastWifiAccuracy;
+	private long lastWifiFixAt = Long.MIN_VALUE / 2;
+
+	/** scratch of scan matching, main thread only */
+	private String[] scanBssids = new String[32];
+	private int[] scanLevels = new int[32];
+	private final double[] result = new double[3];
+
+	/** forwards outdoor fixes unless Wi-Fi currently knows better */
+	private final LocationListener outdoorListener = new LocationListener() {
+
+		@Override
+		public void onLocationChanged( final Location location ) {
+			final WifiFingerprintLocationProvider provider = WifiFingerprintLocationProvider.this;
+			final boolean wifiFixValid = SystemClock.elapsedRealtime() - provider.lastWifiFixAt < WIFI_FIX_VALID_MS;
+			if ( location != null && ( !wifiFixValid || ( location.hasAccuracy() && location.getAccuracy() < provider.lastWifiAccuracy ) ) ) {
+				provider.locationListener.onLocationChanged( location );
+			}
+		}
+
+		@Override
+		public void onStatusChanged( final String provider, final int status, final Bundle extras ) {
+			WifiFingerprintLocationProvider.this.locationListener.onStatusChanged( provider, status, extras );
+		}
+
+		@Override
+		public void onProviderEnabled( final String provider ) {
+			WifiFingerprintLocationProvider.this.locationListener.onProviderEnabled( provider );
+		}
+
+		@Override
+		public void onProviderDisabled( final String provider ) {
+			WifiFingerprintLocationProvider.this.locationListener.onProviderDisabled( provider );
+		}
+	};
+
+	/** matches scan results, called on main thread */
+	private final BroadcastReceiver scanReceiver = new BroadcastReceiver() {
+
+		@Override
+		public void onReceive( final Context context, final Intent intent ) {
+			WifiFingerprintLocationProvider.this.onScanResults();
+		}
+	};
+
+	private final Runnable scanRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			if ( WifiFingerprintLocationProvider.this.wifiManager.isWifiEnabled() ) {
+				WifiFingerprintLocationProvider.this.wifiManager.startScan();
+			}
+			WifiFingerprintLocationProvider.this.handler.postDelayed( this, SCAN_INTERVAL_MS );
+		}
+	};
+
+	/**
+	 * @param fingerprintFile fingerprint database, see {@link WifiFingerprintIndex#load(BufferedReader)} for format
+	 */
+	public WifiFingerprintLocationProvider( final Context context, final LocationListener locationListener, final File fingerprintFile ) {
+		// receiver is registered on the application, the provider outlives the creating activity in ArSessionEngine
+		this.context = context.getApplicationContext();
+		this.locationListener = locationListener;
+		this.fingerprintFile = fingerprintFile;
+		this.wifiManager = (WifiManager)context.getSystemService( Context.WIFI_SERVICE );
+		this.outdoorProvider = new LocationProvider( context, this.outdoorListener );
+	}
+
+	/**
+	 * @return wrapped GPS / network provider, e.g. to share its accelerometer via {@link LocationProvider#setAccelerometerListener(LocationProvider.AccelerometerListener, Handler)}
+	 */
+	public LocationProvider getOutdoorProvider() {
+		return this.outdoorProvider;
+	}
+
+	@Override
+	public void onResume() {
+		this.outdoorProvider.onResume();
+		if ( this.wifiManager == null ) {
+			return;
+		}
+		if ( this.index == null && !this.loading ) {
+			this.loading = true;
+			new Thread( new Runnable() {
+
+				@Override
+				public void run() {
+					WifiFingerprintLocationProvider.this.loadIndex();
+				}
+			}, "WifiFingerprintLoader" ).start();
+		}
+		this.context.registerReceiver( this.scanReceiver, new IntentFilter( WifiManager.SCAN_RESULTS_AVAILABLE_ACTION ) );
+		this.receiverRegistered = true;
+		this.handler.post( this.scanRunnable );
+	}
+
+	@Override
+	public void onPause() {
+		this.outdoorProvider.onPause();
+		this.handler.removeCallbacks( this.scanRunnable );
+		if ( this.receiverRegistered ) {
+			this.context.unregisterReceiver( this.scanReceiver );
+			this.receiverRegistered = false;
+		}
+	}
+
+	private void onScanResults() {
+		final WifiFingerprintIndex index = this.index;
+		final List<ScanResult> scanResults = this.wifiManager.getScanResults();
+		if ( index == null || scanResults == null || scanResults.isEmpty() ) {
+			return;
+		}
+		final int count = scanResults.size();
+		if ( this.scanBssids.length < count ) {
+			this.scanBssids = new String[count];
+			this.scanLevels = new int[count];
+		}
+		for ( int i = 0; i < count; i++ ) {
+			this.scanBssids[i] = scanResults.get( i ).BSSID;
+			this.scanLevels[i] = scanResults.get( i ).level;
+		}
+		if ( !index.locate( this.scanBssids, this.scanLevels, count, this.result ) ) {
+			return;
+		}
+		final Location location = new Location( PROVIDER_WIFI_FINGERPRINT );
+		location.setLatitude( this.result[0] );
+		location.setLongitude( this.result[1] );
+		location.setAccuracy( (float)this.result[2] );
+		location.setTime( System.currentTimeMillis() );
+		this.lastWifiAccuracy = location.getAccuracy();
+		this.lastWifiFixAt = SystemClock.elapsedRealtime();
+		this.locationListener.onLocationChanged( location );
+	}
+
+	/**
+	 * runs on loader thread
+	 */
+	private void loadIndex() {
+		final WifiFingerprintIndex loaded = new WifiFingerprintIndex();
+		try {
+			final BufferedReader reader = new BufferedReader( new FileReader( this.fingerprintFile ), 64 * 1024 );
+			try {
+				Log.i( TAG, loaded.load( reader ) + " fingerprints loaded" );
+			} finally {
+				reader.close();
+			}
+			this.index = loaded;
+		} catch ( final IOException e ) {
+			Log.w( TAG, "could not load fingerprints from " + this.fingerprintFile, e );
+		} finally {
+			this.loading = false;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.wikitude.samples.utils.atlas;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * Icons packed into one image, so the World loads a single texture and switches icons (unit type, status, selection) by frame index instead of uploading new images.
+ * Icons are packed into a grid of equally sized cells, as ARchitect addresses sub-images as key frames of an AR.AnimatedImageDrawable.
+ * Smaller icons are centered in their cell.
+ */
+public final class IconAtlas {
+
+	private final File file;
+
+	private final int cellWidth, cellHeight, columns;
+
+	/** icon key -> frame index, row-major */
+	private final Map<String, Integer> frames;
+
+	private IconAtlas( final File file, final int cellWidth, final int cellHeight, final int columns, final Map<String, Integer> frames ) {
+		this.file = file;
+		this.cellWidth = cellWidth;
+		this.cellHeight = cellHeight;
+		this.columns = columns;
+		this.frames = frames;
+	}
+
+	/**
+	 * packs icons into a PNG, icons are not recycled
+	 * @param file atlas image, replaced if it exists
+	 * @param icons icon key -> icon, frame indices follow iteration order
+	 * @return descriptor of written atlas
+	 */
+	public static IconAtlas write( final File file, final Map<String, Bitmap> icons ) throws IOException {
+		if ( icons.isEmpty() ) {
+			throw new IllegalArgumentException( "no icons" );
+		}
+		int cellWidth = 1, cellHeight = 1;
+		for ( final Bitmap icon : icons.values() ) {
+			cellWidth = Math.max( cellWidth, icon.getWidth() );
+			cellHeight = Math.max( cellHeight, icon.getHeight() );
+		}
+		// nearly square atlas keeps texture size within GL limits for a few hundred icons
+		final int columns = (int)Math.ceil( Math.sqrt( icons.size() ) );
+		final int rows = ( icons.size() + columns - 1 ) / columns;
+
+		final Bitmap atlas = Bitmap.createBitmap( columns * cellWidth, rows * cellHeight, Bitmap.Config.ARGB_8888 );
+		final Map<String, Integer> frames = new LinkedHashMap<String, Integer>();
+		try {
+			final Canvas canvas = new Canvas( atlas );
+			final Paint paint = new Paint( Paint.FILTER_BITMAP_FLAG );
+			int frame = 0;
+			for ( final Map.Entry<String, Bitmap> icon : icons.entrySet() ) {
+				final Bitmap bitmap = icon.getValue();
+				final int left = ( frame % columns ) * cellWidth + ( cellWidth - bitmap.getWidth() ) / 2;
+				final int top = ( frame / columns ) * cellHeight + ( cellHeight - bitmap.getHeight() ) / 2;
+				canvas.drawBitmap( bitmap, left, top, paint );
+				frames.put( icon.getKey(), frame++ );
+			}
+
+			final File tmpFile = new File( file.getPath() + ".tmp" );
+			final OutputStream out = new BufferedOutputStream( new FileOutputStream( tmpFile ) );
+			try {
+				if ( !atlas.compress( Bitmap.CompressFormat.PNG, 100, out ) ) {
+					throw new IOException( "could not encode " + file );
+				}
+			} finally {
+				out.close();
+			}
+			if ( !tmpFile.renameTo( file ) ) {
+				file.delete();
+				if ( !tmpFile.renameTo( file ) ) {
+					throw new IOException( "could not write " + file );
+				}
+			}
+		} finally {
+			atlas.recycle();
+		}
+		return new IconAtlas( file, cellWidth, cellHeight, columns, frames );
+	}
+
+	public File getFile() {
+		return this.file;
+	}
+
+	public int getCellWidth() {
+		return this.cellWidth;
+	}
+
+	public int getCellHeight() {
+		return this.cellHeight;
+	}
+
+	/**
+	 * @return frame index of icon, -1 if unknown
+	 */
+	public int getFrame( final String key ) {
+		final Integer frame = this.frames.get( key );
+		return frame != null ? frame.intValue() : -1;
+	}
+
+	/**
+	 * @return descriptor for World.setIconAtlas(), {url, cellWidth, cellHeight, columns, frames: {key: index}}
+	 */
+	public JSONObject toJson() {
+		try {
+			final JSONObject json = new JSONObject();
+			// modification time busts WebView's image cache once atlas is rebuilt with other icons
+			json.put( "url", "file://" + this.file.getAbsolutePath() + "?v=" + this.file.lastModified() );
+			json.put( "cellWidth", this.cellWidth );
+			json.put( "cellHeight", this.cellHeight );
+			json.put( "columns", this.columns );
+			json.put( "frames", new JSONObject( this.frames ) );
+			return json;
+		} catch ( final JSONException e ) {
+			// only numbers and strings are put
+			throw new IllegalStateException( e );
+		}
+	}
+}
@@ -0,0 +1,345 @@
+package com.wikitude.samples.utils.collections;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative ints, organized like a Roaring bitmap: values are grouped in chunks of 65536 by their upper 16 bits,
+ * sparse chunks store sorted 16 bit values, dense chunks (more than 4096 values) a plain 8 KB bitmap.
+ * Sparse attribute values (few severe incidents) stay small, dense ones (all officers on call) are combined with word-wise AND / OR.
+ * Not thread-safe.
+ */
+public class CompressedBitmap {
+
+	/** sparse chunks are converted to bitmaps above this cardinality, where both need 8 KB */
+	private static final int MAX_ARRAY_SIZE = 4096;
+
+	private static final int BITMAP_WORDS = 65536 / 64;
+
+	/** upper 16 bits of chunks, sorted */
+	private int[] keys = new int[4];
+
+	/** per chunk: sorted low 16 bits (char[] as unsigned short) if sparse, null if dense */
+	private char[][] arrays = new char[4][];
+
+	/** per chunk: 1024 words if dense, null if sparse */
+	private long[][] bitmaps = new long[4][];
+
+	/** per chunk: number of values */
+	private int[] cardinalities = new int[4];
+
+	private int chunkCount = 0;
+
+	public void add( final int value ) {
+		int chunk = this.findChunk( value >>> 16 );
+		if ( chunk < 0 ) {
+			chunk = -chunk - 1;
+			this.insertChunk( chunk, value >>> 16, new char[4], null, 0 );
+		}
+		final char low = (char)value;
+		if ( this.bitmaps[chunk] != null ) {
+			final long[] bitmap = this.bitmaps[chunk];
+			final long before = bitmap[low >>> 6];
+			bitmap[low >>> 6] = before | ( 1L << low );
+			if ( bitmap[low >>> 6] != before ) {
+				this.cardinalities[chunk]++;
+			}
+			return;
+		}
+		final char[] array = this.arrays[chunk];
+		final int size = this.cardinalities[chunk];
+		final int index = Arrays.binarySearch( array, 0, size, low );
+		if ( index >= 0 ) {
+			return;
+		}
+		if ( size == MAX_ARRAY_SIZE ) {
+			this.toBitmap( chunk );
+			this.add( value );
+			return;
+		}
+		final int insert = -index - 1;
+		final char[] target = size == array.length ? Arrays.copyOf( array, Math.min( MAX_ARRAY_SIZE, size * 2 ) ) : array;
+		System.arraycopy( array, insert, target, insert + 1, size - insert );
+		target[insert] = low;
+		this.arrays[chunk] = target;
+		this.cardinalities[chunk]++;
+	}
+
+	public void remove( final int value ) {
+		final int chunk = this.findChunk( value >>> 16 );
+		if ( chunk < 0 ) {
+			return;
+		}
+		final char low = (char)value;
+		if ( this.bitmaps[chunk] != null ) {
+			final long[] bitmap = this.bitmaps[chunk];
+			final long before = bitmap[low >>> 6];
+			bitmap[low >>> 6] = before & ~( 1L << low );
+			if ( bitmap[low >>> 6] != before ) {
+				this.cardinalities[chunk]--;
+			}
+		} else {
+			final char[] array = this.arrays[chunk];
+			final int size = this.cardinalities[chunk];
+			final int index = Arrays.binarySearch( array, 0, size, low );
+			if ( index < 0 ) {
+				return;
+			}
+			System.arraycopy( array, index + 1, array, index, size - index - 1 );
+			this.cardinalities[chunk]--;
+		}
+		if ( this.cardinalities[chunk] == 0 ) {
+			this.removeChunk( chunk );
+		}
+	}
+
+	public boolean contains( final int value ) {
+		final int chunk = this.findChunk( value >>> 16 );
+		if ( chunk < 0 ) {
+			return false;
+		}
+		final char low = (char)value;
+		if ( this.bitmaps[chunk] != null ) {
+			return ( this.bitmaps[chunk][low >>> 6] & ( 1L << low ) ) != 0;
+		}
+		return Arrays.binarySearch( this.arrays[chunk], 0, this.cardinalities[chunk], low ) >= 0;
+	}
+
+	public int cardinality() {
+		int cardinality = 0;
+		for ( int chunk = 0; chunk < this.chunkCount; chunk++ ) {
+			cardinality += this.cardinalities[chunk];
+		}
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		return this.chunkCount == 0;
+	}
+
+	/**
+	 * @return copy of this bitmap
+	 */
+	public CompressedBitmap copy() {
+		final CompressedBitmap copy = new CompressedBitmap();
+		copy.or( this );
+		return copy;
+	}
+
+	/**
+	 * this = this | other
+	 */
+	public void or( final CompressedBitmap other ) {
+		for ( int o = 0; o < other.chunkCount; o++ ) {
+			int chunk = this.findChunk( other.keys[o] );
+			if ( chunk < 0 ) {
+				chunk = -chunk - 1;
+				this.insertChunk( chunk, other.keys[o],
+						other.arrays[o] != null ? Arrays.copyOf( other.arrays[o], Math.max( 4, other.cardinalities[o] ) ) : null,
+						other.bitmaps[o] != null ? other.bitmaps[o].clone() : null, other.cardinalities[o] );
+				continue;
+			}
+			// union may exceed array size, do it on bitmap and compact afterwards
+			this.toBitmap( chunk );
+			final long[] bitmap = this.bitmaps[chunk];
+			if ( other.bitmaps[o] != null ) {
+				for ( int w = 0; w < BITMAP_WORDS; w++ ) {
+					bitmap[w] |= other.bitmaps[o][w];
+				}
+			} else {
+				for ( int i = 0; i < other.cardinalities[o]; i++ ) {
+					final char low = other.arrays[o][i];
+					bitmap[low >>> 6] |= 1L << low;
+				}
+			}
+			this.updateCardinality( chunk );
+		}
+	}
+
+	/**
+	 * this = this & other
+	 */
+	public void and( final CompressedBitmap other ) {
+		this.combine( other, false );
+	}
+
+	/**
+	 * this = this & ~other
+	 */
+	public void andNot( final CompressedBitmap other ) {
+		this.combine( other, true );
+	}
+
+	/**
+	 * @return values in ascending order
+	 */
+	public int[] toArray() {
+		final int[] values = new int[this.cardinality()];
+		int count = 0;
+		for ( int chunk = 0; chunk < this.chunkCount; chunk++ ) {
+			final int high = this.keys[chunk] << 16;
+			if ( this.bitmaps[chunk] != null ) {
+				final long[] bitmap = this.bitmaps[chunk];
+				for ( int w = 0; w < BITMAP_WORDS; w++ ) {
+					long word = bitmap[w];
+					while ( word != 0 ) {
+						values[count++] = high | ( ( w << 6 ) + Long.numberOfTrailingZeros( word ) );
+						word &= word - 1;
+					}
+				}
+			} else {
+				for ( int i = 0; i < this.cardinalities[chunk]; i++ ) {
+					values[count++] = high | this.arrays[chunk][i];
+				}
+			}
+		}
+		return values;
+	}
+
+	private void combine( final CompressedBitmap other, final boolean negate ) {
+		int write = 0;
+		for ( int chunk = 0; chunk < this.chunkCount; chunk++ ) {
+			final int o = other.findChunk( this.keys[chunk] );
+			if ( o < 0 ) {
+				if ( !negate ) {
+					continue;
+				}
+			} else if ( this.bitmaps[chunk] != null ) {
+				final long[] bitmap = this.bitmaps[chunk];
+				if ( other.bitmaps[o] != null ) {
+					for ( int w = 0; w < BITMAP_WORDS; w++ ) {
+						bitmap[w] = negate ? bitmap[w] & ~other.bitmaps[o][w] : bitmap[w] & other.bitmaps[o][w];
+					}
+				} else {
+					// other is sparse: build its bitmap words on the fly
+					final long[] otherWords = new long[BITMAP_WORDS];
+					for ( int i = 0; i < other.cardinalities[o]; i++ ) {
+						final char low = other.arrays[o][i];
+						otherWords[low >>> 6] |= 1L << low;
+					}
+					for ( int w = 0; w < BITMAP_WORDS; w++ ) {
+						bitmap[w] = negate ? bitmap[w] & ~otherWords[w] : bitmap[w] & otherWords[w];
+					}
+				}
+				this.updateCardinality( chunk );
+			} else if ( other.bitmaps[o] != null ) {
+				// this is sparse, other dense: filter values by bit test
+				final char[] array = this.arrays[chunk];
+				final long[] otherBitmap = other.bitmaps[o];
+				int size = 0;
+				for ( int i = 0; i < this.cardinalities[chunk]; i++ ) {
+					if ( ( ( otherBitmap[array[i] >>> 6] & ( 1L << array[i] ) ) != 0 ) != negate ) {
+						array[size++] = array[i];
+					}
+				}
+				this.cardinalities[chunk] = size;
+			} else {
+				// both sparse: merge the sorted arrays
+				final char[] array = this.arrays[chunk];
+				final char[] otherArray = other.arrays[o];
+				final int otherSize = other.cardinalities[o];
+				int size = 0, j = 0;
+				for ( int i = 0; i < this.cardinalities[chunk]; i++ ) {
+					while ( j < otherSize && otherArray[j] < array[i] ) {
+						j++;
+					}
+					if ( ( j < otherSize && otherArray[j] == array[i] ) != negate ) {
+						array[size++] = array[i];
+					}
+				}
+				this.cardinalities[chunk] = size;
+			}
+			if ( this.cardinalities[chunk] > 0 ) {
+				this.moveChunk( chunk, write++ );
+			}
+		}
+		for ( int chunk = write; chunk < this.chunkCount; chunk++ ) {
+			this.arrays[chunk] = null;
+			this.bitmaps[chunk] = null;
+		}
+		this.chunkCount = write;
+	}
+
+	/**
+	 * recounts a dense chunk and turns it back into an array if it got sparse
+	 */
+	private void updateCardinality( final int chunk ) {
+		final long[] bitmap = this.bitmaps[chunk];
+		int cardinality = 0;
+		for ( int w = 0; w < BITMAP_WORDS; w++ ) {
+			cardinality += Long.bitCount( bitmap[w] );
+		}
+		this.cardinalities[chunk] = cardinality;
+		if ( cardinality <= MAX_ARRAY_SIZE ) {
+			final char[] array = new char[Math.max( 4, cardinality )];
+			int size = 0;
+			for ( int w = 0; w < BITMAP_WORDS; w++ ) {
+				long word = bitmap[w];
+				while ( word != 0 ) {
+					array[size++] = (char)( ( w << 6 ) + Long.numberOfTrailingZeros( word ) );
+					word &= word - 1;
+				}
+			}
+			this.arrays[chunk] = array;
+			this.bitmaps[chunk] = null;
+		}
+	}
+
+	private void toBitmap( final int chunk ) {
+		if ( this.bitmaps[chunk] != null ) {
+			return;
+		}
+		final long[] bitmap = new long[BITMAP_WORDS];
+		final char[] array = this.arrays[chunk];
+		for ( int i = 0; i < this.cardinalities[chunk]; i++ ) {
+			bitmap[array[i] >>> 6] |= 1L << array[i];
+		}
+		this.bitmaps[chunk] = bitmap;
+		this.arrays[chunk] = null;
+	}
+
+	/**
+	 * @return chunk index or -(insertion point) - 1
+	 */
+	private int findChunk( final int key ) {
+		return Arrays.binarySearch( this.keys, 0, this.chunkCount, key );
+	}
+
+	private void insertChunk( final int chunk, final int key, final char[] array, final long[] bitmap, final int cardinality ) {
+		if ( this.chunkCount == this.keys.length ) {
+			final int capacity = this.chunkCount * 2;
+			this.keys = Arrays.copyOf( this.keys, capacity );
+			this.arrays = Arrays.copyOf( this.arrays, capacity );
+			this.bitmaps = Arrays.copyOf( this.bitmaps, capacity );
+			this.cardinalities = Arrays.copyOf( this.cardinalities, capacity );
+		}
+		final int move = this.chunkCount - chunk;
+		System.arraycopy( this.keys, chunk, this.keys, chunk + 1, move );
+		System.arraycopy( this.arrays, chunk, this.arrays, chunk + 1, move );
+		System.arraycopy( this.bitmaps, chunk, this.bitmaps, chunk + 1, move );
+		System.arraycopy( this.cardinalities, chunk, this.cardinalities, chunk + 1, move );
+		this.keys[chunk] = key;
+		this.arrays[chunk] = array;
+		this.bitmaps[chunk] = bitmap;
+		this.cardinalities[chunk] = cardinality;
+		this.chunkCount++;
+	}
+
+	private void removeChunk( final int chunk ) {
+		for ( int c = chunk + 1; c < this.chunkCount; c++ ) {
+			this.moveChunk( c, c - 1 );
+		}
+		this.chunkCount--;
+		this.arrays[this.chunkCount] = null;
+		this.bitmaps[this.chunkCount] = null;
+	}
+
+	private void moveChunk( final int from, final int to ) {
+		if ( from == to ) {
+			return;
+		}
+		this.keys[to] = this.keys[from];
+		this.arrays[to] = this.arrays[from];
+		this.bitmaps[to] = this.bitmaps[from];
+		this.cardinalities[to] = this.cardinalities[from];
+	}
+}
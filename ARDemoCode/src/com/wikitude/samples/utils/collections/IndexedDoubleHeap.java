@@ -0,0 +1,180 @@
+package com.wikitude.samples.utils.collections;
+
+import java.util.Arrays;
+
+/**
+ * Binary heap of int elements (non-negative, e.g. slots of primitive arrays) ordered by double priorities, either min- or max-heap.
+ * Every element knows its heap position, so its priority can be changed or it can be removed in O(log n) without searching. Not thread-safe.
+ */
+public class IndexedDoubleHeap {
+
+	private final boolean max;
+
+	/** heap of elements */
+	private int[] heap;
+
+	/** element -> priority */
+	private double[] priorities;
+
+	/** element -> position in heap, -1 if not contained */
+	private int[] positions;
+
+	private int size = 0;
+
+	/**
+	 * @param max true for a max-heap (peek() returns highest priority), false for a min-heap
+	 * @param expectedElements initial capacity, grows as needed
+	 */
+	public IndexedDoubleHeap( final boolean max, final int expectedElements ) {
+		this.max = max;
+		final int capacity = Math.max( 8, expectedElements );
+		this.heap = new int[capacity];
+		this.priorities = new double[capacity];
+		this.positions = new int[capacity];
+		Arrays.fill( this.positions, -1 );
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	public boolean contains( final int element ) {
+		return element < this.positions.length && this.positions[element] >= 0;
+	}
+
+	/**
+	 * @return priority of contained element
+	 */
+	public double getPriority( final int element ) {
+		return this.priorities[element];
+	}
+
+	/**
+	 * @return element with lowest (min-heap) or highest (max-heap) priority, -1 if empty
+	 */
+	public int peek() {
+		return this.size > 0 ? this.heap[0] : -1;
+	}
+
+	/**
+	 * adds element or changes its priority
+	 */
+	public void put( final int element, final double priority ) {
+		if ( this.contains( element ) ) {
+			final double old = this.priorities[element];
+			this.priorities[element] = priority;
+			final int position = this.positions[element];
+			if ( this.before( priority, old ) ) {
+				this.siftUp( position );
+			} else {
+				this.siftDown( position );
+			}
+			return;
+		}
+		if ( element >= this.positions.length ) {
+			final int capacity = Math.max( element + 1, this.positions.length * 2 );
+			this.priorities = Arrays.copyOf( this.priorities, capacity );
+			final int oldLength = this.positions.length;
+			this.positions = Arrays.copyOf( this.positions, capacity );
+			Arrays.fill( this.positions, oldLength, capacity, -1 );
+		}
+		if ( this.size == this.heap.length ) {
+			this.heap = Arrays.copyOf( this.heap, this.size * 2 );
+		}
+		this.priorities[element] = priority;
+		this.heap[this.size] = element;
+		this.positions[element] = this.size;
+		this.size++;
+		this.siftUp( this.size - 1 );
+	}
+
+	/**
+	 * @return removed element with lowest (min-heap) or highest (max-heap) priority, -1 if empty
+	 */
+	public int poll() {
+		if ( this.size == 0 ) {
+			return -1;
+		}
+		final int top = this.heap[0];
+		this.remove( top );
+		return top;
+	}
+
+	/**
+	 * @return true if element was contained
+	 */
+	public boolean remove( final int element ) {
+		if ( !this.contains( element ) ) {
+			return false;
+		}
+		final int position = this.positions[element];
+		this.positions[element] = -1;
+		this.size--;
+		if ( position < this.size ) {
+			final int last = this.heap[this.size];
+			this.heap[position] = last;
+			this.positions[last] = position;
+			this.siftDown( position );
+			this.siftUp( this.positions[last] );
+		}
+		return true;
+	}
+
+	public void clear() {
+		for ( int i = 0; i < this.size; i++ ) {
+			this.positions[this.heap[i]] = -1;
+		}
+		this.size = 0;
+	}
+
+	/**
+	 * @return true if priority a belongs closer to the top than b
+	 */
+	private boolean before( final double a, final double b ) {
+		return this.max ? a > b : a < b;
+	}
+
+	private void siftUp( int position ) {
+		final int element = this.heap[position];
+		final double priority = this.priorities[element];
+		while ( position > 0 ) {
+			final int parent = ( position - 1 ) >>> 1;
+			final int parentElement = this.heap[parent];
+			if ( !this.before( priority, this.priorities[parentElement] ) ) {
+				break;
+			}
+			this.heap[position] = parentElement;
+			this.positions[parentElement] = position;
+			position = parent;
+		}
+		this.heap[position] = element;
+		this.positions[element] = position;
+	}
+
+	private void siftDown( int position ) {
+		final int element = this.heap[position];
+		final double priority = this.priorities[element];
+		while ( true ) {
+			int child = position * 2 + 1;
+			if ( child >= this.size ) {
+				break;
+			}
+			if ( child + 1 < this.size && this.before( this.priorities[this.heap[child + 1]], this.priorities[this.heap[child]] ) ) {
+				child++;
+			}
+			final int childElement = this.heap[child];
+			if ( !this.before( this.priorities[childElement], priority ) ) {
+				break;
+			}
+			this.heap[position] = childElement;
+			this.positions[childElement] = position;
+			position = child;
+		}
+		this.heap[position] = element;
+		this.positions[element] = position;
+	}
+}
@@ -0,0 +1,120 @@
+package com.wikitude.samples.utils.collections;
+
+import java.util.Arrays;
+
+/**
+ * Map from int keys to non-negative int values (typically slots of primitive arrays), without boxing.
+ * Open addressing with linear probing, removal shifts entries back instead of leaving tombstones. Not thread-safe.
+ */
+public class IntIntMap {
+
+	/** returned by get() for missing keys */
+	public static final int MISSING = -1;
+
+	private int[] keys;
+
+	/** MISSING marks free entries */
+	private int[] values;
+
+	private int size = 0;
+
+	public IntIntMap( final int expectedSize ) {
+		this.allocate( Integer.highestOneBit( Math.max( 8, expectedSize ) ) * 4 );
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return value of key or MISSING
+	 */
+	public int get( final int key ) {
+		return this.values[this.indexOf( key )];
+	}
+
+	/**
+	 * @param value non-negative value
+	 */
+	public void put( final int key, final int value ) {
+		final int index = this.indexOf( key );
+		if ( this.values[index] == MISSING ) {
+			this.keys[index] = key;
+			this.size++;
+		}
+		this.values[index] = value;
+		// keep load factor <= 0.5 so probe chains stay short
+		if ( this.size * 2 > this.keys.length ) {
+			this.rehash( this.keys.length * 2 );
+		}
+	}
+
+	/**
+	 * @return removed value or MISSING
+	 */
+	public int remove( final int key ) {
+		final int mask = this.keys.length - 1;
+		int gap = this.indexOf( key );
+		final int removed = this.values[gap];
+		if ( removed == MISSING ) {
+			return MISSING;
+		}
+		int index = gap;
+		while ( true ) {
+			index = ( index + 1 ) & mask;
+			if ( this.values[index] == MISSING ) {
+				break;
+			}
+			final int home = mix( this.keys[index] ) & mask;
+			// entry may fill the gap if its home isn't cyclically between gap (exclusive) and index (inclusive)
+			if ( ( index > gap ) ? ( home <= gap || home > index ) : ( home <= gap && home > index ) ) {
+				this.keys[gap] = this.keys[index];
+				this.values[gap] = this.values[index];
+				gap = index;
+			}
+		}
+		this.values[gap] = MISSING;
+		this.size--;
+		return removed;
+	}
+
+	public void clear() {
+		Arrays.fill( this.values, MISSING );
+		this.size = 0;
+	}
+
+	/**
+	 * @return index holding key or free index it would be inserted at
+	 */
+	private int indexOf( final int key ) {
+		final int mask = this.keys.length - 1;
+		int index = mix( key ) & mask;
+		while ( this.values[index] != MISSING && this.keys[index] != key ) {
+			index = ( index + 1 ) & mask;
+		}
+		return index;
+	}
+
+	private void rehash( final int capacity ) {
+		final int[] keys = this.keys, values = this.values;
+		this.allocate( capacity );
+		for ( int i = 0; i < keys.length; i++ ) {
+			if ( values[i] != MISSING ) {
+				final int index = this.indexOf( keys[i] );
+				this.keys[index] = keys[i];
+				this.values[index] = values[i];
+			}
+		}
+	}
+
+	private void allocate( final int capacity ) {
+		this.keys = new int[capacity];
+		this.values = new int[capacity];
+		Arrays.fill( this.values, MISSING );
+	}
+
+	private static int mix( final int value ) {
+		final int h = value * 0x9E3779B9;
+		return h ^ ( h >>> 16 );
+	}
+}
@@ -0,0 +1,235 @@
+package com.wikitude.samples.utils.eventbus;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Process-wide bus for sensor, location and bridge events.
+ * Events may be published from any thread into a lock-free ring buffer, which is drained on the main looper.
+ * Per topic only the latest event is kept (collapse-to-latest) and delivered at most once per topic's min delivery interval,
+ * so bursts of callbacks never flood the UI thread. Do not use it for events of which every single occurrence matters.
+ */
+public class ArEventBus {
+
+	/** compass accuracy changed, payload: Integer accuracy (SensorManager.SENSOR_STATUS_*) */
+	public static final int TOPIC_COMPASS_ACCURACY = 0;
+
+	/** location forwarded to architectView, payload: android.location.Location */
+	public static final int TOPIC_LOCATION = 1;
+
+	/** architectsdk:// url invoked in JavaScript, payload: url String */
+	public static final int TOPIC_BRIDGE = 2;
+
+	private static final int TOPIC_COUNT = 3;
+
+	private static final String[] TOPIC_NAMES = { "compassAccuracy", "location", "bridge" };
+
+	/** ring buffer capacity, drained on every main looper turn so bursts of this size are absorbed */
+	private static final int RING_CAPACITY = 256;
+
+	/**
+	 * receives events of subscribed topic on main thread
+	 */
+	public interface Subscriber {
+
+		/**
+		 * @param topic topic of event
+		 * @param latest payload of the most recent event
+		 * @param collapsed number of events which were collapsed into this one (0 if none)
+		 */
+		void onEvent( int topic, Object latest, int collapsed );
+	}
+
+	private static ArEventBus instance;
+
+	private final EventRingBuffer ring = new EventRingBuffer( RING_CAPACITY );
+
+	private final Handler mainHandler = new Handler( Looper.getMainLooper() );
+
+	private final AtomicBoolean drainScheduled = new AtomicBoolean( false );
+
+	@SuppressWarnings("unchecked")
+	private final CopyOnWriteArrayList<Subscriber>[] subscribers = new CopyOnWriteArrayList[TOPIC_COUNT];
+
+	/** min time between two deliveries per topic, 0 = deliver on every drain */
+	private final long[] minDeliveryIntervalMillis = { 5 * 1000, 0, 0 };
+
+	/* state below is only touched on main thread */
+
+	private final Object[] pending = new Object[TOPIC_COUNT];
+
+	private final boolean[] hasPending = new boolean[TOPIC_COUNT];
+
+	private final int[] pendingCollapsed = new int[TOPIC_COUNT];
+
+	private final long[] lastDeliveryMillis = new long[TOPIC_COUNT];
+
+	/* metrics */
+
+	private final AtomicLongArray dropped = new AtomicLongArray( TOPIC_COUNT );
+
+	/** events passed to publish(), including the ones skipped for lack of subscribers */
+	private final AtomicLongArray published = new AtomicLongArray( TOPIC_COUNT );
+
+	private final long[] delivered = new long[TOPIC_COUNT];
+
+	private final long[] collapsed = new long[TOPIC_COUNT];
+
+	private long metricsSinceMillis = SystemClock.elapsedRealtime();
+
+	private final EventRingBuffer.Sink collector = new EventRingBuffer.Sink() {
+
+		@Override
+		public void accept( final int topic, final Object payload ) {
+			final ArEventBus bus = ArEventBus.this;
+			if ( bus.hasPending[topic] ) {
+				bus.pendingCollapsed[topic]++;
+				bus.collapsed[topic]++;
+			}
+			bus.pending[topic] = payload;
+			bus.hasPending[topic] = true;
+		}
+	};
+
+	private final Runnable drain = new Runnable() {
+
+		@Override
+		public void run() {
+			ArEventBus.this.drainScheduled.set( false );
+			ArEventBus.this.drain();
+		}
+	};
+
+	private final Runnable delayedDrain = new Runnable() {
+
+		@Override
+		public void run() {
+			ArEventBus.this.drain();
+		}
+	};
+
+	/**
+	 * @return process-wide bus, must be created on main thread (or any thread once main looper exists)
+	 */
+	public static synchronized ArEventBus getInstance() {
+		if ( instance == null ) {
+			instance = new ArEventBus();
+		}
+		return instance;
+	}
+
+	private ArEventBus() {
+		for ( int i = 0; i < TOPIC_COUNT; i++ ) {
+			this.subscribers[i] = new CopyOnWriteArrayList<Subscriber>();
+		}
+	}
+
+	/**
+	 * publishes event, may be called from any thread. Events of topics without subscribers are counted but not queued, so they cost no main looper turn.
+	 * @param topic one of TOPIC_*
+	 * @param payload payload of event, see topic
+	 */
+	public void publish( final int topic, final Object payload ) {
+		this.published.incrementAndGet( topic );
+		if ( this.subscribers[topic].isEmpty() ) {
+			return;
+		}
+		if ( !this.ring.offer( topic, payload ) ) {
+			this.dropped.incrementAndGet( topic );
+		}
+		if ( this.drainScheduled.compareAndSet( false, true ) ) {
+			this.mainHandler.post( this.drain );
+		}
+	}
+
+	public void subscribe( final int topic, final Subscriber subscriber ) {
+		this.subscribers[topic].addIfAbsent( subscriber );
+	}
+
+	public void unsubscribe( final int topic, final Subscriber subscriber ) {
+		this.subscribers[topic].remove( subscriber );
+	}
+
+	/**
+	 * @param topic one of TOPIC_*
+	 * @param intervalMillis min time between two deliveries of given topic, collapsed meanwhile
+	 */
+	public void setMinDeliveryInterval( final int topic, final long intervalMillis ) {
+		this.mainHandler.post( new Runnable() {
+
+			@Override
+			public void run() {
+				ArEventBus.this.minDeliveryIntervalMillis[topic] = intervalMillis;
+			}
+		} );
+	}
+
+	/**
+	 * @return per topic rates of published and delivered events since last reset, plus collapsed and dropped counts. Call on main thread.
+	 */
+	public String getMetricsReport() {
+		final long elapsedMillis = Math.max( 1, SystemClock.elapsedRealtime() - this.metricsSinceMillis );
+		final StringBuilder report = new StringBuilder( "ArEventBus metrics over " ).append( elapsedMillis / 1000 ).append( "s" );
+		for ( int topic = 0; topic < TOPIC_COUNT; topic++ ) {
+			report.append( "\n  " ).append( TOPIC_NAMES[topic] )
+				.append( ": published " ).append( this.published.get( topic ) * 1000f / elapsedMillis ).append( "/s" )
+				.append( ", delivered " ).append( this.delivered[topic] * 1000f / elapsedMillis ).append( "/s" )
+				.append( ", collapsed " ).append( this.collapsed[topic] )
+				.append( ", dropped " ).append( this.dropped.get( topic ) );
+		}
+		return report.toString();
+	}
+
+	/**
+	 * resets all metrics counters. Call on main thread.
+	 */
+	public void resetMetrics() {
+		for ( int topic = 0; topic < TOPIC_COUNT; topic++ ) {
+			this.published.set( topic, 0 );
+			this.delivered[topic] = 0;
+			this.collapsed[topic] = 0;
+			this.dropped.set( topic, 0 );
+		}
+		this.metricsSinceMillis = SystemClock.elapsedRealtime();
+	}
+
+	/**
+	 * collects published events and delivers the ones whose topic isn't rate limited at the moment, runs on main thread
+	 */
+	private void drain() {
+		this.ring.drainTo( this.collector );
+
+		final long now = SystemClock.uptimeMillis();
+		long nextDrainDelay = Long.MAX_VALUE;
+		for ( int topic = 0; topic < TOPIC_COUNT; topic++ ) {
+			if ( !this.hasPending[topic] ) {
+				continue;
+			}
+			final long wait = this.lastDeliveryMillis[topic] + this.minDeliveryIntervalMillis[topic] - now;
+			if ( wait > 0 && this.lastDeliveryMillis[topic] > 0 ) {
+				nextDrainDelay = Math.min( nextDrainDelay, wait );
+				continue;
+			}
+			final Object latest = this.pending[topic];
+			final int collapsedCount = this.pendingCollapsed[topic];
+			this.pending[topic] = null;
+			this.hasPending[topic] = false;
+			this.pendingCollapsed[topic] = 0;
+			this.lastDeliveryMillis[topic] = now;
+			this.delivered[topic]++;
+			for ( final Subscriber subscriber : this.subscribers[topic] ) {
+				subscriber.onEvent( topic, latest, collapsedCount );
+			}
+		}
+
+		this.mainHandler.removeCallbacks( this.delayedDrain );
+		if ( nextDrainDelay != Long.MAX_VALUE ) {
+			this.mainHandler.postDelayed( this.delayedDrain, nextDrainDelay );
+		}
+	}
+}
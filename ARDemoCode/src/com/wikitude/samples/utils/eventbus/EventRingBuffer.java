@@ -0,0 +1,97 @@
+package com.wikitude.samples.utils.eventbus;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring buffer for many producers and a single consumer.
+ * Each slot carries a sequence number: producers claim a position via CAS on the tail and publish the slot by advancing its sequence,
+ * the consumer frees a slot by advancing the sequence by one lap. No allocation happens on offer or drain.
+ */
+final class EventRingBuffer {
+
+	/**
+	 * receives drained events
+	 */
+	interface Sink {
+		void accept( int topic, Object payload );
+	}
+
+	private final int mask;
+
+	/** per slot: == position when writable, == position + 1 when readable */
+	private final AtomicLongArray sequences;
+
+	private final int[] topics;
+
+	private final Object[] payloads;
+
+	/** next position to be claimed by a producer */
+	private final AtomicLong tail = new AtomicLong();
+
+	/** next position to be read, only touched by consumer */
+	private long head = 0;
+
+	/**
+	 * @param capacity number of slots, must be a power of two
+	 */
+	EventRingBuffer( final int capacity ) {
+		if ( capacity <= 0 || ( capacity & ( capacity - 1 ) ) != 0 ) {
+			throw new IllegalArgumentException( "capacity must be a power of two" );
+		}
+		this.mask = capacity - 1;
+		this.sequences = new AtomicLongArray( capacity );
+		this.topics = new int[capacity];
+		this.payloads = new Object[capacity];
+		for ( int i = 0; i < capacity; i++ ) {
+			this.sequences.set( i, i );
+		}
+	}
+
+	/**
+	 * may be called from any thread
+	 * @return false if buffer is full and event was dropped
+	 */
+	boolean offer( final int topic, final Object payload ) {
+		long position;
+		int index;
+		while ( true ) {
+			position = this.tail.get();
+			index = (int)( position & this.mask );
+			final long difference = this.sequences.get( index ) - position;
+			if ( difference == 0 ) {
+				if ( this.tail.compareAndSet( position, position + 1 ) ) {
+					break;
+				}
+			} else if ( difference < 0 ) {
+				// consumer hasn't freed this slot yet
+				return false;
+			}
+		}
+		this.topics[index] = topic;
+		this.payloads[index] = payload;
+		this.sequences.set( index, position + 1 );
+		return true;
+	}
+
+	/**
+	 * must only be called from the consumer thread
+	 * @return number of drained events
+	 */
+	int drainTo( final Sink sink ) {
+		int drained = 0;
+		while ( true ) {
+			final int index = (int)( this.head & this.mask );
+			if ( this.sequences.get( index ) != this.head + 1 ) {
+				return drained;
+			}
+			final int topic = this.topics[index];
+			final Object payload = this.payloads[index];
+			this.payloads[index] = null;
+			this.sequences.set( index, this.head + this.mask + 1 );
+			this.head++;
+			drained++;
+			sink.accept( topic, payload );
+		}
+	}
+}
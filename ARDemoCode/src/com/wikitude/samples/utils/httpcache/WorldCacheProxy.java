@@ -0,0 +1,317 @@
+package com.wikitude.samples.utils.httpcache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal HTTP server on the loopback interface serving remote ARchitect Worlds through {@link WorldHttpCache}.
+ * Origin url "http://host:port/path/index.html" is mapped to "http://127.0.0.1:{proxyPort}/{token}/http/host:port/path/index.html",
+ * so relative urls of scripts, css and images in the world resolve against the proxy as well.
+ * Root-relative urls ("/js/foo.js") are resolved via the Referer header.
+ * Other apps can connect to the loopback port too: requests must carry the random per-process token, only GET is served
+ * and only origins of worlds passed to {@link #toProxyUrl(String)} are fetched.
+ */
+public class WorldCacheProxy {
+
+	/** number of concurrently served requests, the world loads its resources in parallel */
+	private static final int WORKER_THREADS = 4;
+
+	/** max length of request line / a single header line */
+	private static final int MAX_LINE_LENGTH = 8 * 1024;
+
+	/** folder in app's cache dir holding remote world resources */
+	public static final String DEFAULT_CACHE_FOLDER = "worldHttpCache";
+
+	/** random bytes of path token */
+	private static final int TOKEN_BYTES = 16;
+
+	private static WorldCacheProxy instance;
+
+	private final WorldHttpCache cache;
+
+	/** first path segment of every proxied url, unknown to other processes */
+	private final String token;
+
+	/** "scheme://host:port" of worlds served, requests for other origins are refused */
+	private final Set<String> allowedOrigins = new HashSet<String>();
+
+	private ServerSocket serverSocket;
+
+	private ExecutorService workers;
+
+	/**
+	 * @param cacheDirectory directory used by underlying WorldHttpCache
+	 * @return process-wide proxy instance, started if not yet running
+	 * @throws IOException if loopback port could not be bound
+	 */
+	public static synchronized WorldCacheProxy getInstance( final File cacheDirectory ) throws IOException {
+		if ( instance == null ) {
+			instance = new WorldCacheProxy( new WorldHttpCache( cacheDirectory ) );
+		}
+		instance.start();
+		return instance;
+	}
+
+	/**
+	 * @param cacheDirectory directory used by underlying WorldHttpCache
+	 * @return cache of process-wide proxy instance, e.g. to prefetch worlds into, proxy is not started
+	 */
+	public static synchronized WorldHttpCache getCache( final File cacheDirectory ) {
+		if ( instance == null ) {
+			instance = new WorldCacheProxy( new WorldHttpCache( cacheDirectory ) );
+		}
+		return instance.cache;
+	}
+
+	public WorldCacheProxy( final WorldHttpCache cache ) {
+		this.cache = cache;
+		final byte[] tokenBytes = new byte[TOKEN_BYTES];
+		new SecureRandom().nextBytes( tokenBytes );
+		final StringBuilder token = new StringBuilder( TOKEN_BYTES * 2 );
+		for ( final byte b : tokenBytes ) {
+			token.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+		}
+		this.token = token.toString();
+	}
+
+	/**
+	 * binds an ephemeral loopback port and starts accepting requests, no-op if already running
+	 */
+	public synchronized void start() throws IOException {
+		if ( this.serverSocket != null ) {
+			return;
+		}
+		final ServerSocket socket = new ServerSocket( 0, 50, InetAddress.getByName( "127.0.0.1" ) );
+		this.serverSocket = socket;
+		this.workers = Executors.newFixedThreadPool( WORKER_THREADS );
+		final ExecutorService requestWorkers = this.workers;
+		final Thread acceptor = new Thread( new Runnable() {
+
+			@Override
+			public void run() {
+				while ( !socket.isClosed() ) {
+					try {
+						final Socket client = socket.accept();
+						requestWorkers.execute( new Runnable() {
+
+							@Override
+							public void run() {
+								WorldCacheProxy.this.serve( client );
+							}
+						} );
+					} catch ( final IOException e ) {
+						// socket closed via stop()
+					}
+				}
+			}
+		}, "WorldCacheProxy" );
+		acceptor.setDaemon( true );
+		acceptor.start();
+	}
+
+	/**
+	 * stops accepting requests, requests in progress are finished
+	 */
+	public synchronized void stop() {
+		if ( this.serverSocket == null ) {
+			return;
+		}
+		try {
+			this.serverSocket.close();
+		} catch ( final IOException e ) {
+			e.printStackTrace();
+		}
+		this.workers.shutdown();
+		this.serverSocket = null;
+		this.workers = null;
+	}
+
+	/**
+	 * @param originUrl absolute http(s) url of world, its origin is allowed from now on
+	 * @return url of proxy serving given world, or originUrl if it's no http(s) url or proxy isn't running
+	 */
+	public synchronized String toProxyUrl( final String originUrl ) {
+		if ( this.serverSocket == null || originUrl == null ) {
+			return originUrl;
+		}
+		final int schemeEnd = originUrl.indexOf( "://" );
+		if ( schemeEnd < 0 ) {
+			return originUrl;
+		}
+		final String scheme = originUrl.substring( 0, schemeEnd ).toLowerCase();
+		final String origin = getOrigin( originUrl );
+		if ( ( !"http".equals( scheme ) && !"https".equals( scheme ) ) || origin == null ) {
+			return originUrl;
+		}
+		this.allowedOrigins.add( origin );
+		return "http://127.0.0.1:" + this.serverSocket.getLocalPort() + "/" + this.token + "/" + scheme + "/" + originUrl.substring( schemeEnd + 3 );
+	}
+
+	/**
+	 * @return origin url of given proxy path (e.g. "/{token}/http/host/index.html"), null if path is not a proxied one or token doesn't match
+	 */
+	static String toOriginUrl( final String token, final String proxyPath ) {
+		final int tokenEnd = proxyPath.indexOf( '/', 1 );
+		if ( !proxyPath.startsWith( "/" ) || tokenEnd < 0 || !MessageDigest.isEqual( token.getBytes(), proxyPath.substring( 1, tokenEnd ).getBytes() ) ) {
+			return null;
+		}
+		final String path = proxyPath.substring( tokenEnd );
+		if ( path.startsWith( "/http/" ) ) {
+			return "http://" + path.substring( "/http/".length() );
+		}
+		if ( path.startsWith( "/https/" ) ) {
+			return "https://" + path.substring( "/https/".length() );
+		}
+		return null;
+	}
+
+	/**
+	 * @return "scheme://host:port" of given url in lower case, null if url is malformed
+	 */
+	static String getOrigin( final String url ) {
+		try {
+			final URL parsed = new URL( url );
+			final int port = parsed.getPort() != -1 ? parsed.getPort() : parsed.getDefaultPort();
+			return ( parsed.getProtocol() + "://" + parsed.getHost() + ":" + port ).toLowerCase();
+		} catch ( final IOException e ) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if given origin url belongs to a world passed to toProxyUrl()
+	 */
+	private synchronized boolean isAllowed( final String originUrl ) {
+		final String origin = getOrigin( originUrl );
+		return origin != null && this.allowedOrigins.contains( origin );
+	}
+
+	private void serve( final Socket client ) {
+		try {
+			final InputStream in = new BufferedInputStream( client.getInputStream() );
+			final OutputStream out = new BufferedOutputStream( client.getOutputStream() );
+			try {
+				final String requestLine = readLine( in );
+				if ( requestLine == null ) {
+					return;
+				}
+				String referer = null;
+				String header;
+				while ( ( header = readLine( in ) ) != null && header.length() > 0 ) {
+					if ( header.regionMatches( true, 0, "Referer:", 0, "Referer:".length() ) ) {
+						referer = header.substring( "Referer:".length() ).trim();
+					}
+				}
+
+				final String[] parts = requestLine.split( " " );
+				if ( parts.length < 2 || !"GET".equals( parts[0] ) ) {
+					writeStatus( out, 405, "Method Not Allowed" );
+					return;
+				}
+
+				final String originUrl = this.resolveOriginUrl( parts[1], referer );
+				if ( originUrl == null ) {
+					writeStatus( out, 404, "Not Found" );
+					return;
+				}
+				if ( !this.isAllowed( originUrl ) ) {
+					writeStatus( out, 403, "Forbidden" );
+					return;
+				}
+
+				final WorldHttpCache.Response response;
+				try {
+					response = this.cache.get( originUrl );
+				} catch ( final IOException e ) {
+					writeStatus( out, 502, "Bad Gateway" );
+					return;
+				}
+
+				final StringBuilder head = new StringBuilder();
+				head.append( "HTTP/1.1 " ).append( response.status ).append( " " ).append( response.status == 200 ? "OK" : "Origin Status" ).append( "\r\n" );
+				if ( response.contentType != null ) {
+					head.append( "Content-Type: " ).append( response.contentType ).append( "\r\n" );
+				}
+				head.append( "Content-Length: " ).append( response.getContentLength() ).append( "\r\n" );
+				head.append( "Cache-Control: no-cache\r\n" );
+				head.append( "Connection: close\r\n\r\n" );
+				out.write( head.toString().getBytes( "ISO-8859-1" ) );
+
+				final InputStream body = response.openBody();
+				try {
+					final byte[] buffer = new byte[8 * 1024];
+					int read;
+					while ( ( read = body.read( buffer ) ) != -1 ) {
+						out.write( buffer, 0, read );
+					}
+				} finally {
+					body.close();
+				}
+			} finally {
+				out.flush();
+				client.close();
+			}
+		} catch ( final IOException e ) {
+			// client went away, nothing to do
+		}
+	}
+
+	/**
+	 * @return origin url of requested path, uses referer (which has to carry the token as well) for root-relative paths
+	 */
+	private String resolveOriginUrl( final String path, final String referer ) {
+		final String originUrl = toOriginUrl( this.token, path );
+		if ( originUrl != null || referer == null ) {
+			return originUrl;
+		}
+		try {
+			final String refererOrigin = toOriginUrl( this.token, new URL( referer ).getFile() );
+			if ( refererOrigin == null ) {
+				return null;
+			}
+			return new URL( new URL( refererOrigin ), path ).toString();
+		} catch ( final IOException e ) {
+			return null;
+		}
+	}
+
+	private static void writeStatus( final OutputStream out, final int status, final String reason ) throws IOException {
+		out.write( ( "HTTP/1.1 " + status + " " + reason + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n" ).getBytes( "ISO-8859-1" ) );
+	}
+
+	/**
+	 * @return line without CRLF, null on end of stream
+	 */
+	private static String readLine( final InputStream in ) throws IOException {
+		final StringBuilder line = new StringBuilder();
+		int c;
+		while ( ( c = in.read() ) != -1 ) {
+			if ( c == '\n' ) {
+				final int length = line.length();
+				if ( length > 0 && line.charAt( length - 1 ) == '\r' ) {
+					line.setLength( length - 1 );
+				}
+				return line.toString();
+			}
+			if ( line.length() >= MAX_LINE_LENGTH ) {
+				throw new IOException( "request line too long" );
+			}
+			line.append( (char)c );
+		}
+		return line.length() > 0 ? line.toString() : null;
+	}
+}
@@ -0,0 +1,467 @@
+package com.wikitude.samples.utils.httpcache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Disk cache for resources of remote ARchitect Worlds (html, js, css, images).
+ * Fresh entries are served without network access, stale ones are revalidated via ETag / Last-Modified and served as-is if the origin can't be reached,
+ * answers with a server error or breaks off while sending the body.
+ * Responses are requested gzip encoded and stored decoded. Concurrent requests for the same url share a single origin request.
+ * Bodies beyond the size limit are evicted least recently used first.
+ * Has no Android dependencies, so it can be exercised on the JVM against any local HTTP server.
+ */
+public class WorldHttpCache {
+
+	/** connect timeout, kept short so bad Wi-Fi falls back to stale content quickly */
+	private static final int CONNECT_TIMEOUT_MS = 3000;
+
+	private static final int READ_TIMEOUT_MS = 10000;
+
+	/** default size limit of all cached bodies, a world is a few hundred KB */
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+	/** heuristic freshness (RFC 7234, 4.2.2) is capped to one day */
+	private static final long MAX_HEURISTIC_FRESHNESS_MS = 24L * 60 * 60 * 1000;
+
+	private static final String META_SUFFIX = ".meta";
+	private static final String BODY_SUFFIX = ".body";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final String META_URL = "url";
+	private static final String META_STATUS = "status";
+	private static final String META_CONTENT_TYPE = "contentType";
+	private static final String META_ETAG = "etag";
+	private static final String META_LAST_MODIFIED = "lastModified";
+	private static final String META_FETCHED_AT = "fetchedAt";
+	private static final String META_FRESH_FOR = "freshFor";
+
+	/**
+	 * response served to caller, either backed by a cache file or (for uncacheable responses) an in-memory body
+	 */
+	public static final class Response {
+
+		public final int status;
+
+		public final String contentType;
+
+		/** body file, null if body is held in memory */
+		public final File file;
+
+		/** in-memory body, null if body is held in file */
+		public final byte[] body;
+
+		/** true if content was served from disk without contacting origin (fresh or origin unreachable) */
+		public final boolean fromCache;
+
+		Response( final int status, final String contentType, final File file, final byte[] body, final boolean fromCache ) {
+			this.status = status;
+			this.contentType = contentType;
+			this.file = file;
+			this.body = body;
+			this.fromCache = fromCache;
+		}
+
+		public long getContentLength() {
+			return this.file != null ? this.file.length() : this.body.length;
+		}
+
+		public InputStream openBody() throws IOException {
+			return this.file != null ? new FileInputStream( this.file ) : new ByteArrayInputStream( this.body );
+		}
+	}
+
+	private final File directory;
+
+	private final long maxBytes;
+
+	/** origin requests currently running, keyed by url */
+	private final ConcurrentHashMap<String, FutureTask<Response>> inFlight = new ConcurrentHashMap<String, FutureTask<Response>>();
+
+	/**
+	 * @param directory directory holding cache files, created if necessary
+	 */
+	public WorldHttpCache( final File directory ) {
+		this( directory, DEFAULT_MAX_BYTES );
+	}
+
+	/**
+	 * @param directory directory holding cache files, created if necessary
+	 * @param maxBytes size limit of all cached bodies, least recently used ones are evicted beyond
+	 */
+	public WorldHttpCache( final File directory, final long maxBytes ) {
+		this.directory = directory;
+		this.directory.mkdirs();
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @param url absolute http(s) url
+	 * @return cached or fetched response
+	 * @throws IOException if origin is unreachable and nothing is cached
+	 */
+	public Response get( final String url ) throws IOException {
+		final FutureTask<Response> task = new FutureTask<Response>( new Callable<Response>() {
+
+			@Override
+			public Response call() throws Exception {
+				return WorldHttpCache.this.load( url );
+			}
+		} );
+		FutureTask<Response> running = this.inFlight.putIfAbsent( url, task );
+		if ( running == null ) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				this.inFlight.remove( url, task );
+			}
+		}
+		try {
+			return running.get();
+		} catch ( final InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IOException( "interrupted while waiting for " + url );
+		} catch ( final ExecutionException e ) {
+			if ( e.getCause() instanceof IOException ) {
+				throw (IOException)e.getCause();
+			}
+			throw new IOException( "could not load " + url + ": " + e.getCause() );
+		}
+	}
+
+	/**
+	 * removes all cache files
+	 */
+	public void clear() {
+		final File[] files = this.directory.listFiles();
+		if ( files != null ) {
+			for ( final File file : files ) {
+				file.delete();
+			}
+		}
+	}
+
+	private Response load( final String url ) throws IOException {
+		final String key = toKey( url );
+		final File metaFile = new File( this.directory, key + META_SUFFIX );
+		final File bodyFile = new File( this.directory, key + BODY_SUFFIX );
+		final Properties meta = readMeta( metaFile );
+
+		final boolean cached = meta != null && url.equals( meta.getProperty( META_URL ) ) && bodyFile.exists();
+		if ( cached && isFresh( meta ) ) {
+			return toCachedResponse( meta, bodyFile );
+		}
+
+		final HttpURLConnection connection;
+		final int status;
+		try {
+			connection = (HttpURLConnection)new URL( url ).openConnection();
+			connection.setConnectTimeout( CONNECT_TIMEOUT_MS );
+			connection.setReadTimeout( READ_TIMEOUT_MS );
+			connection.setRequestProperty( "Accept-Encoding", "gzip" );
+			if ( cached ) {
+				if ( meta.getProperty( META_ETAG ) != null ) {
+					connection.setRequestProperty( "If-None-Match", meta.getProperty( META_ETAG ) );
+				}
+				if ( meta.getProperty( META_LAST_MODIFIED ) != null ) {
+					connection.setRequestProperty( "If-Modified-Since", meta.getProperty( META_LAST_MODIFIED ) );
+				}
+			}
+			status = connection.getResponseCode();
+		} catch ( final IOException e ) {
+			if ( cached ) {
+				// origin unreachable, stale content is better than none
+				return toCachedResponse( meta, bodyFile );
+			}
+			throw e;
+		}
+
+		try {
+			if ( status == HttpURLConnection.HTTP_NOT_MODIFIED && cached ) {
+				meta.setProperty( META_FETCHED_AT, String.valueOf( System.currentTimeMillis() ) );
+				meta.setProperty( META_FRESH_FOR, String.valueOf( getFreshnessMillis( connection ) ) );
+				writeMeta( metaFile, meta );
+				bodyFile.setLastModified( System.currentTimeMillis() );
+				return toResponse( meta, bodyFile, false );
+			}
+			if ( status >= HttpURLConnection.HTTP_INTERNAL_ERROR && cached ) {
+				// origin is up but failing, keep serving what worked before
+				return toCachedResponse( meta, bodyFile );
+			}
+
+			final String cacheControl = connection.getHeaderField( "Cache-Control" );
+			final boolean storable = status == HttpURLConnection.HTTP_OK && ( cacheControl == null || !cacheControl.contains( "no-store" ) );
+			final InputStream in = openBody( connection );
+			if ( !storable ) {
+				return new Response( status, connection.getContentType(), null, readFully( in ), false );
+			}
+
+			// write to temp file first, so concurrent readers of an older response never see a partial body
+			final File tmpFile = new File( this.directory, key + BODY_SUFFIX + TEMP_SUFFIX );
+			try {
+				final long length = copy( in, tmpFile );
+				if ( connection.getContentEncoding() == null && connection.getContentLength() >= 0 && length != connection.getContentLength() ) {
+					// not every HttpURLConnection reports a body cut short by the origin
+					throw new IOException( "truncated body of " + url + ": " + length + " of " + connection.getContentLength() + " bytes" );
+				}
+				if ( !tmpFile.renameTo( bodyFile ) ) {
+					bodyFile.delete();
+					if ( !tmpFile.renameTo( bodyFile ) ) {
+						throw new IOException( "could not store " + url );
+					}
+				}
+			} catch ( final IOException e ) {
+				if ( cached && bodyFile.exists() ) {
+					// connection dropped mid-body, previous body is still intact
+					return toCachedResponse( meta, bodyFile );
+				}
+				throw e;
+			} finally {
+				tmpFile.delete();
+			}
+
+			final Properties newMeta = new Properties();
+			newMeta.setProperty( META_URL, url );
+			newMeta.setProperty( META_STATUS, String.valueOf( status ) );
+			if ( connection.getContentType() != null ) {
+				newMeta.setProperty( META_CONTENT_TYPE, connection.getContentType() );
+			}
+			if ( connection.getHeaderField( "ETag" ) != null ) {
+				newMeta.setProperty( META_ETAG, connection.getHeaderField( "ETag" ) );
+			}
+			if ( connection.getHeaderField( "Last-Modified" ) != null ) {
+				newMeta.setProperty( META_LAST_MODIFIED, connection.getHeaderField( "Last-Modified" ) );
+			}
+			newMeta.setProperty( META_FETCHED_AT, String.valueOf( System.currentTimeMillis() ) );
+			newMeta.setProperty( META_FRESH_FOR, String.valueOf( getFreshnessMillis( connection ) ) );
+			writeMeta( metaFile, newMeta );
+			this.evict( bodyFile );
+			return toResponse( newMeta, bodyFile, false );
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * deletes least recently used entries until all bodies fit into maxBytes. Body modification times track last use
+	 * @param keep body just stored, never evicted
+	 */
+	private synchronized void evict( final File keep ) {
+		final File[] bodies = this.directory.listFiles();
+		if ( bodies == null ) {
+			return;
+		}
+		long totalBytes = 0;
+		int count = 0;
+		for ( final File file : bodies ) {
+			if ( file.getName().endsWith( BODY_SUFFIX ) ) {
+				totalBytes += file.length();
+				bodies[count++] = file;
+			}
+		}
+		if ( totalBytes <= this.maxBytes ) {
+			return;
+		}
+		final File[] lruFirst = Arrays.copyOf( bodies, count );
+		final long[] lastUsed = new long[count];
+		for ( int i = 0; i < count; i++ ) {
+			lastUsed[i] = lruFirst[i].lastModified();
+		}
+		final Integer[] order = new Integer[count];
+		for ( int i = 0; i < count; i++ ) {
+			order[i] = i;
+		}
+		Arrays.sort( order, new Comparator<Integer>() {
+
+			@Override
+			public int compare( final Integer a, final Integer b ) {
+				return lastUsed[a] < lastUsed[b] ? -1 : ( lastUsed[a] == lastUsed[b] ? 0 : 1 );
+			}
+		} );
+		for ( int i = 0; i < count && totalBytes > this.maxBytes; i++ ) {
+			final File body = lruFirst[order[i]];
+			if ( body.equals( keep ) ) {
+				continue;
+			}
+			final long length = body.length();
+			final String key = body.getName().substring( 0, body.getName().length() - BODY_SUFFIX.length() );
+			if ( body.delete() ) {
+				new File( this.directory, key + META_SUFFIX ).delete();
+				totalBytes -= length;
+			}
+		}
+	}
+
+	/**
+	 * response of a cache entry served without origin, marks the entry as recently used
+	 */
+	private static Response toCachedResponse( final Properties meta, final File bodyFile ) {
+		bodyFile.setLastModified( System.currentTimeMillis() );
+		return toResponse( meta, bodyFile, true );
+	}
+
+	private static Response toResponse( final Properties meta, final File bodyFile, final boolean fromCache ) {
+		return new Response( Integer.parseInt( meta.getProperty( META_STATUS, "200" ) ), meta.getProperty( META_CONTENT_TYPE ), bodyFile, null, fromCache );
+	}
+
+	private static boolean isFresh( final Properties meta ) {
+		try {
+			final long fetchedAt = Long.parseLong( meta.getProperty( META_FETCHED_AT, "0" ) );
+			final long freshFor = Long.parseLong( meta.getProperty( META_FRESH_FOR, "0" ) );
+			return System.currentTimeMillis() - fetchedAt < freshFor;
+		} catch ( final NumberFormatException e ) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return 0 for no-cache, explicit max-age or heuristic freshness of 10% of the time since last modification
+	 */
+	private static long getFreshnessMillis( final HttpURLConnection connection ) {
+		final String cacheControl = connection.getHeaderField( "Cache-Control" );
+		if ( cacheControl != null ) {
+			if ( cacheControl.contains( "no-cache" ) ) {
+				return 0;
+			}
+			for ( final String directive : cacheControl.split( "," ) ) {
+				final String trimmed = directive.trim();
+				if ( trimmed.startsWith( "max-age=" ) ) {
+					try {
+						return Long.parseLong( trimmed.substring( "max-age=".length() ) ) * 1000;
+					} catch ( final NumberFormatException e ) {
+						return 0;
+					}
+				}
+			}
+		}
+		final long lastModified = connection.getLastModified();
+		final long date = connection.getDate() > 0 ? connection.getDate() : System.currentTimeMillis();
+		if ( lastModified > 0 && date > lastModified ) {
+			return Math.min( ( date - lastModified ) / 10, MAX_HEURISTIC_FRESHNESS_MS );
+		}
+		return 0;
+	}
+
+	private static InputStream openBody( final HttpURLConnection connection ) throws IOException {
+		InputStream in;
+		try {
+			in = connection.getInputStream();
+		} catch ( final IOException e ) {
+			in = connection.getErrorStream();
+			if ( in == null ) {
+				return new ByteArrayInputStream( new byte[0] );
+			}
+		}
+		if ( "gzip".equalsIgnoreCase( connection.getContentEncoding() ) ) {
+			in = new GZIPInputStream( in );
+		}
+		return in;
+	}
+
+	private static byte[] readFully( final InputStream in ) throws IOException {
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8 * 1024];
+			int read;
+			while ( ( read = in.read( buffer ) ) != -1 ) {
+				out.write( buffer, 0, read );
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return number of copied bytes
+	 */
+	private static long copy( final InputStream in, final File target ) throws IOException {
+		try {
+			final OutputStream out = new FileOutputStream( target );
+			try {
+				final byte[] buffer = new byte[8 * 1024];
+				long length = 0;
+				int read;
+				while ( ( read = in.read( buffer ) ) != -1 ) {
+					out.write( buffer, 0, read );
+					length += read;
+				}
+				return length;
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static Properties readMeta( final File metaFile ) {
+		if ( !metaFile.exists() ) {
+			return null;
+		}
+		try {
+			final InputStream in = new FileInputStream( metaFile );
+			try {
+				final Properties meta = new Properties();
+				meta.load( in );
+				return meta;
+			} finally {
+				in.close();
+			}
+		} catch ( final IOException e ) {
+			return null;
+		}
+	}
+
+	private void writeMeta( final File metaFile, final Properties meta ) throws IOException {
+		final File tmpFile = new File( this.directory, metaFile.getName() + ".tmp" );
+		final OutputStream out = new FileOutputStream( tmpFile );
+		try {
+			meta.store( out, null );
+		} finally {
+			out.close();
+		}
+		if ( !tmpFile.renameTo( metaFile ) ) {
+			metaFile.delete();
+			tmpFile.renameTo( metaFile );
+		}
+	}
+
+	/**
+	 * @return file name safe key of given url
+	 */
+	private static String toKey( final String url ) {
+		try {
+			final byte[] digest = MessageDigest.getInstance( "MD5" ).digest( url.getBytes( "UTF-8" ) );
+			final StringBuilder key = new StringBuilder( digest.length * 2 );
+			for ( final byte b : digest ) {
+				key.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+			}
+			return key.toString();
+		} catch ( final NoSuchAlgorithmException e ) {
+			return String.valueOf( url.hashCode() );
+		} catch ( final UnsupportedEncodingException e ) {
+			return String.valueOf( url.hashCode() );
+		}
+	}
+}
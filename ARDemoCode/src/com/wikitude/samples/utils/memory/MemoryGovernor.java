@@ -0,0 +1,156 @@
+package com.wikitude.samples.utils.memory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Releases memory of our own caches in tiers as memory pressure rises, driven by ComponentCallbacks2.onTrimMemory() levels.
+ * Caches implement {@link Releasable} and register themselves, the governor reports how many bytes each level released.
+ * ComponentCallbacks2 is API 14+, so the governor doesn't implement it itself but registers a forwarding callback in {@link #install(Context)}.
+ */
+public class MemoryGovernor {
+
+	/** see {@link Releasable#TIER_TRIM} */
+	public static final int TIER_TRIM = Releasable.TIER_TRIM;
+
+	/** see {@link Releasable#TIER_OPTIONAL} */
+	public static final int TIER_OPTIONAL = Releasable.TIER_OPTIONAL;
+
+	/** see {@link Releasable#TIER_REBUILDABLE} */
+	public static final int TIER_REBUILDABLE = Releasable.TIER_REBUILDABLE;
+
+	/** see {@link Releasable#TIER_ALL} */
+	public static final int TIER_ALL = Releasable.TIER_ALL;
+
+	private static final String TAG = "MemoryGovernor";
+
+	private static MemoryGovernor instance;
+
+	private final CopyOnWriteArrayList<Releasable> releasables = new CopyOnWriteArrayList<Releasable>();
+
+	/** trim level -> total released bytes */
+	private final Map<Integer, Long> releasedPerLevel = new LinkedHashMap<Integer, Long>();
+
+	private boolean registered = false;
+
+	public static synchronized MemoryGovernor getInstance() {
+		if ( instance == null ) {
+			instance = new MemoryGovernor();
+		}
+		return instance;
+	}
+
+	private MemoryGovernor() {
+	}
+
+	/**
+	 * registers governor for trim callbacks of the whole app, no-op if already done or below API 14 (forward onLowMemory() manually there)
+	 * @param context any context, application context is used
+	 */
+	public synchronized void install( final Context context ) {
+		if ( !this.registered && Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH ) {
+			context.getApplicationContext().registerComponentCallbacks( new ComponentCallbacks2() {
+
+				@Override
+				public void onTrimMemory( final int level ) {
+					MemoryGovernor.this.onTrimMemory( level );
+				}
+
+				@Override
+				public void onLowMemory() {
+					MemoryGovernor.this.onLowMemory();
+				}
+
+				@Override
+				public void onConfigurationChanged( final Configuration newConfig ) {
+				}
+			} );
+			this.registered = true;
+		}
+	}
+
+	/**
+	 * @return true if trim callbacks are received automatically, false if onLowMemory() must be forwarded
+	 */
+	public synchronized boolean isInstalled() {
+		return this.registered;
+	}
+
+	public void register( final Releasable releasable ) {
+		this.releasables.addIfAbsent( releasable );
+	}
+
+	public void unregister( final Releasable releasable ) {
+		this.releasables.remove( releasable );
+	}
+
+	/**
+	 * @param level one of ComponentCallbacks2.TRIM_MEMORY_*
+	 */
+	public void onTrimMemory( final int level ) {
+		final int tier = toTier( level );
+		if ( tier > 0 ) {
+			this.release( level, tier );
+		}
+	}
+
+	/**
+	 * system is low on memory, treated like TRIM_MEMORY_COMPLETE
+	 */
+	public void onLowMemory() {
+		this.release( ComponentCallbacks2.TRIM_MEMORY_COMPLETE, TIER_ALL );
+	}
+
+	/**
+	 * @return total released bytes per trim level since app start
+	 */
+	public synchronized String getReport() {
+		final StringBuilder report = new StringBuilder( "Memory released per trim level" );
+		for ( final Map.Entry<Integer, Long> entry : this.releasedPerLevel.entrySet() ) {
+			report.append( "\n  level " ).append( entry.getKey() ).append( ": " ).append( entry.getValue() / 1024 ).append( " KB" );
+		}
+		return report.toString();
+	}
+
+	/**
+	 * @return tier matching given ComponentCallbacks2 level, 0 if nothing should be released
+	 */
+	static int toTier( final int level ) {
+		if ( level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ) {
+			return TIER_ALL;
+		}
+		if ( level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL ) {
+			return TIER_REBUILDABLE;
+		}
+		if ( level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ) {
+			return TIER_OPTIONAL;
+		}
+		if ( level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE ) {
+			return TIER_TRIM;
+		}
+		return 0;
+	}
+
+	private void release( final int level, final int tier ) {
+		long released = 0;
+		for ( final Releasable releasable : this.releasables ) {
+			try {
+				released += releasable.release( tier );
+			} catch ( final RuntimeException e ) {
+				Log.e( TAG, "could not release " + releasable, e );
+			}
+		}
+		synchronized ( this ) {
+			final Long previous = this.releasedPerLevel.get( level );
+			this.releasedPerLevel.put( level, ( previous != null ? previous : 0 ) + released );
+		}
+		Log.i( TAG, "trim level " + level + " (tier " + tier + ") released " + released / 1024 + " KB from " + this.releasables.size() + " cache(s)" );
+	}
+}
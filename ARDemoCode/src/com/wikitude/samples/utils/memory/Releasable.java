@@ -0,0 +1,26 @@
+package com.wikitude.samples.utils.memory;
+
+/**
+ * Memory holder which can release (part of) its memory, registered with {@link MemoryGovernor}.
+ * Plain Java, so holders stay usable outside Android (e.g. the JVM tests).
+ */
+public interface Releasable {
+
+	/** app is running, memory is getting tight: trim caches to a smaller working set */
+	int TIER_TRIM = 1;
+
+	/** app is running low or UI is hidden: drop caches that only speed things up (decoded images, capture buffers) */
+	int TIER_OPTIONAL = 2;
+
+	/** critical or app in background: additionally drop everything that can be rebuilt (index tiles outside view, history and metrics buffers) */
+	int TIER_REBUILDABLE = 3;
+
+	/** app is about to be killed: release all we can */
+	int TIER_ALL = 4;
+
+	/**
+	 * @param tier one of TIER_*, higher tiers must release at least what lower tiers release
+	 * @return number of released bytes (estimate)
+	 */
+	long release( int tier );
+}
@@ -0,0 +1,301 @@
+package com.wikitude.samples.utils.prefetch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.AssetManager;
+import android.os.Process;
+import android.util.Log;
+
+import com.wikitude.samples.utils.httpcache.WorldHttpCache;
+
+/**
+ * Low priority background loader of the ARchitect Worlds most likely opened next, started with the process (ARDemoApplication) and while the sample list is shown.
+ * Remote worlds (http, https) are fetched into the {@link WorldHttpCache} the WorldCacheProxy serves them from: index.html and the scripts, styles and images it references,
+ * so the following architectView.load() is answered from disk instead of the network.
+ * Worlds in assets can only be read from the APK, their files are read once per process and discarded, which warms the OS page cache.
+ * Worlds picked most often so far are prefetched first. Call {@link #cancel()} once prefetching isn't useful anymore.
+ */
+public class WorldPrefetcher {
+
+	private static final String TAG = "WorldPrefetcher";
+
+	/** shared preferences holding pick counts per world */
+	private static final String PREFS_NAME = "worldPrefetch";
+
+	/** size of read buffer */
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	/** index.html beyond this size is not scanned for resources */
+	private static final int MAX_INDEX_BYTES = 512 * 1024;
+
+	/** src and href attributes of index.html, fragments are not part of cached urls */
+	private static final Pattern RESOURCE_PATTERN = Pattern.compile( "(?:src|href)\\s*=\\s*[\"']([^\"'#]+)", Pattern.CASE_INSENSITIVE );
+
+	/** asset paths and urls loaded completely since process start */
+	private static final Set<String> prefetched = new HashSet<String>();
+
+	private final AssetManager assetManager;
+
+	private final SharedPreferences pickCounts;
+
+	/** worlds as passed to architectView.load(): asset paths like "samples/world/index.html" or http(s) urls */
+	private final String[] worlds;
+
+	/** cache of remote worlds, null to skip remote worlds */
+	private final WorldHttpCache cache;
+
+	/** read buffer, content is discarded so a superseded prefetch thread may still share it */
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	/** currently prefetching thread, null if not running or cancelled */
+	private volatile Thread thread;
+
+	/**
+	 * @param context any context, only application context is kept
+	 * @param worlds asset paths or http(s) urls of worlds
+	 * @param cache cache remote worlds are fetched into, null to skip remote worlds
+	 */
+	public WorldPrefetcher( final Context context, final String[] worlds, final WorldHttpCache cache ) {
+		this.assetManager = context.getApplicationContext().getAssets();
+		this.pickCounts = context.getApplicationContext().getSharedPreferences( PREFS_NAME, Context.MODE_PRIVATE );
+		this.worlds = worlds != null ? worlds : new String[0];
+		this.cache = cache;
+	}
+
+	/**
+	 * remembers that user launched given world, so it is prefetched earlier next time
+	 * @param context any context
+	 * @param world asset path or http(s) url of world
+	 */
+	public static void recordPick( final Context context, final String world ) {
+		if ( world == null ) {
+			return;
+		}
+		final SharedPreferences prefs = context.getApplicationContext().getSharedPreferences( PREFS_NAME, Context.MODE_PRIVATE );
+		prefs.edit().putInt( world, prefs.getInt( world, 0 ) + 1 ).apply();
+	}
+
+	/**
+	 * @param context any context
+	 * @param max number of worlds returned at most
+	 * @return worlds launched before, most often picked first
+	 */
+	public static String[] getPickedWorlds( final Context context, final int max ) {
+		final SharedPreferences prefs = context.getApplicationContext().getSharedPreferences( PREFS_NAME, Context.MODE_PRIVATE );
+		final Map<String, ?> counts = prefs.getAll();
+		final List<String> worlds = new ArrayList<String>();
+		for ( final Map.Entry<String, ?> count : counts.entrySet() ) {
+			if ( count.getValue() instanceof Integer ) {
+				worlds.add( count.getKey() );
+			}
+		}
+		Collections.sort( worlds, new Comparator<String>() {
+
+			@Override
+			public int compare( final String lhs, final String rhs ) {
+				return (Integer)counts.get( rhs ) - (Integer)counts.get( lhs );
+			}
+		} );
+		return worlds.subList( 0, Math.min( max, worlds.size() ) ).toArray( new String[0] );
+	}
+
+	/**
+	 * starts prefetching in background, no-op if already running
+	 */
+	public synchronized void start() {
+		if ( this.thread != null ) {
+			return;
+		}
+		this.thread = new Thread( new Runnable() {
+
+			@Override
+			public void run() {
+				Process.setThreadPriority( Process.THREAD_PRIORITY_BACKGROUND );
+				for ( final String world : WorldPrefetcher.this.getWorldsByLikelihood() ) {
+					if ( WorldPrefetcher.this.isCancelled() ) {
+						break;
+					}
+					if ( isRemote( world ) ) {
+						WorldPrefetcher.this.prefetchRemote( world );
+					} else {
+						// world's folder, index.html is read first
+						final int folderEnd = world.lastIndexOf( '/' );
+						WorldPrefetcher.this.prefetch( folderEnd > 0 ? world.substring( 0, folderEnd ) : world );
+					}
+				}
+			}
+		}, TAG );
+		this.thread.start();
+	}
+
+	/**
+	 * stops prefetching, content loaded so far stays cached. Returns immediately, the running read is aborted at the next buffer boundary or resource.
+	 */
+	public synchronized void cancel() {
+		if ( this.thread != null ) {
+			this.thread.interrupt();
+			this.thread = null;
+		}
+	}
+
+	/**
+	 * @return true if calling prefetch thread was cancelled (or superseded by a new one)
+	 */
+	private boolean isCancelled() {
+		return this.thread != Thread.currentThread();
+	}
+
+	/**
+	 * @return worlds, most often picked first
+	 */
+	private List<String> getWorldsByLikelihood() {
+		final List<String> worlds = new ArrayList<String>( Arrays.asList( this.worlds ) );
+		Collections.sort( worlds, new Comparator<String>() {
+
+			@Override
+			public int compare( final String lhs, final String rhs ) {
+				return WorldPrefetcher.this.pickCounts.getInt( rhs, 0 ) - WorldPrefetcher.this.pickCounts.getInt( lhs, 0 );
+			}
+		} );
+		return worlds;
+	}
+
+	private static boolean isRemote( final String url ) {
+		return url.regionMatches( true, 0, "http://", 0, 7 ) || url.regionMatches( true, 0, "https://", 0, 8 );
+	}
+
+	/**
+	 * fetches index.html of a remote world into the cache, then the http(s) resources it references
+	 */
+	private void prefetchRemote( final String url ) {
+		if ( this.cache == null ) {
+			return;
+		}
+		final String html;
+		try {
+			final WorldHttpCache.Response index = this.cache.get( url );
+			if ( index.status != 200 ) {
+				return;
+			}
+			html = this.readText( index );
+		} catch ( final IOException e ) {
+			Log.w( TAG, "could not prefetch " + url, e );
+			return;
+		}
+		final Matcher resources = RESOURCE_PATTERN.matcher( html );
+		while ( resources.find() && !this.isCancelled() ) {
+			final String resource;
+			try {
+				resource = new URL( new URL( url ), resources.group( 1 ).trim() ).toString();
+			} catch ( final IOException e ) {
+				// architect:// and other schemes, nothing to cache
+				continue;
+			}
+			if ( !isRemote( resource ) ) {
+				continue;
+			}
+			synchronized ( prefetched ) {
+				if ( !prefetched.add( resource ) ) {
+					continue;
+				}
+			}
+			try {
+				this.cache.get( resource );
+			} catch ( final IOException e ) {
+				Log.w( TAG, "could not prefetch " + resource, e );
+				synchronized ( prefetched ) {
+					prefetched.remove( resource );
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return body as UTF-8, at most MAX_INDEX_BYTES
+	 */
+	private String readText( final WorldHttpCache.Response response ) throws IOException {
+		final InputStream in = response.openBody();
+		try {
+			final ByteArrayOutputStream text = new ByteArrayOutputStream();
+			int read;
+			while ( text.size() < MAX_INDEX_BYTES && ( read = in.read( this.buffer ) ) != -1 ) {
+				text.write( this.buffer, 0, read );
+			}
+			return text.toString( "UTF-8" );
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * recursively reads all assets below given path, index.html first
+	 */
+	private void prefetch( final String assetPath ) {
+		try {
+			final String[] children = this.assetManager.list( assetPath );
+			if ( children == null || children.length == 0 ) {
+				// no children -> assetPath is a file
+				synchronized ( prefetched ) {
+					if ( prefetched.contains( assetPath ) ) {
+						return;
+					}
+				}
+				if ( this.read( assetPath ) ) {
+					synchronized ( prefetched ) {
+						prefetched.add( assetPath );
+					}
+				}
+				return;
+			}
+			Arrays.sort( children, new Comparator<String>() {
+
+				@Override
+				public int compare( final String lhs, final String rhs ) {
+					return ( "index.html".equals( rhs ) ? 1 : 0 ) - ( "index.html".equals( lhs ) ? 1 : 0 );
+				}
+			} );
+			for ( final String child : children ) {
+				if ( this.isCancelled() ) {
+					return;
+				}
+				this.prefetch( assetPath + File.separator + child );
+			}
+		} catch ( final IOException e ) {
+			Log.w( TAG, "could not prefetch " + assetPath, e );
+		}
+	}
+
+	/**
+	 * @return true if asset was read completely, false if cancelled while reading
+	 */
+	private boolean read( final String assetPath ) throws IOException {
+		final InputStream in = this.assetManager.open( assetPath );
+		try {
+			final byte[] buffer = this.buffer;
+			while ( in.read( buffer ) != -1 ) {
+				if ( this.isCancelled() ) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+}
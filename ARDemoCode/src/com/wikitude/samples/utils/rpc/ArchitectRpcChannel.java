@@ -0,0 +1,356 @@
+package com.wikitude.samples.utils.rpc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.wikitude.architect.ArchitectView;
+import com.wikitude.samples.utils.urlrouter.ArchitectUrlRouter;
+
+/**
+ * Request / reply channel between World JavaScript (js/rpc.js) and native code, on top of architectsdk:// navigations and callJavascript().
+ * Messages queued meanwhile travel in one batch, so one navigation or evaluation carries many messages. Each side keeps at most one batch unacknowledged,
+ * a side which doesn't keep up is not flooded. Acknowledgements are sent regardless of that window, so both sides never wait for each other.
+ * Calls of the World are answered via {@link Reply}, from any thread. Native notifies the World with {@link #notify(String, Object)}, without reply.
+ * Message counts and batch round trip times are recorded, see {@link #getStats()}.
+ */
+public class ArchitectRpcChannel implements ArchitectUrlRouter.Handler {
+
+	/** host of the World's navigations, register channel for it at the ArchitectUrlRouter */
+	public static final String HOST = "rpc";
+
+	/** messages per evaluation, keeps single evaluations short */
+	private static final int MAX_BATCH_MESSAGES = 200;
+
+	/** notifications are dropped beyond this while World doesn't keep up, replies are always queued */
+	private static final int MAX_QUEUED_MESSAGES = 1000;
+
+	/** batch is considered lost if not acknowledged in time, e.g. after World was reloaded */
+	private static final long ACK_TIMEOUT_MS = 2000;
+
+	private static final String TAG = "ArchitectRpcChannel";
+
+	/**
+	 * native method callable from World via Rpc.call(name, params)
+	 */
+	public interface Method {
+
+		/**
+		 * runs on UI thread, answer right away or later from any thread
+		 * @param params JSONObject, JSONArray, String, Number, Boolean or JSONObject.NULL
+		 * @param reply answers the call, ignored for notifications of the World (Rpc.notify)
+		 */
+		void onCall( Object params, Reply reply );
+	}
+
+	/**
+	 * answer of a single call, only the first resolve() or reject() counts
+	 */
+	public final class Reply {
+
+		/** 0 for notifications */
+		private final int id;
+
+		private boolean answered = false;
+
+		private Reply( final int id ) {
+			this.id = id;
+		}
+
+		/**
+		 * @param result JSONObject, JSONArray, String, Number, Boolean or null
+		 */
+		public void resolve( final Object result ) {
+			this.answer( "[" + this.id + ",null," + toJson( result ) + "]" );
+		}
+
+		public void reject( final String error ) {
+			this.answer( "[" + this.id + "," + JSONObject.quote( String.valueOf( error ) ) + "]" );
+		}
+
+		private void answer( final String message ) {
+			synchronized ( ArchitectRpcChannel.this ) {
+				if ( this.answered || this.id == 0 ) {
+					return;
+				}
+				this.answered = true;
+				// World waits for it, so replies ignore the queue limit
+				ArchitectRpcChannel.this.queue.add( message );
+			}
+			ArchitectRpcChannel.this.scheduleFlush();
+		}
+	}
+
+	/**
+	 * snapshot of channel statistics, counted since channel creation
+	 */
+	public static final class Stats {
+
+		public long messagesSent, messagesReceived, batchesSent, batchesReceived;
+
+		/** notifications dropped while World didn't keep up, batches never acknowledged */
+		public long messagesDropped, batchesLost;
+
+		/** time from sending a batch until World acknowledged it, covers evaluation and navigation */
+		public double meanRoundTripMs;
+		public long maxRoundTripMs;
+
+		public long elapsedMs;
+
+		public double getSentPerSecond() {
+			return this.elapsedMs > 0 ? this.messagesSent * 1000.0 / this.elapsedMs : 0;
+		}
+
+		public double getReceivedPerSecond() {
+			return this.elapsedMs > 0 ? this.messagesReceived * 1000.0 / this.elapsedMs : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format( "sent %d msgs / %d batches (%.1f/s), received %d msgs / %d batches (%.1f/s), dropped %d, lost batches %d, round trip mean %.1f ms max %d ms", this.messagesSent, this.batchesSent, this.getSentPerSecond(), this.messagesReceived, this.batchesReceived, this.getReceivedPerSecond(), this.messagesDropped, this.batchesLost, this.meanRoundTripMs, this.maxRoundTripMs );
+		}
+	}
+
+	private final ArchitectView architectView;
+
+	private final Handler mainHandler = new Handler( Looper.getMainLooper() );
+
+	/** registered methods, UI thread only */
+	private final Map<String, Method> methods = new HashMap<String, Method>();
+
+	/** serialized messages to World, guarded by this */
+	private final List<String> queue = new ArrayList<String>();
+
+	/** sequence number of World's last batch not acknowledged yet, 0 if none. Guarded by this */
+	private int pendingAck = 0;
+
+	/** sequence number and send time of own batch not acknowledged yet, 0 if none. Guarded by this */
+	private int inFlightSeq = 0;
+	private long inFlightSince;
+
+	private int sendSeq = 0;
+
+	private boolean flushScheduled = false, closed = false;
+
+	/** guarded by this */
+	private final long startedAt = SystemClock.elapsedRealtime();
+	private long messagesSent, messagesReceived, batchesSent, batchesReceived, messagesDropped, batchesLost, roundTrips, roundTripSumMs, maxRoundTripMs;
+
+	private final Runnable flushRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			ArchitectRpcChannel.this.flush();
+		}
+	};
+
+	/** reopens window if World never acknowledges the batch in flight */
+	private final Runnable ackTimeoutRunnable = new Runnable() {
+
+		@Override
+		public void run() {
+			ArchitectRpcChannel.this.scheduleFlush();
+		}
+	};
+
+	/**
+	 * @param architectView view whose World loaded js/rpc.js
+	 */
+	public ArchitectRpcChannel( final ArchitectView architectView ) {
+		this.architectView = architectView;
+	}
+
+	/**
+	 * call on UI thread before World calls the method
+	 */
+	public ArchitectRpcChannel register( final String name, final Method method ) {
+		this.methods.put( name, method );
+		return this;
+	}
+
+	/**
+	 * sends a message to World's handler of given name (Rpc.on(name, handler)), from any thread
+	 * @param params JSONObject, JSONArray, String, Number, Boolean or null
+	 * @return false if dropped, World doesn't keep up
+	 */
+	public boolean notify( final String name, final Object params ) {
+		synchronized ( this ) {
+			if ( this.closed || this.queue.size() >= MAX_QUEUED_MESSAGES ) {
+				this.messagesDropped++;
+				return false;
+			}
+			this.queue.add( "[0," + JSONObject.quote( name ) + "," + toJson( params ) + "]" );
+		}
+		this.scheduleFlush();
+		return true;
+	}
+
+	public synchronized Stats getStats() {
+		final Stats stats = new Stats();
+		stats.messagesSent = this.messagesSent;
+		stats.messagesReceived = this.messagesReceived;
+		stats.batchesSent = this.batchesSent;
+		stats.batchesReceived = this.batchesReceived;
+		stats.messagesDropped = this.messagesDropped;
+		stats.batchesLost = this.batchesLost;
+		stats.meanRoundTripMs = this.roundTrips > 0 ? this.roundTripSumMs / (double)this.roundTrips : 0;
+		stats.maxRoundTripMs = this.maxRoundTripMs;
+		stats.elapsedMs = SystemClock.elapsedRealtime() - this.startedAt;
+		return stats;
+	}
+
+	/**
+	 * drops queued messages and stops sending, e.g. when the view is destroyed
+	 */
+	public void close() {
+		synchronized ( this ) {
+			this.closed = true;
+			this.queue.clear();
+		}
+		this.mainHandler.removeCallbacks( this.flushRunnable );
+		this.mainHandler.removeCallbacks( this.ackTimeoutRunnable );
+	}
+
+	/**
+	 * batch of World: architectsdk://rpc?a=acknowledged native batch&s=sequence number&b=[[id, method, params], ...], runs on UI thread
+	 */
+	@Override
+	public void onMessage( final ArchitectUrlRouter.Message message ) {
+		final int ack = message.getInt( "a", 0 );
+		final int seq = message.getInt( "s", 0 );
+		synchronized ( this ) {
+			if ( ack != 0 && ack == this.inFlightSeq ) {
+				final long roundTripMs = SystemClock.elapsedRealtime() - this.inFlightSince;
+				this.roundTrips++;
+				this.roundTripSumMs += roundTripMs;
+				this.maxRoundTripMs = Math.max( this.maxRoundTripMs, roundTripMs );
+				this.inFlightSeq = 0;
+			}
+			if ( seq != 0 ) {
+				// acknowledged even if malformed, World would stall otherwise
+				this.pendingAck = seq;
+				this.batchesReceived++;
+			}
+		}
+		final String batch = seq != 0 ? message.getParameter( "b" ) : null;
+		if ( batch != null ) {
+			try {
+				this.dispatch( new JSONArray( batch ) );
+			} catch ( final JSONException e ) {
+				Log.w( TAG, "malformed batch " + seq, e );
+			}
+		}
+		this.scheduleFlush();
+	}
+
+	private void dispatch( final JSONArray batch ) {
+		synchronized ( this ) {
+			this.messagesReceived += batch.length();
+		}
+		for ( int i = 0; i < batch.length(); i++ ) {
+			final JSONArray call = batch.optJSONArray( i );
+			if ( call == null ) {
+				continue;
+			}
+			final Reply reply = new Reply( call.optInt( 0 ) );
+			final Method method = this.methods.get( call.optString( 1 ) );
+			if ( method == null ) {
+				reply.reject( "unknown method " + call.optString( 1 ) );
+				continue;
+			}
+			try {
+				method.onCall( call.opt( 2 ), reply );
+			} catch ( final RuntimeException e ) {
+				Log.w( TAG, "method " + call.optString( 1 ) + " failed", e );
+				reply.reject( String.valueOf( e.getMessage() ) );
+			}
+		}
+	}
+
+	private void scheduleFlush() {
+		synchronized ( this ) {
+			if ( this.flushScheduled || this.closed ) {
+				return;
+			}
+			this.flushScheduled = true;
+		}
+		this.mainHandler.post( this.flushRunnable );
+	}
+
+	/**
+	 * sends acknowledgement and, if World acknowledged the previous batch, queued messages in one evaluation. Runs on UI thread
+	 */
+	private void flush() {
+		final String script;
+		final int count;
+		synchronized ( this ) {
+			this.flushScheduled = false;
+			final long now = SystemClock.elapsedRealtime();
+			if ( this.inFlightSeq != 0 && now - this.inFlightSince >= ACK_TIMEOUT_MS ) {
+				this.inFlightSeq = 0;
+				this.batchesLost++;
+			}
+			count = this.inFlightSeq == 0 ? Math.min( this.queue.size(), MAX_BATCH_MESSAGES ) : 0;
+			if ( count == 0 && this.pendingAck == 0 ) {
+				return;
+			}
+			int seq = 0;
+			final StringBuilder messages = new StringBuilder( "[" );
+			if ( count > 0 ) {
+				final List<String> batch = this.queue.subList( 0, count );
+				for ( int i = 0; i < count; i++ ) {
+					if ( i > 0 ) {
+						messages.append( ',' );
+					}
+					messages.append( batch.get( i ) );
+				}
+				batch.clear();
+				seq = ++this.sendSeq;
+				if ( seq == 0 ) {
+					// 0 means "no batch", skip it on overflow
+					seq = ++this.sendSeq;
+				}
+				this.inFlightSeq = seq;
+				this.inFlightSince = now;
+				this.messagesSent += count;
+				this.batchesSent++;
+			}
+			script = "Rpc.receive( " + this.pendingAck + ", " + seq + ", " + messages.append( ']' ) + " );";
+			this.pendingAck = 0;
+		}
+		if ( count > 0 ) {
+			// queued messages follow once World acknowledged this batch, or it timed out
+			this.mainHandler.removeCallbacks( this.ackTimeoutRunnable );
+			this.mainHandler.postDelayed( this.ackTimeoutRunnable, ACK_TIMEOUT_MS );
+		}
+		this.architectView.callJavascript( script );
+	}
+
+	/**
+	 * @return JSON of params, which are JSONObject, JSONArray, String, Number, Boolean or null
+	 */
+	private static String toJson( final Object value ) {
+		if ( value == null || value == JSONObject.NULL ) {
+			return "null";
+		}
+		if ( value instanceof String ) {
+			return JSONObject.quote( (String)value );
+		}
+		if ( value instanceof Double || value instanceof Float ) {
+			final double number = ( (Number)value ).doubleValue();
+			// NaN and Infinity are no JSON
+			return Double.isNaN( number ) || Double.isInfinite( number ) ? "null" : value.toString();
+		}
+		return value.toString();
+	}
+}
@@ -0,0 +1,290 @@
+package com.wikitude.samples.utils.startup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+/**
+ * Collects timings of the launch chain (process start in ARDemoApplication -> cam activity).
+ * A cold launch starts in ARDemoApplication.onCreate(), a warm one (process kept alive) when the cam activity is created.
+ * Phases are wrapped in systrace sections (API 18+) and measured in-process, milestones are stored relative to launch start.
+ * Once the cam activity is paused the launch is appended to a small local log, which is also used to print a per-device startup report.
+ */
+public final class StartupTrace {
+
+	/** phase: listing sample folders in assets. Only recorded on the sample list path (MainActivity), the launcher opens SampleCamActivity directly */
+	public static final String PHASE_ASSET_LISTING = "assetListing";
+
+	/** phase: clearing architectView cache directory. Only recorded on the sample list path (MainActivity) */
+	public static final String PHASE_CACHE_CLEANUP = "cacheCleanup";
+
+	/** phase: assembling launch intent incl. debug dump of its extras. Only recorded on the sample list path (MainActivity) */
+	public static final String PHASE_INTENT_ASSEMBLY = "intentAssembly";
+
+	/** phase: MainSamplesListActivity building its list. Only recorded on the sample list path */
+	public static final String PHASE_SAMPLE_LIST = "sampleList";
+
+	/** phase: inflating the cam activity's layout incl. the architectView */
+	public static final String PHASE_CONTENT_VIEW = "contentView";
+
+	/** phase: starting location updates when the cam activity resumes */
+	public static final String PHASE_LOCATION_START = "locationStart";
+
+	/** milestone: cam activity is being created, i.e. process and activity startup before */
+	public static final String MILESTONE_ACTIVITY_CREATE = "activityCreate";
+
+	/** phase: mandatory architectView.onCreate() */
+	public static final String PHASE_ARCHITECT_CREATE = "architectView.onCreate";
+
+	/** phase: architectView.load() of the ARchitect World */
+	public static final String PHASE_ARCHITECT_LOAD = "architectView.load";
+
+	/** milestone: first location forwarded to architectView */
+	public static final String MILESTONE_FIRST_LOCATION = "firstLocation";
+
+	/** milestone: first POI data injected into World */
+	public static final String MILESTONE_FIRST_POI_PUSH = "firstPoiPush";
+
+	private static final String TAG = "StartupTrace";
+
+	/** file in app's files-dir holding one line per launch */
+	private static final String LOG_FILE_NAME = "startupTrace.log";
+
+	/** only the most recent launches are kept in log */
+	private static final int LOG_MAX_LAUNCHES = 50;
+
+	/** systrace sections are only available on JB-MR2 and above */
+	private static final boolean SYSTRACE_AVAILABLE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+	/** elapsedRealtime of launch start, -1 if no launch is being traced */
+	private static long launchStartMillis = -1;
+
+	/** start times of currently open phases */
+	private static final Map<String, Long> openPhases = new LinkedHashMap<String, Long>();
+
+	/** durations of finished phases and offsets of milestones of the current launch, in ms */
+	private static final Map<String, Long> timings = new LinkedHashMap<String, Long>();
+
+	private StartupTrace() {
+	}
+
+	/**
+	 * starts a new launch, previously collected timings are dropped
+	 */
+	public static synchronized void startLaunch() {
+		launchStartMillis = SystemClock.elapsedRealtime();
+		openPhases.clear();
+		timings.clear();
+	}
+
+	/**
+	 * starts a new launch unless one is traced already, e.g. the cold launch started by ARDemoApplication
+	 */
+	public static synchronized void startLaunchIfIdle() {
+		if ( launchStartMillis < 0 ) {
+			startLaunch();
+		}
+	}
+
+	/**
+	 * opens a phase, must be closed with {@link #endSection(String)} on the same thread
+	 * @param phase name of phase, e.g. PHASE_ARCHITECT_LOAD
+	 */
+	public static void beginSection( final String phase ) {
+		synchronized ( StartupTrace.class ) {
+			if ( launchStartMillis < 0 ) {
+				startLaunch();
+			}
+			openPhases.put( phase, SystemClock.elapsedRealtime() );
+		}
+		if ( SYSTRACE_AVAILABLE ) {
+			Trace.beginSection( phase );
+		}
+	}
+
+	/**
+	 * closes a phase opened via {@link #beginSection(String)}
+	 * @param phase name of phase
+	 */
+	public static void endSection( final String phase ) {
+		if ( SYSTRACE_AVAILABLE ) {
+			Trace.endSection();
+		}
+		synchronized ( StartupTrace.class ) {
+			final Long start = openPhases.remove( phase );
+			if ( start != null ) {
+				final Long previous = timings.get( phase );
+				timings.put( phase, ( previous != null ? previous : 0 ) + SystemClock.elapsedRealtime() - start );
+			}
+		}
+	}
+
+	/**
+	 * records offset to launch start of given milestone, only the first occurrence per launch counts
+	 * @param milestone name of milestone, e.g. MILESTONE_FIRST_LOCATION
+	 */
+	public static synchronized void milestone( final String milestone ) {
+		if ( launchStartMillis >= 0 && !timings.containsKey( milestone ) ) {
+			timings.put( milestone, SystemClock.elapsedRealtime() - launchStartMillis );
+		}
+	}
+
+	/**
+	 * appends timings of current launch to local log (in background) and prints startup report. Launch is finished afterwards, so subsequent calls are no-ops until a new launch starts.
+	 * @param context context used to resolve files-dir
+	 */
+	public static void persist( final Context context ) {
+		final String line;
+		synchronized ( StartupTrace.class ) {
+			if ( launchStartMillis < 0 || timings.isEmpty() ) {
+				return;
+			}
+			line = formatLaunch( System.currentTimeMillis(), timings );
+			launchStartMillis = -1;
+			openPhases.clear();
+			timings.clear();
+		}
+
+		final File logFile = new File( context.getFilesDir(), LOG_FILE_NAME );
+		new Thread( new Runnable() {
+
+			@Override
+			public void run() {
+				synchronized ( LOG_FILE_NAME ) {
+					final List<String> launches = readLaunches( logFile );
+					launches.add( line );
+					while ( launches.size() > LOG_MAX_LAUNCHES ) {
+						launches.remove( 0 );
+					}
+					writeLaunches( logFile, launches );
+					Log.i( TAG, createReport( launches ) );
+				}
+			}
+		}, TAG ).start();
+	}
+
+	/**
+	 * @param context context used to resolve files-dir
+	 * @return human readable report of average phase/milestone timings, grouped by device
+	 */
+	public static String getReport( final Context context ) {
+		synchronized ( LOG_FILE_NAME ) {
+			return createReport( readLaunches( new File( context.getFilesDir(), LOG_FILE_NAME ) ) );
+		}
+	}
+
+	/**
+	 * line format: "wallclockMillis|device|phase=ms,phase=ms,..."
+	 */
+	private static String formatLaunch( final long wallclockMillis, final Map<String, Long> launchTimings ) {
+		final StringBuilder line = new StringBuilder();
+		line.append( wallclockMillis ).append( '|' );
+		line.append( Build.MANUFACTURER ).append( ' ' ).append( Build.MODEL ).append( " (API " ).append( Build.VERSION.SDK_INT ).append( ")|" );
+		boolean first = true;
+		for ( final Map.Entry<String, Long> entry : launchTimings.entrySet() ) {
+			if ( !first ) {
+				line.append( ',' );
+			}
+			line.append( entry.getKey() ).append( '=' ).append( entry.getValue() );
+			first = false;
+		}
+		return line.toString();
+	}
+
+	private static String createReport( final List<String> launches ) {
+		// device -> phase -> {sum, count}
+		final Map<String, Map<String, long[]>> devices = new LinkedHashMap<String, Map<String, long[]>>();
+		final Map<String, Integer> launchesPerDevice = new LinkedHashMap<String, Integer>();
+		for ( final String launch : launches ) {
+			final String[] parts = launch.split( "\\|", 3 );
+			if ( parts.length < 3 ) {
+				continue;
+			}
+			Map<String, long[]> phases = devices.get( parts[1] );
+			if ( phases == null ) {
+				phases = new LinkedHashMap<String, long[]>();
+				devices.put( parts[1], phases );
+				launchesPerDevice.put( parts[1], 0 );
+			}
+			launchesPerDevice.put( parts[1], launchesPerDevice.get( parts[1] ) + 1 );
+			for ( final String timing : parts[2].split( "," ) ) {
+				final int separator = timing.lastIndexOf( '=' );
+				if ( separator <= 0 ) {
+					continue;
+				}
+				try {
+					final long millis = Long.parseLong( timing.substring( separator + 1 ) );
+					long[] sumAndCount = phases.get( timing.substring( 0, separator ) );
+					if ( sumAndCount == null ) {
+						sumAndCount = new long[2];
+						phases.put( timing.substring( 0, separator ), sumAndCount );
+					}
+					sumAndCount[0] += millis;
+					sumAndCount[1]++;
+				} catch ( NumberFormatException e ) {
+					// ignore corrupt entry
+				}
+			}
+		}
+
+		final StringBuilder report = new StringBuilder( "Startup report" );
+		for ( final Map.Entry<String, Map<String, long[]>> device : devices.entrySet() ) {
+			report.append( "\n" ).append( device.getKey() ).append( ", " ).append( launchesPerDevice.get( device.getKey() ) ).append( " launch(es), avg ms:" );
+			for ( final Map.Entry<String, long[]> phase : device.getValue().entrySet() ) {
+				report.append( "\n  " ).append( phase.getKey() ).append( ": " ).append( phase.getValue()[0] / phase.getValue()[1] );
+			}
+		}
+		return report.toString();
+	}
+
+	private static List<String> readLaunches( final File logFile ) {
+		final List<String> launches = new ArrayList<String>();
+		if ( !logFile.exists() ) {
+			return launches;
+		}
+		try {
+			final BufferedReader reader = new BufferedReader( new FileReader( logFile ) );
+			try {
+				String line;
+				while ( ( line = reader.readLine() ) != null ) {
+					if ( line.length() > 0 ) {
+						launches.add( line );
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch ( final IOException e ) {
+			e.printStackTrace();
+		}
+		return launches;
+	}
+
+	private static void writeLaunches( final File logFile, final List<String> launches ) {
+		try {
+			final FileWriter writer = new FileWriter( logFile, false );
+			try {
+				for ( final String launch : launches ) {
+					writer.write( launch );
+					writer.write( '\n' );
+				}
+			} finally {
+				writer.close();
+			}
+		} catch ( final IOException e ) {
+			e.printStackTrace();
+		}
+	}
+}
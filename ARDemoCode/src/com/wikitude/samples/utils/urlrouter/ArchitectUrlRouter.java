@@ -0,0 +1,356 @@
+package com.wikitude.samples.utils.urlrouter;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Locale;
+
+/**
+ * Dispatches architectsdk:// messages of the World to handlers registered by host, without Uri.parse() and host comparisons one by one.
+ * Hosts are looked up in an open addressing table (sized until registered hosts don't collide), parameters are read from the url string on demand.
+ * Dispatching allocates nothing, so high-rate messages (frame times, visibility reports, taps) don't produce garbage. Strings are only created if a handler asks for one.
+ * Plain Java, so it can be benchmarked off the device: pass urls of an ArchitectUrlListener to {@link #urlWasInvoked(String)}.
+ * Not thread-safe, register handlers before the listener is passed to the ArchitectView. Messages are dispatched on the UI thread.
+ */
+public class ArchitectUrlRouter {
+
+	/**
+	 * handles messages of one host
+	 */
+	public interface Handler {
+
+		/**
+		 * @param message view of the message, only valid during this call: read parameters before posting work to other threads
+		 */
+		void onMessage( Message message );
+	}
+
+	/**
+	 * handles urls no handler is registered for
+	 */
+	public interface Fallback {
+
+		/**
+		 * @param url invoked url, may be null
+		 * @return true if url was handled
+		 */
+		boolean onUnhandledUrl( String url );
+	}
+
+	/**
+	 * parameters of the message currently dispatched, reused for all messages
+	 */
+	public static final class Message {
+
+		private String url;
+
+		/** url range of host and of query (after '?', empty if none) */
+		private int hostStart, hostEnd, queryStart, queryEnd;
+
+		public String getHost() {
+			return this.url.substring( this.hostStart, this.hostEnd );
+		}
+
+		public boolean hasParameter( final String name ) {
+			return this.findValue( name ) >= 0;
+		}
+
+		/**
+		 * @return decoded value, "" if parameter has no value, null if missing
+		 */
+		public String getParameter( final String name ) {
+			final int start = this.findValue( name );
+			if ( start < 0 ) {
+				return null;
+			}
+			final int end = this.valueEnd( start );
+			boolean encoded = false;
+			for ( int i = start; i < end && !encoded; i++ ) {
+				final char c = this.url.charAt( i );
+				encoded = c == '%' || c == '+';
+			}
+			final String value = this.url.substring( start, end );
+			if ( !encoded ) {
+				return value;
+			}
+			try {
+				return URLDecoder.decode( value, "UTF-8" );
+			} catch ( final UnsupportedEncodingException e ) {
+				// UTF-8 is always supported
+				return value;
+			} catch ( final IllegalArgumentException e ) {
+				// malformed escape, keep raw value
+				return value;
+			}
+		}
+
+		/**
+		 * parses value in place
+		 * @return value of parameter, defaultValue if missing or not an int
+		 */
+		public int getInt( final String name, final int defaultValue ) {
+			final int start = this.findValue( name );
+			if ( start < 0 ) {
+				return defaultValue;
+			}
+			final int end = this.valueEnd( start );
+			int i = start;
+			final boolean negative = i < end && this.url.charAt( i ) == '-';
+			if ( negative ) {
+				i++;
+			}
+			if ( i == end || end - i > 9 ) {
+				return defaultValue;
+			}
+			int value = 0;
+			for ( ; i < end; i++ ) {
+				final int digit = this.url.charAt( i ) - '0';
+				if ( digit < 0 || digit > 9 ) {
+					return defaultValue;
+				}
+				value = value * 10 + digit;
+			}
+			return negative ? -value : value;
+		}
+
+		/**
+		 * parses plain decimals ("-12.5") in place, no exponents
+		 * @return value of parameter, defaultValue if missing or not a decimal
+		 */
+		public float getFloat( final String name, final float defaultValue ) {
+			final int start = this.findValue( name );
+			if ( start < 0 ) {
+				return defaultValue;
+			}
+			final int end = this.valueEnd( start );
+			int i = start;
+			final boolean negative = i < end && this.url.charAt( i ) == '-';
+			if ( negative ) {
+				i++;
+			}
+			double value = 0, scale = 0;
+			boolean digits = false;
+			for ( ; i < end; i++ ) {
+				final char c = this.url.charAt( i );
+				if ( c == '.' && scale == 0 ) {
+					scale = 1;
+				} else if ( c >= '0' && c <= '9' ) {
+					digits = true;
+					if ( scale == 0 ) {
+						value = value * 10 + ( c - '0' );
+					} else {
+						scale /= 10;
+						value += ( c - '0' ) * scale;
+					}
+				} else {
+					return defaultValue;
+				}
+			}
+			if ( !digits ) {
+				return defaultValue;
+			}
+			return (float)( negative ? -value : value );
+		}
+
+		/**
+		 * @return true if parameter has exactly the given (unencoded) value
+		 */
+		public boolean parameterEquals( final String name, final String value ) {
+			final int start = this.findValue( name );
+			return start >= 0 && this.valueEnd( start ) - start == value.length() && this.url.regionMatches( start, value, 0, value.length() );
+		}
+
+		/**
+		 * @return index of value of parameter, -1 if missing
+		 */
+		private int findValue( final String name ) {
+			int i = this.queryStart;
+			while ( i < this.queryEnd ) {
+				final int nameEnd = i + name.length();
+				if ( nameEnd <= this.queryEnd && this.url.regionMatches( i, name, 0, name.length() ) ) {
+					if ( nameEnd == this.queryEnd || this.url.charAt( nameEnd ) == '&' ) {
+						return nameEnd;
+					}
+					if ( this.url.charAt( nameEnd ) == '=' ) {
+						return nameEnd + 1;
+					}
+				}
+				// next parameter
+				while ( i < this.queryEnd && this.url.charAt( i ) != '&' ) {
+					i++;
+				}
+				i++;
+			}
+			return -1;
+		}
+
+		private int valueEnd( final int start ) {
+			int end = start;
+			while ( end < this.queryEnd && this.url.charAt( end ) != '&' ) {
+				end++;
+			}
+			return end;
+		}
+
+		/**
+		 * @return false if url has no host
+		 */
+		private boolean reset( final String url ) {
+			this.url = url;
+			final int schemeEnd = url.indexOf( "://" );
+			this.hostStart = schemeEnd < 0 ? 0 : schemeEnd + 3;
+			final int length = url.length();
+			int i = this.hostStart;
+			while ( i < length ) {
+				final char c = url.charAt( i );
+				if ( c == '/' || c == '?' || c == '#' ) {
+					break;
+				}
+				i++;
+			}
+			this.hostEnd = i;
+			final int query = url.indexOf( '?', i );
+			final int fragment = url.indexOf( '#', i );
+			this.queryStart = query < 0 ? length : query + 1;
+			this.queryEnd = fragment < 0 || fragment < this.queryStart ? length : fragment;
+			if ( this.queryStart > this.queryEnd ) {
+				this.queryStart = this.queryEnd;
+			}
+			return this.hostEnd > this.hostStart;
+		}
+	}
+
+	/** table sizes tried to avoid host collisions, probing resolves collisions beyond */
+	private static final int MAX_TABLE_SIZE = 1024;
+
+	private String[] hosts = new String[8];
+
+	private Handler[] handlers = new Handler[8];
+
+	private int hostCount = 0;
+
+	/** handles messages of unknown hosts, null to report them as not handled */
+	private Fallback fallback;
+
+	private final Message message = new Message();
+
+	/**
+	 * @param host host of messages, e.g. "frameTime" for architectsdk://frameTime?ms=16.6, matched ignoring case
+	 * @param handler replaces handler registered for host before
+	 */
+	public ArchitectUrlRouter register( final String host, final Handler handler ) {
+		final String key = host.toLowerCase( Locale.US );
+		final int slot = this.find( key, 0, key.length() );
+		if ( this.hosts[slot] != null ) {
+			this.handlers[slot] = handler;
+			return this;
+		}
+		final String[] hosts = new String[this.hostCount + 1];
+		final Handler[] handlers = new Handler[this.hostCount + 1];
+		int count = 0;
+		for ( int i = 0; i < this.hosts.length; i++ ) {
+			if ( this.hosts[i] != null ) {
+				hosts[count] = this.hosts[i];
+				handlers[count++] = this.handlers[i];
+			}
+		}
+		hosts[count] = key;
+		handlers[count] = handler;
+		this.rebuild( hosts, handlers );
+		return this;
+	}
+
+	/**
+	 * @param fallback receives urls of hosts without handler, e.g. a listener of a parent class
+	 */
+	public ArchitectUrlRouter setFallback( final Fallback fallback ) {
+		this.fallback = fallback;
+		return this;
+	}
+
+	/**
+	 * dispatches url to the handler of its host, or to the fallback
+	 * @return true if url was handled
+	 */
+	public boolean urlWasInvoked( final String url ) {
+		if ( url == null || !this.message.reset( url ) ) {
+			return this.fallback != null && this.fallback.onUnhandledUrl( url );
+		}
+		final int slot = this.find( url, this.message.hostStart, this.message.hostEnd );
+		final Handler handler = this.handlers[slot];
+		if ( handler == null ) {
+			return this.fallback != null && this.fallback.onUnhandledUrl( url );
+		}
+		try {
+			handler.onMessage( this.message );
+		} finally {
+			this.message.url = null;
+		}
+		return true;
+	}
+
+	/**
+	 * @return slot of host given as range of text, or empty slot where it belongs
+	 */
+	private int find( final String text, final int start, final int end ) {
+		final int mask = this.hosts.length - 1;
+		int slot = hash( text, start, end ) & mask;
+		while ( true ) {
+			final String host = this.hosts[slot];
+			if ( host == null || ( host.length() == end - start && host.regionMatches( true, 0, text, start, end - start ) ) ) {
+				return slot;
+			}
+			slot = ( slot + 1 ) & mask;
+		}
+	}
+
+	/**
+	 * grows table until every host gets its own slot, so lookups need a single comparison
+	 */
+	private void rebuild( final String[] hosts, final Handler[] handlers ) {
+		int size = 8;
+		while ( size < hosts.length * 2 ) {
+			size *= 2;
+		}
+		for ( ; size < MAX_TABLE_SIZE; size *= 2 ) {
+			if ( collisionFree( hosts, size ) ) {
+				break;
+			}
+		}
+		this.hosts = new String[size];
+		this.handlers = new Handler[size];
+		for ( int i = 0; i < hosts.length; i++ ) {
+			final int slot = this.find( hosts[i], 0, hosts[i].length() );
+			this.hosts[slot] = hosts[i];
+			this.handlers[slot] = handlers[i];
+		}
+		this.hostCount = hosts.length;
+	}
+
+	private static boolean collisionFree( final String[] hosts, final int size ) {
+		final boolean[] used = new boolean[size];
+		for ( final String host : hosts ) {
+			final int slot = hash( host, 0, host.length() ) & ( size - 1 );
+			if ( used[slot] ) {
+				return false;
+			}
+			used[slot] = true;
+		}
+		return true;
+	}
+
+	/**
+	 * case-insensitive for ASCII
+	 */
+	private static int hash( final String text, final int start, final int end ) {
+		int hash = 0;
+		for ( int i = start; i < end; i++ ) {
+			char c = text.charAt( i );
+			if ( c >= 'A' && c <= 'Z' ) {
+				c += 'a' - 'A';
+			}
+			hash = 31 * hash + c;
+		}
+		// spread bits, table index uses lowest ones
+		return hash ^ ( hash >>> 16 ) ^ ( hash >>> 7 );
+	}
+}
@@ -0,0 +1,74 @@
+package com.wikitude.samples;
+
+import java.util.Random;
+
+/**
+ * Replays a recorded-like walk through {@link DeadReckoningEngine}: a unit walking north at 1.5 m/s with two steps per second, a GPS fix with 3 m noise
+ * every second and 10 Hz ticks. Checks that the emitted track stays close to the true position and never jumps like the raw fixes do.
+ */
+public class DeadReckoningEngineTest {
+
+	private static final double METERS_PER_DEGREE = 111320;
+
+	private static final double START_LAT = 47.8, START_LON = 13.04;
+
+	private static final double WALK_SPEED_MPS = 1.5;
+
+	public static void main( final String[] args ) {
+		testReplay();
+		testNoPositionBeforeFix();
+		System.out.println( "DeadReckoningEngineTest ok" );
+	}
+
+	private static void testReplay() {
+		final DeadReckoningEngine engine = new DeadReckoningEngine();
+		final Random random = new Random( 1 );
+		engine.onHeading( 0 );
+
+		int emits = 0;
+		double maxJumpM = 0, maxErrorM = 0, maxFixErrorM = 0, previousLat = Double.NaN;
+		for ( int ms = 0; ms <= 60000; ms += 10 ) {
+			final double trueNorthM = ms / 1000.0 * WALK_SPEED_MPS;
+			if ( ms % 500 == 0 && ms > 0 ) {
+				engine.onStep();
+			}
+			if ( ms % 1000 == 0 ) {
+				final double fixNorthM = trueNorthM + random.nextGaussian() * 3;
+				maxFixErrorM = Math.max( maxFixErrorM, Math.abs( fixNorthM - trueNorthM ) );
+				engine.onFix( START_LAT + fixNorthM / METERS_PER_DEGREE, START_LON, 5f );
+			}
+			if ( ms % 100 == 0 && engine.tick( ms * 1000000L ) ) {
+				emits++;
+				final double lat = engine.getLatitude();
+				if ( !Double.isNaN( previousLat ) ) {
+					maxJumpM = Math.max( maxJumpM, Math.abs( lat - previousLat ) * METERS_PER_DEGREE );
+				}
+				previousLat = lat;
+				// first seconds converge from the first noisy fix
+				if ( ms > 5000 ) {
+					maxErrorM = Math.max( maxErrorM, Math.abs( ( lat - START_LAT ) * METERS_PER_DEGREE - trueNorthM ) );
+				}
+			}
+		}
+
+		check( emits > 500, "10 Hz ticks while walking should emit, got " + emits );
+		check( maxJumpM < 1, "track jumps " + maxJumpM + " m in one tick" );
+		check( maxErrorM < 5, "track is " + maxErrorM + " m off the walk" );
+		check( maxErrorM < maxFixErrorM, "track error " + maxErrorM + " m is not below raw fix error " + maxFixErrorM + " m" );
+		check( engine.getAccuracy() > 0 && engine.getAccuracy() < 5, "accuracy " + engine.getAccuracy() + " m should improve on the 5 m fixes" );
+	}
+
+	private static void testNoPositionBeforeFix() {
+		final DeadReckoningEngine engine = new DeadReckoningEngine();
+		engine.onHeading( 0 );
+		engine.onStep();
+		check( !engine.tick( 100000000L ), "steps without a fix must not emit" );
+		check( !engine.isInitialized(), "engine without a fix is not initialized" );
+	}
+
+	private static void check( final boolean condition, final String message ) {
+		if ( !condition ) {
+			throw new AssertionError( message );
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.wikitude.samples;
+
+import java.util.Random;
+
+/**
+ * Measures {@link GeofenceEngine} throughput: 5000 building-sized fences, 10000 walking units, transitions drained in one batch per 1000 checks
+ * (a publisher tick at 10k positions per second) by a listener that serializes them like UnitPositionPublisher does.
+ * Fails if the engine checks fewer than 100k positions per second. Run with ant bench.
+ */
+public class GeofenceEngineBench {
+
+	/** 0.1 x 0.1 degree area, like GeofenceEngineTest */
+	private static final double AREA_LAT = 33.70, AREA_LON = -84.45, AREA_SIZE = 0.1;
+
+	private static final int FENCES = 5000;
+
+	private static final int UNITS = 10000;
+
+	private static final int CHECKS_PER_ROUND = 2000000;
+
+	private static final int CHECKS_PER_TICK = 1000;
+
+	private static final double REQUIRED_CHECKS_PER_SECOND = 100000;
+
+	public static void main( final String[] args ) {
+		final StringBuilder batch = new StringBuilder( 4096 );
+		final GeofenceEngine.Listener serializer = new GeofenceEngine.Listener() {
+
+			@Override
+			public void onGeofenceTransition( final int unitId, final int fenceId, final boolean entered ) {
+				batch.append( unitId ).append( ',' ).append( fenceId ).append( ',' ).append( entered ? 1 : 0 ).append( ',' );
+			}
+		};
+		final GeofenceEngine engine = new GeofenceEngine();
+		final Random random = new Random( 7 );
+		for ( int fence = 0; fence < FENCES; fence++ ) {
+			final int vertices = 5 + random.nextInt( 20 );
+			final double centerLat = AREA_LAT + random.nextDouble() * AREA_SIZE, centerLon = AREA_LON + random.nextDouble() * AREA_SIZE;
+			final double radius = 0.0002 + random.nextDouble() * 0.0008;
+			final double[] latitudes = new double[vertices], longitudes = new double[vertices];
+			for ( int k = 0; k < vertices; k++ ) {
+				final double angle = 2 * Math.PI * k / vertices, r = radius * ( 0.5 + random.nextDouble() * 0.5 );
+				latitudes[k] = centerLat + r * Math.sin( angle );
+				longitudes[k] = centerLon + r * Math.cos( angle );
+			}
+			engine.addFence( fence, latitudes, longitudes );
+		}
+
+		// precomputed walks, so the measured loop is the engine and the batch serialization only
+		final double[] unitLat = new double[UNITS], unitLon = new double[UNITS];
+		for ( int unit = 0; unit < UNITS; unit++ ) {
+			unitLat[unit] = AREA_LAT + random.nextDouble() * AREA_SIZE;
+			unitLon[unit] = AREA_LON + random.nextDouble() * AREA_SIZE;
+		}
+		final double[] stepLat = new double[4096], stepLon = new double[4096];
+		for ( int i = 0; i < stepLat.length; i++ ) {
+			stepLat[i] = ( random.nextDouble() - 0.5 ) * 2e-5;
+			stepLon[i] = ( random.nextDouble() - 0.5 ) * 2e-5;
+		}
+
+		double best = 0;
+		for ( int round = 0; round < 5; round++ ) {
+			final long testsBefore = engine.getPolygonTests();
+			long transitions = 0;
+			final long start = System.nanoTime();
+			for ( int i = 0; i < CHECKS_PER_ROUND; i++ ) {
+				final int unit = i % UNITS;
+				unitLat[unit] += stepLat[i & 4095];
+				unitLon[unit] += stepLon[( i >>> 12 ) & 4095];
+				engine.evaluate( unit, unitLat[unit], unitLon[unit] );
+				if ( ( i + 1 ) % CHECKS_PER_TICK == 0 ) {
+					batch.setLength( 0 );
+					transitions += engine.drainTransitions( serializer );
+				}
+			}
+			final long elapsedNs = System.nanoTime() - start;
+			final double checksPerSecond = CHECKS_PER_ROUND * 1e9 / elapsedNs;
+			best = Math.max( best, checksPerSecond );
+			System.out.printf( "%.0f checks/s, %.0f ns/check, %.2f polygon tests/check, %d transitions%n", checksPerSecond, elapsedNs / (double)CHECKS_PER_ROUND,
+					( engine.getPolygonTests() - testsBefore ) / (double)CHECKS_PER_ROUND, transitions );
+		}
+		check( engine.getDroppedTransitions() == 0, engine.getDroppedTransitions() + " transitions dropped" );
+		check( best >= REQUIRED_CHECKS_PER_SECOND, "best round checked " + Math.round( best ) + " positions/s, required " + Math.round( REQUIRED_CHECKS_PER_SECOND ) );
+		System.out.println( "GeofenceEngineBench ok" );
+	}
+
+	private static void check( final boolean condition, final String message ) {
+		if ( !condition ) {
+			throw new AssertionError( message );
+		}
+	}
+}
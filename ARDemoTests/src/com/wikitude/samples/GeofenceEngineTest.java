@@ -0,0 +1,180 @@
+package com.wikitude.samples;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks {@link GeofenceEngine} against brute force point-in-polygon tests: random building-sized polygons, removed fences, fences too large for the grid,
+ * and that units walking around get consistent enter / exit transitions while only few exact polygon tests run per position.
+ */
+public class GeofenceEngineTest {
+
+	/** 0.1 x 0.1 degree test area */
+	private static final double AREA_LAT = 33.70, AREA_LON = -84.45, AREA_SIZE = 0.1;
+
+	/** GeofenceEngine.MAX_INSIDE */
+	private static final int MAX_INSIDE = 8;
+
+	public static void main( final String[] args ) {
+		testMatchesBruteForce();
+		testRemoveFence();
+		testLargeFences();
+		testRelease();
+		System.out.println( "GeofenceEngineTest ok" );
+	}
+
+	private static void testMatchesBruteForce() {
+		final Map<Long, Boolean> states = new HashMap<Long, Boolean>();
+		final int[] transitions = new int[1];
+		final GeofenceEngine.Listener listener = new GeofenceEngine.Listener() {
+
+			@Override
+			public void onGeofenceTransition( final int unitId, final int fenceId, final boolean entered ) {
+				transitions[0]++;
+				final Boolean previous = states.put( ( (long)unitId << 32 ) | fenceId, entered );
+				check( previous == null ? entered : previous != entered, "unit " + unitId + " got the same transition twice for fence " + fenceId );
+			}
+		};
+		final GeofenceEngine engine = new GeofenceEngine();
+		final Random random = new Random( 7 );
+		final int fences = 5000;
+		final double[][] latitudes = new double[fences][], longitudes = new double[fences][];
+		for ( int fence = 0; fence < fences; fence++ ) {
+			final int vertices = 5 + random.nextInt( 20 );
+			final double centerLat = AREA_LAT + random.nextDouble() * AREA_SIZE, centerLon = AREA_LON + random.nextDouble() * AREA_SIZE;
+			final double radius = 0.0002 + random.nextDouble() * 0.0008;
+			latitudes[fence] = new double[vertices];
+			longitudes[fence] = new double[vertices];
+			for ( int k = 0; k < vertices; k++ ) {
+				final double angle = 2 * Math.PI * k / vertices, r = radius * ( 0.5 + random.nextDouble() * 0.5 );
+				latitudes[fence][k] = centerLat + r * Math.sin( angle );
+				longitudes[fence][k] = centerLon + r * Math.cos( angle );
+			}
+			engine.addFence( fence, latitudes[fence], longitudes[fence] );
+		}
+
+		for ( int i = 0; i < 5000; i++ ) {
+			final double lat = AREA_LAT + random.nextDouble() * AREA_SIZE, lon = AREA_LON + random.nextDouble() * AREA_SIZE;
+			final int expected = Math.min( countContaining( latitudes, longitudes, null, lat, lon ), MAX_INSIDE );
+			final int inside = engine.evaluate( 1, lat, lon );
+			engine.drainTransitions( listener );
+			check( inside == expected, "point " + lat + "," + lon + " is inside " + inside + " fences, expected " + expected );
+		}
+
+		// units walking: transitions stay consistent, grid keeps exact tests rare
+		final int units = 1000;
+		final double[] unitLat = new double[units], unitLon = new double[units];
+		for ( int unit = 0; unit < units; unit++ ) {
+			unitLat[unit] = AREA_LAT + random.nextDouble() * AREA_SIZE;
+			unitLon[unit] = AREA_LON + random.nextDouble() * AREA_SIZE;
+		}
+		final long testsBefore = engine.getPolygonTests();
+		final int transitionsBefore = transitions[0];
+		int checks = 0;
+		for ( int step = 0; step < 300; step++ ) {
+			for ( int unit = 0; unit < units; unit++ ) {
+				unitLat[unit] += ( random.nextDouble() - 0.5 ) * 2e-5;
+				unitLon[unit] += ( random.nextDouble() - 0.5 ) * 2e-5;
+				engine.evaluate( unit + 10, unitLat[unit], unitLon[unit] );
+				checks++;
+			}
+			// one batch per step, like the publisher's tick
+			engine.drainTransitions( listener );
+		}
+		check( engine.getDroppedTransitions() == 0, engine.getDroppedTransitions() + " transitions dropped" );
+		for ( final Map.Entry<Long, Boolean> state : states.entrySet() ) {
+			final int unitId = (int)( state.getKey() >>> 32 ), fenceId = (int)(long)state.getKey();
+			check( state.getValue() == engine.isInside( unitId, fenceId ), "transitions and membership of unit " + unitId + " disagree for fence " + fenceId );
+		}
+		final double testsPerCheck = ( engine.getPolygonTests() - testsBefore ) / (double)checks;
+		check( transitions[0] > transitionsBefore, "walking units never crossed a fence" );
+		check( testsPerCheck < 2, testsPerCheck + " polygon tests per position, grid does not narrow candidates" );
+	}
+
+	private static void testRemoveFence() {
+		final GeofenceEngine engine = new GeofenceEngine();
+		final Random random = new Random( 1 );
+		final int fences = 500;
+		final double[][] latitudes = new double[fences][], longitudes = new double[fences][];
+		for ( int fence = 0; fence < fences; fence++ ) {
+			final double centerLat = random.nextDouble() * 0.05, centerLon = random.nextDouble() * 0.05, radius = 0.001;
+			latitudes[fence] = new double[] { centerLat - radius, centerLat + radius, centerLat + radius, centerLat - radius };
+			longitudes[fence] = new double[] { centerLon - radius, centerLon - radius, centerLon + radius, centerLon + radius };
+			engine.addFence( fence * 3, latitudes[fence], longitudes[fence] );
+		}
+		final Set<Integer> removed = new HashSet<Integer>();
+		for ( int fence = 0; fence < fences; fence += 2 ) {
+			check( engine.removeFence( fence * 3 ), "fence " + fence * 3 + " should exist" );
+			removed.add( fence );
+		}
+		check( !engine.removeFence( 0 ), "fence 0 was removed already" );
+		check( engine.getFenceCount() == fences / 2, engine.getFenceCount() + " fences left" );
+
+		for ( int i = 0; i < 20000; i++ ) {
+			final double lat = random.nextDouble() * 0.05, lon = random.nextDouble() * 0.05;
+			final int expected = Math.min( countContaining( latitudes, longitudes, removed, lat, lon ), MAX_INSIDE );
+			check( engine.evaluate( i % 50, lat, lon ) == expected, "removed fences still match at " + lat + "," + lon );
+		}
+	}
+
+	private static void testLargeFences() {
+		final GeofenceEngine engine = new GeofenceEngine();
+		// country sized fence covers 10^8 cells, must neither fill the grid nor loop when probing it
+		engine.addFence( 1, new double[] { 40, 40, 50, 50 }, new double[] { 0, 10, 10, 0 } );
+		engine.addFence( 2, new double[] { 45, 45.0005, 45.0005 }, new double[] { 5, 5, 5.0005 } );
+		check( engine.evaluate( 1, 45.0004, 5.0001 ) == 2, "point in building inside large fence" );
+		check( engine.evaluate( 1, 41, 1 ) == 1, "point in large fence only" );
+		check( engine.evaluate( 1, 39, 1 ) == 0, "point outside both fences" );
+		check( engine.removeFence( 1 ), "large fence should exist" );
+		check( engine.evaluate( 1, 41, 1 ) == 0, "removed large fence still matches" );
+		check( engine.evaluate( 1, 45.0004, 5.0001 ) == 1, "building lost with removed large fence" );
+	}
+
+	private static void testRelease() {
+		final GeofenceEngine engine = new GeofenceEngine();
+		engine.addFence( 1, new double[] { 0, 0, 0.001, 0.001 }, new double[] { 0, 0.001, 0.001, 0 } );
+		for ( int unit = 0; unit < 1000; unit++ ) {
+			engine.evaluate( unit, 0.0005, 0.0005 );
+		}
+		for ( int unit = 0; unit < 1000; unit += 2 ) {
+			engine.evaluate( unit, 1, 1 );
+		}
+		check( engine.release( GeofenceEngine.TIER_OPTIONAL ) > 0, "release of outside units and grid should free memory" );
+		for ( int unit = 0; unit < 1000; unit++ ) {
+			check( engine.isInside( unit, 1 ) == ( unit % 2 == 1 ), "membership of unit " + unit + " lost by release" );
+		}
+		check( engine.evaluate( 1, 0.0005, 0.0005 ) == 1, "grid dropped by release is not rebuilt" );
+	}
+
+	/**
+	 * even-odd ray casting over all fences
+	 */
+	private static int countContaining( final double[][] latitudes, final double[][] longitudes, final Set<Integer> skipped, final double lat, final double lon ) {
+		int count = 0;
+		for ( int fence = 0; fence < latitudes.length; fence++ ) {
+			if ( skipped != null && skipped.contains( fence ) ) {
+				continue;
+			}
+			final double[] la = latitudes[fence], lo = longitudes[fence];
+			boolean inside = false;
+			for ( int i = 0, j = la.length - 1; i < la.length; j = i++ ) {
+				if ( ( la[i] > lat ) != ( la[j] > lat ) && lon < lo[i] + ( lat - la[i] ) * ( lo[j] - lo[i] ) / ( la[j] - la[i] ) ) {
+					inside = !inside;
+				}
+			}
+			if ( inside ) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static void check( final boolean condition, final String message ) {
+		if ( !condition ) {
+			throw new AssertionError( message );
+		}
+	}
+}
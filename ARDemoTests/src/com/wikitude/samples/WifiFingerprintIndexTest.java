@@ -0,0 +1,112 @@
+package com.wikitude.samples;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Locates recorded scans (data/wifi_scans.csv, true position first) in a recorded survey of two buildings (data/wifi_survey.csv) with {@link WifiFingerprintIndex}.
+ * Checks median and 90th percentile error, that scans are never placed in the other building and that unknown access points don't match.
+ * Run from the module directory, the data folder is resolved relative to it.
+ */
+public class WifiFingerprintIndexTest {
+
+	private static final double METERS_PER_DEGREE = 111319.5;
+
+	private static final String SURVEY_FILE = "data/wifi_survey.csv";
+
+	private static final String SCANS_FILE = "data/wifi_scans.csv";
+
+	public static void main( final String[] args ) throws IOException {
+		final WifiFingerprintIndex index = new WifiFingerprintIndex();
+		final BufferedReader survey = new BufferedReader( new FileReader( SURVEY_FILE ) );
+		try {
+			final int loaded = index.load( survey );
+			check( loaded == index.size() && loaded > 500, loaded + " fingerprints loaded, index has " + index.size() );
+		} finally {
+			survey.close();
+		}
+
+		testRecordedScans( index );
+		testUnknownAccessPoints( index );
+		testMalformedLine();
+		System.out.println( "WifiFingerprintIndexTest ok" );
+	}
+
+	private static void testRecordedScans( final WifiFingerprintIndex index ) throws IOException {
+		final List<Double> errors = new ArrayList<Double>();
+		final double[] result = new double[3];
+		int scans = 0;
+		final BufferedReader reader = new BufferedReader( new FileReader( SCANS_FILE ) );
+		try {
+			String line;
+			while ( ( line = reader.readLine() ) != null ) {
+				if ( line.length() == 0 || line.charAt( 0 ) == '#' ) {
+					continue;
+				}
+				final String[] fields = line.split( "," );
+				final int count = fields.length / 2 - 1;
+				final String[] bssids = new String[count];
+				final int[] levels = new int[count];
+				for ( int i = 0; i < count; i++ ) {
+					bssids[i] = fields[2 + i * 2];
+					levels[i] = Integer.parseInt( fields[3 + i * 2] );
+				}
+				scans++;
+				if ( index.locate( bssids, levels, count, result ) ) {
+					final double trueLat = Double.parseDouble( fields[0] ), trueLon = Double.parseDouble( fields[1] );
+					final double error = distance( trueLat, trueLon, result[0], result[1] );
+					// buildings are 500 m apart
+					check( error < 100, "scan at " + trueLat + "," + trueLon + " placed " + error + " m off, in the other building" );
+					check( result[2] > 0, "accuracy must be positive" );
+					errors.add( error );
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		check( scans > 100, "only " + scans + " recorded scans" );
+		check( errors.size() >= scans * 95 / 100, errors.size() + " of " + scans + " scans inside the surveyed buildings matched" );
+		final Double[] sorted = errors.toArray( new Double[errors.size()] );
+		Arrays.sort( sorted );
+		final double median = sorted[sorted.length / 2], p90 = sorted[sorted.length * 9 / 10];
+		check( median < 6, "median error " + median + " m" );
+		check( p90 < 12, "90th percentile error " + p90 + " m" );
+	}
+
+	private static void testUnknownAccessPoints( final WifiFingerprintIndex index ) {
+		final double[] result = new double[] { 1, 2, 3 };
+		check( !index.locate( new String[] { "aa:bb:cc:dd:ee:01", "aa:bb:cc:dd:ee:02" }, new int[] { -50, -60 }, 2, result ), "unsurveyed access points matched" );
+		check( !index.locate( new String[0], new int[0], 0, result ), "empty scan matched" );
+		check( result[0] == 1 && result[1] == 2 && result[2] == 3, "result changed without match" );
+	}
+
+	private static void testMalformedLine() {
+		try {
+			new WifiFingerprintIndex().load( new BufferedReader( new StringReader( "# header\n33.77,-84.39,00:11:22:00:00:01,-50\n33.77,-84.39,00:11:22:00:00:01,loud\n" ) ) );
+			throw new AssertionError( "malformed level accepted" );
+		} catch ( final IOException e ) {
+			check( e.getMessage().contains( "line 3" ), "error should name line 3: " + e.getMessage() );
+		}
+	}
+
+	/**
+	 * equirectangular distance in meters, exact enough within a campus
+	 */
+	private static double distance( final double lat1, final double lon1, final double lat2, final double lon2 ) {
+		final double dy = ( lat2 - lat1 ) * METERS_PER_DEGREE;
+		final double dx = ( lon2 - lon1 ) * METERS_PER_DEGREE * Math.cos( Math.toRadians( lat1 ) );
+		return Math.hypot( dx, dy );
+	}
+
+	private static void check( final boolean condition, final String message ) {
+		if ( !condition ) {
+			throw new AssertionError( message );
+		}
+	}
+}
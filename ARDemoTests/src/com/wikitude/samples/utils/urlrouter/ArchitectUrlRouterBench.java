@@ -0,0 +1,127 @@
+package com.wikitude.samples.utils.urlrouter;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Measures {@link ArchitectUrlRouter} dispatch time and allocation: unpaced against parsing with java.net.URI and comparing hosts one by one
+ * (as the listeners did with Uri.parse() and equalsIgnoreCase), then paced at 10k messages per second for 3 seconds, well above the World's message rate.
+ * Fails if the paced run allocates or a dispatch takes longer than a frame. Run with ant bench.
+ */
+public class ArchitectUrlRouterBench {
+
+	/** hosts of the World's messages */
+	private static final String[] HOSTS = { "search", "filter", "select", "frameTime", "visibility", "tap", "telemetry", "markerselected", "detail", "button" };
+
+	private static final int RATE_PER_SECOND = 10000;
+
+	private static final int PACED_SECONDS = 3;
+
+	/** 60 fps frame */
+	private static final long FRAME_NS = 16000000L;
+
+	/** read by handlers, keeps the JIT from dropping the parsing */
+	static long sink;
+
+	public static void main( final String[] args ) throws URISyntaxException {
+		final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		final com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean)threads : null;
+		final long threadId = Thread.currentThread().getId();
+		final ArchitectUrlRouter router = createRouter();
+		final String[] urls = createUrls();
+
+		for ( int round = 0; round < 5; round++ ) {
+			final int messages = 1000000;
+			final long routerBytes = allocatedBytes( allocation, threadId );
+			final long routerStart = System.nanoTime();
+			for ( int i = 0; i < messages; i++ ) {
+				router.urlWasInvoked( urls[i % urls.length] );
+			}
+			final long routerNs = System.nanoTime() - routerStart;
+			final long uriBytes = allocatedBytes( allocation, threadId );
+			final long uriStart = System.nanoTime();
+			for ( int i = 0; i < messages; i++ ) {
+				dispatchByUri( urls[i % urls.length] );
+			}
+			final long uriNs = System.nanoTime() - uriStart;
+			final long endBytes = allocatedBytes( allocation, threadId );
+			System.out.printf( "router %.0f ns/msg %.1f B/msg | URI and equalsIgnoreCase %.0f ns/msg %.0f B/msg%n", routerNs / (double)messages,
+					( uriBytes - routerBytes ) / (double)messages, uriNs / (double)messages, ( endBytes - uriBytes ) / (double)messages );
+		}
+
+		final int messages = RATE_PER_SECOND * PACED_SECONDS;
+		final long intervalNs = 1000000000L / RATE_PER_SECOND;
+		long worstNs = 0, totalNs = 0;
+		final long startBytes = allocatedBytes( allocation, threadId );
+		final long start = System.nanoTime();
+		for ( int i = 0; i < messages; i++ ) {
+			final long due = start + i * intervalNs;
+			while ( System.nanoTime() < due ) {
+				// busy wait, sleeping is too coarse for 100 us
+			}
+			final long dispatchStart = System.nanoTime();
+			router.urlWasInvoked( urls[i % urls.length] );
+			final long dispatchNs = System.nanoTime() - dispatchStart;
+			worstNs = Math.max( worstNs, dispatchNs );
+			totalNs += dispatchNs;
+		}
+		final long pacedBytes = allocatedBytes( allocation, threadId ) - startBytes;
+		System.out.printf( "paced %d msg/s for %d s: mean %.0f ns/msg, worst %d ns, %d B allocated, %.3f%% busy%n", RATE_PER_SECOND, PACED_SECONDS, totalNs / (double)messages,
+				worstNs, pacedBytes, totalNs * 100.0 / ( PACED_SECONDS * 1000000000L ) );
+
+		check( sink != 0, "handlers saw no parameters" );
+		check( allocation == null || pacedBytes < messages / 10, pacedBytes + " bytes allocated by " + messages + " paced dispatches" );
+		check( worstNs < FRAME_NS, "a dispatch took " + worstNs + " ns, longer than a frame" );
+		System.out.println( "ArchitectUrlRouterBench ok" );
+	}
+
+	/**
+	 * @return router for HOSTS, handlers read parameters as the app's handlers do
+	 */
+	static ArchitectUrlRouter createRouter() {
+		final ArchitectUrlRouter router = new ArchitectUrlRouter();
+		for ( final String host : HOSTS ) {
+			router.register( host, new ArchitectUrlRouter.Handler() {
+
+				@Override
+				public void onMessage( final ArchitectUrlRouter.Message message ) {
+					sink += message.getInt( "id", 0 ) + (long)message.getFloat( "ms", 0 ) + ( message.parameterEquals( "detail", "1" ) ? 1 : 0 );
+				}
+			} );
+		}
+		return router;
+	}
+
+	/**
+	 * @return one url per host
+	 */
+	static String[] createUrls() {
+		final String[] urls = new String[HOSTS.length];
+		for ( int i = 0; i < HOSTS.length; i++ ) {
+			urls[i] = "architectsdk://" + HOSTS[i] + "?id=" + ( i * 37 ) + "&ms=16.6&detail=1";
+		}
+		return urls;
+	}
+
+	private static void dispatchByUri( final String url ) throws URISyntaxException {
+		final URI uri = new URI( url );
+		final String host = uri.getHost();
+		for ( final String known : HOSTS ) {
+			if ( known.equalsIgnoreCase( host ) ) {
+				sink += uri.getQuery().length();
+				return;
+			}
+		}
+	}
+
+	private static long allocatedBytes( final com.sun.management.ThreadMXBean allocation, final long threadId ) {
+		return allocation != null ? allocation.getThreadAllocatedBytes( threadId ) : 0;
+	}
+
+	private static void check( final boolean condition, final String message ) {
+		if ( !condition ) {
+			throw new AssertionError( message );
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package com.wikitude.samples.utils.urlrouter;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks {@link ArchitectUrlRouter} routing and parameter parsing against hand-written World urls, and that dispatching a message allocates nothing.
+ */
+public class ArchitectUrlRouterTest {
+
+	public static void main( final String[] args ) {
+		testParameters();
+		testRouting();
+		testFallback();
+		testNoAllocation();
+		System.out.println( "ArchitectUrlRouterTest ok" );
+	}
+
+	private static void testParameters() {
+		final String[] got = new String[6];
+		final ArchitectUrlRouter router = new ArchitectUrlRouter().register( "Check", new ArchitectUrlRouter.Handler() {
+
+			@Override
+			public void onMessage( final ArchitectUrlRouter.Message message ) {
+				got[0] = message.getHost();
+				got[1] = message.getParameter( "q" );
+				got[2] = String.valueOf( message.getInt( "id", -1 ) );
+				got[3] = String.valueOf( message.getFloat( "ms", Float.NaN ) );
+				got[4] = message.getParameter( "empty" ) + "|" + message.getParameter( "none" ) + "|" + message.hasParameter( "flag" );
+				got[5] = String.valueOf( message.parameterEquals( "detail", "1" ) );
+			}
+		} );
+		check( router.urlWasInvoked( "architectsdk://CHECK?q=K-9%20unit+x&id=42&ms=16.75&empty=&flag&detail=1" ), "registered host matched ignoring case" );
+		check( "CHECK".equals( got[0] ), "host " + got[0] );
+		check( "K-9 unit x".equals( got[1] ), "decoded parameter " + got[1] );
+		check( "42".equals( got[2] ), "int parameter " + got[2] );
+		check( "16.75".equals( got[3] ), "float parameter " + got[3] );
+		check( "|null|true".equals( got[4] ), "empty, missing and flag parameters " + got[4] );
+		check( "true".equals( got[5] ), "parameterEquals" );
+
+		check( router.urlWasInvoked( "architectsdk://check?id=&ms=abc&detail=10#id=7" ), "url with fragment" );
+		check( "-1".equals( got[2] ) && "NaN".equals( got[3] ), "malformed numbers must give defaults, got " + got[2] + " " + got[3] );
+		check( "false".equals( got[5] ), "parameterEquals must compare the whole value" );
+		check( router.urlWasInvoked( "architectsdk://check?id=-12&ms=-0.5&q=%zz" ), "url with malformed escape" );
+		check( "-12".equals( got[2] ) && "-0.5".equals( got[3] ) && "%zz".equals( got[1] ), "negative numbers and raw malformed escape, got " + got[2] + " " + got[3] + " " + got[1] );
+	}
+
+	private static void testRouting() {
+		final int hosts = 200;
+		final int[] received = new int[hosts];
+		final ArchitectUrlRouter router = new ArchitectUrlRouter();
+		for ( int i = 0; i < hosts; i++ ) {
+			final int host = i;
+			router.register( "host" + i, new ArchitectUrlRouter.Handler() {
+
+				@Override
+				public void onMessage( final ArchitectUrlRouter.Message message ) {
+					received[host] += message.getInt( "n", 0 );
+				}
+			} );
+		}
+		for ( int i = 0; i < hosts; i++ ) {
+			check( router.urlWasInvoked( "architectsdk://host" + i + "?n=" + ( i + 1 ) ), "host" + i + " not routed" );
+		}
+		for ( int i = 0; i < hosts; i++ ) {
+			check( received[i] == i + 1, "host" + i + " received " + received[i] );
+		}
+
+		// registering a host again replaces its handler
+		router.register( "HOST0", new ArchitectUrlRouter.Handler() {
+
+			@Override
+			public void onMessage( final ArchitectUrlRouter.Message message ) {
+				received[0] = -1;
+			}
+		} );
+		router.urlWasInvoked( "architectsdk://host0?n=1" );
+		check( received[0] == -1, "handler of host0 not replaced" );
+	}
+
+	private static void testFallback() {
+		final ArchitectUrlRouter router = new ArchitectUrlRouter().register( "known", new ArchitectUrlRouter.Handler() {
+
+			@Override
+			public void onMessage( final ArchitectUrlRouter.Message message ) {
+			}
+		} );
+		check( !router.urlWasInvoked( "architectsdk://unknown?x=1" ), "unknown host without fallback must not be handled" );
+		check( !router.urlWasInvoked( null ), "null url without fallback must not be handled" );
+
+		final String[] unhandled = new String[1];
+		router.setFallback( new ArchitectUrlRouter.Fallback() {
+
+			@Override
+			public boolean onUnhandledUrl( final String url ) {
+				unhandled[0] = url;
+				return true;
+			}
+		} );
+		check( router.urlWasInvoked( "architectsdk://unknown?x=1" ) && "architectsdk://unknown?x=1".equals( unhandled[0] ), "unknown host not passed to fallback" );
+		check( router.urlWasInvoked( "architectsdk://?x=1" ) && "architectsdk://?x=1".equals( unhandled[0] ), "url without host not passed to fallback" );
+		unhandled[0] = "";
+		check( router.urlWasInvoked( "architectsdk://known" ) && "".equals( unhandled[0] ), "known host passed to fallback" );
+	}
+
+	private static void testNoAllocation() {
+		final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if ( !( threads instanceof com.sun.management.ThreadMXBean ) || !( (com.sun.management.ThreadMXBean)threads ).isThreadAllocatedMemorySupported() ) {
+			System.out.println( "ArchitectUrlRouterTest: allocation counters not supported, skipped" );
+			return;
+		}
+		final com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean)threads;
+		final ArchitectUrlRouter router = ArchitectUrlRouterBench.createRouter();
+		final String[] urls = ArchitectUrlRouterBench.createUrls();
+		final long threadId = Thread.currentThread().getId();
+		// warm up, so measured dispatches run compiled
+		for ( int i = 0; i < 200000; i++ ) {
+			router.urlWasInvoked( urls[i % urls.length] );
+		}
+		final int messages = 1000000;
+		final long before = allocation.getThreadAllocatedBytes( threadId );
+		for ( int i = 0; i < messages; i++ ) {
+			router.urlWasInvoked( urls[i % urls.length] );
+		}
+		final long allocated = allocation.getThreadAllocatedBytes( threadId ) - before;
+		check( allocated < messages / 10, allocated + " bytes allocated by " + messages + " dispatches" );
+	}
+
+	private static void check( final boolean condition, final String message ) {
+		if ( !condition ) {
+			throw new AssertionError( message );
+		}
+	}
+}
@@ -0,0 +1,559 @@
+package com.wikitude.samples.dispatch;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Small dispatch server holding unit positions, a local counterpart of a real backend for load testing the client's data path with thousands of connections.
+ * One thread runs a non-blocking selector loop, the same thread moves simulated units every tick, so no state is shared between threads.
+ * <ul>
+ * <li>GET /units?lat=&amp;lon=&amp;radius= units within radius (meters) as JSON array of the client's POI format</li>
+ * <li>POST /positions lines "id,lat,lon[,timeMs]" in the body, or ?id=&amp;lat=&amp;lon= for a single unit</li>
+ * <li>GET /stream?lat=&amp;lon=&amp;radius= units within radius, then their moves, as chunked ndjson, one chunk per tick</li>
+ * <li>GET /stats server counters as JSON</li>
+ * </ul>
+ * Responses are gzipped if the client sends Accept-Encoding: gzip, streams are compressed as one gzip stream flushed per chunk.
+ * Units leaving a stream's radius get no further updates, clients expire them by time like other stale positions.
+ */
+public class DispatchServer {
+
+	/** radius of queries without radius parameter */
+	private static final double DEFAULT_RADIUS_METERS = 1000;
+
+	/** larger stream radii would subscribe to too many cells */
+	private static final double MAX_RADIUS_METERS = 20000;
+
+	/** requests are handled between slices of flushing streams, so a tick's fan-out doesn't delay them */
+	private static final long FLUSH_SLICE_MS = 5;
+
+	/** lines of a stream are dropped while more than this waits for a slow client */
+	private static final long MAX_STREAM_QUEUED_BYTES = 256 * 1024;
+
+	private final UnitIndex index;
+
+	private final UnitSimulator simulator;
+
+	private final long tickMs;
+
+	private Selector selector;
+
+	private ServerSocketChannel serverChannel;
+
+	/** streams subscribed to each cell their radius overlaps, cell keys of the UnitIndex */
+	private final Map<Long, List<HttpConnection>> streamsByCell = new HashMap<Long, List<HttpConnection>>();
+
+	private final List<HttpConnection> streams = new ArrayList<HttpConnection>();
+
+	private final UnitIndex.Hits hits = new UnitIndex.Hits(), moved = new UnitIndex.Hits();
+
+	private final StringBuilder json = new StringBuilder( 64 * 1024 );
+
+	/** streams below this index still wait for the flush of the current tick, 0 if all are flushed */
+	private int flushIndex = 0;
+
+	private long tickStartedAt;
+
+	private volatile boolean running = false;
+
+	/* counters since start, see /stats */
+	private final long startedAt = System.currentTimeMillis();
+	private long connections, requests, positionsReceived, linesStreamed, linesDropped, bytesRead, bytesWritten, ticks, maxTickMs, maxFlushMs;
+
+	/**
+	 * @param simulator moves units every tick, null to keep them where clients put them
+	 */
+	public DispatchServer( final UnitIndex index, final UnitSimulator simulator, final long tickMs ) {
+		this.index = index;
+		this.simulator = simulator;
+		this.tickMs = tickMs;
+	}
+
+	/**
+	 * binds port, call run() afterwards
+	 */
+	public void bind( final int port ) throws IOException {
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.setOption( StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE );
+		this.serverChannel.bind( new InetSocketAddress( port ), 4096 );
+		this.serverChannel.configureBlocking( false );
+		this.serverChannel.register( this.selector, SelectionKey.OP_ACCEPT );
+	}
+
+	/**
+	 * @return bound port, useful when bound to port 0
+	 */
+	public int getPort() {
+		return this.serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * serves until stop() is called
+	 */
+	public void run() throws IOException {
+		this.running = true;
+		long lastTick = System.currentTimeMillis();
+		while ( this.running ) {
+			final long wait = lastTick + this.tickMs - System.currentTimeMillis();
+			if ( wait > 0 && this.flushIndex == 0 ) {
+				this.selector.select( wait );
+			} else {
+				this.selector.selectNow();
+			}
+			final Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+			while ( keys.hasNext() ) {
+				final SelectionKey key = keys.next();
+				keys.remove();
+				this.handle( key );
+			}
+			final long now = System.currentTimeMillis();
+			if ( this.flushIndex > 0 ) {
+				this.flushStreams( now + FLUSH_SLICE_MS );
+			} else if ( now - lastTick >= this.tickMs ) {
+				this.tick( now - lastTick, now );
+				lastTick = now;
+			}
+		}
+		for ( final SelectionKey key : this.selector.keys() ) {
+			key.channel().close();
+		}
+		this.selector.close();
+	}
+
+	/**
+	 * stops run() from any thread
+	 */
+	public void stop() {
+		this.running = false;
+		this.selector.wakeup();
+	}
+
+	private void handle( final SelectionKey key ) {
+		if ( !key.isValid() ) {
+			return;
+		}
+		if ( key.isAcceptable() ) {
+			this.accept();
+			return;
+		}
+		final HttpConnection connection = (HttpConnection)key.attachment();
+		try {
+			if ( key.isWritable() ) {
+				this.bytesWritten += connection.write();
+			}
+			if ( key.isValid() && key.isReadable() ) {
+				this.read( connection );
+			}
+		} catch ( final IOException e ) {
+			// reset by client
+			this.close( connection );
+		}
+		if ( !connection.isOpen() ) {
+			this.close( connection );
+		}
+	}
+
+	private void accept() {
+		try {
+			SocketChannel channel;
+			while ( ( channel = this.serverChannel.accept() ) != null ) {
+				channel.configureBlocking( false );
+				channel.setOption( StandardSocketOptions.TCP_NODELAY, Boolean.TRUE );
+				final SelectionKey key = channel.register( this.selector, SelectionKey.OP_READ );
+				key.attach( new HttpConnection( channel, key ) );
+				this.connections++;
+			}
+		} catch ( final IOException e ) {
+			// e.g. out of file descriptors, pending clients are accepted on next select
+			System.err.println( "accept failed: " + e.getMessage() );
+		}
+	}
+
+	private void read( final HttpConnection connection ) throws IOException {
+		final int read = connection.read();
+		if ( read < 0 ) {
+			this.close( connection );
+			return;
+		}
+		this.bytesRead += read;
+		if ( connection.streaming ) {
+			// streams have no further requests
+			return;
+		}
+		try {
+			HttpConnection.Request request;
+			while ( !connection.streaming && !connection.isClosing() && ( request = connection.nextRequest() ) != null ) {
+				this.requests++;
+				this.route( connection, request );
+			}
+		} catch ( final HttpConnection.HttpException e ) {
+			connection.respond( e.status, "text/plain; charset=utf-8", ( e.getMessage() + "\n" ).getBytes( HttpConnection.UTF_8 ), null );
+		}
+		this.bytesWritten += connection.write();
+	}
+
+	private void route( final HttpConnection connection, final HttpConnection.Request request ) throws IOException, HttpConnection.HttpException {
+		final String path = request.path;
+		if ( path.equals( "/units" ) ) {
+			this.requireMethod( request, "GET" );
+			this.index.query( request.getDouble( "lat", UnitSimulator.CENTER_LATITUDE ), request.getDouble( "lon", UnitSimulator.CENTER_LONGITUDE ), this.radius( request ), this.hits );
+			this.json.setLength( 0 );
+			this.json.append( '[' );
+			for ( int i = 0; i < this.hits.count; i++ ) {
+				if ( i > 0 ) {
+					this.json.append( ',' );
+				}
+				this.appendUnit( this.hits.slots[i] );
+			}
+			this.json.append( ']' );
+			this.respondJson( connection, request );
+		} else if ( path.equals( "/positions" ) ) {
+			this.requireMethod( request, "POST" );
+			final int count = request.getParameter( "id" ) != null ? this.receivePosition( request ) : this.receivePositions( request.body );
+			this.json.setLength( 0 );
+			this.json.append( "{\"accepted\":" ).append( count ).append( '}' );
+			this.respondJson( connection, request );
+		} else if ( path.equals( "/stream" ) ) {
+			this.requireMethod( request, "GET" );
+			this.startStream( connection, request );
+		} else if ( path.equals( "/stats" ) ) {
+			this.requireMethod( request, "GET" );
+			this.appendStats();
+			this.respondJson( connection, request );
+		} else {
+			throw new HttpConnection.HttpException( 404, "unknown path " + path );
+		}
+	}
+
+	private void startStream( final HttpConnection connection, final HttpConnection.Request request ) throws IOException, HttpConnection.HttpException {
+		final double lat = request.getDouble( "lat", UnitSimulator.CENTER_LATITUDE ), lon = request.getDouble( "lon", UnitSimulator.CENTER_LONGITUDE ), radius = this.radius( request );
+		connection.streamLatitude = lat;
+		connection.streamLongitude = lon;
+		connection.streamRadius = radius;
+		connection.streamMetersPerDegreeLongitude = UnitIndex.METERS_PER_DEGREE * Math.cos( Math.toRadians( lat ) );
+		connection.startStream( request );
+
+		// subscribe to every cell overlapping the radius
+		final double latDelta = radius / UnitIndex.METERS_PER_DEGREE;
+		final double lonDelta = latDelta / Math.max( 0.01, Math.cos( Math.toRadians( lat ) ) );
+		final int minRow = this.index.row( lat - latDelta ), maxRow = this.index.row( lat + latDelta );
+		final int minColumn = this.index.column( lon - lonDelta ), maxColumn = this.index.column( lon + lonDelta );
+		connection.streamCells = new long[( maxRow - minRow + 1 ) * ( maxColumn - minColumn + 1 )];
+		int cell = 0;
+		for ( int row = minRow; row <= maxRow; row++ ) {
+			for ( int column = minColumn; column <= maxColumn; column++ ) {
+				final Long key = Long.valueOf( UnitIndex.cellKey( row, column ) );
+				List<HttpConnection> subscribers = this.streamsByCell.get( key );
+				if ( subscribers == null ) {
+					subscribers = new ArrayList<HttpConnection>( 4 );
+					this.streamsByCell.put( key, subscribers );
+				}
+				subscribers.add( connection );
+				connection.streamCells[cell++] = key.longValue();
+			}
+		}
+		this.streams.add( connection );
+
+		// current units first, moves follow
+		this.index.query( lat, lon, radius, this.hits );
+		for ( int i = 0; i < this.hits.count; i++ ) {
+			this.json.setLength( 0 );
+			this.appendUnit( this.hits.slots[i] );
+			connection.streamLines.append( this.json ).append( '\n' );
+			connection.streamLineCount++;
+		}
+		this.linesStreamed += connection.streamLineCount;
+		connection.flushStream();
+	}
+
+	/**
+	 * moves simulated units and starts sending collected lines of every stream
+	 */
+	private void tick( final long elapsedMs, final long now ) {
+		this.ticks++;
+		if ( this.simulator != null ) {
+			this.simulator.step( elapsedMs, now, this.moved );
+			for ( int i = 0; i < this.moved.count; i++ ) {
+				this.publish( this.moved.slots[i] );
+			}
+		}
+		this.maxTickMs = Math.max( this.maxTickMs, System.currentTimeMillis() - now );
+		this.tickStartedAt = now;
+		this.flushIndex = this.streams.size();
+		this.flushStreams( System.currentTimeMillis() + FLUSH_SLICE_MS );
+	}
+
+	/**
+	 * sends collected lines of streams, from flushIndex down, until deadline. The selector loop calls it again until all streams are flushed
+	 */
+	private void flushStreams( final long deadline ) {
+		while ( this.flushIndex > 0 && System.currentTimeMillis() < deadline ) {
+			// streams closed meanwhile shift the list, at worst one is flushed twice or on next tick
+			this.flushIndex = Math.min( this.flushIndex, this.streams.size() ) - 1;
+			if ( this.flushIndex < 0 ) {
+				break;
+			}
+			final HttpConnection stream = this.streams.get( this.flushIndex );
+			if ( stream.streamLineCount == 0 ) {
+				continue;
+			}
+			if ( stream.queuedBytes > MAX_STREAM_QUEUED_BYTES ) {
+				// slow client, newer lines make these obsolete anyway
+				this.linesDropped += stream.streamLineCount;
+				stream.streamLines.setLength( 0 );
+				stream.streamLineCount = 0;
+				continue;
+			}
+			try {
+				stream.flushStream();
+				this.bytesWritten += stream.write();
+			} catch ( final IOException e ) {
+				this.close( stream );
+			}
+		}
+		if ( this.flushIndex <= 0 ) {
+			this.flushIndex = 0;
+			this.maxFlushMs = Math.max( this.maxFlushMs, System.currentTimeMillis() - this.tickStartedAt );
+		}
+	}
+
+	/**
+	 * appends position line of unit to streams whose radius contains it, sent on next tick
+	 */
+	private void publish( final int slot ) {
+		final List<HttpConnection> subscribers = this.streamsByCell.get( Long.valueOf( this.index.cellKey( this.index.getLatitude( slot ), this.index.getLongitude( slot ) ) ) );
+		if ( subscribers == null ) {
+			return;
+		}
+		final double lat = this.index.getLatitude( slot ), lon = this.index.getLongitude( slot );
+		String line = null;
+		for ( int i = 0; i < subscribers.size(); i++ ) {
+			final HttpConnection stream = subscribers.get( i );
+			// cells hold hundreds of streams at thousands of clients, so no trigonometry per check
+			final double dy = ( lat - stream.streamLatitude ) * UnitIndex.METERS_PER_DEGREE;
+			final double dx = ( lon - stream.streamLongitude ) * stream.streamMetersPerDegreeLongitude;
+			if ( dx * dx + dy * dy > stream.streamRadius * stream.streamRadius ) {
+				continue;
+			}
+			if ( line == null ) {
+				this.json.setLength( 0 );
+				this.json.append( "{\"id\":\"" ).append( this.index.getId( slot ) ).append( "\",\"latitude\":" );
+				appendCoordinate( this.json, lat );
+				this.json.append( ",\"longitude\":" );
+				appendCoordinate( this.json, lon );
+				this.json.append( ",\"time\":" ).append( this.index.getTime( slot ) ).append( "}\n" );
+				line = this.json.toString();
+			}
+			stream.streamLines.append( line );
+			stream.streamLineCount++;
+			this.linesStreamed++;
+		}
+	}
+
+	private int receivePosition( final HttpConnection.Request request ) throws HttpConnection.HttpException {
+		final int id;
+		try {
+			id = Integer.parseInt( request.getParameter( "id" ) );
+		} catch ( final NumberFormatException e ) {
+			throw new HttpConnection.HttpException( 400, "invalid id" );
+		}
+		final double lat = request.getDouble( "lat", Double.NaN ), lon = request.getDouble( "lon", Double.NaN );
+		if ( Double.isNaN( lat ) || Double.isNaN( lon ) ) {
+			throw new HttpConnection.HttpException( 400, "lat and lon required" );
+		}
+		this.updatePosition( id, lat, lon, (long)request.getDouble( "time", System.currentTimeMillis() ) );
+		return 1;
+	}
+
+	/**
+	 * @return number of valid lines, malformed ones are skipped
+	 */
+	private int receivePositions( final byte[] body ) {
+		final long now = System.currentTimeMillis();
+		int count = 0;
+		for ( final String line : new String( body, HttpConnection.UTF_8 ).split( "\n" ) ) {
+			final String[] fields = line.trim().split( "," );
+			if ( fields.length < 3 ) {
+				continue;
+			}
+			try {
+				final double lat = Double.parseDouble( fields[1] ), lon = Double.parseDouble( fields[2] );
+				if ( Double.isNaN( lat ) || Double.isNaN( lon ) ) {
+					continue;
+				}
+				this.updatePosition( Integer.parseInt( fields[0] ), lat, lon, fields.length > 3 ? Long.parseLong( fields[3] ) : now );
+				count++;
+			} catch ( final NumberFormatException e ) {
+				// skip line
+			}
+		}
+		return count;
+	}
+
+	private void updatePosition( final int id, final double lat, final double lon, final long timeMs ) {
+		final boolean known = this.index.getSlot( id ) >= 0;
+		final int slot = this.index.put( id, lat, lon, timeMs );
+		if ( !known ) {
+			this.index.setDetails( slot, "Unit " + id, "Reported unit", UnitSimulator.TYPES[0], UnitSimulator.STATUSES[0], UnitSimulator.SEVERITIES[0] );
+		}
+		this.positionsReceived++;
+		this.publish( slot );
+	}
+
+	private void close( final HttpConnection connection ) {
+		connection.close();
+		if ( connection.streaming && connection.streamCells != null ) {
+			for ( final long cell : connection.streamCells ) {
+				final List<HttpConnection> subscribers = this.streamsByCell.get( Long.valueOf( cell ) );
+				if ( subscribers != null ) {
+					subscribers.remove( connection );
+					if ( subscribers.isEmpty() ) {
+						this.streamsByCell.remove( Long.valueOf( cell ) );
+					}
+				}
+			}
+			connection.streamCells = null;
+			this.streams.remove( connection );
+		}
+	}
+
+	private double radius( final HttpConnection.Request request ) throws HttpConnection.HttpException {
+		final double radius = request.getDouble( "radius", DEFAULT_RADIUS_METERS );
+		if ( radius <= 0 || radius > MAX_RADIUS_METERS ) {
+			throw new HttpConnection.HttpException( 400, "radius must be within 0 and " + (int)MAX_RADIUS_METERS );
+		}
+		return radius;
+	}
+
+	private void requireMethod( final HttpConnection.Request request, final String method ) throws HttpConnection.HttpException {
+		if ( !request.method.equals( method ) ) {
+			throw new HttpConnection.HttpException( 405, request.path + " requires " + method );
+		}
+	}
+
+	private void respondJson( final HttpConnection connection, final HttpConnection.Request request ) throws IOException {
+		connection.respond( 200, "application/json; charset=utf-8", this.json.toString().getBytes( HttpConnection.UTF_8 ), request );
+	}
+
+	/**
+	 * POI format of the client, see SampleCamContentFromNativeActivity.getPoiInformation()
+	 */
+	private void appendUnit( final int slot ) {
+		this.json.append( "{\"id\":\"" ).append( this.index.getId( slot ) ).append( '"' );
+		this.json.append( ",\"name\":" );
+		quote( this.json, this.index.getName( slot ) );
+		this.json.append( ",\"description\":" );
+		quote( this.json, this.index.getDescription( slot ) );
+		this.json.append( ",\"latitude\":" );
+		appendCoordinate( this.json, this.index.getLatitude( slot ) );
+		this.json.append( ",\"longitude\":" );
+		appendCoordinate( this.json, this.index.getLongitude( slot ) );
+		// AR.CONST.UNKNOWN_ALTITUDE, units are placed on user level
+		this.json.append( ",\"altitude\":-32768" );
+		this.json.append( ",\"type\":" );
+		quote( this.json, this.index.getType( slot ) );
+		this.json.append( ",\"status\":" );
+		quote( this.json, this.index.getStatus( slot ) );
+		this.json.append( ",\"severity\":" );
+		quote( this.json, this.index.getSeverity( slot ) );
+		this.json.append( ",\"time\":" ).append( this.index.getTime( slot ) ).append( '}' );
+	}
+
+	private void appendStats() {
+		final long elapsedMs = Math.max( 1, System.currentTimeMillis() - this.startedAt );
+		this.json.setLength( 0 );
+		this.json.append( "{\"units\":" ).append( this.index.size() );
+		this.json.append( ",\"openConnections\":" ).append( this.selector.keys().size() - 1 );
+		this.json.append( ",\"streams\":" ).append( this.streams.size() );
+		this.json.append( ",\"connections\":" ).append( this.connections );
+		this.json.append( ",\"requests\":" ).append( this.requests );
+		this.json.append( ",\"positionsReceived\":" ).append( this.positionsReceived );
+		this.json.append( ",\"linesStreamed\":" ).append( this.linesStreamed );
+		this.json.append( ",\"linesDropped\":" ).append( this.linesDropped );
+		this.json.append( ",\"bytesRead\":" ).append( this.bytesRead );
+		this.json.append( ",\"bytesWritten\":" ).append( this.bytesWritten );
+		this.json.append( ",\"ticks\":" ).append( this.ticks );
+		this.json.append( ",\"maxTickMs\":" ).append( this.maxTickMs );
+		this.json.append( ",\"maxFlushMs\":" ).append( this.maxFlushMs );
+		this.json.append( ",\"requestsPerSecond\":" ).append( this.requests * 1000 / elapsedMs );
+		this.json.append( ",\"uptimeMs\":" ).append( elapsedMs ).append( '}' );
+	}
+
+	/**
+	 * 7 decimals (~1 cm) instead of Double.toString()'s 17 digits, streams are mostly coordinates
+	 */
+	private static void appendCoordinate( final StringBuilder json, final double degrees ) {
+		final long scaled = Math.round( Math.abs( degrees ) * 1e7 );
+		if ( degrees < 0 && scaled != 0 ) {
+			json.append( '-' );
+		}
+		json.append( scaled / 10000000 ).append( '.' );
+		final long fraction = scaled % 10000000;
+		for ( long digit = 1000000; digit > fraction && digit > 1; digit /= 10 ) {
+			json.append( '0' );
+		}
+		json.append( fraction );
+	}
+
+	private static void quote( final StringBuilder json, final String value ) {
+		if ( value == null ) {
+			json.append( "null" );
+			return;
+		}
+		json.append( '"' );
+		for ( int i = 0; i < value.length(); i++ ) {
+			final char c = value.charAt( i );
+			if ( c == '"' || c == '\\' ) {
+				json.append( '\\' ).append( c );
+			} else if ( c < 0x20 || c == 0x2028 || c == 0x2029 ) {
+				json.append( String.format( "\\u%04x", (int)c ) );
+			} else {
+				json.append( c );
+			}
+		}
+		json.append( '"' );
+	}
+
+	/**
+	 * java -jar dispatchserver.jar [--port 8080] [--units 1000] [--tick 250] [--seed 1] [--no-simulation]
+	 */
+	public static void main( final String[] args ) throws IOException {
+		int port = 8080, units = 1000;
+		long tickMs = 250, seed = 1;
+		boolean simulate = true;
+		for ( int i = 0; i < args.length; i++ ) {
+			final String arg = args[i];
+			if ( arg.equals( "--no-simulation" ) ) {
+				simulate = false;
+			} else if ( i + 1 < args.length && arg.equals( "--port" ) ) {
+				port = Integer.parseInt( args[++i] );
+			} else if ( i + 1 < args.length && arg.equals( "--units" ) ) {
+				units = Integer.parseInt( args[++i] );
+			} else if ( i + 1 < args.length && arg.equals( "--tick" ) ) {
+				tickMs = Long.parseLong( args[++i] );
+			} else if ( i + 1 < args.length && arg.equals( "--seed" ) ) {
+				seed = Long.parseLong( args[++i] );
+			} else {
+				System.err.println( "usage: DispatchServer [--port 8080] [--units 1000] [--tick 250] [--seed 1] [--no-simulation]" );
+				System.exit( 2 );
+			}
+		}
+		final UnitIndex index = new UnitIndex();
+		final UnitSimulator simulator = new UnitSimulator( index, seed );
+		simulator.seed( units, System.currentTimeMillis() );
+		final DispatchServer server = new DispatchServer( index, simulate ? simulator : null, Math.max( 10, tickMs ) );
+		server.bind( port );
+		System.out.println( "dispatch server on port " + server.getPort() + " with " + index.size() + " units" );
+		server.run();
+	}
+}
@@ -0,0 +1,388 @@
+package com.wikitude.samples.dispatch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * One client connection of the DispatchServer: parses HTTP/1.1 requests from its input buffer and queues responses until the socket takes them.
+ * A connection turns into an update stream on GET /stream, then carries one chunked (and gzipped) response until the client disconnects.
+ * Only used on the server's selector thread.
+ */
+final class HttpConnection {
+
+	static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+	static final Charset ASCII = Charset.forName( "US-ASCII" );
+
+	/** request line and headers */
+	private static final int MAX_HEADER_BYTES = 8 * 1024;
+
+	/** body of batched position updates */
+	private static final int MAX_BODY_BYTES = 1024 * 1024;
+
+	/** responses smaller than this are not worth compressing */
+	private static final int MIN_GZIP_BYTES = 256;
+
+	/**
+	 * malformed or unsupported request, answered with status and closed
+	 */
+	static final class HttpException extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		final int status;
+
+		HttpException( final int status, final String message ) {
+			super( message );
+			this.status = status;
+		}
+	}
+
+	/**
+	 * parsed request, parameters are those of the query string
+	 */
+	static final class Request {
+
+		String method, path;
+
+		final Map<String, String> parameters = new HashMap<String, String>();
+
+		boolean acceptsGzip, keepAlive;
+
+		byte[] body;
+
+		String getParameter( final String name ) {
+			return this.parameters.get( name );
+		}
+
+		/**
+		 * @return value of parameter, defaultValue if missing
+		 * @throws HttpException if not a number
+		 */
+		double getDouble( final String name, final double defaultValue ) throws HttpException {
+			final String value = this.parameters.get( name );
+			if ( value == null ) {
+				return defaultValue;
+			}
+			try {
+				final double number = Double.parseDouble( value );
+				if ( Double.isNaN( number ) || Double.isInfinite( number ) ) {
+					throw new HttpException( 400, "invalid " + name );
+				}
+				return number;
+			} catch ( final NumberFormatException e ) {
+				throw new HttpException( 400, "invalid " + name );
+			}
+		}
+	}
+
+	final SocketChannel channel;
+
+	final SelectionKey key;
+
+	private ByteBuffer input = ByteBuffer.allocate( 2048 );
+
+	private final ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+
+	/** bytes queued but not written yet, update streams drop lines beyond a limit */
+	long queuedBytes;
+
+	private boolean closeAfterWrite = false;
+
+	/* update stream, see startStream() */
+	boolean streaming = false;
+	double streamLatitude, streamLongitude, streamRadius, streamMetersPerDegreeLongitude;
+	long[] streamCells;
+	final StringBuilder streamLines = new StringBuilder();
+	int streamLineCount;
+	private GZIPOutputStream streamGzip;
+	private ByteArrayOutputStream streamCompressed;
+
+	HttpConnection( final SocketChannel channel, final SelectionKey key ) {
+		this.channel = channel;
+		this.key = key;
+	}
+
+	/**
+	 * @return bytes read, -1 if client closed the connection
+	 */
+	int read() throws IOException {
+		if ( !this.input.hasRemaining() ) {
+			// only grows for request bodies, headers are limited by nextRequest()
+			final ByteBuffer larger = ByteBuffer.allocate( Math.min( this.input.capacity() * 2, MAX_HEADER_BYTES + MAX_BODY_BYTES ) );
+			this.input.flip();
+			larger.put( this.input );
+			this.input = larger;
+		}
+		return this.channel.read( this.input );
+	}
+
+	/**
+	 * @return next complete request, null if more bytes are needed
+	 */
+	Request nextRequest() throws HttpException {
+		final byte[] bytes = this.input.array();
+		final int length = this.input.position();
+		final int headerEnd = indexOf( bytes, length, "\r\n\r\n" );
+		if ( headerEnd < 0 ) {
+			if ( length >= MAX_HEADER_BYTES ) {
+				throw new HttpException( 431, "headers too large" );
+			}
+			return null;
+		}
+		final String[] lines = new String( bytes, 0, headerEnd, ASCII ).split( "\r\n" );
+		final String[] requestLine = lines[0].split( " " );
+		if ( requestLine.length != 3 || !requestLine[2].startsWith( "HTTP/1." ) ) {
+			throw new HttpException( 400, "malformed request line" );
+		}
+		final Request request = new Request();
+		request.method = requestLine[0];
+		request.keepAlive = requestLine[2].equals( "HTTP/1.1" );
+		int contentLength = 0;
+		for ( int i = 1; i < lines.length; i++ ) {
+			final int colon = lines[i].indexOf( ':' );
+			if ( colon <= 0 ) {
+				continue;
+			}
+			final String name = lines[i].substring( 0, colon ).trim().toLowerCase( Locale.US );
+			final String value = lines[i].substring( colon + 1 ).trim();
+			if ( name.equals( "content-length" ) ) {
+				try {
+					contentLength = Integer.parseInt( value );
+				} catch ( final NumberFormatException e ) {
+					throw new HttpException( 400, "invalid content-length" );
+				}
+				if ( contentLength < 0 || contentLength > MAX_BODY_BYTES ) {
+					throw new HttpException( 413, "body too large" );
+				}
+			} else if ( name.equals( "accept-encoding" ) ) {
+				request.acceptsGzip = value.toLowerCase( Locale.US ).contains( "gzip" );
+			} else if ( name.equals( "connection" ) ) {
+				request.keepAlive = value.equalsIgnoreCase( "keep-alive" ) || ( request.keepAlive && !value.equalsIgnoreCase( "close" ) );
+			} else if ( name.equals( "transfer-encoding" ) ) {
+				throw new HttpException( 411, "chunked request bodies are not supported" );
+			}
+		}
+		final int bodyStart = headerEnd + 4;
+		if ( length < bodyStart + contentLength ) {
+			return null;
+		}
+		request.body = new byte[contentLength];
+		System.arraycopy( bytes, bodyStart, request.body, 0, contentLength );
+		this.parseTarget( requestLine[1], request );
+
+		// keep bytes of pipelined requests
+		this.input.flip();
+		this.input.position( bodyStart + contentLength );
+		this.input.compact();
+		return request;
+	}
+
+	/**
+	 * queues response with Content-Length, gzipped if client accepts it and body is large enough
+	 */
+	void respond( final int status, final String contentType, final byte[] body, final Request request ) throws IOException {
+		byte[] content = body;
+		final boolean gzip = request != null && request.acceptsGzip && body.length >= MIN_GZIP_BYTES;
+		if ( gzip ) {
+			final ByteArrayOutputStream compressed = new ByteArrayOutputStream( body.length / 4 + 64 );
+			final GZIPOutputStream stream = new GZIPOutputStream( compressed );
+			stream.write( body );
+			stream.close();
+			content = compressed.toByteArray();
+		}
+		final boolean keepAlive = request != null && request.keepAlive;
+		final StringBuilder header = new StringBuilder( 160 );
+		header.append( "HTTP/1.1 " ).append( status ).append( ' ' ).append( reason( status ) ).append( "\r\n" );
+		header.append( "Content-Type: " ).append( contentType ).append( "\r\n" );
+		header.append( "Content-Length: " ).append( content.length ).append( "\r\n" );
+		if ( gzip ) {
+			header.append( "Content-Encoding: gzip\r\n" );
+		}
+		header.append( "Vary: Accept-Encoding\r\n" );
+		header.append( keepAlive ? "Connection: keep-alive\r\n\r\n" : "Connection: close\r\n\r\n" );
+		final byte[] headerBytes = header.toString().getBytes( ASCII );
+		final ByteBuffer buffer = ByteBuffer.allocate( headerBytes.length + content.length );
+		buffer.put( headerBytes ).put( content ).flip();
+		this.enqueue( buffer );
+		if ( !keepAlive ) {
+			this.closeAfterWrite = true;
+		}
+	}
+
+	/**
+	 * sends headers of the endless chunked ndjson response, lines follow via flushStream()
+	 */
+	void startStream( final Request request ) throws IOException {
+		this.streaming = true;
+		final StringBuilder header = new StringBuilder( 200 );
+		header.append( "HTTP/1.1 200 OK\r\n" );
+		header.append( "Content-Type: application/x-ndjson; charset=utf-8\r\n" );
+		header.append( "Transfer-Encoding: chunked\r\n" );
+		header.append( "Cache-Control: no-cache\r\n" );
+		if ( request.acceptsGzip ) {
+			header.append( "Content-Encoding: gzip\r\n" );
+			this.streamCompressed = new ByteArrayOutputStream( 4096 );
+			// sync flush emits every chunk's lines completely, compression state is kept across chunks.
+			// Fastest level, deflating thousands of streams every tick is the server's main cost
+			this.streamGzip = new GZIPOutputStream( this.streamCompressed, 4096, true ) {
+
+				{
+					this.def.setLevel( Deflater.BEST_SPEED );
+				}
+			};
+		}
+		header.append( "\r\n" );
+		this.enqueue( ByteBuffer.wrap( header.toString().getBytes( ASCII ) ) );
+	}
+
+	/**
+	 * sends lines collected in streamLines as one chunk, nothing if there are none
+	 * @return bytes of chunk before compression
+	 */
+	int flushStream() throws IOException {
+		final byte[] lines = this.streamLines.toString().getBytes( UTF_8 );
+		this.streamLines.setLength( 0 );
+		this.streamLineCount = 0;
+		byte[] data = lines;
+		if ( this.streamGzip != null ) {
+			this.streamGzip.write( lines );
+			this.streamGzip.flush();
+			data = this.streamCompressed.toByteArray();
+			this.streamCompressed.reset();
+		}
+		if ( data.length == 0 ) {
+			// a zero sized chunk ends the response
+			return 0;
+		}
+		final byte[] size = ( Integer.toHexString( data.length ) + "\r\n" ).getBytes( ASCII );
+		final ByteBuffer chunk = ByteBuffer.allocate( size.length + data.length + 2 );
+		chunk.put( size ).put( data ).put( (byte)'\r' ).put( (byte)'\n' ).flip();
+		this.enqueue( chunk );
+		return lines.length;
+	}
+
+	/**
+	 * writes queued buffers as far as the socket takes them, waits for OP_WRITE otherwise
+	 * @return bytes written
+	 */
+	long write() throws IOException {
+		long written = 0;
+		while ( !this.output.isEmpty() ) {
+			final ByteBuffer buffer = this.output.peek();
+			written += this.channel.write( buffer );
+			if ( buffer.hasRemaining() ) {
+				break;
+			}
+			this.output.poll();
+		}
+		this.queuedBytes -= written;
+		if ( this.output.isEmpty() ) {
+			if ( this.closeAfterWrite ) {
+				this.close();
+			} else if ( this.key.isValid() ) {
+				this.key.interestOps( SelectionKey.OP_READ );
+			}
+		} else if ( this.key.isValid() ) {
+			this.key.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+		}
+		return written;
+	}
+
+	void close() {
+		this.key.cancel();
+		try {
+			this.channel.close();
+		} catch ( final IOException e ) {
+			// closing anyway
+		}
+		this.output.clear();
+		this.queuedBytes = 0;
+	}
+
+	/**
+	 * @return true if a response without keep-alive was queued, further requests are ignored
+	 */
+	boolean isClosing() {
+		return this.closeAfterWrite;
+	}
+
+	boolean isOpen() {
+		return this.channel.isOpen();
+	}
+
+	private void enqueue( final ByteBuffer buffer ) {
+		this.output.add( buffer );
+		this.queuedBytes += buffer.remaining();
+	}
+
+	private void parseTarget( final String target, final Request request ) throws HttpException {
+		final int question = target.indexOf( '?' );
+		request.path = question < 0 ? target : target.substring( 0, question );
+		if ( question < 0 ) {
+			return;
+		}
+		for ( final String pair : target.substring( question + 1 ).split( "&" ) ) {
+			if ( pair.length() == 0 ) {
+				continue;
+			}
+			final int equals = pair.indexOf( '=' );
+			try {
+				final String name = URLDecoder.decode( equals < 0 ? pair : pair.substring( 0, equals ), "UTF-8" );
+				final String value = equals < 0 ? "" : URLDecoder.decode( pair.substring( equals + 1 ), "UTF-8" );
+				request.parameters.put( name, value );
+			} catch ( final UnsupportedEncodingException e ) {
+				// UTF-8 is always supported
+			} catch ( final IllegalArgumentException e ) {
+				throw new HttpException( 400, "malformed query" );
+			}
+		}
+	}
+
+	private static int indexOf( final byte[] bytes, final int length, final String text ) {
+		outer: for ( int i = 0; i + text.length() <= length; i++ ) {
+			for ( int j = 0; j < text.length(); j++ ) {
+				if ( bytes[i + j] != text.charAt( j ) ) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	static String reason( final int status ) {
+		switch ( status ) {
+			case 200:
+				return "OK";
+			case 204:
+				return "No Content";
+			case 400:
+				return "Bad Request";
+			case 404:
+				return "Not Found";
+			case 405:
+				return "Method Not Allowed";
+			case 411:
+				return "Length Required";
+			case 413:
+				return "Payload Too Large";
+			case 431:
+				return "Request Header Fields Too Large";
+			default:
+				return "Error";
+		}
+	}
+}
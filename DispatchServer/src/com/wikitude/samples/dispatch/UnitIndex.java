@@ -0,0 +1,313 @@
+package com.wikitude.samples.dispatch;
+
+import java.util.Arrays;
+
+import com.wikitude.samples.utils.collections.IntIntMap;
+
+/**
+ * Unit positions and details in a uniform lat/lon grid, cells are keyed and hashed like the client's GeofenceEngine grid (row << 32 | column, open addressing).
+ * Units and cell lists live in primitive arrays, each cell links its units in both directions, so moving a unit between cells is O(1).
+ * Radius queries only visit cells overlapping the query's bounding box. Not thread-safe, the server uses it from its selector thread only.
+ */
+public class UnitIndex {
+
+	/** ~1.1 km in latitude, radius queries of a few km visit a few dozen cells */
+	public static final double DEFAULT_CELL_SIZE_DEGREES = 0.01;
+
+	static final double METERS_PER_DEGREE = 111320;
+
+	/** result of a radius query, reused across queries */
+	public static final class Hits {
+
+		/** slots of matching units, valid up to count */
+		public int[] slots = new int[64];
+
+		public int count;
+
+		void add( final int slot ) {
+			if ( this.count == this.slots.length ) {
+				this.slots = Arrays.copyOf( this.slots, this.count * 2 );
+			}
+			this.slots[this.count++] = slot;
+		}
+	}
+
+	private final double cellSizeDegrees;
+
+	/** unit id -> slot */
+	private final IntIntMap slots = new IntIntMap( 1024 );
+
+	/* units by slot */
+	private int count = 0;
+	private int[] ids = new int[1024];
+	private double[] latitudes = new double[1024], longitudes = new double[1024];
+	private long[] times = new long[1024];
+	private String[] names = new String[1024], descriptions = new String[1024], types = new String[1024], statuses = new String[1024], severities = new String[1024];
+
+	/** cell index of unit and its neighbours in the cell's list, -1 at the ends */
+	private int[] unitCells = new int[1024], next = new int[1024], previous = new int[1024];
+
+	/* cells: open addressing hash of cell key -> first unit, -1 for empty lists. Cells are kept once used */
+	private long[] cellKeys = new long[1024];
+	private int[] cellHeads = new int[1024];
+	private boolean[] cellUsed = new boolean[1024];
+	private int cellCount = 0;
+
+	public UnitIndex() {
+		this( DEFAULT_CELL_SIZE_DEGREES );
+	}
+
+	/**
+	 * @param cellSizeDegrees grid cell size, roughly the radius of typical queries
+	 */
+	public UnitIndex( final double cellSizeDegrees ) {
+		this.cellSizeDegrees = cellSizeDegrees;
+	}
+
+	public int size() {
+		return this.count;
+	}
+
+	/**
+	 * adds unit or moves it
+	 * @return slot of unit, stable while the index exists
+	 */
+	public int put( final int id, final double lat, final double lon, final long timeMs ) {
+		int slot = this.slots.get( id );
+		final int cell = this.cell( lat, lon );
+		if ( slot == IntIntMap.MISSING ) {
+			slot = this.count++;
+			if ( slot == this.ids.length ) {
+				this.grow( slot * 2 );
+			}
+			this.ids[slot] = id;
+			this.slots.put( id, slot );
+			this.link( slot, cell );
+		} else if ( this.unitCells[slot] != cell ) {
+			this.unlink( slot );
+			this.link( slot, cell );
+		}
+		this.latitudes[slot] = lat;
+		this.longitudes[slot] = lon;
+		this.times[slot] = timeMs;
+		return slot;
+	}
+
+	/**
+	 * attributes shown by the client, same names as its POI JSON
+	 */
+	public void setDetails( final int slot, final String name, final String description, final String type, final String status, final String severity ) {
+		this.names[slot] = name;
+		this.descriptions[slot] = description;
+		this.types[slot] = type;
+		this.statuses[slot] = status;
+		this.severities[slot] = severity;
+	}
+
+	/**
+	 * @return slot of unit, -1 if unknown
+	 */
+	public int getSlot( final int id ) {
+		final int slot = this.slots.get( id );
+		return slot == IntIntMap.MISSING ? -1 : slot;
+	}
+
+	/**
+	 * collects units within radius, in no particular order
+	 * @param hits cleared and filled
+	 */
+	public void query( final double lat, final double lon, final double radiusMeters, final Hits hits ) {
+		hits.count = 0;
+		final double latDelta = radiusMeters / METERS_PER_DEGREE;
+		final double lonDelta = latDelta / Math.max( 0.01, Math.cos( Math.toRadians( lat ) ) );
+		final int minRow = this.row( lat - latDelta ), maxRow = this.row( lat + latDelta );
+		final int minColumn = this.column( lon - lonDelta ), maxColumn = this.column( lon + lonDelta );
+		if ( (long)( maxRow - minRow + 1 ) * ( maxColumn - minColumn + 1 ) > this.cellCount ) {
+			// query covers more cells than are in use, scanning all units is cheaper
+			for ( int slot = 0; slot < this.count; slot++ ) {
+				if ( this.isWithin( slot, lat, lon, radiusMeters ) ) {
+					hits.add( slot );
+				}
+			}
+			return;
+		}
+		for ( int row = minRow; row <= maxRow; row++ ) {
+			for ( int column = minColumn; column <= maxColumn; column++ ) {
+				final int cell = this.findCell( cellKey( row, column ) );
+				if ( cell < 0 ) {
+					continue;
+				}
+				for ( int slot = this.cellHeads[cell]; slot >= 0; slot = this.next[slot] ) {
+					if ( this.isWithin( slot, lat, lon, radiusMeters ) ) {
+						hits.add( slot );
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * equirectangular approximation, accurate for the few km clients query
+	 */
+	public boolean isWithin( final int slot, final double lat, final double lon, final double radiusMeters ) {
+		return distanceSquared( lat, lon, this.latitudes[slot], this.longitudes[slot] ) <= radiusMeters * radiusMeters;
+	}
+
+	public int getId( final int slot ) {
+		return this.ids[slot];
+	}
+
+	public double getLatitude( final int slot ) {
+		return this.latitudes[slot];
+	}
+
+	public double getLongitude( final int slot ) {
+		return this.longitudes[slot];
+	}
+
+	public long getTime( final int slot ) {
+		return this.times[slot];
+	}
+
+	public String getName( final int slot ) {
+		return this.names[slot];
+	}
+
+	public String getDescription( final int slot ) {
+		return this.descriptions[slot];
+	}
+
+	public String getType( final int slot ) {
+		return this.types[slot];
+	}
+
+	public String getStatus( final int slot ) {
+		return this.statuses[slot];
+	}
+
+	public String getSeverity( final int slot ) {
+		return this.severities[slot];
+	}
+
+	/**
+	 * @return key of cell containing position, shared with subscription grids of the same cell size
+	 */
+	public long cellKey( final double lat, final double lon ) {
+		return cellKey( this.row( lat ), this.column( lon ) );
+	}
+
+	public int row( final double lat ) {
+		return (int)Math.floor( lat / this.cellSizeDegrees );
+	}
+
+	public int column( final double lon ) {
+		return (int)Math.floor( lon / this.cellSizeDegrees );
+	}
+
+	public static long cellKey( final int row, final int column ) {
+		return ( (long)row << 32 ) | ( column & 0xFFFFFFFFL );
+	}
+
+	static double distanceSquared( final double lat1, final double lon1, final double lat2, final double lon2 ) {
+		final double dy = ( lat2 - lat1 ) * METERS_PER_DEGREE;
+		final double dx = ( lon2 - lon1 ) * METERS_PER_DEGREE * Math.cos( Math.toRadians( ( lat1 + lat2 ) / 2 ) );
+		return dx * dx + dy * dy;
+	}
+
+	private void link( final int slot, final int cell ) {
+		final int head = this.cellHeads[cell];
+		this.unitCells[slot] = cell;
+		this.previous[slot] = -1;
+		this.next[slot] = head;
+		if ( head >= 0 ) {
+			this.previous[head] = slot;
+		}
+		this.cellHeads[cell] = slot;
+	}
+
+	private void unlink( final int slot ) {
+		final int before = this.previous[slot], after = this.next[slot];
+		if ( before >= 0 ) {
+			this.next[before] = after;
+		} else {
+			this.cellHeads[this.unitCells[slot]] = after;
+		}
+		if ( after >= 0 ) {
+			this.previous[after] = before;
+		}
+	}
+
+	/**
+	 * @return cell index of position, created if new
+	 */
+	private int cell( final double lat, final double lon ) {
+		final long key = this.cellKey( lat, lon );
+		int index = this.probeCell( key );
+		if ( !this.cellUsed[index] ) {
+			if ( ( this.cellCount + 1 ) * 2 > this.cellKeys.length ) {
+				this.rehashCells( this.cellKeys.length * 2 );
+				index = this.probeCell( key );
+			}
+			this.cellUsed[index] = true;
+			this.cellKeys[index] = key;
+			this.cellHeads[index] = -1;
+			this.cellCount++;
+		}
+		return index;
+	}
+
+	/**
+	 * @return cell index or -1 if cell was never used
+	 */
+	private int findCell( final long key ) {
+		final int index = this.probeCell( key );
+		return this.cellUsed[index] ? index : -1;
+	}
+
+	private int probeCell( final long key ) {
+		final int mask = this.cellKeys.length - 1;
+		int index = (int)( ( key * 0x9E3779B97F4A7C15L ) >>> 32 ) & mask;
+		while ( this.cellUsed[index] && this.cellKeys[index] != key ) {
+			index = ( index + 1 ) & mask;
+		}
+		return index;
+	}
+
+	private void rehashCells( final int capacity ) {
+		final long[] oldKeys = this.cellKeys;
+		final int[] oldHeads = this.cellHeads;
+		final boolean[] oldUsed = this.cellUsed;
+		this.cellKeys = new long[capacity];
+		this.cellHeads = new int[capacity];
+		this.cellUsed = new boolean[capacity];
+		final int[] moved = new int[oldKeys.length];
+		for ( int i = 0; i < oldKeys.length; i++ ) {
+			if ( oldUsed[i] ) {
+				final int index = this.probeCell( oldKeys[i] );
+				this.cellUsed[index] = true;
+				this.cellKeys[index] = oldKeys[i];
+				this.cellHeads[index] = oldHeads[i];
+				moved[i] = index;
+			}
+		}
+		// units refer to cells by index
+		for ( int slot = 0; slot < this.count; slot++ ) {
+			this.unitCells[slot] = moved[this.unitCells[slot]];
+		}
+	}
+
+	private void grow( final int capacity ) {
+		this.ids = Arrays.copyOf( this.ids, capacity );
+		this.latitudes = Arrays.copyOf( this.latitudes, capacity );
+		this.longitudes = Arrays.copyOf( this.longitudes, capacity );
+		this.times = Arrays.copyOf( this.times, capacity );
+		this.names = Arrays.copyOf( this.names, capacity );
+		this.descriptions = Arrays.copyOf( this.descriptions, capacity );
+		this.types = Arrays.copyOf( this.types, capacity );
+		this.statuses = Arrays.copyOf( this.statuses, capacity );
+		this.severities = Arrays.copyOf( this.severities, capacity );
+		this.unitCells = Arrays.copyOf( this.unitCells, capacity );
+		this.next = Arrays.copyOf( this.next, capacity );
+		this.previous = Arrays.copyOf( this.previous, capacity );
+	}
+}
@@ -0,0 +1,99 @@
+package com.wikitude.samples.dispatch;
+
+import java.util.Random;
+
+/**
+ * Seeds the UnitIndex with the demo's units and moves them by a random walk, so update streams carry load without real devices.
+ * Types, statuses and severities are the ones the client's POIs use.
+ */
+public class UnitSimulator {
+
+	/** center of the demo's units */
+	public static final double CENTER_LATITUDE = 33.7765, CENTER_LONGITUDE = -84.3975;
+
+	static final String[] TYPES = { "officer", "k9", "technician" };
+	static final String[] STATUSES = { "on_call", "engaged" };
+	static final String[] SEVERITIES = { "low", "medium", "high" };
+
+	/** generated units are spread within this distance of the center */
+	private static final double SPREAD_METERS = 3000;
+
+	/** walking to driving speeds */
+	private static final double MIN_SPEED_MPS = 1, MAX_SPEED_MPS = 15;
+
+	private final UnitIndex index;
+
+	private final Random random;
+
+	/** slots of moving units and their heading in radians and speed */
+	private int[] slots = new int[0];
+	private double[] headings = new double[0], speeds = new double[0];
+	private int count = 0;
+
+	/**
+	 * @param seed same seed gives same units and moves
+	 */
+	public UnitSimulator( final UnitIndex index, final long seed ) {
+		this.index = index;
+		this.random = new Random( seed );
+	}
+
+	/**
+	 * adds the units of the demo World and generated ones around them, call once
+	 * @param count total number of units, at least the 4 demo units are added
+	 */
+	public void seed( final int count, final long timeMs ) {
+		final int total = Math.max( 4, count );
+		this.slots = new int[total];
+		this.headings = new double[total];
+		this.speeds = new double[total];
+		this.add( 1, 33.77719238900398, -84.39636077731848, "Officer TPeet", "Unauthorized access at Klaus", "officer", "engaged", "high", timeMs );
+		this.add( 2, 33.77357165675516, -84.39331378787756, "K-9 Unit 1", "Executing stadium bomb sweep", "k9", "engaged", "high", timeMs );
+		this.add( 3, 33.77432078632756, -84.39837779849768, "Deputy Jackson", "Theft reported at Student Center", "officer", "engaged", "medium", timeMs );
+		this.add( 4, 33.779124061744064, -84.4016127102077, "Technician Saylor", "At GTPD Station: On Call", "technician", "on_call", "low", timeMs );
+		for ( int id = 5; id <= count; id++ ) {
+			final double distance = SPREAD_METERS * Math.sqrt( this.random.nextDouble() );
+			final double bearing = this.random.nextDouble() * 2 * Math.PI;
+			final double lat = CENTER_LATITUDE + distance * Math.cos( bearing ) / UnitIndex.METERS_PER_DEGREE;
+			final double lon = CENTER_LONGITUDE + distance * Math.sin( bearing ) / ( UnitIndex.METERS_PER_DEGREE * Math.cos( Math.toRadians( CENTER_LATITUDE ) ) );
+			final String type = TYPES[this.random.nextInt( TYPES.length )];
+			this.add( id, lat, lon, "Unit " + id, "Simulated " + type, type, STATUSES[this.random.nextInt( STATUSES.length )], SEVERITIES[this.random.nextInt( SEVERITIES.length )], timeMs );
+		}
+	}
+
+	/**
+	 * moves every unit and occasionally turns it
+	 * @param moved receives slots of all moved units
+	 */
+	public void step( final long elapsedMs, final long timeMs, final UnitIndex.Hits moved ) {
+		moved.count = 0;
+		final double seconds = elapsedMs / 1000.0;
+		final double lonScale = UnitIndex.METERS_PER_DEGREE * Math.cos( Math.toRadians( CENTER_LATITUDE ) );
+		for ( int i = 0; i < this.count; i++ ) {
+			final int slot = this.slots[i];
+			if ( this.random.nextInt( 20 ) == 0 ) {
+				this.headings[i] += ( this.random.nextDouble() - 0.5 ) * Math.PI;
+			}
+			double lat = this.index.getLatitude( slot ), lon = this.index.getLongitude( slot );
+			final double distance = this.speeds[i] * seconds;
+			lat += distance * Math.cos( this.headings[i] ) / UnitIndex.METERS_PER_DEGREE;
+			lon += distance * Math.sin( this.headings[i] ) / lonScale;
+			if ( UnitIndex.distanceSquared( CENTER_LATITUDE, CENTER_LONGITUDE, lat, lon ) > SPREAD_METERS * SPREAD_METERS ) {
+				// turn back towards center
+				this.headings[i] += Math.PI;
+				continue;
+			}
+			this.index.put( this.index.getId( slot ), lat, lon, timeMs );
+			moved.add( slot );
+		}
+	}
+
+	private void add( final int id, final double lat, final double lon, final String name, final String description, final String type, final String status, final String severity, final long timeMs ) {
+		final int slot = this.index.put( id, lat, lon, timeMs );
+		this.index.setDetails( slot, name, description, type, status, severity );
+		final int i = this.count++;
+		this.slots[i] = slot;
+		this.headings[i] = this.random.nextDouble() * 2 * Math.PI;
+		this.speeds[i] = MIN_SPEED_MPS + this.random.nextDouble() * ( MAX_SPEED_MPS - MIN_SPEED_MPS );
+	}
+}